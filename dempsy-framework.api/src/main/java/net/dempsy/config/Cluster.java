@@ -37,12 +37,19 @@ import net.dempsy.messages.MessageProcessorLifecycle;
  */
 public class Cluster {
     public static final int DEFAULT_MAX_PENDING_MESSAGES_PER_CONTAINER = -1; // infinite (well, limited by the main queue)
+    public static final long DEFAULT_MAX_MESSAGE_AGE_MILLIS = -1; // messages never get too old
+    public static final int DEFAULT_BULKHEAD_THREADS = -1; // share the node's threading model
+    public static final int DEFAULT_BULKHEAD_MAX_PENDING = 100000;
 
     private ClusterId clusterId;
     private MessageProcessorLifecycle<?> mp = null;
     private Adaptor adaptor = null;
     private String routingStrategyId;
     private int maxPendingMessagesPerContainer = DEFAULT_MAX_PENDING_MESSAGES_PER_CONTAINER;
+    private long maxMessageAgeMillis = DEFAULT_MAX_MESSAGE_AGE_MILLIS;
+    private int bulkheadThreads = DEFAULT_BULKHEAD_THREADS;
+    private int bulkheadMaxPending = DEFAULT_BULKHEAD_MAX_PENDING;
+    private int bulkheadThreadPriority = Thread.NORM_PRIORITY;
     private String containerTypeId = null;
 
     private KeySource<?> keySource = null;
@@ -91,6 +98,37 @@ public class Cluster {
         return this;
     }
 
+    /**
+     * Messages destined for this cluster that have been waiting in the node's queues for
+     * longer than this will be discarded rather than delivered to the message processor.
+     * A negative value (the default) means there's no limit on how old a message can be.
+     */
+    public Cluster maxMessageAgeMillis(final long maxMessageAgeMillis) {
+        this.maxMessageAgeMillis = maxMessageAgeMillis;
+        return this;
+    }
+
+    /**
+     * Give this cluster its own pool of {@code threads} threads, with at most {@code maxPending} messages
+     * queued, rather than sharing the node's threading model. A slow or blocked message processor in
+     * this cluster will then only back up this cluster's queue and not the other clusters on the node.
+     * A non-positive number of threads (the default) means the cluster shares the node's threading model.
+     */
+    public Cluster bulkhead(final int threads, final int maxPending) {
+        this.bulkheadThreads = threads;
+        this.bulkheadMaxPending = maxPending;
+        return this;
+    }
+
+    /**
+     * The priority of the threads in this cluster's bulkhead. This is ignored if the cluster doesn't
+     * have a {@link #bulkhead(int, int)}.
+     */
+    public Cluster bulkheadThreadPriority(final int bulkheadThreadPriority) {
+        this.bulkheadThreadPriority = bulkheadThreadPriority;
+        return this;
+    }
+
     public Cluster adaptor(final Adaptor adaptor) throws IllegalStateException {
         if(this.adaptor != null)
             throw new IllegalStateException("Adaptor already set on cluster " + clusterId);
@@ -159,6 +197,42 @@ public class Cluster {
         maxPendingMessagesPerContainer(maxPendingMessagesPerContainer);
     }
 
+    public long getMaxMessageAgeMillis() {
+        return maxMessageAgeMillis;
+    }
+
+    public void setMaxMessageAgeMillis(final long maxMessageAgeMillis) {
+        maxMessageAgeMillis(maxMessageAgeMillis);
+    }
+
+    public boolean hasBulkhead() {
+        return bulkheadThreads > 0;
+    }
+
+    public int getBulkheadThreads() {
+        return bulkheadThreads;
+    }
+
+    public void setBulkheadThreads(final int bulkheadThreads) {
+        bulkhead(bulkheadThreads, bulkheadMaxPending);
+    }
+
+    public int getBulkheadMaxPending() {
+        return bulkheadMaxPending;
+    }
+
+    public void setBulkheadMaxPending(final int bulkheadMaxPending) {
+        bulkhead(bulkheadThreads, bulkheadMaxPending);
+    }
+
+    public int getBulkheadThreadPriority() {
+        return bulkheadThreadPriority;
+    }
+
+    public void setBulkheadThreadPriority(final int bulkheadThreadPriority) {
+        bulkheadThreadPriority(bulkheadThreadPriority);
+    }
+
     private Cluster containerTypeId(final String containerTypeId) {
         this.containerTypeId = containerTypeId;
         return this;
@@ -245,6 +319,13 @@ public class Cluster {
         if(adaptor != null && keySource != null)
             throw new IllegalStateException("A dempsy cluster can not pre-instantation an adaptor.");
 
+        if(adaptor != null && hasBulkhead())
+            throw new IllegalStateException("The cluster " + clusterId + " is an adaptor and so can't have a bulkhead.");
+
+        if(bulkheadThreadPriority < Thread.MIN_PRIORITY || bulkheadThreadPriority > Thread.MAX_PRIORITY)
+            throw new IllegalStateException("The bulkhead thread priority for " + clusterId + " is " + bulkheadThreadPriority + " but must be between "
+                + Thread.MIN_PRIORITY + " and " + Thread.MAX_PRIORITY);
+
         if(routingStrategyId == null && adaptor == null) // null routingStrategyId is fine if we're an adaptor
             throw new IllegalStateException("No routing strategy set for " + clusterId + ". This should be set on the "
                 + Cluster.class.getSimpleName() + " or on the " + Node.class.getSimpleName());
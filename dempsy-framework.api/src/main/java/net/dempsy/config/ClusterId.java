@@ -16,6 +16,8 @@
 
 package net.dempsy.config;
 
+import java.io.Serializable;
+
 /**
  * <p>
  * {@link ClusterId}s are a unique Id of a message processor {@link Cluster} within a Dempsy application.
@@ -28,7 +30,9 @@ package net.dempsy.config;
  * 
  * @see Cluster
  */
-public class ClusterId {
+public class ClusterId implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     public final String applicationName;
     public final String clusterName;
 
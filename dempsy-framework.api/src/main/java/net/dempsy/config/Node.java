@@ -43,6 +43,11 @@ public class Node {
     private static final Logger LOGGER = LoggerFactory.getLogger(Node.class);
     private static final String DEFAULT_APP = "default";
 
+    /**
+     * Unless it's set otherwise, every {@link Node} has the same capacity.
+     */
+    public static final double DEFAULT_CAPACITY_WEIGHT = 1.0D;
+
     public final String application;
     private final List<Cluster> clusters = new ArrayList<>();
     private String clusterStatsCollectorFactoryId = "net.dempsy.monitoring.dummy";
@@ -52,6 +57,7 @@ public class Node {
     private boolean configed = false;
     private String containerTypeId = "net.dempsy.container.altnonlocking";
     private final Map<String, String> configuration = new HashMap<>();
+    private double capacityWeight = DEFAULT_CAPACITY_WEIGHT;
 
     public Node(final String applicationName) {
         if(applicationName == null)
@@ -115,6 +121,16 @@ public class Node {
             return this;
         }
 
+        public Builder capacityWeight(final double capacityWeight) {
+            node.capacityWeight(capacityWeight);
+            return this;
+        }
+
+        public Builder capacityWeightFromProcessors() {
+            node.capacityWeightFromProcessors();
+            return this;
+        }
+
         public Builder mp(final MessageProcessorLifecycle<?> messageProcessor) throws IllegalStateException {
             check("mp");
             curCluster.mp(messageProcessor);
@@ -145,6 +161,24 @@ public class Node {
             return this;
         }
 
+        public Builder maxMessageAgeMillis(final long maxMessageAgeMillis) {
+            check("maxMessageAgeMillis");
+            curCluster.maxMessageAgeMillis(maxMessageAgeMillis);
+            return this;
+        }
+
+        public Builder bulkhead(final int threads, final int maxPending) {
+            check("bulkhead");
+            curCluster.bulkhead(threads, maxPending);
+            return this;
+        }
+
+        public Builder bulkheadThreadPriority(final int bulkheadThreadPriority) {
+            check("bulkheadThreadPriority");
+            curCluster.bulkheadThreadPriority(bulkheadThreadPriority);
+            return this;
+        }
+
         public Builder outputScheduler(final Object outputExecutor) {
             check("outputScheduler");
             curCluster.outputScheduler(outputExecutor);
@@ -213,6 +247,25 @@ public class Node {
         return this;
     }
 
+    /**
+     * How much work this {@link Node} can take on relative to the other nodes in the application. Routing strategies
+     * that divide up the key space (like the managed router) give each node a share in proportion to its weight.
+     */
+    public Node capacityWeight(final double capacityWeight) {
+        if(!(capacityWeight > 0.0D) || Double.isInfinite(capacityWeight))
+            throw new IllegalArgumentException("The capacity weight of a " + Node.class.getSimpleName() + " must be a positive number. It was "
+                + capacityWeight);
+        this.capacityWeight = capacityWeight;
+        return this;
+    }
+
+    /**
+     * Set the {@link #capacityWeight(double)} to the number of processors available to this process.
+     */
+    public Node capacityWeightFromProcessors() {
+        return capacityWeight(Runtime.getRuntime().availableProcessors());
+    }
+
     // =======================================================================
 
     // These are 'set' in order to be autowired by spring
@@ -324,6 +377,14 @@ public class Node {
         return containerTypeId;
     }
 
+    public void setCapacityWeight(final double capacityWeight) {
+        capacityWeight(capacityWeight);
+    }
+
+    public double getCapacityWeight() {
+        return capacityWeight;
+    }
+
     public void setConfiguration(final Map<String, String> conf) {
         configuration.clear();
         configuration.putAll(conf);
@@ -0,0 +1,216 @@
+package net.dempsy.container;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.dempsy.threading.ThreadingModel;
+
+/**
+ * <p>
+ * Wraps a {@link MessageDeliveryJob} submitted to the node's {@link ThreadingModel} so that the parts of
+ * the job destined for containers with their own bulkhead ({@link Container#getThreadingModel()}) are
+ * handed off to that container's {@link ThreadingModel} rather than executed on the node's. The rest of
+ * the job, including deserialization ({@link #calculateContainers()}), still happens on the node's
+ * {@link ThreadingModel}.
+ * </p>
+ *
+ * <p>
+ * If the message turns out not to be destined for any bulkheaded container then this simply passes
+ * everything through to the wrapped job.
+ * </p>
+ */
+public class BulkheadDeliveryJob implements MessageDeliveryJob {
+    private final MessageDeliveryJob job;
+
+    // set once the job has been split across bulkheads. Once that happens the last part
+    // to finish is responsible for calling individuatedJobsComplete on the wrapped job.
+    private volatile boolean split = false;
+    private final AtomicInteger unfinishedParts = new AtomicInteger(0);
+
+    public BulkheadDeliveryJob(final MessageDeliveryJob job) {
+        this.job = job;
+    }
+
+    /**
+     * Do any of the containers have their own bulkhead?
+     */
+    public static boolean anyBulkheads(final Container[] containers) {
+        if(containers != null) {
+            for(final Container c: containers) {
+                if(c != null && c.getThreadingModel() != null)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean dequeued() {
+        return job.dequeued();
+    }
+
+    @Override
+    public boolean containersCalculated() {
+        return job.containersCalculated();
+    }
+
+    @Override
+    public void calculateContainers() {
+        job.calculateContainers();
+    }
+
+    @Override
+    public Container[] containerData() {
+        return job.containerData();
+    }
+
+    @Override
+    public void rejected(final boolean stopping) {
+        job.rejected(stopping);
+    }
+
+    @Override
+    public void executeAllContainers() {
+        final Container[] containers = job.containerData();
+        if(!anyBulkheads(containers)) {
+            job.executeAllContainers();
+            return;
+        }
+
+        // parts for bulkheaded containers are handed off while the rest are executed right here.
+        final List<ContainerJob> parts = individuate();
+        for(int i = 0; i < containers.length; i++)
+            parts.get(i).execute(containers[i]);
+    }
+
+    @Override
+    public List<ContainerJob> individuate() {
+        final Container[] containers = job.containerData();
+        final List<ContainerJob> cjs = job.individuate();
+        if(!anyBulkheads(containers))
+            return cjs;
+
+        split = true;
+        unfinishedParts.set(cjs.size());
+        final List<ContainerJob> ret = new ArrayList<>(cjs.size());
+        for(int i = 0; i < containers.length; i++) {
+            final ThreadingModel bulkhead = containers[i].getThreadingModel();
+            ret.add(bulkhead == null ? new Part(cjs.get(i)) : new HandOff(cjs.get(i), bulkhead));
+        }
+        return ret;
+    }
+
+    @Override
+    public void individuatedJobsComplete() {
+        // if we split the job up then the last Part to finish calls this on the wrapped job.
+        if(!split)
+            job.individuatedJobsComplete();
+    }
+
+    private void partFinished() {
+        if(unfinishedParts.decrementAndGet() == 0)
+            job.individuatedJobsComplete();
+    }
+
+    /**
+     * The part of the job destined for a single container. Executing or rejecting it counts as that part being finished.
+     */
+    private class Part extends ContainerJob {
+        private final ContainerJob cj;
+
+        private Part(final ContainerJob cj) {
+            super(cj.individuatedCs);
+            this.cj = cj;
+        }
+
+        @Override
+        public void execute(final Container container) {
+            try {
+                cj.execute(container);
+            } finally {
+                partFinished();
+            }
+        }
+
+        @Override
+        public void reject(final Container container) {
+            try {
+                cj.reject(container);
+            } finally {
+                partFinished();
+            }
+        }
+    }
+
+    /**
+     * The part of the job destined for a bulkheaded container. Executing it submits it to the container's {@link ThreadingModel}.
+     */
+    private class HandOff extends ContainerJob {
+        private final Part part;
+        private final ThreadingModel bulkhead;
+
+        private HandOff(final ContainerJob cj, final ThreadingModel bulkhead) {
+            super(cj.individuatedCs);
+            this.part = new Part(cj);
+            this.bulkhead = bulkhead;
+        }
+
+        @Override
+        public void execute(final Container container) {
+            bulkhead.submitLimited(new BulkheadJob(container, part));
+        }
+
+        @Override
+        public void reject(final Container container) {
+            part.reject(container);
+        }
+    }
+
+    /**
+     * What's actually submitted to the bulkhead's {@link ThreadingModel}. The containers are already calculated
+     * so the bulkhead never deserializes anything.
+     */
+    private static class BulkheadJob implements MessageDeliveryJob {
+        private final Container container;
+        private final Part part;
+
+        private BulkheadJob(final Container container, final Part part) {
+            this.container = container;
+            this.part = part;
+        }
+
+        @Override
+        public boolean containersCalculated() {
+            return true;
+        }
+
+        @Override
+        public void calculateContainers() {}
+
+        @Override
+        public Container[] containerData() {
+            return new Container[] {container};
+        }
+
+        @Override
+        public void rejected(final boolean stopping) {
+            part.reject(container);
+        }
+
+        @Override
+        public void executeAllContainers() {
+            part.execute(container);
+        }
+
+        @Override
+        public List<ContainerJob> individuate() {
+            return List.of(part);
+        }
+
+        @Override
+        public void individuatedJobsComplete() {
+            // the part itself keeps track of when it's finished.
+        }
+    }
+}
@@ -58,6 +58,7 @@ import net.dempsy.monitoring.StatsCollector;
 import net.dempsy.output.OutputInvoker;
 import net.dempsy.router.RoutingStrategy.Inbound;
 import net.dempsy.threading.QuartzHelper;
+import net.dempsy.threading.ThreadingModel;
 import net.dempsy.util.OccasionalRunnable;
 import net.dempsy.util.QuietCloseable;
 import net.dempsy.util.SafeString;
@@ -104,6 +105,10 @@ public abstract class Container implements Service, KeyspaceChangeListener, Outp
 
     protected AtomicInteger numPending = new AtomicInteger(0);
     protected int maxPendingMessagesPerContainer = Cluster.DEFAULT_MAX_PENDING_MESSAGES_PER_CONTAINER;
+    protected long maxMessageAgeNanos = toNanos(Cluster.DEFAULT_MAX_MESSAGE_AGE_MILLIS);
+
+    // null unless this container has its own bulkhead.
+    private ThreadingModel threadingModel = null;
 
     protected long logQueueMessageCount = DEFAULT_LOG_QUEUE_LEN_MESSAGE_COUNT;
     protected Runnable occLogger = () -> {};
@@ -145,6 +150,44 @@ public abstract class Container implements Service, KeyspaceChangeListener, Outp
         return maxPendingMessagesPerContainer;
     }
 
+    /**
+     * Messages that have been queued for longer than this will be discarded rather than dispatched
+     * to the message processor. A negative value means messages never get too old.
+     */
+    public Container setMaxMessageAgeMillis(final long maxMessageAgeMillis) {
+        this.maxMessageAgeNanos = toNanos(maxMessageAgeMillis);
+        return this;
+    }
+
+    public long getMaxMessageAgeMillis() {
+        return maxMessageAgeNanos < 0 ? maxMessageAgeNanos : TimeUnit.NANOSECONDS.toMillis(maxMessageAgeNanos);
+    }
+
+    /**
+     * Give this container its own {@link ThreadingModel} (a bulkhead) rather than having it share
+     * the node's. Messages for this container, as well as its output and eviction work, will be
+     * executed using this {@link ThreadingModel}. The container does NOT manage its lifecycle.
+     */
+    public Container setThreadingModel(final ThreadingModel threadingModel) {
+        this.threadingModel = threadingModel;
+        return this;
+    }
+
+    /**
+     * @return the container's bulkhead {@link ThreadingModel} or null if the container shares the node's.
+     */
+    public ThreadingModel getThreadingModel() {
+        return threadingModel;
+    }
+
+    /**
+     * The {@link ThreadingModel} the container should submit its own work to. This is the bulkhead if
+     * there is one, otherwise it's the node's.
+     */
+    protected ThreadingModel effectiveThreadingModel(final Infrastructure infra) {
+        return threadingModel == null ? infra.getThreadingModel() : threadingModel;
+    }
+
     public Container setInbound(final Inbound inbound) {
         this.inbound = inbound;
         return this;
@@ -237,6 +280,10 @@ public abstract class Container implements Service, KeyspaceChangeListener, Outp
         isRunning.set(true);
 
         statCollector = infra.getClusterStatsCollector(clusterId);
+        if(threadingModel != null) {
+            final ThreadingModel bulkhead = threadingModel;
+            statCollector.setBulkheadPendingGauge(() -> bulkhead.getNumberLimitedPending());
+        }
 
         validate();
 
@@ -340,6 +387,41 @@ public abstract class Container implements Service, KeyspaceChangeListener, Outp
     // return new ContainerSpecificInternal();
     // }
 
+    /**
+     * Returns true if a message stamped with the given enqueue time (from {@link System#nanoTime()})
+     * has outlived the max message age for this container's cluster.
+     */
+    public boolean isMessageStale(final long enqueueTimeNanos, final long nowNanos) {
+        return maxMessageAgeNanos >= 0 && (nowNanos - enqueueTimeNanos) > maxMessageAgeNanos;
+    }
+
+    /**
+     * This is called by the delivery jobs in place of dispatch when {@link #isMessageStale(long, long)}
+     * is true for a message that was never individuated. It accounts for the message as discarded.
+     */
+    public void messageStale(final KeyedMessage message, final boolean justArrived) {
+        if(justArrived)
+            disposition.dispose(message.message);
+        statCollector.messageDiscarded(message);
+    }
+
+    /**
+     * Given all of the containers a message could be delivered to, this returns the largest
+     * max message age (in nanoseconds) among them. If any of them don't limit the age of
+     * messages then -1 is returned.
+     */
+    public static long maxMessageAgeNanos(final Container[] containers) {
+        long ret = -1;
+        for(final Container c: containers) {
+            if(c != null) {
+                if(c.maxMessageAgeNanos < 0)
+                    return -1;
+                ret = Math.max(ret, c.maxMessageAgeNanos);
+            }
+        }
+        return ret;
+    }
+
     public void dispatch(final KeyedMessage message, final Operation op, final ContainerSpecific cs, final boolean justArrived)
         throws IllegalArgumentException, ContainerException {
 
@@ -403,6 +485,10 @@ public abstract class Container implements Service, KeyspaceChangeListener, Outp
 
     public abstract boolean containerIsThreadSafe();
 
+    private static long toNanos(final long millis) {
+        return millis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
     public void setEvictionCycle(final long evictionCycleTime, final TimeUnit timeUnit) {
         this.evictionCycleTime = evictionCycleTime;
         this.evictionTimeUnit = timeUnit;
@@ -34,7 +34,10 @@ public class DefaultDeliverMessageJob extends DeliverMessageJob {
 
         @Override
         public void execute(final Container container) {
-            dispatch(container, new KeyedMessage(message.key, message.message), Operation.handle, justArrived);
+            if(container.isMessageStale(enqueueTimeNanos, System.nanoTime()))
+                reject(container);
+            else
+                dispatch(container, new KeyedMessage(message.key, message.message), Operation.handle, justArrived);
         }
 
         @Override
@@ -10,12 +10,20 @@ import net.dempsy.container.Container.Operation;
 import net.dempsy.messages.KeyedMessage;
 import net.dempsy.monitoring.NodeStatsCollector;
 import net.dempsy.transport.RoutedMessage;
-
+import net.dempsy.util.QuietCloseable;
+
+/**
+ * Delivers a message that hasn't been deserialized yet. If the supplier of the message holds onto
+ * resources until it's called (for example, the buffer the message was read into) it should also
+ * be a {@link QuietCloseable} so they can be given back when the job is rejected before the message
+ * is ever deserialized.
+ */
 public class DeliverDelayedMessageJob implements MessageDeliveryJob {
     private final Supplier<RoutedMessage> messageSupplier;
     protected final boolean justArrived;
     protected final NodeStatsCollector statsCollector;
     final Container[] allContainers;
+    private final long enqueueTimeNanos;
 
     private RoutedMessage message = null;
     private Container[] deliveries = null;
@@ -23,24 +31,42 @@ public class DeliverDelayedMessageJob implements MessageDeliveryJob {
 
     public DeliverDelayedMessageJob(final Container[] containers, final NodeStatsCollector statsCollector, final Supplier<RoutedMessage> messageSupplier,
         final boolean justArrived) {
+        this.enqueueTimeNanos = System.nanoTime();
         this.messageSupplier = messageSupplier;
         this.justArrived = justArrived;
         this.statsCollector = statsCollector;
         this.allContainers = containers;
     }
 
+    @Override
+    public boolean dequeued() {
+        final long waited = System.nanoTime() - enqueueTimeNanos;
+        statsCollector.messageDequeued(waited);
+        // we don't know which containers the message is going to until it's deserialized
+        // so we can only drop it here if it's too old for all of them.
+        final long maxAge = Container.maxMessageAgeNanos(allContainers);
+        return maxAge < 0 || waited <= maxAge;
+    }
+
     @Override
     public void executeAllContainers() {
         final KeyedMessage km = new KeyedMessage(message.key, message.message);
+        final long now = System.nanoTime();
         Arrays.stream(message.containers)
-            .forEach(i ->
-
-            allContainers[i].dispatch(km, Operation.handle, justArrived));
+            .mapToObj(i -> allContainers[i])
+            .forEach(c -> {
+                if(c.isMessageStale(enqueueTimeNanos, now))
+                    c.messageStale(km, justArrived);
+                else
+                    c.dispatch(km, Operation.handle, justArrived);
+            });
     }
 
     @Override
     public void rejected(final boolean stopping) {
         statsCollector.messageDiscarded(messageSupplier);
+        if(!containersCalculated() && messageSupplier instanceof QuietCloseable)
+            ((QuietCloseable)messageSupplier).close();
     }
 
     @Override
@@ -74,7 +100,10 @@ public class DeliverDelayedMessageJob implements MessageDeliveryJob {
 
         @Override
         public void execute(final Container container) {
-            dispatch(container, new KeyedMessage(message.key, message.message), Operation.handle, justArrived);
+            if(container.isMessageStale(enqueueTimeNanos, System.nanoTime()))
+                reject(container);
+            else
+                dispatch(container, new KeyedMessage(message.key, message.message), Operation.handle, justArrived);
         }
 
         @Override
@@ -11,12 +11,14 @@ public abstract class DeliverMessageJob implements MessageDeliveryJob {
     protected final boolean justArrived;
     protected final NodeStatsCollector statsCollector;
     protected final RoutedMessage message;
+    protected final long enqueueTimeNanos;
 
     private final Container[] deliveries;
     protected Container[] allContainers;
 
     protected DeliverMessageJob(final Container[] allContainers, final NodeStatsCollector statsCollector, final RoutedMessage message,
         final boolean justArrived) {
+        this.enqueueTimeNanos = System.nanoTime();
         this.message = message;
         this.justArrived = justArrived;
         this.statsCollector = statsCollector;
@@ -25,6 +27,14 @@ public abstract class DeliverMessageJob implements MessageDeliveryJob {
             .toArray(Container[]::new);
     }
 
+    @Override
+    public boolean dequeued() {
+        final long waited = System.nanoTime() - enqueueTimeNanos;
+        statsCollector.messageDequeued(waited);
+        final long maxAge = Container.maxMessageAgeNanos(deliveries);
+        return maxAge < 0 || waited <= maxAge;
+    }
+
     @Override
     public boolean containersCalculated() {
         return true;
@@ -46,8 +56,14 @@ public abstract class DeliverMessageJob implements MessageDeliveryJob {
 
     protected void executeMessageOnContainers(final RoutedMessage message, final boolean justArrived) {
         final KeyedMessage km = new KeyedMessage(message.key, message.message);
+        final long now = System.nanoTime();
 
         Arrays.stream(deliveries)
-            .forEach(c -> c.dispatch(km, Operation.handle, justArrived));
+            .forEach(c -> {
+                if(c.isMessageStale(enqueueTimeNanos, now))
+                    c.messageStale(km, justArrived);
+                else
+                    c.dispatch(km, Operation.handle, justArrived);
+            });
     }
 }
@@ -40,6 +40,11 @@ public class DeliverResourceJob extends DeliverMessageJob {
 
         @Override
         public void execute(final Container container) {
+            if(container.isMessageStale(enqueueTimeNanos, System.nanoTime())) {
+                reject(container);
+                return;
+            }
+
             try {
                 dispatch(container, new KeyedMessage(message.key, message.message), Operation.handle, justArrived);
             } finally {
@@ -13,6 +13,8 @@ import java.util.List;
  * </p>
  *
  * <ul>
+ * <li>{@link #dequeued} - the threading model will call this as the job comes off of its queue.
+ * If it returns false the job is too old to be delivered and will be {@link #rejected}.</li>
  * <li>{@link #containersCalculated} - the threading model will call this to determine if it
  * has to call {@link #calculateContainers}.</li>
  * <li>{@link calculateContainers} - the threading model will call this method giving the
@@ -34,6 +36,8 @@ import java.util.List;
  * </p>
  *
  * <ul>
+ * <li>{@link #dequeued} - the threading model will call this as the job comes off of its queue.
+ * If it returns false the job is too old to be delivered and will be {@link #rejected}.</li>
  * <li>{@link #containersCalculated} - the threading model will call this to determine if it
  * has to call {@link #calculateContainers}.</li>
  * <li>{@link calculateContainers} - the threading model will call this method giving the
@@ -52,6 +56,18 @@ import java.util.List;
  */
 public interface MessageDeliveryJob {
 
+    /**
+     * The threading model will call this when the job is taken off of its queue and before
+     * anything else is done with it (in particular, before {@link #calculateContainers()} so
+     * no deserialization has happened yet). The job can record how long it's been waiting.
+     * If the job has outlived the max message age of every container it could be delivered
+     * to then this should return {@code false} and the threading model will call
+     * {@link #rejected(boolean)} rather than process it.
+     */
+    public default boolean dequeued() {
+        return true;
+    }
+
     /**
      * The threading model will call this to determine if it needs to call
      * {@link #calculateContainers()}
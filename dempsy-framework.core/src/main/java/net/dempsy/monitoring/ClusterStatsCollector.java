@@ -17,6 +17,7 @@
 package net.dempsy.monitoring;
 
 import java.awt.Container;
+import java.util.function.LongSupplier;
 
 public interface ClusterStatsCollector extends StatsCollector {
 
@@ -93,6 +94,12 @@ public interface ClusterStatsCollector extends StatsCollector {
      */
     void messageProcessorDeleted(Object key);
 
+    /**
+     * If the cluster has its own bulkhead threading model, the container supplies a Gauge
+     * that provides the number of messages pending in it on demand.
+     */
+    public default void setBulkheadPendingGauge(final LongSupplier bulkheadPendingGauge) {}
+
     /**
      * Some stats collectors need to be stopped.
      */
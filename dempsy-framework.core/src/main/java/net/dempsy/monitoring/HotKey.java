@@ -0,0 +1,36 @@
+package net.dempsy.monitoring;
+
+/**
+ * One of the most frequent message keys sent to a cluster as estimated by a heavy hitters sketch. See
+ * {@link NodeStatsCollector#setHotKeysGauge(String, java.util.function.Supplier)}.
+ */
+public class HotKey {
+    public final Object key;
+
+    /**
+     * The estimated number of (sampled and decayed) messages with this key. It can be over by at most {@link #error}.
+     */
+    public final long count;
+
+    /**
+     * How much the {@link #count} can be over.
+     */
+    public final long error;
+
+    /**
+     * The estimated fraction of all of the messages sent to the cluster that had this key.
+     */
+    public final double share;
+
+    public HotKey(final Object key, final long count, final long error, final double share) {
+        this.key = key;
+        this.count = count;
+        this.error = error;
+        this.share = share;
+    }
+
+    @Override
+    public String toString() {
+        return "HotKey[key=" + key + ", count=" + count + ", error=" + error + ", share=" + share + "]";
+    }
+}
@@ -16,7 +16,9 @@
 
 package net.dempsy.monitoring;
 
+import java.util.List;
 import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 
 public interface NodeStatsCollector extends StatsCollector {
 
@@ -30,11 +32,38 @@ public interface NodeStatsCollector extends StatsCollector {
      */
     void messageReceived(Object message);
 
+    /**
+     * Called instead of {@link #messageReceived(Object)} when a batch of messages is received at once.
+     */
+    default void messagesReceived(final int count) {
+        for(int i = 0; i < count; i++)
+            messageReceived(null);
+    }
+
     /**
      * The dispatcher calls this method in its <code>onMessage</code> handler when it discards a message.
      */
     void messageDiscarded(Object message);
 
+    /**
+     * The threading model calls this (through the job) when a message is taken off of its queue
+     * with the amount of time, in nanoseconds, that the message waited on the queue.
+     */
+    void messageDequeued(long queueWaitNanos);
+
+    /**
+     * A transport that timestamps the messages it sends calls this when it reads one with how long, in nanoseconds,
+     * it took to get from the sender to here. The sender is identified by the peer. Since the time it was sent
+     * comes from the sender's clock this is only as good as the synchronization of the two clocks.
+     */
+    default void messageTransitTime(final String peer, final long transitNanos) {}
+
+    /**
+     * A transport that queues outgoing messages can call this once a message has been written with how long, in
+     * nanoseconds, it waited between being sent and being written.
+     */
+    default void messageSendQueueTime(final long queueNanos) {}
+
     /**
      * Dispatcher calls this method when emitting a message
      */
@@ -45,11 +74,26 @@ public interface NodeStatsCollector extends StatsCollector {
      */
     void messageNotSent();
 
+    /**
+     * The dispatcher calls this once for each cluster it sends messages to with a supplier of the keys that make up the
+     * largest share of those messages, most frequent first. A single hot key can keep one container thread busy while
+     * the rest of the node is idle.
+     */
+    default void setHotKeysGauge(final String clusterName, final Supplier<List<HotKey>> hotKeys) {}
+
     /**
      * If the transport supports the queuing of incoming messages, then it can optionally supply a Gauge instance that provides this metric on demand.
      */
     void setMessagesPendingGauge(LongSupplier currentMessagesPendingGauge);
 
+    /**
+     * The current value of the gauge given to {@link #setMessagesPendingGauge(LongSupplier)}. Routing strategies
+     * that balance by load publish this. If the stats collector doesn't keep the gauge this is 0.
+     */
+    default long getMessagesPending() {
+        return 0L;
+    }
+
     /**
      * If the transport supports the queuing of outgoing messages, then it can optionally supply a Gauge instance that provides this metric on demand.
      */
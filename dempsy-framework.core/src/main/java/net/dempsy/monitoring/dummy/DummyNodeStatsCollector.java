@@ -8,6 +8,7 @@ import net.dempsy.monitoring.NodeStatsCollector;
  * Stubbed out Stats Collector implementations that do record no stats. Primarily for testing
  */
 public class DummyNodeStatsCollector implements NodeStatsCollector {
+    private volatile LongSupplier currentMessagesPendingGauge = null;
 
     @Override
     public void setNodeId(final String nid) {}
@@ -15,6 +16,9 @@ public class DummyNodeStatsCollector implements NodeStatsCollector {
     @Override
     public void messageReceived(final Object message) {}
 
+    @Override
+    public void messagesReceived(final int count) {}
+
     @Override
     public void messageSent(final Object message) {}
 
@@ -25,7 +29,19 @@ public class DummyNodeStatsCollector implements NodeStatsCollector {
     public void messageDiscarded(final Object message) {}
 
     @Override
-    public void setMessagesPendingGauge(final LongSupplier currentMessagesPendingGauge) {}
+    public void messageDequeued(final long queueWaitNanos) {}
+
+    // kept since routing strategies can balance using it.
+    @Override
+    public void setMessagesPendingGauge(final LongSupplier currentMessagesPendingGauge) {
+        this.currentMessagesPendingGauge = currentMessagesPendingGauge;
+    }
+
+    @Override
+    public long getMessagesPending() {
+        final LongSupplier gauge = currentMessagesPendingGauge;
+        return gauge == null ? 0L : gauge.getAsLong();
+    }
 
     @Override
     public void setMessagesOutPendingGauge(final LongSupplier currentMessagesOutPendingGauge) {}
@@ -19,6 +19,7 @@ package net.dempsy.router;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 
 import net.dempsy.KeyspaceChangeListener;
 import net.dempsy.Service;
@@ -131,12 +132,53 @@ public interface RoutingStrategy {
          */
         public ContainerAddress selectDestinationForMessage(KeyedMessageWithType message);
 
+        /**
+         * Most Routers send each message to exactly one node. A Router that sends each message
+         * to more than one node of the cluster should return true here and then the dispatcher
+         * will use {@link #selectDestinationsForMessage(KeyedMessageWithType)} instead of
+         * {@link #selectDestinationForMessage(KeyedMessageWithType)}. This is checked for
+         * every message so it should be cheap.
+         */
+        public default boolean selectsMultipleDestinations() {
+            return false;
+        }
+
+        /**
+         * Determine all of the destinations for this given message. There should be at most one
+         * {@link ContainerAddress} per node. By default this is the single destination from
+         * {@link #selectDestinationForMessage(KeyedMessageWithType)}.
+         */
+        public default Collection<ContainerAddress> selectDestinationsForMessage(final KeyedMessageWithType message) {
+            final ContainerAddress ca = selectDestinationForMessage(message);
+            return ca == null ? Collections.emptyList() : Collections.singletonList(ca);
+        }
+
         /**
          * What are the complete set of visible destinations for the cluster who's
          * {@link ClusterId} was used to retrieve this Router.
          */
         public Collection<ContainerAddress> allDesintations();
 
+        /**
+         * A copy of what this Router is currently routing with that can be saved and
+         * given to {@link #seed(Serializable)} on a Router for the same cluster when the
+         * node restarts. This should return null if the Router doesn't have a complete
+         * picture of the cluster yet. By default Routers don't support this.
+         */
+        public default Serializable snapshot() {
+            return null;
+        }
+
+        /**
+         * Route using a {@link #snapshot()} taken by a previous Router for the same cluster
+         * until this one has a complete picture from the cluster itself. Once it has, that
+         * replaces the snapshot. A snapshot that arrives after that is ignored. Returns
+         * whether or not the snapshot is being used.
+         */
+        public default boolean seed(final Serializable snapshot) {
+            return false;
+        }
+
         /**
          * This will call release on the {@link Factory} that created it.
          */
@@ -157,6 +199,14 @@ public interface RoutingStrategy {
          */
         public boolean doesMessageKeyBelongToNode(Object messageKey);
 
+        /**
+         * Called by the container each time it accepts a message for delivery to the message processor
+         * for the given key, after {@link #doesMessageKeyBelongToNode(Object)} has said the key belongs
+         * here. Unlike that method, which is also used to decide what to evict when the keyspace changes,
+         * this is only called for messages actually being delivered. By default this method does nothing.
+         */
+        public default void messageAccepted(final Object messageKey) {}
+
         /**
          * Provide the routing strategy id for the {@link RoutingStrategyManager} to look
          * up the {@link Router} from clients of this container.
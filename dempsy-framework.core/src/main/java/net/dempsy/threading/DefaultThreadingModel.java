@@ -1,11 +1,15 @@
 package net.dempsy.threading;
 
 import static net.dempsy.config.ConfigLogger.logConfig;
+import static net.dempsy.util.Functional.chain;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Supplier;
 
 import org.slf4j.Logger;
@@ -44,6 +48,12 @@ public class DefaultThreadingModel implements ThreadingModel {
     public static final String CONFIG_KEY_BLOCKING = "blocking";
     public static final String DEFAULT_BLOCKING = "false";
 
+    public static final String CONFIG_KEY_BLOCKING_TIMEOUT_MILLIS = "blocking_timeout_millis";
+    public static final String DEFAULT_BLOCKING_TIMEOUT_MILLIS = "-1";
+
+    public static final String CONFIG_KEY_THREAD_PRIORITY = "thread_priority";
+    public static final String DEFAULT_THREAD_PRIORITY = "" + Thread.NORM_PRIORITY;
+
     private SimpleExecutor executor = null;
     // private LinkedBlockingDeque<Runnable> priorityQueue = null;
 
@@ -58,6 +68,8 @@ public class DefaultThreadingModel implements ThreadingModel {
     private boolean hardShutdown = Boolean.parseBoolean(DEFAULT_HARD_SHUTDOWN);
 
     private boolean blocking = Boolean.parseBoolean(DEFAULT_BLOCKING);
+    private long blockingTimeoutMillis = Long.parseLong(DEFAULT_BLOCKING_TIMEOUT_MILLIS);
+    private int threadPriority = Integer.parseInt(DEFAULT_THREAD_PRIORITY);
     private SubmitLimited submitter = null;
 
     private final AtomicLong threadNum = new AtomicLong(0L);
@@ -138,6 +150,23 @@ public class DefaultThreadingModel implements ThreadingModel {
         return this;
     }
 
+    /**
+     * When {@link #setBlocking(boolean)} is set, this is the longest a submitLimited call will
+     * wait for room in the queue before rejecting the message. Negative means wait indefinitely.
+     */
+    public DefaultThreadingModel setBlockingTimeoutMillis(final long blockingTimeoutMillis) {
+        this.blockingTimeoutMillis = blockingTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * The priority given to the threads in the pool.
+     */
+    public DefaultThreadingModel setThreadPriority(final int threadPriority) {
+        this.threadPriority = threadPriority;
+        return this;
+    }
+
     @Override
     public synchronized DefaultThreadingModel start(final String nodeid) {
         logConfig(LOGGER, "Threading Model {} for node: {}", DefaultThreadingModel.class.getName(), nodeid);
@@ -146,6 +175,8 @@ public class DefaultThreadingModel implements ThreadingModel {
         logConfig(LOGGER, configKey(CONFIG_KEY_MAX_PENDING), getMaxNumberOfQueuedLimitedTasks(), DEFAULT_MAX_PENDING);
         logConfig(LOGGER, configKey(CONFIG_KEY_HARD_SHUTDOWN), hardShutdown, DEFAULT_HARD_SHUTDOWN);
         logConfig(LOGGER, configKey(CONFIG_KEY_BLOCKING), blocking, DEFAULT_BLOCKING);
+        logConfig(LOGGER, configKey(CONFIG_KEY_BLOCKING_TIMEOUT_MILLIS), blockingTimeoutMillis, DEFAULT_BLOCKING_TIMEOUT_MILLIS);
+        logConfig(LOGGER, configKey(CONFIG_KEY_THREAD_PRIORITY), threadPriority, DEFAULT_THREAD_PRIORITY);
 
         if(threadPoolSize == -1) {
             // figure out the number of cores.
@@ -155,11 +186,11 @@ public class DefaultThreadingModel implements ThreadingModel {
             threadPoolSize = Math.max(cpuBasedThreadCount, minNumThreads);
         }
 
-        executor = new SimpleExecutor(threadPoolSize, r -> new Thread(r, nameSupplier.get()));
+        executor = new SimpleExecutor(threadPoolSize, r -> chain(new Thread(r, nameSupplier.get()), t -> t.setPriority(threadPriority)));
 
         if(blocking) {
             if(maxNumWaitingLimitedTasks > 0) // maxNumWaitingLimitedTasks <= 0 means unlimited
-                submitter = new BlockingLimited(numLimited, executor, maxNumWaitingLimitedTasks, stopping);
+                submitter = new BlockingLimited(numLimited, executor, maxNumWaitingLimitedTasks, blockingTimeoutMillis, stopping);
             else {
                 LOGGER.warn("You cannot configure \"" + CONFIG_KEY_BLOCKING + "\" and set \"" + CONFIG_KEY_MAX_PENDING
                     + "\" to unbounded at the same time. The queue will be unbounded.");
@@ -187,6 +218,8 @@ public class DefaultThreadingModel implements ThreadingModel {
         setCoresFactor(Double.parseDouble(getConfigValue(configuration, CONFIG_KEY_CORES_FACTOR, DEFAULT_CORES_FACTOR)));
         setAdditionalThreads(Integer.parseInt(getConfigValue(configuration, CONFIG_KEY_ADDITIONAL_THREADS, DEFAULT_ADDITIONAL_THREADS)));
         setBlocking(Boolean.parseBoolean(getConfigValue(configuration, CONFIG_KEY_BLOCKING, DEFAULT_BLOCKING)));
+        setBlockingTimeoutMillis(Long.parseLong(getConfigValue(configuration, CONFIG_KEY_BLOCKING_TIMEOUT_MILLIS, DEFAULT_BLOCKING_TIMEOUT_MILLIS)));
+        setThreadPriority(Integer.parseInt(getConfigValue(configuration, CONFIG_KEY_THREAD_PRIORITY, DEFAULT_THREAD_PRIORITY)));
         return this;
     }
 
@@ -244,12 +277,32 @@ public class DefaultThreadingModel implements ThreadingModel {
         submitter.submitLimited(r);
     }
 
-    private static void doCall(final MessageDeliveryJob r) {
+    @Override
+    public int submitLimitedBatch(final MessageDeliveryJob[] jobs, final int count) {
+        if(LOGGER.isDebugEnabled())
+            occLogger.run();
+        return submitter.submitLimitedBatch(jobs, count);
+    }
+
+    private static void doCall(final MessageDeliveryJob r, final AtomicBoolean stopping) {
+        if(!r.dequeued()) { // the job is too old to deliver.
+            r.rejected(stopping.get());
+            return;
+        }
+
         if(!r.containersCalculated())
             r.calculateContainers();
         r.executeAllContainers();
     }
 
+    private static void rejectQuietly(final MessageDeliveryJob r, final AtomicBoolean stopping) {
+        try {
+            r.rejected(stopping.get());
+        } catch(final RuntimeException rte) {
+            LOGGER.warn("Failed rejecting job!", rte);
+        }
+    }
+
     private static interface Rejectable extends Runnable {
         public void reject();
     }
@@ -265,7 +318,7 @@ public class DefaultThreadingModel implements ThreadingModel {
 
         @Override
         public void run() {
-            doCall(r);
+            doCall(r, stopping);
         }
 
         @Override
@@ -292,7 +345,7 @@ public class DefaultThreadingModel implements ThreadingModel {
         public void run() {
             final long num = numLimited.decrementAndGet();
             if(num <= maxNumWaitingLimitedTasks)
-                doCall(r);
+                doCall(r, stopping);
             else
                 r.rejected(stopping.get());
         }
@@ -332,55 +385,95 @@ public class DefaultThreadingModel implements ThreadingModel {
                     curCount, executor.getQueue().size());
                 numLimited.decrementAndGet();
                 r.rejected(stopping.get());
-            } else {
-                final boolean submitOk;
+            } else
+                submitReserved(r);
+        }
+
+        @Override
+        public int submitLimitedBatch(final MessageDeliveryJob[] jobs, final int count) {
+            if(count <= 0)
+                return 0;
+
+            // reserve room for the entire batch at once and then give back what we can't have.
+            final long curCount = numLimited.addAndGet(count);
+            final long prevCount = curCount - count;
+            final int numReserved = (int)Math.max(0L, Math.min(count, twiceMaxNumWaitingLimitedTasks - prevCount));
+
+            if(numReserved < count) {
+                LOGGER.warn("We're at twice the number of acceptable pending messages {}(:{}). The system appears to be thread starved. Rejecting {} new messages.",
+                    curCount, executor.getQueue().size(), count - numReserved);
+                numLimited.addAndGet(numReserved - count);
+                for(int i = numReserved; i < count; i++)
+                    rejectQuietly(jobs[i], stopping);
+            }
+
+            int numAccepted = 0;
+            int i = 0;
+            try {
+                for(; i < numReserved; i++) {
+                    if(submitReserved(jobs[i]))
+                        numAccepted++;
+                }
+            } catch(final RuntimeException rte) {
+                // submitReserved cleaned up after jobs[i] but we still hold the rest of the reservation.
+                numLimited.addAndGet(i + 1 - numReserved);
+                for(int j = i + 1; j < numReserved; j++)
+                    rejectQuietly(jobs[j], stopping);
+                throw rte;
+            }
+            return numAccepted;
+        }
+
+        // assumes numLimited has already been incremented on behalf of this job.
+        private boolean submitReserved(final MessageDeliveryJob r) {
+            final boolean submitOk;
+            try {
+                submitOk = executor.submit(new NonBlockingRejectable(r, numLimited, stopping, maxNumWaitingLimitedTasks));
+            } catch(final RuntimeException rte) {
+                LOGGER.warn("Limited job submission failed!", rte);
+                numLimited.decrementAndGet();
                 try {
-                    submitOk = executor.submit(new NonBlockingRejectable(r, numLimited, stopping, maxNumWaitingLimitedTasks));
-                } catch(final RuntimeException rte) {
-                    LOGGER.warn("Limited job submission failed!", rte);
-                    numLimited.decrementAndGet();
-                    try {
-                        r.rejected(stopping.get());
-                    } catch(final RuntimeException rte2) {
-                        LOGGER.warn("Failed rejecting job!", rte2);
-                    }
-                    throw rte;
+                    r.rejected(stopping.get());
+                } catch(final RuntimeException rte2) {
+                    LOGGER.warn("Failed rejecting job!", rte2);
                 }
+                throw rte;
+            }
 
-                if(!submitOk) {
-                    numLimited.decrementAndGet();
-                    LOGGER.warn("Limited job submission failed!");
-                    try {
-                        r.rejected(stopping.get());
-                    } catch(final RuntimeException rte) {
-                        LOGGER.warn("Failed rejecting job!", rte);
-                        throw rte;
-                    }
+            if(!submitOk) {
+                numLimited.decrementAndGet();
+                LOGGER.warn("Limited job submission failed!");
+                try {
+                    r.rejected(stopping.get());
+                } catch(final RuntimeException rte) {
+                    LOGGER.warn("Failed rejecting job!", rte);
+                    throw rte;
                 }
             }
+            return submitOk;
         }
     }
 
     private static class BlockingRejectable implements Rejectable {
         final MessageDeliveryJob r;
-        final AtomicLong numLimited;
+        final BlockingLimited limiter;
         final AtomicBoolean stopping;
 
-        public BlockingRejectable(final MessageDeliveryJob r, final AtomicLong numLimited, final AtomicBoolean stopping) {
+        public BlockingRejectable(final MessageDeliveryJob r, final BlockingLimited limiter, final AtomicBoolean stopping) {
             this.r = r;
-            this.numLimited = numLimited;
+            this.limiter = limiter;
             this.stopping = stopping;
         }
 
         @Override
         public void run() {
-            numLimited.decrementAndGet();
-            doCall(r);
+            limiter.release();
+            doCall(r, stopping);
         }
 
         @Override
         public void reject() {
-            numLimited.decrementAndGet();
+            limiter.release();
             try {
                 r.rejected(stopping.get());
             } catch(final RuntimeException rte) {
@@ -389,46 +482,136 @@ public class DefaultThreadingModel implements ThreadingModel {
         }
     }
 
+    /**
+     * Submitters that find the queue full park on the {@code waiters} queue rather than spinning.
+     * Every time a job comes off of the queue one waiter is unparked to retry.
+     */
     private static class BlockingLimited implements SubmitLimited {
+        // upper bound on any single park so that a submitter will always eventually notice we're stopping.
+        private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
         private final AtomicLong numLimited;
         private final SimpleExecutor executor;
         private final long maxNumWaitingLimitedTasks;
-        private final AtomicBoolean stopping;;
+        private final long timeoutNanos;
+        private final AtomicBoolean stopping;
+        private final ConcurrentLinkedQueue<Thread> waiters = new ConcurrentLinkedQueue<>();
 
-        BlockingLimited(final AtomicLong numLimited, final SimpleExecutor executor, final long maxNumWaitingLimitedTasks, final AtomicBoolean stopping) {
+        BlockingLimited(final AtomicLong numLimited, final SimpleExecutor executor, final long maxNumWaitingLimitedTasks, final long timeoutMillis,
+            final AtomicBoolean stopping) {
             this.numLimited = numLimited;
             this.executor = executor;
             this.maxNumWaitingLimitedTasks = maxNumWaitingLimitedTasks;
+            this.timeoutNanos = timeoutMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
             this.stopping = stopping;
         }
 
         @Override
         public void submitLimited(final MessageDeliveryJob r) {
             // only goes in if I get a position less than the max.
-            long spinner = 0;
-            for(boolean done = false; !done;) {
-                final long curValue = numLimited.get();
-                if(curValue < maxNumWaitingLimitedTasks) {
-                    if(numLimited.compareAndSet(curValue, curValue + 1L))
-                        done = true;
-                } else {
-                    spinner++;
-                    if(spinner < 1000)
-                        Thread.yield();
-                    else {
-                        try {
-                            Thread.sleep(1);
-                        } catch(final InterruptedException ie) {}
-                    }
-                }
+            if(!tryReserve() && !waitToReserve()) {
+                LOGGER.debug("Gave up waiting for room to submit a limited job. Rejecting it.");
+                r.rejected(stopping.get());
+                return;
             }
 
-            if(!executor.submit(new BlockingRejectable(r, numLimited, stopping))) {
-                numLimited.decrementAndGet();
+            submitReserved(r);
+        }
+
+        @Override
+        public int submitLimitedBatch(final MessageDeliveryJob[] jobs, final int count) {
+            final int numReserved = tryReserve(count);
+
+            int numAccepted = 0;
+            for(int i = 0; i < numReserved; i++) {
+                if(submitReserved(jobs[i]))
+                    numAccepted++;
+            }
+
+            // the rest of the batch waits for room the same way individual submissions do.
+            for(int i = numReserved; i < count; i++) {
+                if(!tryReserve() && !waitToReserve()) {
+                    LOGGER.debug("Gave up waiting for room to submit a limited job. Rejecting it.");
+                    rejectQuietly(jobs[i], stopping);
+                } else if(submitReserved(jobs[i]))
+                    numAccepted++;
+            }
+            return numAccepted;
+        }
+
+        private boolean submitReserved(final MessageDeliveryJob r) {
+            if(!executor.submit(new BlockingRejectable(r, this, stopping))) {
+                release();
                 LOGGER.warn("Limited job submission failed!");
                 r.rejected(stopping.get());
+                return false;
+            }
+            return true;
+        }
+
+        // called whenever a reserved position is given up.
+        void release() {
+            numLimited.decrementAndGet();
+            wakeOne();
+        }
+
+        private boolean tryReserve() {
+            return tryReserve(1) == 1;
+        }
+
+        // reserve as many of the requested positions as are currently available, up to the max.
+        private int tryReserve(final int requested) {
+            for(long curValue = numLimited.get(); curValue < maxNumWaitingLimitedTasks; curValue = numLimited.get()) {
+                final int toReserve = (int)Math.min(requested, maxNumWaitingLimitedTasks - curValue);
+                if(numLimited.compareAndSet(curValue, curValue + toReserve))
+                    return toReserve;
+            }
+            return 0;
+        }
+
+        private boolean waitToReserve() {
+            final Thread me = Thread.currentThread();
+            final long deadline = timeoutNanos < 0 ? 0 : (System.nanoTime() + timeoutNanos);
+            boolean woken = false;
+            while(true) {
+                waiters.offer(me);
+                // check again after we're on the waiters queue so we can't miss a release.
+                if(tryReserve()) {
+                    // a release may have taken us off of the waiters queue in the meantime. We only needed the
+                    // one position so pass that wakeup on.
+                    if(!waiters.remove(me))
+                        passOnWakeup();
+                    return true;
+                }
+
+                // we were woken for room that someone else got to first. If there's room again then another
+                // waiter might get it.
+                if(woken)
+                    passOnWakeup();
+
+                final long remaining = timeoutNanos < 0 ? MAX_PARK_NANOS : (deadline - System.nanoTime());
+                if(remaining <= 0 || stopping.get()) {
+                    // if we were woken up in the meantime then pass it on.
+                    if(!waiters.remove(me))
+                        wakeOne();
+                    return false;
+                }
+
+                LockSupport.parkNanos(this, Math.min(remaining, MAX_PARK_NANOS));
+                woken = !waiters.remove(me);
             }
         }
+
+        private void passOnWakeup() {
+            if(numLimited.get() < maxNumWaitingLimitedTasks)
+                wakeOne();
+        }
+
+        private void wakeOne() {
+            final Thread waiter = waiters.poll();
+            if(waiter != null)
+                LockSupport.unpark(waiter);
+        }
     }
 
     private static class NonBlockingUnlimited implements SubmitLimited {
@@ -442,17 +625,35 @@ public class DefaultThreadingModel implements ThreadingModel {
 
         @Override
         public void submitLimited(final MessageDeliveryJob r) {
+            submitUnlimited(r);
+        }
+
+        @Override
+        public int submitLimitedBatch(final MessageDeliveryJob[] jobs, final int count) {
+            int numAccepted = 0;
+            for(int i = 0; i < count; i++) {
+                if(submitUnlimited(jobs[i]))
+                    numAccepted++;
+            }
+            return numAccepted;
+        }
+
+        private boolean submitUnlimited(final MessageDeliveryJob r) {
             final var rejectable = new DefaultRejectable(r, stopping);
             if(!executor.submit(rejectable)) {
                 LOGGER.warn("Limited job submission failed!");
                 rejectable.reject();
+                return false;
             }
+            return true;
         }
     }
 
     private static interface SubmitLimited {
         public void submitLimited(final MessageDeliveryJob r);
 
+        public int submitLimitedBatch(final MessageDeliveryJob[] jobs, final int count);
+
         public default void skipping(final List<Runnable> skipping) {
             skipping.stream()
                 .map(r -> (Rejectable)r)
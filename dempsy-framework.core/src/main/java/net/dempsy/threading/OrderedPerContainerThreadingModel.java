@@ -192,6 +192,10 @@ public class OrderedPerContainerThreadingModel implements ThreadingModel {
             job.rejected(stopping.get());
         }
 
+        public final boolean dequeued() {
+            return job.dequeued();
+        }
+
         public final boolean areContainersCalculated() {
             return job.containersCalculated();
         }
@@ -388,9 +392,11 @@ public class OrderedPerContainerThreadingModel implements ThreadingModel {
                     final MessageDeliveryJobHolder message = inqueue.poll();
 
                     // before we do anything, if we're twice the acceptable maxNumWaitingLimitedTasks and this is
-                    // a limited task, we vent it.
+                    // a limited task, we vent it. We also vent it if it's been waiting longer than any of
+                    // its destinations will accept. Either way, this is before it's been deserialized. The job is
+                    // always told it's been dequeued first, whether or not it's then vented.
                     if(message != null) {
-                        if(message.limited && numLimited.get() > maxNumWaitingLimitedTasksX2) {
+                        if(!message.dequeued() || (message.limited && numLimited.get() > maxNumWaitingLimitedTasksX2)) {
                             message.preEnqueuedTrackContainerJob();
                             message.preWorkTrackContainerJob();
                             message.reject();
@@ -567,4 +573,33 @@ public class OrderedPerContainerThreadingModel implements ThreadingModel {
         } else
             numLimited.incrementAndGet();
     }
+
+    @Override
+    public int submitLimitedBatch(final MessageDeliveryJob[] jobs, final int count) {
+        if(count <= 0)
+            return 0;
+
+        // the whole batch is counted up front, before any of it can be dequeued, and whatever doesn't get queued is
+        // given back afterward. Until then the count can be briefly high, the same as DefaultThreadingModel's batches.
+        numLimited.addAndGet(count);
+        int numQueued = 0;
+        for(; numQueued < count; numQueued++) {
+            if(!inqueue.offer(new MessageDeliveryJobHolder(jobs[numQueued], true, numLimited, isStopped)))
+                break;
+        }
+
+        if(numQueued < count) {
+            numLimited.addAndGet(-(count - numQueued));
+            // the deque is full. Only the jobs that didn't make it are rejected.
+            LOGGER.error("Failed to queue {} of a batch of {} messages", count - numQueued, count);
+            for(int i = numQueued; i < count; i++) {
+                try {
+                    jobs[i].rejected(isStopped.get());
+                } catch(final RuntimeException rte) {
+                    LOGGER.warn("Failed rejecting job!", rte);
+                }
+            }
+        }
+        return numQueued;
+    }
 }
@@ -28,6 +28,16 @@ public interface ThreadingModel extends AutoCloseable {
      */
     public void submitLimited(MessageDeliveryJob r);
 
+    /**
+     * Submit the first {@code count} jobs in {@code jobs} as if each was passed to {@link #submitLimited(MessageDeliveryJob)}
+     * but amortize the bookkeeping across the entire batch. Any job that can't be accepted will have already had
+     * {@link MessageDeliveryJob#rejected(boolean)} called on it by the time this returns. The array isn't retained
+     * so the caller is free to reuse it.
+     *
+     * @return the number of jobs from the batch that were accepted.
+     */
+    public int submitLimitedBatch(MessageDeliveryJob[] jobs, int count);
+
     /**
      * queue a message that will be handled before other non-priority jobs.
      */
@@ -0,0 +1,323 @@
+package net.dempsy.threading;
+
+import static net.dempsy.config.ConfigLogger.logConfig;
+
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.container.MessageDeliveryJob;
+import net.dempsy.util.OccasionalRunnable;
+
+/**
+ * <p>
+ * A {@link ThreadingModel} built on a {@link ForkJoinPool} in async (FIFO) mode. Jobs submitted from
+ * outside of the pool (the transport's receiver threads and adaptors) go on the pool's shared submission
+ * queues. Jobs submitted from one of the pool's own workers, which is what happens when a message
+ * processor's handler produces messages destined for containers on this node, are always pushed onto
+ * that worker's local deque. The downstream container therefore usually runs on the same thread that
+ * produced the message, while the data is still in that core's cache, and idle workers steal from busy ones.
+ * </p>
+ *
+ * <p>
+ * The counting of limited jobs is the same as the non-blocking mode of the {@link DefaultThreadingModel}.
+ * Blocking isn't supported. There's no notion of priority in a {@link ForkJoinPool} so priority jobs are
+ * queued like any other job. One submitted from one of the pool's workers can wait behind that worker's
+ * local backlog.
+ * </p>
+ *
+ * <p>
+ * Like the {@link DefaultThreadingModel} there are no ordering guarantees.
+ * </p>
+ */
+public class WorkStealingThreadingModel implements ThreadingModel {
+    private static Logger LOGGER = LoggerFactory.getLogger(WorkStealingThreadingModel.class);
+
+    private static final int minNumThreads = 1;
+
+    // when this anded (&) with the current message count is
+    // zero, we'll log a message to the logger (as long as the log level is set appropriately).
+    private static final long LOG_QUEUE_LEN_MESSAGE_COUNT = (1024 * 2);
+
+    public static final String CONFIG_KEY_MAX_PENDING = "max_pending";
+    public static final String DEFAULT_MAX_PENDING = "100000";
+
+    public static final String CONFIG_KEY_CORES_FACTOR = "cores_factor";
+    public static final String DEFAULT_CORES_FACTOR = "1.0";
+
+    public static final String CONFIG_KEY_ADDITIONAL_THREADS = "additional_threads";
+    public static final String DEFAULT_ADDITIONAL_THREADS = "0";
+
+    private ForkJoinPool pool = null;
+
+    private final AtomicLong numLimited = new AtomicLong(0);
+    private long maxNumWaitingLimitedTasks;
+    private int threadPoolSize;
+
+    private double m = Double.parseDouble(DEFAULT_CORES_FACTOR);
+    private int additionalThreads = Integer.parseInt(DEFAULT_ADDITIONAL_THREADS);
+
+    private final Supplier<String> nameSupplier;
+
+    private final AtomicLong threadNum = new AtomicLong(0L);
+    private final static AtomicLong poolNum = new AtomicLong(0L);
+
+    private boolean started = false;
+    private final AtomicBoolean stopping = new AtomicBoolean(false);
+
+    private final Runnable occLogger = OccasionalRunnable.staticOccasionalRunnable(LOG_QUEUE_LEN_MESSAGE_COUNT,
+        () -> LOGGER.debug("Total messages pending on " + WorkStealingThreadingModel.class.getSimpleName() + ": {}", numLimited.get()));
+
+    public WorkStealingThreadingModel(final String threadNameBase) {
+        this(threadNameBase, -1, Integer.parseInt(DEFAULT_MAX_PENDING));
+    }
+
+    /**
+     * Create a WorkStealingThreadingModel with a fixed number of threads while setting the maximum number of limited tasks.
+     */
+    public WorkStealingThreadingModel(final String threadNameBase, final int threadPoolSize, final int maxNumWaitingLimitedTasks) {
+        final long curPoolNum = poolNum.getAndIncrement();
+        this.nameSupplier = () -> threadNameBase + "-" + curPoolNum + "-" + threadNum.getAndIncrement();
+        this.threadPoolSize = threadPoolSize;
+        this.maxNumWaitingLimitedTasks = maxNumWaitingLimitedTasks;
+    }
+
+    /**
+     * <p>
+     * Prior to calling start you can set the cores factor and additional cores.
+     * Ultimately the number of threads in the pool will be given by:
+     * </p>
+     *
+     * <p>
+     * num threads = m * num cores + b
+     * </p>
+     *
+     * <p>
+     * Where 'm' is set by setCoresFactor and 'b' is set by setAdditionalThreads
+     * </p>
+     */
+    public WorkStealingThreadingModel setCoresFactor(final double m) {
+        this.m = m;
+        return this;
+    }
+
+    /**
+     * See {@link #setCoresFactor(double)}
+     */
+    public WorkStealingThreadingModel setAdditionalThreads(final int additionalThreads) {
+        this.additionalThreads = additionalThreads;
+        return this;
+    }
+
+    public int getMaxNumberOfQueuedLimitedTasks() {
+        return (int)maxNumWaitingLimitedTasks;
+    }
+
+    public WorkStealingThreadingModel setMaxNumberOfQueuedLimitedTasks(final long maxNumWaitingLimitedTasks) {
+        this.maxNumWaitingLimitedTasks = maxNumWaitingLimitedTasks;
+        return this;
+    }
+
+    public WorkStealingThreadingModel configure(final Map<String, String> configuration) {
+        setMaxNumberOfQueuedLimitedTasks(Integer.parseInt(getConfigValue(configuration, CONFIG_KEY_MAX_PENDING, DEFAULT_MAX_PENDING)));
+        setCoresFactor(Double.parseDouble(getConfigValue(configuration, CONFIG_KEY_CORES_FACTOR, DEFAULT_CORES_FACTOR)));
+        setAdditionalThreads(Integer.parseInt(getConfigValue(configuration, CONFIG_KEY_ADDITIONAL_THREADS, DEFAULT_ADDITIONAL_THREADS)));
+        return this;
+    }
+
+    @Override
+    public synchronized WorkStealingThreadingModel start(final String nodeid) {
+        logConfig(LOGGER, "Threading Model {} for node: {}", WorkStealingThreadingModel.class.getName(), nodeid);
+        logConfig(LOGGER, configKey(CONFIG_KEY_CORES_FACTOR), m, DEFAULT_CORES_FACTOR);
+        logConfig(LOGGER, configKey(CONFIG_KEY_ADDITIONAL_THREADS), additionalThreads, DEFAULT_ADDITIONAL_THREADS);
+        logConfig(LOGGER, configKey(CONFIG_KEY_MAX_PENDING), getMaxNumberOfQueuedLimitedTasks(), DEFAULT_MAX_PENDING);
+
+        if(threadPoolSize == -1) {
+            final int cores = Runtime.getRuntime().availableProcessors();
+            threadPoolSize = Math.max((int)Math.ceil(cores * m) + additionalThreads, minNumThreads);
+        }
+
+        final ForkJoinWorkerThreadFactory factory = p -> {
+            final ForkJoinWorkerThread ret = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            ret.setName(nameSupplier.get());
+            return ret;
+        };
+
+        pool = new ForkJoinPool(threadPoolSize, factory,
+            (t, e) -> LOGGER.error("Uncaught exception in " + WorkStealingThreadingModel.class.getSimpleName() + " thread " + t.getName(), e),
+            true /* async mode: local queues are FIFO */);
+
+        started = true;
+        return this;
+    }
+
+    @Override
+    public synchronized boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Anything still queued when this is called will be rejected rather than executed.
+     */
+    @Override
+    public void close() {
+        synchronized(this) {
+            stopping.set(true);
+        }
+
+        if(pool != null) {
+            pool.shutdown();
+            // let the remaining jobs run their way through the reject path.
+            if(!pool.awaitQuiescence(1, TimeUnit.SECONDS))
+                LOGGER.warn("Not all of the jobs queued on the {} were rejected at shutdown.", WorkStealingThreadingModel.class.getSimpleName());
+        }
+    }
+
+    @Override
+    public int getNumberLimitedPending() {
+        return numLimited.intValue();
+    }
+
+    @Override
+    public void submit(final MessageDeliveryJob r) {
+        enqueue(new Task(r, false));
+    }
+
+    @Override
+    public void submitPrioity(final MessageDeliveryJob r) {
+        enqueue(new Task(r, false));
+    }
+
+    @Override
+    public void submitLimited(final MessageDeliveryJob r) {
+        if(LOGGER.isDebugEnabled())
+            occLogger.run();
+
+        if(maxNumWaitingLimitedTasks <= 0) { // unlimited
+            enqueue(new Task(r, false));
+            return;
+        }
+
+        final long curCount = numLimited.incrementAndGet();
+        if(curCount > (maxNumWaitingLimitedTasks << 1)) {
+            LOGGER.warn("We're at twice the number of acceptable pending messages {}. The system appears to be thread starved. Rejecting new message.",
+                curCount);
+            numLimited.decrementAndGet();
+            r.rejected(stopping.get());
+        } else
+            enqueue(new Task(r, true));
+    }
+
+    @Override
+    public int submitLimitedBatch(final MessageDeliveryJob[] jobs, final int count) {
+        if(count <= 0)
+            return 0;
+
+        if(LOGGER.isDebugEnabled())
+            occLogger.run();
+
+        final int numReserved;
+        if(maxNumWaitingLimitedTasks <= 0) // unlimited
+            numReserved = count;
+        else {
+            final long twiceMax = maxNumWaitingLimitedTasks << 1;
+            final long curCount = numLimited.addAndGet(count);
+            numReserved = (int)Math.max(0L, Math.min(count, twiceMax - (curCount - count)));
+            if(numReserved < count) {
+                LOGGER.warn("We're at twice the number of acceptable pending messages {}. The system appears to be thread starved. Rejecting {} new messages.",
+                    curCount, count - numReserved);
+                numLimited.addAndGet(numReserved - count);
+                for(int i = numReserved; i < count; i++)
+                    rejectQuietly(jobs[i]);
+            }
+        }
+
+        final boolean limited = maxNumWaitingLimitedTasks > 0;
+        int numAccepted = 0;
+        for(int i = 0; i < numReserved; i++) {
+            if(enqueue(new Task(jobs[i], limited)))
+                numAccepted++;
+        }
+        return numAccepted;
+    }
+
+    private boolean enqueue(final Task task) {
+        try {
+            // if we're on one of our own threads, push it onto this thread's queue. The pool would do that
+            // from execute anyway.
+            if(ForkJoinTask.getPool() == pool)
+                task.fork();
+            else
+                pool.execute(task);
+            return true;
+        } catch(final RejectedExecutionException ree) {
+            LOGGER.warn("Job submission failed!", ree);
+            task.reject();
+            return false;
+        }
+    }
+
+    private void rejectQuietly(final MessageDeliveryJob r) {
+        try {
+            r.rejected(stopping.get());
+        } catch(final RuntimeException rte) {
+            LOGGER.warn("Failed rejecting job!", rte);
+        }
+    }
+
+    private class Task extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient MessageDeliveryJob r;
+        private final boolean limited;
+
+        private Task(final MessageDeliveryJob r, final boolean limited) {
+            this.r = r;
+            this.limited = limited;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                if(limited && numLimited.decrementAndGet() > maxNumWaitingLimitedTasks) {
+                    r.rejected(stopping.get());
+                    return;
+                }
+
+                if(stopping.get()) {
+                    r.rejected(true);
+                    return;
+                }
+
+                if(!r.dequeued()) { // the job is too old to deliver.
+                    r.rejected(stopping.get());
+                    return;
+                }
+
+                if(!r.containersCalculated())
+                    r.calculateContainers();
+                r.executeAllContainers();
+            } catch(final RuntimeException rte) {
+                // don't let the exception complete the task abnormally since nobody is going to join it.
+                LOGGER.error("Unexpected exception executing job", rte);
+            }
+        }
+
+        private void reject() {
+            if(limited)
+                numLimited.decrementAndGet();
+            rejectQuietly(r);
+        }
+    }
+}
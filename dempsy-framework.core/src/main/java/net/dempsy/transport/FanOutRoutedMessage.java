@@ -0,0 +1,136 @@
+package net.dempsy.transport;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A {@link RoutedMessage} that's one of several copies of the same key and message being sent
+ * to different nodes. Each copy has its own containers but they all share the same {@link FanOut}
+ * so that a transport can serialize the key and message once and send the result to every
+ * destination.
+ * </p>
+ *
+ * <p>
+ * Transports that don't know about this can treat it like any other {@link RoutedMessage}.
+ * </p>
+ *
+ * <p>
+ * Each copy holds one reference to the {@link FanOut}. Once a {@link Sender#send(Object)} of a copy returns
+ * the sender owns that reference and has to {@link FanOut#release()} it when it's done with the copy, whether
+ * or not it was written. If the send throws then the reference is still the caller's. See
+ * {@link #send(Sender, int[], Object, Object, FanOut)}.
+ * </p>
+ */
+public class FanOutRoutedMessage extends RoutedMessage {
+    private static final long serialVersionUID = 1L;
+
+    public final transient FanOut fanOut;
+
+    public FanOutRoutedMessage(final int[] containers, final Object key, final Object message, final FanOut fanOut) {
+        super(containers, key, message);
+        this.fanOut = fanOut;
+    }
+
+    /**
+     * Send one copy of the message to the sender. If the send fails, the copy's reference to the {@link FanOut}
+     * is released before the exception is rethrown.
+     */
+    public static void send(final Sender sender, final int[] containers, final Object key, final Object message, final FanOut fanOut)
+        throws MessageTransportException, InterruptedException {
+        boolean sent = false;
+        try {
+            sender.send(new FanOutRoutedMessage(containers, key, message, fanOut));
+            sent = true;
+        } finally {
+            if(!sent)
+                fanOut.release();
+        }
+    }
+
+    /**
+     * A plain copy of this message. Serializing this rather than the {@link FanOutRoutedMessage} means
+     * what's sent is exactly what's sent for any other {@link RoutedMessage}.
+     */
+    public RoutedMessage toRoutedMessage() {
+        return new RoutedMessage(containers, key, message);
+    }
+
+    /**
+     * <p>
+     * What's shared between all of the copies of a message. A transport can attach whatever it needs, usually
+     * the serialized message, using {@link #attachment(Object, Supplier)}. Serializers are a good choice for the
+     * attachment key since destinations can use different ones.
+     * </p>
+     *
+     * <p>
+     * There's one reference for each copy. Once every copy has been {@link #release()}d any attachments that are
+     * {@link AutoCloseable} are closed. Whoever has a copy that's never going to be sent, or is sent on a transport
+     * that doesn't know about fan-outs, still has to release it.
+     * </p>
+     */
+    public static class FanOut {
+        private static final Logger LOGGER = LoggerFactory.getLogger(FanOut.class);
+
+        private final AtomicInteger references;
+
+        // almost always there's only one attachment so we avoid the map in that case.
+        private Object firstKey = null;
+        private Object firstAttachment = null;
+        private Map<Object, Object> others = null;
+
+        public FanOut(final int numCopies) {
+            references = new AtomicInteger(numCopies);
+        }
+
+        /**
+         * Get the attachment associated with the key creating it with the supplier if it's not already there. The
+         * supplier is only ever called once per key.
+         */
+        @SuppressWarnings("unchecked")
+        public synchronized <T> T attachment(final Object key, final Supplier<T> creator) {
+            if(firstKey == null) {
+                firstAttachment = creator.get();
+                firstKey = key;
+                return (T)firstAttachment;
+            }
+
+            if(firstKey == key)
+                return (T)firstAttachment;
+
+            if(others == null)
+                others = new HashMap<>();
+            return (T)others.computeIfAbsent(key, k -> creator.get());
+        }
+
+        /**
+         * Called once for each copy when the transport is done with it.
+         */
+        public void release() {
+            if(references.decrementAndGet() == 0) {
+                synchronized(this) {
+                    closeQuietly(firstAttachment);
+                    if(others != null)
+                        others.values().forEach(FanOut::closeQuietly);
+                    firstKey = firstAttachment = null;
+                    others = null;
+                }
+            }
+        }
+
+        private static void closeQuietly(final Object attachment) {
+            if(attachment instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable)attachment).close();
+                } catch(final Exception e) {
+                    LOGGER.warn("Failed to close the shared attachment of a message fan-out", e);
+                }
+            }
+        }
+    }
+}
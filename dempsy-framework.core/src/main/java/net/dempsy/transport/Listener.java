@@ -39,6 +39,24 @@ public interface Listener<T> extends AutoCloseable {
         return onMessage(supplier.get());
     }
 
+    /**
+     * <p>
+     * Accept several messages at once. Receivers that read more than one message at a time
+     * (for example, everything available on a socket in one pass) should hand them over here
+     * so the listener can amortize its work across the batch. The batch is owned by the caller
+     * and will be cleared and reused once this returns.
+     * </p>
+     *
+     * <p>
+     * Receivers that get one message at a time should just keep calling {@link #onMessage(Object)}.
+     * </p>
+     */
+    public default void onMessages(final MessageBatch<T> batch) {
+        final int size = batch.size();
+        for(int i = 0; i < size; i++)
+            onMessage(batch.get(i));
+    }
+
     @Override
     public default void close() {}
 
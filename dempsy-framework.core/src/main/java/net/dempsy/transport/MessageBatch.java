@@ -0,0 +1,71 @@
+package net.dempsy.transport;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * <p>
+ * A reusable holder for several messages handed to a {@link Listener} at once through
+ * {@link Listener#onMessages(MessageBatch)}. It's owned by the receiver, usually one per reader
+ * thread, and is cleared and refilled for every batch so nothing is allocated per batch once
+ * it has grown to its working size.
+ * </p>
+ *
+ * <p>
+ * A batch is only ever used by one thread at a time, so a {@link Listener} can keep whatever it
+ * needs reused from batch to batch (for example, an array of jobs) in the {@link #getListenerScratch()}.
+ * </p>
+ */
+public class MessageBatch<T> {
+    private static final int DEFAULT_INITIAL_CAPACITY = 64;
+
+    private Supplier<T>[] suppliers;
+    private int size = 0;
+    private Object listenerScratch = null;
+
+    public MessageBatch() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    @SuppressWarnings("unchecked")
+    public MessageBatch(final int initialCapacity) {
+        suppliers = new Supplier[Math.max(1, initialCapacity)];
+    }
+
+    public void add(final Supplier<T> supplier) {
+        if(size == suppliers.length)
+            suppliers = Arrays.copyOf(suppliers, size << 1);
+        suppliers[size++] = supplier;
+    }
+
+    public Supplier<T> get(final int index) {
+        if(index >= size)
+            throw new IndexOutOfBoundsException("Index " + index + " is beyond the size of the batch (" + size + ")");
+        return suppliers[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Empty the batch so it can be refilled. The references to the messages are released.
+     */
+    public void clear() {
+        Arrays.fill(suppliers, 0, size, null);
+        size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <S> S getListenerScratch() {
+        return (S)listenerScratch;
+    }
+
+    public void setListenerScratch(final Object listenerScratch) {
+        this.listenerScratch = listenerScratch;
+    }
+}
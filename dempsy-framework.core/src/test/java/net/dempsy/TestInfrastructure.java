@@ -52,6 +52,9 @@ public class TestInfrastructure implements Infrastructure, AutoCloseable {
             @Override
             public void messageDiscarded(final Object message) {}
 
+            @Override
+            public void messageDequeued(final long queueWaitNanos) {}
+
             @Override
             public void messageSent(final Object message) {}
 
@@ -0,0 +1,178 @@
+package net.dempsy.threading;
+
+import static net.dempsy.util.Functional.chain;
+import static net.dempsy.util.Functional.ignore;
+import static net.dempsy.utils.test.ConditionPoll.poll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.jupiter.api.Test;
+
+import net.dempsy.container.Container;
+import net.dempsy.container.ContainerJob;
+import net.dempsy.container.MessageDeliveryJob;
+
+/**
+ * Tests of the blocking submitLimited mode of the {@link DefaultThreadingModel}.
+ */
+public class TestBlockingLimited {
+
+    private static class Job implements MessageDeliveryJob {
+        final Runnable work;
+        final AtomicLong completed;
+        final AtomicLong rejected;
+
+        Job(final Runnable work, final AtomicLong completed, final AtomicLong rejected) {
+            this.work = work;
+            this.completed = completed;
+            this.rejected = rejected;
+        }
+
+        @Override
+        public boolean containersCalculated() {
+            return true;
+        }
+
+        @Override
+        public void calculateContainers() {}
+
+        @Override
+        public Container[] containerData() {
+            return new Container[0];
+        }
+
+        @Override
+        public void rejected(final boolean stopping) {
+            rejected.incrementAndGet();
+        }
+
+        @Override
+        public void executeAllContainers() {
+            work.run();
+            completed.incrementAndGet();
+        }
+
+        @Override
+        public List<ContainerJob> individuate() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void individuatedJobsComplete() {}
+    }
+
+    @Test
+    public void testBlockingTimeoutRejects() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicLong completed = new AtomicLong(0);
+        final AtomicLong rejected = new AtomicLong(0);
+        final Runnable stall = () -> ignore(() -> latch.await());
+
+        try(final DefaultThreadingModel ut = chain(new DefaultThreadingModel("TestBlockingLimited", 1, 1),
+            tm -> tm.setBlocking(true).setBlockingTimeoutMillis(50).start("nodeid"));) {
+
+            // occupy the only thread
+            ut.submitLimited(new Job(stall, completed, rejected));
+            assertTrue(poll(o -> ut.getNumberLimitedPending() == 0));
+
+            // fill the one spot in the queue
+            ut.submitLimited(new Job(stall, completed, rejected));
+            assertEquals(1, ut.getNumberLimitedPending());
+
+            // this one should wait for 50 millis and then give up.
+            final long start = System.nanoTime();
+            ut.submitLimited(new Job(stall, completed, rejected));
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+            assertEquals(1, rejected.get());
+
+            latch.countDown();
+            assertTrue(poll(o -> completed.get() == 2));
+            assertEquals(1, rejected.get());
+        }
+    }
+
+    @Test
+    public void testBlockedSubmittersAreWoken() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicLong completed = new AtomicLong(0);
+        final AtomicLong rejected = new AtomicLong(0);
+        final Runnable stall = () -> ignore(() -> latch.await());
+
+        try(final DefaultThreadingModel ut = chain(new DefaultThreadingModel("TestBlockingLimited", 1, 1),
+            tm -> tm.setBlocking(true).start("nodeid"));) {
+
+            ut.submitLimited(new Job(stall, completed, rejected));
+            assertTrue(poll(o -> ut.getNumberLimitedPending() == 0));
+            ut.submitLimited(new Job(stall, completed, rejected));
+
+            // these will all block
+            final int numBlocked = 4;
+            final AtomicLong submitted = new AtomicLong(0);
+            final List<Thread> submitters = new ArrayList<>();
+            for(int i = 0; i < numBlocked; i++)
+                submitters.add(chain(new Thread(() -> {
+                    ut.submitLimited(new Job(() -> {}, completed, rejected));
+                    submitted.incrementAndGet();
+                }), t -> t.start()));
+
+            Thread.sleep(50);
+            assertEquals(0, submitted.get());
+
+            latch.countDown();
+            assertTrue(poll(o -> submitted.get() == numBlocked));
+            assertTrue(poll(o -> completed.get() == numBlocked + 2));
+            assertEquals(0, rejected.get());
+            for(final Thread t: submitters)
+                t.join(1000);
+        }
+    }
+
+    /**
+     * More producers than cores blocked on a full queue. Producers that are waiting for room should be
+     * parked rather than burning CPU the workers need.
+     */
+    @Test
+    public void testBlockedProducersPark() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicLong completed = new AtomicLong(0);
+        final AtomicLong rejected = new AtomicLong(0);
+        final Runnable stall = () -> ignore(() -> latch.await());
+        final int numProducers = Runtime.getRuntime().availableProcessors() * 4;
+
+        try(final DefaultThreadingModel ut = chain(new DefaultThreadingModel("TestBlockingLimited", 1, 1),
+            tm -> tm.setBlocking(true).start("nodeid"));) {
+
+            // occupy the only thread and fill the one spot in the queue
+            ut.submitLimited(new Job(stall, completed, rejected));
+            assertTrue(poll(o -> ut.getNumberLimitedPending() == 0));
+            ut.submitLimited(new Job(stall, completed, rejected));
+
+            final AtomicLong submitted = new AtomicLong(0);
+            final List<Thread> producers = new ArrayList<>();
+            for(int i = 0; i < numProducers; i++)
+                producers.add(chain(new Thread(() -> {
+                    ut.submitLimited(new Job(() -> {}, completed, rejected));
+                    submitted.incrementAndGet();
+                }, "producer-" + i), t -> t.start()));
+
+            // every one of them should end up parked in the submit rather than spinning.
+            assertTrue(poll(o -> producers.stream()
+                .allMatch(t -> t.getState() == Thread.State.TIMED_WAITING && LockSupport.getBlocker(t) != null)));
+            assertEquals(0, submitted.get());
+
+            latch.countDown();
+            assertTrue(poll(o -> submitted.get() == numProducers));
+            assertTrue(poll(o -> completed.get() == numProducers + 2));
+            assertEquals(0, rejected.get());
+            for(final Thread t: producers)
+                t.join(1000);
+        }
+    }
+}
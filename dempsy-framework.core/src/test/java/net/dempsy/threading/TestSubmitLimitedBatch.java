@@ -0,0 +1,214 @@
+package net.dempsy.threading;
+
+import static net.dempsy.util.Functional.chain;
+import static net.dempsy.util.Functional.ignore;
+import static net.dempsy.utils.test.ConditionPoll.poll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import net.dempsy.container.Container;
+import net.dempsy.container.ContainerJob;
+import net.dempsy.container.DummyContainer;
+import net.dempsy.container.MessageDeliveryJob;
+
+public class TestSubmitLimitedBatch {
+    private static final String THREAD_NAME_BASE = TestSubmitLimitedBatch.class.getSimpleName();
+
+    private static final int NUM_BATCHES = 1000;
+    private static final int BATCH_SIZE = 64;
+
+    private static final Container container = new DummyContainer();
+
+    private static class Job implements MessageDeliveryJob {
+        final Runnable work;
+        final AtomicLong completed;
+        final AtomicLong rejected;
+
+        Job(final Runnable work, final AtomicLong completed, final AtomicLong rejected) {
+            this.work = work;
+            this.completed = completed;
+            this.rejected = rejected;
+        }
+
+        @Override
+        public boolean containersCalculated() {
+            return true;
+        }
+
+        @Override
+        public void calculateContainers() {}
+
+        @Override
+        public Container[] containerData() {
+            return new Container[] {container};
+        }
+
+        @Override
+        public void rejected(final boolean stopping) {
+            rejected.incrementAndGet();
+        }
+
+        @Override
+        public void executeAllContainers() {
+            work.run();
+            completed.incrementAndGet();
+        }
+
+        @Override
+        public List<ContainerJob> individuate() {
+            return List.of(new ContainerJob() {
+                @Override
+                public void execute(final Container container) {
+                    executeAllContainers();
+                }
+
+                @Override
+                public void reject(final Container container) {
+                    rejected(false);
+                }
+            });
+        }
+
+        @Override
+        public void individuatedJobsComplete() {}
+    }
+
+    public static Stream<Arguments> params() {
+        return Stream.of(
+            Arguments.of("default",
+                (Supplier<ThreadingModel>)() -> chain(new DefaultThreadingModel(THREAD_NAME_BASE, 4, 1000000), tm -> tm.start("nodeid"))),
+            Arguments.of("default-blocking",
+                (Supplier<ThreadingModel>)() -> chain(new DefaultThreadingModel(THREAD_NAME_BASE, 4, 1000), tm -> tm.setBlocking(true).start("nodeid"))),
+            Arguments.of("ordered",
+                (Supplier<ThreadingModel>)() -> chain(new OrderedPerContainerThreadingModel(THREAD_NAME_BASE, 1000000), tm -> tm.start("nodeid"))),
+            Arguments.of("ordered-alt",
+                (Supplier<ThreadingModel>)() -> chain(new OrderedPerContainerThreadingModelAlt(THREAD_NAME_BASE, 4, 1000000), tm -> tm.start("nodeid"))),
+            Arguments.of("work-stealing",
+                (Supplier<ThreadingModel>)() -> chain(new WorkStealingThreadingModel(THREAD_NAME_BASE, 4, 1000000), tm -> tm.start("nodeid"))));
+    }
+
+    @ParameterizedTest(name = "{index}: threading model={0}")
+    @MethodSource("params")
+    public void testAllBatchedJobsRun(final String name, final Supplier<ThreadingModel> utSupplier) throws Exception {
+        final AtomicLong completed = new AtomicLong(0);
+        final AtomicLong rejected = new AtomicLong(0);
+
+        try(final ThreadingModel ut = utSupplier.get();) {
+            final MessageDeliveryJob[] batch = new MessageDeliveryJob[BATCH_SIZE];
+            long accepted = 0;
+            for(int b = 0; b < NUM_BATCHES; b++) {
+                for(int i = 0; i < BATCH_SIZE; i++)
+                    batch[i] = new Job(() -> {}, completed, rejected);
+                accepted += ut.submitLimitedBatch(batch, BATCH_SIZE);
+            }
+
+            final long total = accepted;
+            assertEquals((long)NUM_BATCHES * BATCH_SIZE, total);
+            assertTrue(poll(o -> completed.get() == total));
+            assertEquals(0, rejected.get());
+            assertTrue(poll(o -> ut.getNumberLimitedPending() == 0));
+        }
+    }
+
+    @Test
+    public void testPartialRejection() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicLong completed = new AtomicLong(0);
+        final AtomicLong rejected = new AtomicLong(0);
+        final Runnable stall = () -> ignore(() -> latch.await());
+
+        // twice the max pending is the hard limit for the non-blocking model
+        try(final DefaultThreadingModel ut = chain(new DefaultThreadingModel(THREAD_NAME_BASE, 1, 10), tm -> tm.start("nodeid"));) {
+            ut.submitLimited(new Job(stall, completed, rejected));
+            assertTrue(poll(o -> ut.getNumberLimitedPending() == 0));
+
+            final MessageDeliveryJob[] batch = new MessageDeliveryJob[30];
+            for(int i = 0; i < batch.length; i++)
+                batch[i] = new Job(() -> {}, completed, rejected);
+
+            assertEquals(20, ut.submitLimitedBatch(batch, batch.length));
+            assertEquals(10, rejected.get());
+            assertEquals(20, ut.getNumberLimitedPending());
+
+            latch.countDown();
+            assertTrue(poll(o -> completed.get() + rejected.get() == batch.length + 1));
+            assertEquals(0, ut.getNumberLimitedPending());
+        }
+    }
+
+    @Test
+    public void testBlockingPartialRejection() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicLong completed = new AtomicLong(0);
+        final AtomicLong rejected = new AtomicLong(0);
+        final Runnable stall = () -> ignore(() -> latch.await());
+
+        try(final DefaultThreadingModel ut = chain(new DefaultThreadingModel(THREAD_NAME_BASE, 1, 2),
+            tm -> tm.setBlocking(true).setBlockingTimeoutMillis(20).start("nodeid"));) {
+            ut.submitLimited(new Job(stall, completed, rejected));
+            assertTrue(poll(o -> ut.getNumberLimitedPending() == 0));
+
+            final MessageDeliveryJob[] batch = new MessageDeliveryJob[5];
+            for(int i = 0; i < batch.length; i++)
+                batch[i] = new Job(() -> {}, completed, rejected);
+
+            // 2 fit and the rest time out waiting for room.
+            assertEquals(2, ut.submitLimitedBatch(batch, batch.length));
+            assertEquals(3, rejected.get());
+
+            latch.countDown();
+            assertTrue(poll(o -> completed.get() == 3));
+            assertEquals(3, rejected.get());
+        }
+    }
+
+    /**
+     * Not a pass/fail test. Prints the cost of submitting individually versus in batches.
+     */
+    @ParameterizedTest(name = "{index}: threading model={0}")
+    @MethodSource("params")
+    public void testBatchVsSingleSubmission(final String name, final Supplier<ThreadingModel> utSupplier) throws Exception {
+        final int numMessages = NUM_BATCHES * BATCH_SIZE * 10;
+        final long singleNanos = timeSubmission(utSupplier, numMessages, 1);
+        final long batchNanos = timeSubmission(utSupplier, numMessages, BATCH_SIZE);
+
+        System.out.println("===================================");
+        System.out.println(name + " single submission nanos per message:" + ((double)singleNanos / numMessages));
+        System.out.println(name + " batch(" + BATCH_SIZE + ") submission nanos per message:" + ((double)batchNanos / numMessages));
+    }
+
+    private static long timeSubmission(final Supplier<ThreadingModel> utSupplier, final int numMessages, final int batchSize) throws Exception {
+        final AtomicLong completed = new AtomicLong(0);
+        final AtomicLong rejected = new AtomicLong(0);
+        final Runnable noop = () -> {};
+
+        try(final ThreadingModel ut = utSupplier.get();) {
+            final MessageDeliveryJob[] batch = new MessageDeliveryJob[batchSize];
+            final long start = System.nanoTime();
+            for(int sent = 0; sent < numMessages; sent += batchSize) {
+                if(batchSize == 1)
+                    ut.submitLimited(new Job(noop, completed, rejected));
+                else {
+                    for(int i = 0; i < batchSize; i++)
+                        batch[i] = new Job(noop, completed, rejected);
+                    ut.submitLimitedBatch(batch, batchSize);
+                }
+            }
+            final long submitNanos = System.nanoTime() - start;
+
+            assertTrue(poll(o -> completed.get() + rejected.get() == numMessages));
+            return submitNanos;
+        }
+    }
+}
@@ -38,7 +38,9 @@ public class TestThreadingModel {
             Arguments.of(dtm,NUM_THREADS,MAX_PENDING),
             Arguments.of((Supplier<ThreadingModel>)() -> chain(new OrderedPerContainerThreadingModel(threadNameBase, MAX_PENDING), tm -> tm.start("nodeid")),1,MAX_PENDING),
             Arguments.of((Supplier<ThreadingModel>)() -> chain(new OrderedPerContainerThreadingModelAlt(threadNameBase, NUM_THREADS, MAX_PENDING),
-                tm -> tm.start("nodeid")),1,MAX_PENDING)
+                tm -> tm.start("nodeid")),1,MAX_PENDING),
+            Arguments.of((Supplier<ThreadingModel>)() -> chain(new WorkStealingThreadingModel(threadNameBase, NUM_THREADS, MAX_PENDING),
+                tm -> tm.start("nodeid")),NUM_THREADS,MAX_PENDING)
         );
 
     }
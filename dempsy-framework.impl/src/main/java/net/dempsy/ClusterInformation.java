@@ -1,11 +1,14 @@
 package net.dempsy;
 
+import java.io.Serializable;
 import java.util.HashSet;
 import java.util.Set;
 
 import net.dempsy.config.ClusterId;
 
-public class ClusterInformation {
+public class ClusterInformation implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     public final Set<String> messageTypesHandled;
     public final String routingStrategyTypeId;
     public final ClusterId clusterId;
@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import net.dempsy.config.ClusterId;
+import net.dempsy.config.Node;
 import net.dempsy.transport.NodeAddress;
 
 public class NodeInformation implements Serializable {
@@ -13,18 +14,30 @@ public class NodeInformation implements Serializable {
     public final NodeAddress nodeAddress;
     public final Map<ClusterId, ClusterInformation> clusterInfoByClusterId;
 
+    /**
+     * How much work the node can take on relative to the others. See {@link Node#capacityWeight(double)}.
+     */
+    public final double capacityWeight;
+
     @SuppressWarnings("unused")
     private NodeInformation() {
         transportTypeId = null;
         nodeAddress = null;
         clusterInfoByClusterId = new HashMap<>();
+        capacityWeight = Node.DEFAULT_CAPACITY_WEIGHT;
     }
 
     public NodeInformation(final String transportTypeId, final NodeAddress nodeAddress,
         final Map<ClusterId, ClusterInformation> messageTypesByClusterId) {
+        this(transportTypeId, nodeAddress, messageTypesByClusterId, Node.DEFAULT_CAPACITY_WEIGHT);
+    }
+
+    public NodeInformation(final String transportTypeId, final NodeAddress nodeAddress,
+        final Map<ClusterId, ClusterInformation> messageTypesByClusterId, final double capacityWeight) {
         this.transportTypeId = transportTypeId;
         this.nodeAddress = nodeAddress;
         this.clusterInfoByClusterId = new HashMap<>(messageTypesByClusterId);
+        this.capacityWeight = capacityWeight;
     }
 
     @Override
@@ -34,6 +47,7 @@ public class NodeInformation implements Serializable {
         result = prime * result + ((clusterInfoByClusterId == null) ? 0 : clusterInfoByClusterId.hashCode());
         result = prime * result + ((nodeAddress == null) ? 0 : nodeAddress.hashCode());
         result = prime * result + ((transportTypeId == null) ? 0 : transportTypeId.hashCode());
+        result = prime * result + Double.hashCode(capacityWeight);
         return result;
     }
 
@@ -59,12 +73,14 @@ public class NodeInformation implements Serializable {
                 return false;
         } else if(!transportTypeId.equals(other.transportTypeId))
             return false;
+        if(Double.compare(capacityWeight, other.capacityWeight) != 0)
+            return false;
         return true;
     }
 
     @Override
     public String toString() {
         return "NodeInformation [transportTypeId=" + transportTypeId + ", nodeAddress=" + nodeAddress + ", clusterInfoByClusterId=" + clusterInfoByClusterId
-            + "]";
+            + ", capacityWeight=" + capacityWeight + "]";
     }
 }
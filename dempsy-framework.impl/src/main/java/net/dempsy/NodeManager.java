@@ -145,7 +145,8 @@ public class NodeManager implements Infrastructure, AutoCloseable {
                 if(containerTypeId == null)
                     containerTypeId = node.getContainerTypeId(); // can't be null
                 final Container con = makeContainer(containerTypeId).setMessageProcessor(c.getMessageProcessor())
-                    .setClusterId(c.getClusterId()).setMaxPendingMessagesPerContainer(c.getMaxPendingMessagesPerContainer());
+                    .setClusterId(c.getClusterId()).setMaxPendingMessagesPerContainer(c.getMaxPendingMessagesPerContainer())
+                    .setMaxMessageAgeMillis(c.getMaxMessageAgeMillis());
 
                 // TODO: This is a hack for now.
                 final Manager<RoutingStrategy.Inbound> inboundManager = new RoutingInboundManager();
@@ -213,6 +214,15 @@ public class NodeManager implements Infrastructure, AutoCloseable {
 
         nodeStatsCollector.setMessagesPendingGauge(() -> threading.getNumberLimitedPending());
 
+        // clusters with a bulkhead get a threading model of their own. These are stopped with the node.
+        containers.stream().filter(pc -> pc.clusterDefinition.hasBulkhead()).forEach(pc -> {
+            final Cluster c = pc.clusterDefinition;
+            pc.container.setThreadingModel(tr.track(
+                new DefaultThreadingModel(nodeId + "-" + c.getClusterId().clusterName, c.getBulkheadThreads(), c.getBulkheadMaxPending()))
+                .setThreadPriority(c.getBulkheadThreadPriority())
+                .start(nodeId));
+        });
+
         final NodeReceiver nodeReciever = receiver == null ? null
             : tr
                 .track(new NodeReceiver(containers.stream().map(pc -> pc.container).collect(Collectors.toList()), threading,
@@ -223,8 +233,8 @@ public class NodeManager implements Infrastructure, AutoCloseable {
             messageTypesByClusterId.put(c.getClusterId(),
                 new ClusterInformation(c.getRoutingStrategyId(), c.getClusterId(), c.getMessageProcessor().messagesTypesHandled()));
         });
-        final NodeInformation nodeInfo = nodeAddress != null ? new NodeInformation(receiver.transportTypeId(), nodeAddress, messageTypesByClusterId)
-            : null;
+        final NodeInformation nodeInfo = nodeAddress != null ? new NodeInformation(receiver.transportTypeId(), nodeAddress, messageTypesByClusterId,
+            node.getCapacityWeight()) : null;
 
         // Then actually register the Node
         if(nodeInfo != null) {
@@ -1,8 +1,10 @@
 package net.dempsy;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.function.Supplier;
 
+import net.dempsy.container.BulkheadDeliveryJob;
 import net.dempsy.container.Container;
 import net.dempsy.container.DefaultDeliverMessageJob;
 import net.dempsy.container.DeliverDelayedMessageJob;
@@ -12,6 +14,7 @@ import net.dempsy.messages.MessageResourceManager;
 import net.dempsy.monitoring.NodeStatsCollector;
 import net.dempsy.threading.ThreadingModel;
 import net.dempsy.transport.Listener;
+import net.dempsy.transport.MessageBatch;
 import net.dempsy.transport.MessageTransportException;
 import net.dempsy.transport.RoutedMessage;
 
@@ -20,11 +23,13 @@ public class NodeReceiver implements Listener<RoutedMessage> {
     private final Container[] containers;
     private final ThreadingModel threadModel;
     private final NodeStatsCollector statsCollector;
+    private final boolean hasBulkheads;
 
     public NodeReceiver(final List<Container> nodeContainers, final ThreadingModel threadModel, final NodeStatsCollector statsCollector) {
         containers = nodeContainers.toArray(new Container[nodeContainers.size()]);
         this.threadModel = threadModel;
         this.statsCollector = statsCollector;
+        this.hasBulkheads = BulkheadDeliveryJob.anyBulkheads(containers);
     }
 
     private static final boolean ON_MESSAGE_JUST_ARRIVED = true;
@@ -39,10 +44,34 @@ public class NodeReceiver implements Listener<RoutedMessage> {
     @Override
     public boolean onMessage(final Supplier<RoutedMessage> supplier) {
         statsCollector.messageReceived(supplier);
-        threadModel.submitLimited(new DeliverDelayedMessageJob(containers, statsCollector, supplier, ON_MESSAGE_JUST_ARRIVED));
+        threadModel.submitLimited(bulkhead(new DeliverDelayedMessageJob(containers, statsCollector, supplier, ON_MESSAGE_JUST_ARRIVED)));
         return true;
     }
 
+    @Override
+    public void onMessages(final MessageBatch<RoutedMessage> batch) {
+        final int count = batch.size();
+        if(count == 0)
+            return;
+
+        // the job array is reused from batch to batch. The threading model doesn't hold onto it.
+        MessageDeliveryJob[] jobs = batch.getListenerScratch();
+        if(jobs == null || jobs.length < count) {
+            jobs = new MessageDeliveryJob[count];
+            batch.setListenerScratch(jobs);
+        }
+
+        statsCollector.messagesReceived(count);
+        for(int i = 0; i < count; i++)
+            jobs[i] = bulkhead(new DeliverDelayedMessageJob(containers, statsCollector, batch.get(i), ON_MESSAGE_JUST_ARRIVED));
+
+        try {
+            threadModel.submitLimitedBatch(jobs, count);
+        } finally {
+            Arrays.fill(jobs, 0, count, null);
+        }
+    }
+
     /**
      * This passes the message directly to the current node container(s) listed in the message.
      *
@@ -51,17 +80,22 @@ public class NodeReceiver implements Listener<RoutedMessage> {
      */
     public void propogateMessageToNode(final RoutedMessage message, final boolean justArrived, final MessageResourceManager disposition) {
         if(disposition == null) {
-            final MessageDeliveryJob rejectable = new DefaultDeliverMessageJob(containers, statsCollector, message, justArrived);
+            final MessageDeliveryJob rejectable = bulkhead(new DefaultDeliverMessageJob(containers, statsCollector, message, justArrived));
             if(justArrived)
                 threadModel.submitLimited(rejectable);
             else
                 threadModel.submit(rejectable);
         } else {
-            final MessageDeliveryJob rejectable = new DeliverResourceJob(containers, statsCollector, message, justArrived, disposition);
+            final MessageDeliveryJob rejectable = bulkhead(new DeliverResourceJob(containers, statsCollector, message, justArrived, disposition));
             if(justArrived)
                 threadModel.submitLimited(rejectable);
             else
                 threadModel.submit(rejectable);
         }
     }
+
+    // containers with their own bulkhead get their part of the message on their own threading model.
+    private MessageDeliveryJob bulkhead(final MessageDeliveryJob job) {
+        return hasBulkheads ? new BulkheadDeliveryJob(job) : job;
+    }
 }
@@ -106,7 +106,7 @@ public class NonLockingAltContainer extends Container {
 
         super.start(infra);
 
-        dempsyThreadingModel = infra.getThreadingModel();
+        dempsyThreadingModel = effectiveThreadingModel(infra);
 
         isReady.set(true);
     }
@@ -269,6 +269,9 @@ public class NonLockingAltContainer extends Container {
             return;
         }
 
+        if(op.handlesMessage)
+            inbound.messageAccepted(messageKey);
+
         numBeingWorked.incrementAndGet();
 
         boolean instanceDone = false;
@@ -95,6 +95,9 @@ public class NonLockingAltBulkContainer extends NonLockingAltContainer {
             return;
         }
 
+        if(op.handlesMessage)
+            inbound.messageAccepted(messageKey);
+
         numBeingWorked.incrementAndGet();
 
         boolean instanceDone = false;
@@ -92,7 +92,7 @@ public class LockingContainer extends Container {
     public void start(final Infrastructure infra) {
         super.start(infra);
 
-        dempsyThreadingModel = infra.getThreadingModel();
+        dempsyThreadingModel = effectiveThreadingModel(infra);
 
         isReady.set(true);
     }
@@ -289,6 +289,9 @@ public class LockingContainer extends Container {
             return;
         }
 
+        if(op.handlesMessage)
+            inbound.messageAccepted(messageKey);
+
         boolean evictedAndBlocking;
 
         try {
@@ -94,7 +94,7 @@ public class SimpleContainer extends Container {
     public void start(final Infrastructure infra) {
         super.start(infra);
 
-        dempsyThreadingModel = infra.getThreadingModel();
+        dempsyThreadingModel = effectiveThreadingModel(infra);
 
         isReady.set(true);
     }
@@ -257,6 +257,9 @@ public class SimpleContainer extends Container {
             return;
         }
 
+        if(op.handlesMessage)
+            inbound.messageAccepted(messageKey);
+
         boolean evictedAndBlocking;
 
         try {
@@ -3,10 +3,12 @@ package net.dempsy.intern;
 import static net.dempsy.intern.OutgoingDispatcher.LOGGER;
 import static net.dempsy.intern.OutgoingDispatcher.LOGGER_SESSION;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -50,6 +52,10 @@ import net.dempsy.transport.TransportManager;
  */
 public class ApplicationState {
     public final Map<String, RoutingStrategy.Router[]> outboundsByMessageType;
+    /**
+     * The name of the cluster each of the {@link #outboundsByMessageType} routes to, in the same order.
+     */
+    public final Map<String, String[]> clusterNamesByMessageType;
 
     private final Map<String, RoutingStrategy.Router> outboundByClusterName_;
     private final Map<String, List<String>> clusterNameByMessageType;
@@ -59,6 +65,9 @@ public class ApplicationState {
 
     private final ConcurrentHashMap<NodeAddress, Sender> senders;
 
+    // nodes a sender couldn't be made for, with the System.nanoTime() they can be tried again at.
+    private final ConcurrentHashMap<NodeAddress, Long> unreachableUntil = new ConcurrentHashMap<>();
+
     private ApplicationState(final Map<String, RoutingStrategy.Router> outboundByClusterName, final Map<String, Set<String>> cnByType,
         final Map<NodeAddress, NodeInformation> current, final TransportManager tManager, final NodeAddress thisNode,
         final ConcurrentHashMap<NodeAddress, Sender> currentSenders) {
@@ -71,25 +80,29 @@ public class ApplicationState {
         this.senders = currentSenders;
 
         outboundsByMessageType = new HashMap<>();
-        final HashMap<String, Set<RoutingStrategy.Router>> tmp = new HashMap<>();
+        clusterNamesByMessageType = new HashMap<>();
+        final HashMap<String, Map<RoutingStrategy.Router, String>> tmp = new HashMap<>();
         for(final Map.Entry<String, Set<String>> e: cnByType.entrySet()) {
             final Set<String> clusterNames = e.getValue();
             final String messageType = e.getKey();
-            final Set<RoutingStrategy.Router> cur = tmp.computeIfAbsent(messageType, k -> new HashSet<>());
+            final Map<RoutingStrategy.Router, String> cur = tmp.computeIfAbsent(messageType, k -> new LinkedHashMap<>());
             for(final String clusterName: clusterNames) {
                 final RoutingStrategy.Router router = outboundByClusterName.get(clusterName);
                 if(router != null)
-                    cur.add(router);
+                    cur.putIfAbsent(router, clusterName);
             }
         }
 
-        for(final Map.Entry<String, Set<RoutingStrategy.Router>> e: tmp.entrySet())
-            outboundsByMessageType.put(e.getKey(), e.getValue().stream().toArray(RoutingStrategy.Router[]::new));
+        for(final Map.Entry<String, Map<RoutingStrategy.Router, String>> e: tmp.entrySet()) {
+            outboundsByMessageType.put(e.getKey(), e.getValue().keySet().stream().toArray(RoutingStrategy.Router[]::new));
+            clusterNamesByMessageType.put(e.getKey(), e.getValue().values().stream().toArray(String[]::new));
+        }
     }
 
     public ApplicationState(final TransportManager tManager, final NodeAddress thisNode, final ConcurrentHashMap<NodeAddress, Sender> currentSenders) {
         outboundByClusterName_ = new HashMap<>();
         outboundsByMessageType = new HashMap<>();
+        clusterNamesByMessageType = new HashMap<>();
         clusterNameByMessageType = new HashMap<>();
         current = new HashMap<>();
         this.tManager = tManager;
@@ -154,19 +167,19 @@ public class ApplicationState {
 
     public ApplicationState apply(final ApplicationState.Update update, final TransportManager tmanager, final NodeStatsCollector statsCollector,
         final RoutingStrategyManager manager, final String thisNodeId) {
-        // apply toDelete first.
+        // apply toDelete first. This state is still in use so the new one gets its own senders. The ones that
+        // aren't carried over are stopped when this state is retired.
         final Set<NodeAddress> toDelete = update.toDelete;
+        final ConcurrentHashMap<NodeAddress, Sender> newSenders = new ConcurrentHashMap<>(senders);
 
         final boolean infoEnabled = LOGGER_SESSION.isInfoEnabled();
         if(toDelete.size() > 0) { // just clear all senders.
             if(infoEnabled)
                 LOGGER_SESSION.info("[{}] Applying update to topology resulting in removing several destinations:", thisNodeId);
             for(final NodeAddress a: toDelete) {
-                final Sender s = senders.remove(a);
+                final Sender s = newSenders.remove(a);
                 if(infoEnabled)
                     LOGGER_SESSION.info("[{}]      removing sender ({}) to {}", thisNodeId, s, a);
-                if(s != null)
-                    s.stop();
             }
         }
 
@@ -194,6 +207,10 @@ public class ApplicationState {
             newCurrent.put(cur.nodeAddress, cur);
         }
 
+        // senders made for nodes that aren't part of the new topology, like the ones a router seeded from a
+        // snapshot routed to, aren't carried over. They're stopped when this state is retired.
+        newSenders.keySet().retainAll(newCurrent.keySet());
+
         // now flush out the remaining caches.
 
         // collapse all clusterInfos
@@ -228,7 +245,49 @@ public class ApplicationState {
             });
         }
 
-        return new ApplicationState(newOutboundByClusterName, cnByType, newCurrent, tmanager, thisNode, senders);
+        return new ApplicationState(newOutboundByClusterName, cnByType, newCurrent, tmanager, thisNode, newSenders);
+    }
+
+    /**
+     * Once nothing is using this state anymore, stop the senders that the state that replaced it doesn't have. This
+     * includes the ones for nodes that were removed and any created after the replacement was made.
+     */
+    public void retire(final ApplicationState replacement) {
+        for(final Map.Entry<NodeAddress, Sender> e: senders.entrySet()) {
+            final Sender s = e.getValue();
+            if(replacement.senders.get(e.getKey()) != s) {
+                LOGGER_SESSION.debug("Stopping the retired sender ({}) to {}", s, e.getKey());
+                s.stop();
+            }
+        }
+        senders.clear();
+    }
+
+    /**
+     * Everything needed to route the way this state does. See {@link RoutingSnapshot}.
+     */
+    public RoutingSnapshot snapshot(final String rootDir) {
+        final Map<String, Serializable> routers = new HashMap<>();
+        outboundByClusterName_.forEach((clusterName, r) -> {
+            final Serializable snapshot = r.snapshot();
+            if(snapshot != null)
+                routers.put(clusterName, snapshot);
+        });
+        return new RoutingSnapshot(rootDir, new HashSet<>(current.values()), routers);
+    }
+
+    /**
+     * Seed this state's routers from the snapshot. This state should have been made by applying an update to the nodes
+     * in the snapshot. Returns the number of routers that are using it.
+     */
+    public int seed(final RoutingSnapshot snapshot) {
+        int ret = 0;
+        for(final Map.Entry<String, Serializable> e: snapshot.routerSnapshotsByClusterName.entrySet()) {
+            final RoutingStrategy.Router r = outboundByClusterName_.get(e.getKey());
+            if(r != null && r.seed(e.getValue()))
+                ret++;
+        }
+        return ret;
     }
 
     public void stop() {
@@ -262,6 +321,27 @@ public class ApplicationState {
         return ret;
     }
 
+    /**
+     * Skip the node for the next {@code backoffMillis}. After that {@link #isUnreachable(NodeAddress)} lets it be tried
+     * again.
+     *
+     * @return true if it wasn't already marked.
+     */
+    public boolean markUnreachable(final NodeAddress na, final long backoffMillis) {
+        return unreachableUntil.putIfAbsent(na, System.nanoTime() + (backoffMillis * 1000000L)) == null;
+    }
+
+    public boolean isUnreachable(final NodeAddress na) {
+        final Long until = unreachableUntil.get(na);
+        if(until == null)
+            return false;
+        if(System.nanoTime() - until < 0)
+            return true;
+        // the backoff is over.
+        unreachableUntil.remove(na, until);
+        return false;
+    }
+
     /**
      * Evicts a stale sender from the cache so the next call to {@link #getSender(NodeAddress)}
      * goes back through the {@link SenderFactory} and picks up a fresh connection (with the
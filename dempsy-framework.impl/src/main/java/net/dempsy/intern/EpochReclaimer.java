@@ -0,0 +1,156 @@
+package net.dempsy.intern;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Epoch based reclamation. Threads reading something that can be replaced, like the current {@link ApplicationState},
+ * call {@link #enter()} before they read the reference and {@link #exit()} once they're done with what they read. The
+ * thread replacing it swaps the reference first and then {@link #retire(Runnable)}s whatever needs cleaning up. The
+ * clean up is only run, by {@link #reclaim()}, once every thread that could have read the old reference has exited.
+ * </p>
+ *
+ * <p>
+ * Each thread only ever writes to its own record so entering and exiting don't contend with other threads. Nothing
+ * ever waits. {@link #reclaim()} just runs whatever's safe to run and reports how much is left.
+ * </p>
+ */
+public class EpochReclaimer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EpochReclaimer.class);
+
+    private static final long QUIESCENT = 0L;
+
+    private final AtomicLong epoch = new AtomicLong(1L);
+    private final ConcurrentLinkedQueue<Record> records = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Record> record = ThreadLocal.withInitial(() -> {
+        final Record ret = new Record(Thread.currentThread());
+        records.add(ret);
+        return ret;
+    });
+    private final List<Retired> retired = new ArrayList<>();
+
+    private static class Record {
+        final WeakReference<Thread> thread;
+        // the epoch the thread entered in or QUIESCENT. Only written by the owning thread.
+        volatile long active = QUIESCENT;
+        // only touched by the owning thread.
+        int depth = 0;
+
+        Record(final Thread thread) {
+            this.thread = new WeakReference<>(thread);
+        }
+    }
+
+    private static class Retired {
+        final long epoch;
+        final Runnable cleanup;
+
+        Retired(final long epoch, final Runnable cleanup) {
+            this.epoch = epoch;
+            this.cleanup = cleanup;
+        }
+    }
+
+    /**
+     * Call this before reading the reference. Calls can be nested on the same thread.
+     */
+    public void enter() {
+        final Record r = record.get();
+        if(r.depth++ == 0)
+            r.active = epoch.get();
+    }
+
+    /**
+     * Call this, in a finally block, once done with what was read after the matching {@link #enter()}.
+     */
+    public void exit() {
+        final Record r = record.get();
+        if(--r.depth == 0)
+            r.active = QUIESCENT;
+    }
+
+    /**
+     * The reference must already have been replaced when this is called. The {@code cleanup} will be run by a later
+     * call to {@link #reclaim()} once no thread can still be using the old one.
+     */
+    public void retire(final Runnable cleanup) {
+        // anyone entering from here on sees the new epoch and therefore the new reference.
+        final long retiredAt = epoch.incrementAndGet();
+        synchronized(retired) {
+            retired.add(new Retired(retiredAt, cleanup));
+        }
+    }
+
+    /**
+     * Run the clean up of everything that's been retired that no thread can still be using.
+     *
+     * @return the number of retired clean ups that still can't be run.
+     */
+    public int reclaim() {
+        return reclaim(false);
+    }
+
+    /**
+     * Run all of the retired clean ups whether or not they're safe. This is for shutting down.
+     */
+    public void reclaimAll() {
+        reclaim(true);
+    }
+
+    private int reclaim(final boolean force) {
+        final List<Runnable> toRun = new ArrayList<>();
+        final int remaining;
+        synchronized(retired) {
+            if(retired.isEmpty())
+                return 0;
+
+            final long oldestActive = force ? Long.MAX_VALUE : oldestActiveEpoch();
+            for(final Iterator<Retired> iter = retired.iterator(); iter.hasNext();) {
+                final Retired r = iter.next();
+                // a thread active in an epoch before the clean up was retired might still be using what it cleans up.
+                if(oldestActive >= r.epoch) {
+                    toRun.add(r.cleanup);
+                    iter.remove();
+                }
+            }
+            remaining = retired.size();
+        }
+
+        for(final Runnable cleanup: toRun) {
+            try {
+                cleanup.run();
+            } catch(final RuntimeException rte) {
+                LOGGER.warn("Failed to clean up after a retired reference", rte);
+            }
+        }
+        return remaining;
+    }
+
+    private long oldestActiveEpoch() {
+        long ret = Long.MAX_VALUE;
+        for(final Iterator<Record> iter = records.iterator(); iter.hasNext();) {
+            final Record r = iter.next();
+            final long active = r.active;
+            if(active != QUIESCENT)
+                ret = Math.min(ret, active);
+            else if(r.thread.get() == null) // the thread is gone
+                iter.remove();
+        }
+        return ret;
+    }
+
+    // =====================================================================
+    // Strictly for testing.
+    // =====================================================================
+    int numRecords() {
+        return records.size();
+    }
+}
@@ -0,0 +1,277 @@
+package net.dempsy.intern;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import net.dempsy.monitoring.HotKey;
+
+/**
+ * <p>
+ * A Space-Saving sketch of the most frequent keys in a stream using a fixed number of counters. Any key with more
+ * than {@code total/capacity} of the stream is guaranteed to be tracked and each count is over by at most the
+ * reported error.
+ * </p>
+ *
+ * <p>
+ * The counters are kept in a min-heap indexed by a map from the key so both counting a tracked key and replacing the
+ * least frequent one with a new key are {@code O(log capacity)}. When the total reaches the half-life every count is
+ * halved so the sketch follows the current rate rather than all of history.
+ * </p>
+ *
+ * <p>
+ * {@link #offer(Object)} only counts one in every {@code sampleRate} calls (on average) so the cost on the dispatch
+ * path of the calls that don't count is a random number.
+ * </p>
+ *
+ * <p>
+ * So that the threads counting keys don't all contend on one lock, the sketch can be split into stripes. Each thread
+ * counts into the stripe picked by its id and the stripes are merged when the hot keys are read. A key missing from
+ * a full stripe could have been counted there as many times as that stripe's least frequent key, so that much is
+ * added to both its count and its error.
+ * </p>
+ */
+public class HeavyHitters {
+    private final int capacity;
+    private final int sampleRate;
+    private final Sketch[] stripes;
+    private final int stripeMask;
+
+    /**
+     * @param capacity the number of counters which bounds the memory used.
+     * @param sampleRate only count one in this many offered keys. 1 counts them all.
+     * @param halfLife halve the counts once this many keys have been counted. 0 or less means never.
+     */
+    public HeavyHitters(final int capacity, final int sampleRate, final long halfLife) {
+        this(capacity, sampleRate, halfLife, 1);
+    }
+
+    /**
+     * @param numStripes the number of separately locked sketches to count into. It's rounded up to a power of 2. Each
+     *     has {@code capacity} counters and is halved once it has counted its share of the {@code halfLife}.
+     */
+    public HeavyHitters(final int capacity, final int sampleRate, final long halfLife, final int numStripes) {
+        if(capacity < 1)
+            throw new IllegalArgumentException("The capacity of a " + HeavyHitters.class.getSimpleName() + " must be at least 1. It was " + capacity);
+        if(sampleRate < 1)
+            throw new IllegalArgumentException("The sample rate of a " + HeavyHitters.class.getSimpleName() + " must be at least 1. It was " + sampleRate);
+        if(numStripes < 1)
+            throw new IllegalArgumentException("The number of stripes of a " + HeavyHitters.class.getSimpleName() + " must be at least 1. It was "
+                + numStripes);
+        this.capacity = capacity;
+        this.sampleRate = sampleRate;
+
+        final int num = Integer.bitCount(numStripes) == 1 ? numStripes : Integer.highestOneBit(numStripes) << 1;
+        final long stripeHalfLife = halfLife <= 0 ? halfLife : Math.max(1, halfLife / num);
+        this.stripes = new Sketch[num];
+        for(int i = 0; i < num; i++)
+            stripes[i] = new Sketch(capacity, stripeHalfLife);
+        this.stripeMask = num - 1;
+    }
+
+    /**
+     * Count the key if it's sampled.
+     */
+    public void offer(final Object key) {
+        if(sampled(sampleRate))
+            add(key);
+    }
+
+    /**
+     * The sampling {@link #offer(Object)} does, for callers that want to skip finding the {@link HeavyHitters} to
+     * {@link #add(Object)} to when the key isn't going to be counted.
+     */
+    static boolean sampled(final int sampleRate) {
+        return sampleRate <= 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0;
+    }
+
+    /**
+     * Always count the key.
+     */
+    public void add(final Object key) {
+        stripes[(int)Thread.currentThread().getId() & stripeMask].add(key);
+    }
+
+    /**
+     * The {@code n} most frequent keys, most frequent first.
+     */
+    public List<HotKey> top(final int n) {
+        if(stripes.length == 1)
+            return stripes[0].top(n);
+
+        long total = 0;
+        final long[] mins = new long[stripes.length];
+        final List<Map<Object, HotKey>> byStripe = new ArrayList<>(stripes.length);
+        final Map<Object, long[]> merged = new HashMap<>();
+        for(int s = 0; s < stripes.length; s++) {
+            final Sketch stripe = stripes[s];
+            final List<HotKey> hot;
+            synchronized(stripe) {
+                total += stripe.total;
+                mins[s] = stripe.size == capacity ? stripe.counts[0] : 0;
+                hot = stripe.top(capacity);
+            }
+            final Map<Object, HotKey> keys = new HashMap<>(hot.size() * 2);
+            for(final HotKey hk: hot) {
+                keys.put(hk.key, hk);
+                final long[] countAndError = merged.computeIfAbsent(hk.key, k -> new long[2]);
+                countAndError[0] += hk.count;
+                countAndError[1] += hk.error;
+            }
+            byStripe.add(keys);
+        }
+
+        for(int s = 0; s < stripes.length; s++) {
+            if(mins[s] == 0)
+                continue;
+            final Map<Object, HotKey> keys = byStripe.get(s);
+            for(final Map.Entry<Object, long[]> e: merged.entrySet()) {
+                if(!keys.containsKey(e.getKey())) {
+                    e.getValue()[0] += mins[s];
+                    e.getValue()[1] += mins[s];
+                }
+            }
+        }
+
+        final List<HotKey> all = new ArrayList<>(merged.size());
+        for(final Map.Entry<Object, long[]> e: merged.entrySet()) {
+            final long count = e.getValue()[0];
+            all.add(new HotKey(e.getKey(), count, e.getValue()[1], total == 0 ? 0.0D : (double)count / total));
+        }
+        all.sort((a, b) -> Long.compare(b.count, a.count));
+        return new ArrayList<>(all.subList(0, Math.min(n, all.size())));
+    }
+
+    public List<HotKey> top() {
+        return top(capacity);
+    }
+
+    public long total() {
+        long ret = 0;
+        for(final Sketch stripe: stripes) {
+            synchronized(stripe) {
+                ret += stripe.total;
+            }
+        }
+        return ret;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    private static class Sketch {
+        private final int capacity;
+        private final long halfLife;
+
+        // a min-heap on counts
+        private final Object[] keys;
+        private final long[] counts;
+        private final long[] errors;
+        private final Map<Object, Integer> indexOf;
+        private int size = 0;
+        private long total = 0;
+
+        private Sketch(final int capacity, final long halfLife) {
+            this.capacity = capacity;
+            this.halfLife = halfLife;
+            this.keys = new Object[capacity];
+            this.counts = new long[capacity];
+            this.errors = new long[capacity];
+            this.indexOf = new HashMap<>(capacity * 2);
+        }
+
+        synchronized void add(final Object key) {
+            total++;
+            final Integer index = indexOf.get(key);
+            if(index != null) {
+                final int i = index.intValue();
+                counts[i]++;
+                siftDown(i);
+            } else if(size < capacity) {
+                final int i = size++;
+                keys[i] = key;
+                counts[i] = 1;
+                errors[i] = 0;
+                indexOf.put(key, Integer.valueOf(i));
+                siftUp(i);
+            } else {
+                // replace the least frequent. The new key could have been counted as many times as it.
+                indexOf.remove(keys[0]);
+                keys[0] = key;
+                errors[0] = counts[0];
+                counts[0]++;
+                indexOf.put(key, Integer.valueOf(0));
+                siftDown(0);
+            }
+
+            if(halfLife > 0 && total >= halfLife)
+                halve();
+        }
+
+        synchronized List<HotKey> top(final int n) {
+            final Integer[] order = new Integer[size];
+            for(int i = 0; i < size; i++)
+                order[i] = Integer.valueOf(i);
+            Arrays.sort(order, (a, b) -> Long.compare(counts[b.intValue()], counts[a.intValue()]));
+
+            final int num = Math.min(n, size);
+            final List<HotKey> ret = new ArrayList<>(num);
+            for(int j = 0; j < num; j++) {
+                final int i = order[j].intValue();
+                ret.add(new HotKey(keys[i], counts[i], errors[i], total == 0 ? 0.0D : (double)counts[i] / total));
+            }
+            return ret;
+        }
+
+        // halving keeps the heap ordered.
+        private void halve() {
+            total >>>= 1;
+            for(int i = 0; i < size; i++) {
+                counts[i] >>>= 1;
+                errors[i] >>>= 1;
+            }
+        }
+
+        private void siftUp(int i) {
+            while(i > 0) {
+                final int parent = (i - 1) >>> 1;
+                if(counts[parent] <= counts[i])
+                    break;
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while(true) {
+                final int left = (i << 1) + 1;
+                if(left >= size)
+                    break;
+                final int right = left + 1;
+                final int smallest = (right < size && counts[right] < counts[left]) ? right : left;
+                if(counts[i] <= counts[smallest])
+                    break;
+                swap(i, smallest);
+                i = smallest;
+            }
+        }
+
+        private void swap(final int a, final int b) {
+            final Object k = keys[a];
+            keys[a] = keys[b];
+            keys[b] = k;
+            final long c = counts[a];
+            counts[a] = counts[b];
+            counts[b] = c;
+            final long e = errors[a];
+            errors[a] = errors[b];
+            errors[b] = e;
+            indexOf.put(keys[a], Integer.valueOf(a));
+            indexOf.put(keys[b], Integer.valueOf(b));
+        }
+    }
+}
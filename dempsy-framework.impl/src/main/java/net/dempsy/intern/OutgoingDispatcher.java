@@ -1,12 +1,16 @@
 package net.dempsy.intern;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -24,16 +28,20 @@ import net.dempsy.messages.Dispatcher;
 import net.dempsy.messages.KeyedMessageWithType;
 import net.dempsy.messages.MessageResourceManager;
 import net.dempsy.transport.MessageTransportException;
+import net.dempsy.monitoring.HotKey;
 import net.dempsy.monitoring.NodeStatsCollector;
 import net.dempsy.router.RoutingStrategy;
 import net.dempsy.router.RoutingStrategy.ContainerAddress;
 import net.dempsy.router.RoutingStrategyManager;
+import net.dempsy.transport.FanOutRoutedMessage;
+import net.dempsy.transport.FanOutRoutedMessage.FanOut;
 import net.dempsy.transport.NodeAddress;
 import net.dempsy.transport.RoutedMessage;
 import net.dempsy.transport.Sender;
 import net.dempsy.transport.TransportManager;
 import net.dempsy.util.QuietCloseable;
 import net.dempsy.util.SafeString;
+import net.dempsy.util.executor.AutoDisposeSingleThreadScheduler;
 import net.dempsy.utils.PersistentTask;
 
 public class OutgoingDispatcher extends Dispatcher implements Service {
@@ -42,11 +50,62 @@ public class OutgoingDispatcher extends Dispatcher implements Service {
     static Logger LOGGER = LoggerFactory.getLogger(OutgoingDispatcher.class);
     static Logger LOGGER_SESSION = LoggerFactory.getLogger(OutgoingDispatcher.class.getName() + ".session");
     private static final long RETRY_TIMEOUT = 500L;
+    private static final long RECLAIM_RETRY_MILLIS = 10L;
+
+    /**
+     * The number of keys to track for each cluster messages are sent to. See {@link HeavyHitters}. 0 turns off hot key
+     * tracking.
+     */
+    public static final String CONFIG_KEY_HOT_KEYS_TRACKED = "hot_keys_tracked";
+    public static final String DEFAULT_HOT_KEYS_TRACKED = "32";
+
+    /**
+     * Only one in this many messages are counted.
+     */
+    public static final String CONFIG_KEY_HOT_KEYS_SAMPLE_RATE = "hot_keys_sample_rate";
+    public static final String DEFAULT_HOT_KEYS_SAMPLE_RATE = "16";
+
+    /**
+     * The counts are halved every time this many messages (after sampling) have been counted for a cluster so the hot
+     * keys reflect recent traffic.
+     */
+    public static final String CONFIG_KEY_HOT_KEYS_HALF_LIFE = "hot_keys_half_life";
+    public static final String DEFAULT_HOT_KEYS_HALF_LIFE = "100000";
+
+    /**
+     * A local file to save what's being routed with to. When the node starts again it routes from what's in the file
+     * until it's heard from the cluster, rather than waiting for it. See {@link RoutingSnapshot}. Empty (the default)
+     * means nothing is saved.
+     */
+    public static final String CONFIG_KEY_ROUTING_SNAPSHOT_FILE = "routing_snapshot_file";
+    public static final String DEFAULT_ROUTING_SNAPSHOT_FILE = "";
+
+    /**
+     * A routing snapshot older than this is ignored when starting.
+     */
+    public static final String CONFIG_KEY_ROUTING_SNAPSHOT_MAX_AGE_MILLIS = "routing_snapshot_max_age_millis";
+    public static final String DEFAULT_ROUTING_SNAPSHOT_MAX_AGE_MILLIS = "600000";
+
+    /**
+     * How often the routing snapshot is saved while running. It's also saved when stopping. 0 means it's only saved when
+     * stopping.
+     */
+    public static final String CONFIG_KEY_ROUTING_SNAPSHOT_SAVE_INTERVAL_MILLIS = "routing_snapshot_save_interval_millis";
+    public static final String DEFAULT_ROUTING_SNAPSHOT_SAVE_INTERVAL_MILLIS = "30000";
+
+    /**
+     * When a sender can't be made for a node, messages to it are dropped for this long before connecting is tried again.
+     */
+    public static final String CONFIG_KEY_UNREACHABLE_RETRY_MILLIS = "unreachable_retry_millis";
+    public static final String DEFAULT_UNREACHABLE_RETRY_MILLIS = "1000";
 
     private PersistentTask checkup;
     private final AtomicBoolean isRunning = new AtomicBoolean(false);
     private final RoutingStrategyManager manager;
     private final AtomicReference<ApplicationState> outbounds = new AtomicReference<>(null);
+    // ApplicationStates that have been replaced are cleaned up once no dispatch can still be using them.
+    private final EpochReclaimer reclaimer = new EpochReclaimer();
+    private AutoDisposeSingleThreadScheduler scheduler;
 
     private final NodeAddress thisNode;
     private final String thisNodeId;
@@ -54,6 +113,14 @@ public class OutgoingDispatcher extends Dispatcher implements Service {
     private final NodeReceiver nodeReciever;
     private final AtomicBoolean isReady = new AtomicBoolean(false);
     private final NodeStatsCollector statsCollector;
+    private final ConcurrentHashMap<String, HeavyHitters> hotKeysByCluster = new ConcurrentHashMap<>();
+    private int hotKeysTracked = 0;
+    private int hotKeysSampleRate = 1;
+    private long hotKeysHalfLife = 0;
+    private File snapshotFile = null;
+    private long snapshotSaveIntervalMillis = 0;
+    private long unreachableRetryMillis = 0;
+    private String rootDir = null;
 
     public OutgoingDispatcher(final RoutingStrategyManager manager, final NodeAddress thisNode, final String thisNodeId,
         final NodeReceiver nodeReciever, final TransportManager tmanager, final NodeStatsCollector statsCollector) {
@@ -92,25 +159,16 @@ public class OutgoingDispatcher extends Dispatcher implements Service {
             throw new NullPointerException("Message " + SafeString.objectDescription(messageParam) + " has a null key.");
         boolean messageSentSomewhere = false;
 
+        reclaimer.enter();
         try(ResourceManagerClosable x = new ResourceManagerClosable(disposer, messageParam);) {
             final KeyedMessageWithType message = x.toUse;
-            ApplicationState tmp = outbounds.get();
 
-            // if we're in the midst of an update then we really want to wait for the new state.
-            while(tmp == null) {
-                if(!isRunning.get()) {
-                    LOGGER.debug("[{}] Router dispatch called while stopped.", thisNodeId);
-                    return;
-                }
-
-                if(!isReady.get()) // however, if we never were ready then we're not in the midst
-                                   // of an update.
-                    throw new IllegalStateException("Dispatch used before Router is ready.");
-
-                Thread.yield(); // let the other threads do their thing. Maybe we'll be updated sooner.
-                tmp = outbounds.get(); // are we updated yet?
+            // a topology update swaps in the new state all at once so this is only null when we're not running.
+            final ApplicationState cur = outbounds.get();
+            if(cur == null) {
+                LOGGER.debug("[{}] Router dispatch called while stopped.", thisNodeId);
+                return;
             }
-            final ApplicationState cur = tmp;
 
             final Map<String, RoutingStrategy.Router[]> outboundsByMessageType = cur.outboundsByMessageType;
 
@@ -120,6 +178,7 @@ public class OutgoingDispatcher extends Dispatcher implements Service {
             final Map<NodeAddress, ContainerAddress> containerByNodeAddress = new HashMap<>();
             for(final String mt: message.messageTypes) {
                 final RoutingStrategy.Router[] routers = outboundsByMessageType.get(mt);
+                final String[] clusterNames = cur.clusterNamesByMessageType.get(mt);
                 if(routers == null) {
                     if(traceEnabled)
                         LOGGER.trace("[{}] No cluster that handles messages of type {}", thisNodeId, mt);
@@ -127,23 +186,31 @@ public class OutgoingDispatcher extends Dispatcher implements Service {
                     // For this message type we now have all of the Routers. For each Router determine
                     // the set of ContainerAddresses that this message will be sent to.
                     for(int i = 0; i < routers.length; i++) {
-                        final ContainerAddress ca = routers[i].selectDestinationForMessage(message);
+                        final RoutingStrategy.Router router = routers[i];
+                        if(router.selectsMultipleDestinations()) {
+                            // one copy of the message goes to each node.
+                            final Collection<ContainerAddress> cas = router.selectDestinationsForMessage(message);
+                            if(cas.isEmpty()) {
+                                if(LOGGER.isDebugEnabled())
+                                    LOGGER.debug("[{}] No way to send the message {} to specific cluster for the time being", thisNodeId, message.message);
+                            } else {
+                                if(hotKeysTracked > 0 && HeavyHitters.sampled(hotKeysSampleRate))
+                                    hotKeys(clusterNames[i]).add(messageKey);
+                                for(final ContainerAddress ca: cas)
+                                    addDestination(containerByNodeAddress, ca);
+                            }
+                            continue;
+                        }
+
+                        final ContainerAddress ca = router.selectDestinationForMessage(message);
                         // it's possible 'ca' is null when we don't know where to send the message.
                         if(ca == null) {
                             if(LOGGER.isDebugEnabled())
                                 LOGGER.debug("[{}] No way to send the message {} to specific cluster for the time being", thisNodeId, message.message);
                         } else {
-                            // When the message will be sent to 2 different clusters, but both clusters
-                            // are hosted in the same node, then we send 1 message to 1 ContainerAddress
-                            // where the 'clusters' field contains both container ids.
-                            final ContainerAddress already = containerByNodeAddress.get(ca.node);
-                            if(already != null) {
-                                final int[] ia = new int[already.clusters.length + ca.clusters.length];
-                                System.arraycopy(already.clusters, 0, ia, 0, already.clusters.length);
-                                System.arraycopy(ca.clusters, 0, ia, already.clusters.length, ca.clusters.length);
-                                containerByNodeAddress.put(ca.node, new ContainerAddress(ca.node, ia));
-                            } else
-                                containerByNodeAddress.put(ca.node, ca);
+                            if(hotKeysTracked > 0 && HeavyHitters.sampled(hotKeysSampleRate))
+                                hotKeys(clusterNames[i]).add(messageKey);
+                            addDestination(containerByNodeAddress, ca);
                         }
                     }
                 }
@@ -156,6 +223,13 @@ public class OutgoingDispatcher extends Dispatcher implements Service {
                         SafeString.objectDescription(message.message));
             }
 
+            // if the same message is going to more than one other node then the copies share a FanOut
+            // so the transport can serialize it once.
+            int numRemote = containerByNodeAddress.size();
+            if(containerByNodeAddress.containsKey(thisNode))
+                numRemote--;
+            final FanOut fanOut = numRemote > 1 ? new FanOut(numRemote) : null;
+
             for(final Map.Entry<NodeAddress, ContainerAddress> e: containerByNodeAddress.entrySet()) {
                 final NodeAddress curNode = e.getKey();
                 final ContainerAddress curAddr = e.getValue();
@@ -177,29 +251,55 @@ public class OutgoingDispatcher extends Dispatcher implements Service {
                     if(traceEnabled)
                         LOGGER.trace("Sending {} to {}", message, curNode);
 
-                    final Sender sender = cur.getSender(curNode);
-                    if(sender == null) {
-                        // router update is probably behind the routing strategy update
-                        if(isRunning.get())
-                            LOGGER.error("[{}] Couldn't send message to " + curNode + " from " + thisNodeId + " because there's no "
-                                + Sender.class.getSimpleName(), thisNodeId);
-                    } else {
+                    // this destination's reference to the fan-out is released here unless a sender takes it.
+                    boolean fanOutHandedOff = false;
+                    try {
+                        if(cur.isUnreachable(curNode))
+                            continue;
+
+                        final Sender sender;
                         try {
-                            sender.send(new RoutedMessage(curAddr.clusters, messageKey,
-                                sender.considerMessageOwnsershipTransfered() ? (disposer == null ? message.message : disposer.replicate(message.message))
-                                    : message.message));
-                            messageSentSomewhere = true;
+                            sender = cur.getSender(curNode);
                         } catch(final MessageTransportException mte) {
-                            // The sender is dead (e.g. remote pod restarted in k8s and reconnect failed).
-                            // Evict it from the cache so the next dispatch creates a fresh sender via the
-                            // routing layer, which will get the updated address from ZooKeeper.
-                            LOGGER.warn("[{}] Send to {} failed, evicting stale sender: {}", thisNodeId, curNode, mte.getMessage());
-                            cur.removeSender(curNode);
+                            // The node can't be reached. When routing from a snapshot it may not be there anymore. Rather
+                            // than trying to connect again for every message it's skipped for a while and then tried again.
+                            if(cur.markUnreachable(curNode, unreachableRetryMillis))
+                                LOGGER.warn("[{}] Couldn't connect to {}. Skipping it for {} millis: {}", thisNodeId, curNode, unreachableRetryMillis,
+                                    mte.getMessage());
+                            continue;
                         }
+                        if(sender == null) {
+                            // router update is probably behind the routing strategy update
+                            if(isRunning.get())
+                                LOGGER.error("[{}] Couldn't send message to " + curNode + " from " + thisNodeId + " because there's no "
+                                    + Sender.class.getSimpleName(), thisNodeId);
+                        } else {
+                            try {
+                                if(sender.considerMessageOwnsershipTransfered())
+                                    sender.send(new RoutedMessage(curAddr.clusters, messageKey,
+                                        disposer == null ? message.message : disposer.replicate(message.message)));
+                                else if(fanOut != null) {
+                                    fanOutHandedOff = true; // the send releases it if it fails.
+                                    FanOutRoutedMessage.send(sender, curAddr.clusters, messageKey, message.message, fanOut);
+                                } else
+                                    sender.send(new RoutedMessage(curAddr.clusters, messageKey, message.message));
+                                messageSentSomewhere = true;
+                            } catch(final MessageTransportException mte) {
+                                // The sender is dead (e.g. remote pod restarted in k8s and reconnect failed).
+                                // Evict it from the cache so the next dispatch creates a fresh sender via the
+                                // routing layer, which will get the updated address from ZooKeeper.
+                                LOGGER.warn("[{}] Send to {} failed, evicting stale sender: {}", thisNodeId, curNode, mte.getMessage());
+                                cur.removeSender(curNode);
+                            }
+                        }
+                    } finally {
+                        if(fanOut != null && !fanOutHandedOff)
+                            fanOut.release();
                     }
                 }
             }
         } finally {
+            reclaimer.exit();
             if(!messageSentSomewhere) {
                 if(traceEnabled)
                     LOGGER.trace("Message not sent.");
@@ -208,12 +308,41 @@ public class OutgoingDispatcher extends Dispatcher implements Service {
         }
     }
 
+    // When the message will be sent to 2 different clusters, but both clusters
+    // are hosted in the same node, then we send 1 message to 1 ContainerAddress
+    // where the 'clusters' field contains both container ids.
+    private static void addDestination(final Map<NodeAddress, ContainerAddress> containerByNodeAddress, final ContainerAddress ca) {
+        final ContainerAddress already = containerByNodeAddress.get(ca.node);
+        if(already != null) {
+            final int[] ia = new int[already.clusters.length + ca.clusters.length];
+            System.arraycopy(already.clusters, 0, ia, 0, already.clusters.length);
+            System.arraycopy(ca.clusters, 0, ia, already.clusters.length, ca.clusters.length);
+            containerByNodeAddress.put(ca.node, new ContainerAddress(ca.node, ia));
+        } else
+            containerByNodeAddress.put(ca.node, ca);
+    }
+
     @Override
     public void start(final Infrastructure infra) {
+        hotKeysTracked = Integer.parseInt(infra.getConfigValue(OutgoingDispatcher.class, CONFIG_KEY_HOT_KEYS_TRACKED, DEFAULT_HOT_KEYS_TRACKED));
+        hotKeysSampleRate = Integer
+            .parseInt(infra.getConfigValue(OutgoingDispatcher.class, CONFIG_KEY_HOT_KEYS_SAMPLE_RATE, DEFAULT_HOT_KEYS_SAMPLE_RATE));
+        hotKeysHalfLife = Long.parseLong(infra.getConfigValue(OutgoingDispatcher.class, CONFIG_KEY_HOT_KEYS_HALF_LIFE, DEFAULT_HOT_KEYS_HALF_LIFE));
+
+        final String snapshotFileName = infra.getConfigValue(OutgoingDispatcher.class, CONFIG_KEY_ROUTING_SNAPSHOT_FILE,
+            DEFAULT_ROUTING_SNAPSHOT_FILE).trim();
+        snapshotFile = snapshotFileName.length() == 0 ? null : new File(snapshotFileName);
+        snapshotSaveIntervalMillis = Long.parseLong(infra.getConfigValue(OutgoingDispatcher.class, CONFIG_KEY_ROUTING_SNAPSHOT_SAVE_INTERVAL_MILLIS,
+            DEFAULT_ROUTING_SNAPSHOT_SAVE_INTERVAL_MILLIS));
+        unreachableRetryMillis = Long.parseLong(infra.getConfigValue(OutgoingDispatcher.class, CONFIG_KEY_UNREACHABLE_RETRY_MILLIS,
+            DEFAULT_UNREACHABLE_RETRY_MILLIS));
+        rootDir = infra.getRootPaths().rootDir;
+
         final ClusterInfoSession session = infra.getCollaborator();
         final String nodesDir = infra.getRootPaths().nodesDir;
 
-        checkup = new PersistentTask(LOGGER_SESSION, isRunning, infra.getScheduler(), RETRY_TIMEOUT) {
+        scheduler = infra.getScheduler();
+        checkup = new PersistentTask(LOGGER_SESSION, isRunning, scheduler, RETRY_TIMEOUT) {
 
             @Override
             public boolean execute() {
@@ -256,20 +385,28 @@ public class OutgoingDispatcher extends Dispatcher implements Service {
                     } else if(LOGGER_SESSION.isTraceEnabled())
                         LOGGER_SESSION.info("[{}] Topology change notification resulted in changes ", thisNodeId);
 
-                    // otherwise we will be making changes so remove the current ApplicationState
-                    final ApplicationState obs = outbounds.getAndSet(null); // this can cause instability.
+                    // otherwise we build the new ApplicationState while the current one stays in use and then swap it in.
+                    final ApplicationState obs = outbounds.get();
+                    final ApplicationState newState;
                     try {
-                        final ApplicationState newState = obs.apply(ud, tmanager, statsCollector, manager, thisNodeId);
-                        outbounds.set(newState);
-                        isReady.set(true);
-                        return true;
+                        newState = obs.apply(ud, tmanager, statsCollector, manager, thisNodeId);
                     } catch(final RuntimeException rte) {
-                        // if we threw an exception after clearing the outbounds we need to restore it.
                         // This is likely a configuration error so we should probably warn about it.
                         LOGGER_SESSION.warn("[{}] Unexpected exception while applying a topology update", thisNodeId, rte);
-                        outbounds.set(obs);
                         throw rte;
                     }
+
+                    synchronized(isRunning) {
+                        // if we were stopped in the meantime then there's nothing to swap.
+                        if(!outbounds.compareAndSet(obs, newState)) {
+                            newState.retire(obs);
+                            return true;
+                        }
+                        reclaimer.retire(() -> obs.retire(newState));
+                    }
+                    reclaim();
+                    isReady.set(true);
+                    return true;
                 } catch(final ClusterInfoException e) {
                     final String message = "Failed to find outgoing route information. Will retry shortly.";
                     if(LOGGER_SESSION.isTraceEnabled())
@@ -288,9 +425,87 @@ public class OutgoingDispatcher extends Dispatcher implements Service {
         };
 
         outbounds.set(new ApplicationState(tmanager, thisNode, new ConcurrentHashMap<>()));
+        if(snapshotFile != null)
+            routeFromSnapshot(Long.parseLong(infra.getConfigValue(OutgoingDispatcher.class, CONFIG_KEY_ROUTING_SNAPSHOT_MAX_AGE_MILLIS,
+                DEFAULT_ROUTING_SNAPSHOT_MAX_AGE_MILLIS)));
 
         isRunning.set(true);
         checkup.process();
+        scheduleSnapshotSave();
+    }
+
+    // until the checkup has the live view we route with what we had the last time we ran. The checkup swaps
+    // in the live view just like any other topology change and the seeded routers replace the snapshot once
+    // they've heard from the cluster.
+    private void routeFromSnapshot(final long maxAgeMillis) {
+        final RoutingSnapshot snapshot = RoutingSnapshot.read(snapshotFile, rootDir, maxAgeMillis);
+        if(snapshot == null)
+            return;
+
+        final ApplicationState initial = outbounds.get();
+        try {
+            final ApplicationState seeded = initial.apply(initial.update(snapshot.nodes, thisNode, thisNodeId), tmanager, statsCollector, manager,
+                thisNodeId);
+            final int numSeeded = seeded.seed(snapshot);
+            outbounds.set(seeded);
+            isReady.set(true);
+            LOGGER_SESSION.info("[{}] Routing to {} nodes with {} seeded routers from the snapshot at {} until the cluster confirms it.", thisNodeId,
+                snapshot.nodes.size(), numSeeded, snapshotFile);
+        } catch(final RuntimeException rte) {
+            LOGGER_SESSION.warn("[{}] Failed to route from the snapshot at {}. Waiting for the cluster instead.", thisNodeId, snapshotFile, rte);
+        }
+    }
+
+    private synchronized void saveSnapshot() {
+        final ApplicationState cur = outbounds.get();
+        if(cur == null)
+            return;
+
+        final RoutingSnapshot snapshot = cur.snapshot(rootDir);
+        if(snapshot.nodes.isEmpty()) // there's nothing worth keeping.
+            return;
+
+        try {
+            snapshot.write(snapshotFile);
+            LOGGER_SESSION.debug("[{}] Saved the routing snapshot to {}", thisNodeId, snapshotFile);
+        } catch(final IOException | RuntimeException e) {
+            LOGGER_SESSION.warn("[{}] Failed to save the routing snapshot to {}", thisNodeId, snapshotFile, e);
+        }
+    }
+
+    private void scheduleSnapshotSave() {
+        if(snapshotFile != null && snapshotSaveIntervalMillis > 0 && isRunning.get())
+            scheduler.schedule(() -> {
+                try {
+                    // only save a complete picture.
+                    if(isRunning.get() && isReady())
+                        saveSnapshot();
+                } finally {
+                    scheduleSnapshotSave();
+                }
+            }, snapshotSaveIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // stopping the senders of replaced ApplicationStates can't wait for the dispatches using them to finish so we
+    // check back until it's done.
+    private void reclaim() {
+        if(reclaimer.reclaim() > 0 && isRunning.get())
+            scheduler.schedule(() -> reclaim(), RECLAIM_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // the caller samples the keys (see HeavyHitters.sampled) so the lookup is only done for the ones that are counted.
+    private HeavyHitters hotKeys(final String clusterName) {
+        final HeavyHitters ret = hotKeysByCluster.get(clusterName);
+        if(ret != null)
+            return ret;
+
+        // striped so the threads dispatching to the cluster don't all contend on one sketch.
+        final HeavyHitters hh = new HeavyHitters(hotKeysTracked, hotKeysSampleRate, hotKeysHalfLife, Runtime.getRuntime().availableProcessors());
+        final HeavyHitters already = hotKeysByCluster.putIfAbsent(clusterName, hh);
+        if(already != null)
+            return already;
+        statsCollector.setHotKeysGauge(clusterName, () -> hh.top());
+        return hh;
     }
 
     @Override
@@ -313,9 +528,13 @@ public class OutgoingDispatcher extends Dispatcher implements Service {
     public void stop() {
         if(LOGGER.isDebugEnabled())
             LOGGER.debug("{} stopping {}", thisNodeId, OutgoingDispatcher.class.getSimpleName());
+        // keep what we were routing with for the next time this node starts.
+        if(snapshotFile != null && isRunning.get() && isReady())
+            saveSnapshot();
         synchronized(isRunning) {
             isRunning.set(false);
             final ApplicationState cur = outbounds.getAndSet(null);
+            reclaimer.reclaimAll();
             if(cur != null)
                 cur.stop();
         }
@@ -342,6 +561,11 @@ public class OutgoingDispatcher extends Dispatcher implements Service {
         return thisNodeId;
     }
 
+    public List<HotKey> hotKeys(final String clusterName, final int n) {
+        final HeavyHitters hh = hotKeysByCluster.get(clusterName);
+        return hh == null ? new ArrayList<>() : hh.top(n);
+    }
+
     NodeStatsCollector getNodeStatCollector() {
         return statsCollector;
     }
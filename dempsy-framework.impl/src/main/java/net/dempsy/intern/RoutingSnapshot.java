@@ -0,0 +1,113 @@
+package net.dempsy.intern;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.NodeInformation;
+import net.dempsy.router.RoutingStrategy.Router;
+
+/**
+ * <p>
+ * What an {@link OutgoingDispatcher} was routing with, saved to a local file so that when the node restarts it can
+ * start routing right away rather than waiting to hear from the cluster. That's the {@link NodeInformation} of every
+ * node it was routing to and the {@link Router#snapshot()} of each {@link Router} that supports it.
+ * </p>
+ *
+ * <p>
+ * A snapshot is only ever a starting point. The live view replaces it as soon as it's been read. Since it can still be
+ * out of date a snapshot is ignored if it was written by an incompatible version, is for a different application, or
+ * is older than the maximum age it's read with.
+ * </p>
+ */
+public class RoutingSnapshot implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final Logger LOGGER = LoggerFactory.getLogger(RoutingSnapshot.class);
+
+    /**
+     * Incremented whenever what's saved changes so that older snapshots can't be used.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    public final int formatVersion;
+    public final String rootDir;
+    public final long savedAtMillis;
+    public final Set<NodeInformation> nodes;
+    public final Map<String, Serializable> routerSnapshotsByClusterName;
+
+    public RoutingSnapshot(final String rootDir, final Set<NodeInformation> nodes, final Map<String, Serializable> routerSnapshotsByClusterName) {
+        this.formatVersion = FORMAT_VERSION;
+        this.rootDir = rootDir;
+        this.savedAtMillis = System.currentTimeMillis();
+        this.nodes = new HashSet<>(nodes);
+        this.routerSnapshotsByClusterName = new HashMap<>(routerSnapshotsByClusterName);
+    }
+
+    /**
+     * Write the snapshot to a temporary file and then move it over the given one so it's never partly written.
+     */
+    public void write(final File file) throws IOException {
+        final File tmp = new File(file.getPath() + ".tmp");
+        try(final ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));) {
+            oos.writeObject(this);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a snapshot written by {@link #write(File)}. This returns null rather than throwing an exception if there's no
+     * snapshot or it can't be used.
+     */
+    public static RoutingSnapshot read(final File file, final String rootDir, final long maxAgeMillis) {
+        if(!file.exists())
+            return null;
+
+        final Object read;
+        try(final ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));) {
+            read = ois.readObject();
+        } catch(final IOException | ClassNotFoundException | RuntimeException e) {
+            LOGGER.warn("Failed to read the routing snapshot at " + file + ". It will be ignored.", e);
+            return null;
+        }
+
+        if(!(read instanceof RoutingSnapshot)) {
+            LOGGER.warn("The file {} doesn't contain a routing snapshot. It will be ignored.", file);
+            return null;
+        }
+
+        final RoutingSnapshot ret = (RoutingSnapshot)read;
+        if(ret.formatVersion != FORMAT_VERSION) {
+            LOGGER.info("The routing snapshot at {} is version {} but {} is needed. It will be ignored.", file, ret.formatVersion, FORMAT_VERSION);
+            return null;
+        }
+
+        if(!rootDir.equals(ret.rootDir)) {
+            LOGGER.warn("The routing snapshot at {} is for {} rather than {}. It will be ignored.", file, ret.rootDir, rootDir);
+            return null;
+        }
+
+        final long age = System.currentTimeMillis() - ret.savedAtMillis;
+        if(age < 0 || age > maxAgeMillis) {
+            LOGGER.info("The routing snapshot at {} is {} milliseconds old which is older than the {} allowed. It will be ignored.", file, age,
+                maxAgeMillis);
+            return null;
+        }
+
+        return ret;
+    }
+}
@@ -3,6 +3,7 @@ package net.dempsy.monitoring.micrometer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.Gauge;
@@ -21,6 +22,7 @@ public class MicrometerClusterStatsCollector implements ClusterStatsCollector {
     public static final String MESSAGES_COLLISION = "dempsy.cluster.messages.collision";
     public static final String MESSAGES_DISCARDED = "dempsy.cluster.messages.discarded";
     public static final String MESSAGES_PENDING = "dempsy.cluster.messages.pending";
+    public static final String BULKHEAD_PENDING = "dempsy.cluster.bulkhead.pending";
     public static final String MESSAGES_PROCESSOR_CREATED = "dempsy.cluster.processor.created";
     public static final String MESSAGES_PROCESSOR_DELETED = "dempsy.cluster.processor.deleted";
     public static final String OUTPUT_INVOKE_TIMER = "dempsy.cluster.output.invoke";
@@ -56,6 +58,7 @@ public class MicrometerClusterStatsCollector implements ClusterStatsCollector {
     private final Counter messageProcessorDeleted;
     private final AtomicLong inProcessMessages = new AtomicLong();
     private final List<io.micrometer.core.instrument.Meter.Id> registeredMeterIds = new ArrayList<>();
+    private boolean bulkheadGaugeRegistered = false;
 
     public MicrometerClusterStatsCollector(final ClusterId clusterId, final MeterRegistry registry) {
         this.clusterId = clusterId;
@@ -120,6 +123,16 @@ public class MicrometerClusterStatsCollector implements ClusterStatsCollector {
         messageProcessorDeleted.increment();
     }
 
+    @Override
+    public synchronized void setBulkheadPendingGauge(final LongSupplier bulkheadPendingGauge) {
+        if(!bulkheadGaugeRegistered) {
+            registeredMeterIds.add(Gauge.builder(BULKHEAD_PENDING, bulkheadPendingGauge, LongSupplier::getAsLong)
+                .tag("app", clusterId.applicationName).tag("cluster", clusterId.clusterName)
+                .register(registry).getId());
+            bulkheadGaugeRegistered = true;
+        }
+    }
+
     @Override
     public void stop() {
         registry.getMeters().stream()
@@ -1,12 +1,20 @@
 package net.dempsy.monitoring.micrometer;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 
+import net.dempsy.monitoring.HotKey;
 import net.dempsy.monitoring.NodeStatsCollector;
 
 public class MicrometerNodeStatsCollector implements NodeStatsCollector {
@@ -17,15 +25,36 @@ public class MicrometerNodeStatsCollector implements NodeStatsCollector {
     public static final String MESSAGE_NOT_SENT = "dempsy.node.messages.not.sent";
     public static final String MESSAGES_PENDING_GAUGE = "dempsy.node.messages.pending";
     public static final String MESSAGES_OUT_PENDING_GAUGE = "dempsy.node.messages.out.pending";
+    public static final String MESSAGE_QUEUE_WAIT = "dempsy.node.messages.queue.wait";
+    public static final String MESSAGE_TRANSIT = "dempsy.node.messages.transit";
+    public static final String MESSAGE_SEND_QUEUE = "dempsy.node.messages.send.queue";
+    public static final String PEER_TAG = "peer";
+    public static final String HOT_KEY_SHARE = "dempsy.node.hotkeys.share";
+    public static final String CLUSTER_TAG = "cluster";
+    public static final String RANK_TAG = "rank";
+
+    /**
+     * The number of the hottest keys for each cluster that get a gauge. The keys themselves aren't tags since there'd
+     * be no bound on the number of meters. See {@link #getHotKeys(String)}.
+     */
+    public static final int HOT_KEY_RANKS = 5;
+
+    // the rank gauges of a cluster are all read during one scrape so they share the hot keys read within this long.
+    private static final long HOT_KEYS_REUSE_NANOS = TimeUnit.SECONDS.toNanos(1);
 
     private final MeterRegistry registry;
     private final Counter messageReceived;
     private final Counter messageDiscarded;
     private final Counter messageSent;
     private final Counter messageNotSent;
+    private final Timer messageQueueWait;
+    private final Timer messageSendQueue;
+    private final Map<String, Timer> messageTransitByPeer = new ConcurrentHashMap<>();
+    private final Map<String, Supplier<List<HotKey>>> hotKeysByCluster = new ConcurrentHashMap<>();
 
     private final AtomicLong messagesPending = new AtomicLong();
     private final AtomicLong messagesOutPending = new AtomicLong();
+    private volatile LongSupplier currentMessagesPendingGauge = null;
     private boolean pendingGaugeRegistered = false;
     private boolean outPendingGaugeRegistered = false;
 
@@ -39,6 +68,8 @@ public class MicrometerNodeStatsCollector implements NodeStatsCollector {
         messageDiscarded = Counter.builder(MESSAGE_DISCARDED).register(registry);
         messageSent = Counter.builder(MESSAGE_SENT).register(registry);
         messageNotSent = Counter.builder(MESSAGE_NOT_SENT).register(registry);
+        messageQueueWait = Timer.builder(MESSAGE_QUEUE_WAIT).register(registry);
+        messageSendQueue = Timer.builder(MESSAGE_SEND_QUEUE).publishPercentileHistogram().register(registry);
     }
 
     @Override
@@ -51,6 +82,8 @@ public class MicrometerNodeStatsCollector implements NodeStatsCollector {
         registry.getMeters().stream()
             .filter(m -> m.getId().getName().startsWith("dempsy.node."))
             .forEach(registry::remove);
+        messageTransitByPeer.clear();
+        hotKeysByCluster.clear();
     }
 
     @Override
@@ -58,11 +91,32 @@ public class MicrometerNodeStatsCollector implements NodeStatsCollector {
         messageReceived.increment();
     }
 
+    @Override
+    public void messagesReceived(final int count) {
+        messageReceived.increment(count);
+    }
+
     @Override
     public void messageDiscarded(final Object message) {
         messageDiscarded.increment();
     }
 
+    @Override
+    public void messageDequeued(final long queueWaitNanos) {
+        messageQueueWait.record(queueWaitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void messageTransitTime(final String peer, final long transitNanos) {
+        messageTransitByPeer.computeIfAbsent(peer, p -> Timer.builder(MESSAGE_TRANSIT).tag(PEER_TAG, p).publishPercentileHistogram().register(registry))
+            .record(Math.max(0, transitNanos), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void messageSendQueueTime(final long queueNanos) {
+        messageSendQueue.record(queueNanos, TimeUnit.NANOSECONDS);
+    }
+
     @Override
     public void messageSent(final Object message) {
         messageSent.increment();
@@ -73,8 +127,54 @@ public class MicrometerNodeStatsCollector implements NodeStatsCollector {
         messageNotSent.increment();
     }
 
+    @Override
+    public void setHotKeysGauge(final String clusterName, final Supplier<List<HotKey>> hotKeys) {
+        if(hotKeysByCluster.putIfAbsent(clusterName, hotKeys) == null) {
+            final RecentHotKeys recent = new RecentHotKeys(hotKeys);
+            for(int rank = 1; rank <= HOT_KEY_RANKS; rank++) {
+                final int index = rank - 1;
+                Gauge.builder(HOT_KEY_SHARE, recent, s -> {
+                    final List<HotKey> cur = s.get();
+                    return cur.size() > index ? cur.get(index).share : 0.0D;
+                }).tag(CLUSTER_TAG, clusterName).tag(RANK_TAG, Integer.toString(rank)).register(registry);
+            }
+        }
+    }
+
+    /**
+     * Reading the hot keys merges the sketch's stripes. This keeps the result so the rank gauges don't each do that.
+     */
+    private static class RecentHotKeys implements Supplier<List<HotKey>> {
+        private final Supplier<List<HotKey>> hotKeys;
+        private List<HotKey> last = null;
+        private long readAt = 0L;
+
+        private RecentHotKeys(final Supplier<List<HotKey>> hotKeys) {
+            this.hotKeys = hotKeys;
+        }
+
+        @Override
+        public synchronized List<HotKey> get() {
+            final long now = System.nanoTime();
+            if(last == null || now - readAt >= HOT_KEYS_REUSE_NANOS) {
+                last = hotKeys.get();
+                readAt = now;
+            }
+            return last;
+        }
+    }
+
+    /**
+     * The hottest keys currently being sent to the given cluster, most frequent first.
+     */
+    public List<HotKey> getHotKeys(final String clusterName) {
+        final Supplier<List<HotKey>> hotKeys = hotKeysByCluster.get(clusterName);
+        return hotKeys == null ? new ArrayList<>() : hotKeys.get();
+    }
+
     @Override
     public void setMessagesPendingGauge(final LongSupplier currentMessagesPendingGauge) {
+        this.currentMessagesPendingGauge = currentMessagesPendingGauge;
         if(!pendingGaugeRegistered) {
             Gauge.builder(MESSAGES_PENDING_GAUGE, currentMessagesPendingGauge, LongSupplier::getAsLong)
                 .register(registry);
@@ -82,6 +182,12 @@ public class MicrometerNodeStatsCollector implements NodeStatsCollector {
         }
     }
 
+    @Override
+    public long getMessagesPending() {
+        final LongSupplier gauge = currentMessagesPendingGauge;
+        return gauge == null ? 0L : gauge.getAsLong();
+    }
+
     @Override
     public void setMessagesOutPendingGauge(final LongSupplier currentMessagesOutPendingGauge) {
         if(!outPendingGaugeRegistered) {
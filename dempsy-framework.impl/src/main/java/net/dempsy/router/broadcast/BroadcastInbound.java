@@ -0,0 +1,137 @@
+package net.dempsy.router.broadcast;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.Infrastructure;
+import net.dempsy.KeyspaceChangeListener;
+import net.dempsy.cluster.ClusterInfoException;
+import net.dempsy.cluster.ClusterInfoSession;
+import net.dempsy.cluster.ClusterInfoWatcher;
+import net.dempsy.cluster.DirMode;
+import net.dempsy.config.ClusterId;
+import net.dempsy.router.RoutingStrategy.ContainerAddress;
+import net.dempsy.router.RoutingStrategy.Inbound;
+import net.dempsy.utils.PersistentTask;
+
+/**
+ * The inbound side of a routing strategy that sends every message to every node hosting the cluster. Each node simply
+ * registers itself and accepts all keys so there's nothing to rebalance when nodes come and go.
+ */
+public class BroadcastInbound implements Inbound {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BroadcastInbound.class);
+    private static final long RETRY_TIMEOUT = 500L;
+
+    public static final String BROADCAST_SUBDIR = "broadcast";
+
+    private ClusterId clusterId;
+    private ContainerAddress address;
+    private ClusterInfoSession session;
+    private String membersDir;
+    private String actualDir = null;
+    private PersistentTask registerer;
+
+    private final AtomicBoolean isRunning = new AtomicBoolean(false);
+    private final AtomicBoolean isReady = new AtomicBoolean(false);
+
+    @Override
+    public void setContainerDetails(final ClusterId clusterId, final ContainerAddress address, final KeyspaceChangeListener nothing) {
+        this.clusterId = clusterId;
+        this.address = address;
+    }
+
+    @Override
+    public void start(final Infrastructure infra) {
+        this.session = infra.getCollaborator();
+        this.membersDir = membersDir(infra, clusterId);
+
+        this.registerer = new PersistentTask(LOGGER, isRunning, infra.getScheduler(), RETRY_TIMEOUT) {
+
+            @Override
+            public boolean execute() {
+                try {
+                    // check if we're still here.
+                    if(actualDir != null && session.exists(actualDir, this)) {
+                        isReady.set(true);
+                        return true;
+                    }
+                    session.recursiveMkdir(membersDir, null, DirMode.PERSISTENT, DirMode.PERSISTENT);
+                    actualDir = session.mkdir(membersDir + "/node_", address, DirMode.EPHEMERAL_SEQUENTIAL);
+                    session.exists(actualDir, this);
+                    LOGGER.debug("Registered " + BroadcastInbound.class.getSimpleName() + " at " + actualDir);
+                    isReady.set(true);
+                    return true;
+                } catch(final ClusterInfoException e) {
+                    final String message = "Failed to register " + BroadcastInbound.class.getSimpleName() + " for cluster " + clusterId
+                        + ". Will retry shortly.";
+                    if(LOGGER.isTraceEnabled())
+                        LOGGER.debug(message, e);
+                    else
+                        LOGGER.debug(message);
+                    return false;
+                }
+            }
+
+            @Override
+            public String toString() {
+                return "register " + BroadcastInbound.class.getSimpleName() + " for cluster " + clusterId;
+            }
+        };
+
+        isRunning.set(true);
+        registerer.process();
+    }
+
+    @Override
+    public void stop() {
+        isRunning.set(false);
+    }
+
+    @Override
+    public boolean isReady() {
+        return isReady.get();
+    }
+
+    @Override
+    public boolean doesMessageKeyBelongToNode(final Object messageKey) {
+        return true; // every node gets every message
+    }
+
+    public ContainerAddress getAddress() {
+        return address;
+    }
+
+    public String getAddressSubdirectory() {
+        return actualDir;
+    }
+
+    static String membersDir(final Infrastructure infra, final ClusterId clusterId) {
+        return infra.getRootPaths().clustersDir + "/" + clusterId.clusterName + "/" + BROADCAST_SUBDIR;
+    }
+
+    /**
+     * Read all of the nodes registered in the given directory, one {@link ContainerAddress} per node.
+     */
+    static List<ContainerAddress> readMembers(final ClusterInfoSession session, final String membersDir, final ClusterInfoWatcher watcher)
+        throws ClusterInfoException {
+        final Collection<String> subdirs = session.getSubdirs(membersDir, watcher);
+        final List<String> sorted = new ArrayList<>(subdirs);
+        sorted.sort(null);
+
+        // a node that registered again can briefly be there twice.
+        final Set<ContainerAddress> members = new LinkedHashSet<>();
+        for(final String subdir: sorted) {
+            final ContainerAddress ca = (ContainerAddress)session.getData(membersDir + "/" + subdir, null);
+            if(ca != null && ca.node != null)
+                members.add(ca);
+        }
+        return new ArrayList<>(members);
+    }
+}
@@ -0,0 +1,127 @@
+package net.dempsy.router.broadcast;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.DempsyException;
+import net.dempsy.Infrastructure;
+import net.dempsy.cluster.ClusterInfoException;
+import net.dempsy.cluster.ClusterInfoSession;
+import net.dempsy.config.ClusterId;
+import net.dempsy.messages.KeyedMessageWithType;
+import net.dempsy.router.RoutingStrategy.ContainerAddress;
+import net.dempsy.router.RoutingStrategy.Router;
+import net.dempsy.util.SafeString;
+import net.dempsy.utils.PersistentTask;
+
+/**
+ * <p>
+ * Sends every message to every node registered by a {@link BroadcastInbound}. The dispatcher gets one
+ * {@link ContainerAddress} per node from {@link #selectDestinationsForMessage(KeyedMessageWithType)} and, when there's
+ * more than one remote node, the copies share a single serialization on transports that support it.
+ * </p>
+ *
+ * <p>
+ * The same list of destinations is returned for every message and it's only replaced when the set of registered nodes
+ * changes, so routing a message costs nothing beyond a volatile read.
+ * </p>
+ */
+public class BroadcastRouter implements Router {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BroadcastRouter.class);
+    private static final long RETRY_TIMEOUT = 500L;
+
+    final ClusterId clusterId;
+    private final BroadcastRouterFactory mommy;
+    private final String thisNodeId;
+    private final AtomicBoolean isRunning = new AtomicBoolean(false);
+    private final AtomicReference<List<ContainerAddress>> members = new AtomicReference<>(null);
+
+    BroadcastRouter(final BroadcastRouterFactory mom, final ClusterId clusterId, final Infrastructure infra) {
+        this.mommy = mom;
+        this.clusterId = clusterId;
+        this.thisNodeId = infra.getNodeId();
+        final ClusterInfoSession session = infra.getCollaborator();
+        final String membersDir = BroadcastInbound.membersDir(infra, clusterId);
+
+        final PersistentTask keepUpToDate = new PersistentTask(LOGGER, isRunning, infra.getScheduler(), RETRY_TIMEOUT) {
+
+            @Override
+            public boolean execute() {
+                try {
+                    final List<ContainerAddress> cur = BroadcastInbound.readMembers(session, membersDir, this);
+                    members.set(Collections.unmodifiableList(cur));
+                    if(cur.size() == 0) {
+                        LOGGER.debug("Checking on registered nodes for " + clusterId + " yields no registered nodes yet");
+                        return false;
+                    }
+                    return true;
+                } catch(final ClusterInfoException e) {
+                    LOGGER.debug("Failed attempt to retreive node destination information:" + e.getLocalizedMessage());
+                    return false;
+                }
+            }
+
+            @Override
+            public String toString() {
+                return "find nodes using " + BroadcastRouter.class.getSimpleName() + " for cluster " + clusterId;
+            }
+        };
+
+        isRunning.set(true);
+        keepUpToDate.process();
+    }
+
+    @Override
+    public boolean selectsMultipleDestinations() {
+        return true;
+    }
+
+    @Override
+    public Collection<ContainerAddress> selectDestinationsForMessage(final KeyedMessageWithType message) {
+        final List<ContainerAddress> cur = members.get();
+        if(cur == null)
+            throw new DempsyException("It appears the " + BroadcastRouter.class.getSimpleName() + " strategy for the message key " +
+                SafeString.objectDescription(message != null ? message.key : null)
+                + " is being used prior to initialization or after a failure.");
+        return cur;
+    }
+
+    /**
+     * Only one of the destinations. Anything that wants the message to get to every node needs to use
+     * {@link #selectDestinationsForMessage(KeyedMessageWithType)}.
+     */
+    @Override
+    public ContainerAddress selectDestinationForMessage(final KeyedMessageWithType message) {
+        final Collection<ContainerAddress> cur = selectDestinationsForMessage(message);
+        return cur.isEmpty() ? null : cur.iterator().next();
+    }
+
+    @Override
+    public Collection<ContainerAddress> allDesintations() {
+        final List<ContainerAddress> cur = members.get();
+        return cur == null ? new ArrayList<>() : new ArrayList<>(cur);
+    }
+
+    @Override
+    public void release() {
+        mommy.release(this);
+        isRunning.set(false);
+    }
+
+    @Override
+    public String toString() {
+        return "{" + BroadcastRouter.class.getSimpleName() + " at " + thisNodeId + " to " + clusterId + "}";
+    }
+
+    boolean isReady() {
+        final List<ContainerAddress> cur = members.get();
+        return cur != null && cur.size() > 0;
+    }
+}
@@ -0,0 +1,20 @@
+package net.dempsy.router.broadcast;
+
+import net.dempsy.Locator;
+import net.dempsy.router.RoutingStrategy;
+import net.dempsy.router.RoutingStrategy.Inbound;
+
+public class Factory implements Locator {
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T locate(final Class<T> clazz) {
+        if(Inbound.class.equals(clazz))
+            return (T)new BroadcastInbound();
+        else if(RoutingStrategy.Factory.class.equals(clazz))
+            return (T)new BroadcastRouterFactory();
+        else
+            return null;
+    }
+
+}
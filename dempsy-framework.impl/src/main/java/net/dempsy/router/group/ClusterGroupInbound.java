@@ -177,13 +177,14 @@ public class ClusterGroupInbound {
 
             groupDetails.fillout(caByCluster);
 
-            utils = new Utils<GroupDetails>(infra, groupDetails.groupName, groupDetails);
+            utils = new Utils<GroupDetails>(infra, groupDetails.groupName, groupDetails)
+                    .shardHash(Utils.configuredShardHash(infra, ClusterGroupInbound.class, groupDetails.groupName));
             // subscriber first because it registers as a node. If there's no nodes
             // there's nothing for the leader to do.
             subscriber = new Subscriber<GroupDetails>(utils, infra, isRunning,
                     new CompoundKeyspaceListener(inbounds.stream().map(p -> p.listener).collect(Collectors.toList())), totalShards);
             subscriber.process();
-            leader = new Leader<GroupDetails>(utils, totalShards, minNodes, infra, isRunning, GroupDetails[]::new);
+            leader = new Leader<GroupDetails>(utils, totalShards, minNodes, infra, isRunning, GroupDetails[]::new, gd -> gd.node);
             leader.process();
 
             inbounds.forEach(p -> p.setup(subscriber, utils, mask));
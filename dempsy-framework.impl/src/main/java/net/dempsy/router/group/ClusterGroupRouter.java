@@ -1,5 +1,6 @@
 package net.dempsy.router.group;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -7,7 +8,6 @@ import java.util.Collections;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.function.IntConsumer;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
@@ -38,7 +38,7 @@ import net.dempsy.util.SafeString;
  * in a processing chain that are using the same or similar keys.
  * </p>
  */
-public class ClusterGroupRouter implements Router, IntConsumer {
+public class ClusterGroupRouter implements Router {
     private static Logger LOGGER = LoggerFactory.getLogger(ClusterGroupRouter.class);
     private final AtomicReference<GroupDetails[]> destinations;
 
@@ -50,7 +50,6 @@ public class ClusterGroupRouter implements Router, IntConsumer {
 
     private final ShardState<GroupDetails> state;
     private final Utils<GroupDetails> utils;
-    private int mask = 0;
     private int containerIndex = -1;
 
     ClusterGroupRouter(final ClusterGroupRouterFactory mom, final ClusterId clusterId, final Infrastructure infra, final String groupName) {
@@ -59,17 +58,12 @@ public class ClusterGroupRouter implements Router, IntConsumer {
         this.clusterName = clusterId.clusterName;
         this.thisNodeId = infra.getNodeId();
         this.isRunning = new AtomicBoolean(true);
-        this.state = new ShardState<GroupDetails>(groupName, infra, isRunning, GroupDetails[]::new, this);
+        this.state = new ShardState<GroupDetails>(groupName, infra, isRunning, GroupDetails[]::new);
         this.utils = state.getUtils();
         this.destinations = state.getShardContentsArray();
         this.state.process();
     }
 
-    @Override
-    public void accept(final int mask) {
-        this.mask = mask;
-    }
-
     @Override
     public ContainerAddress selectDestinationForMessage(final KeyedMessageWithType message) {
         final GroupDetails[] destinations = this.destinations.get();
@@ -83,7 +77,7 @@ public class ClusterGroupRouter implements Router, IntConsumer {
                 return null;
         }
 
-        final GroupDetails cur = destinations[utils.determineShard(message.key, mask)];
+        final GroupDetails cur = destinations[utils.determineShard(message.key, destinations.length - 1)];
         return cur.containerAddresses[containerIndex];
     }
 
@@ -104,6 +98,16 @@ public class ClusterGroupRouter implements Router, IntConsumer {
             .collect(Collectors.toSet()));
     }
 
+    @Override
+    public Serializable snapshot() {
+        return state.snapshot();
+    }
+
+    @Override
+    public boolean seed(final Serializable snapshot) {
+        return state.seed(snapshot);
+    }
+
     @Override
     public synchronized void release() {
         mommy.release(this);
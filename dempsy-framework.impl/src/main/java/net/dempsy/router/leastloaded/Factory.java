@@ -0,0 +1,20 @@
+package net.dempsy.router.leastloaded;
+
+import net.dempsy.Locator;
+import net.dempsy.router.RoutingStrategy;
+import net.dempsy.router.RoutingStrategy.Inbound;
+
+public class Factory implements Locator {
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T locate(final Class<T> clazz) {
+        if(Inbound.class.equals(clazz))
+            return (T)new LeastLoadedInbound();
+        else if(RoutingStrategy.Factory.class.equals(clazz))
+            return (T)new LeastLoadedRouterFactory();
+        else
+            return null;
+    }
+
+}
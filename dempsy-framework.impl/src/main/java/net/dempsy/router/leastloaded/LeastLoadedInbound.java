@@ -0,0 +1,207 @@
+package net.dempsy.router.leastloaded;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.Infrastructure;
+import net.dempsy.KeyspaceChangeListener;
+import net.dempsy.cluster.ClusterInfoException;
+import net.dempsy.cluster.ClusterInfoSession;
+import net.dempsy.cluster.ClusterInfoWatcher;
+import net.dempsy.cluster.DirMode;
+import net.dempsy.config.ClusterId;
+import net.dempsy.monitoring.NodeStatsCollector;
+import net.dempsy.router.RoutingStrategy.ContainerAddress;
+import net.dempsy.router.RoutingStrategy.Inbound;
+import net.dempsy.util.executor.AutoDisposeSingleThreadScheduler;
+import net.dempsy.utils.PersistentTask;
+
+/**
+ * <p>
+ * The inbound side of a routing strategy for clusters whose message processors keep no state from one message to the
+ * next, so any node can handle any key. Every node accepts all keys and the senders pick the node using the load that
+ * each node publishes rather than the message key.
+ * </p>
+ *
+ * <p>
+ * The load is the number of messages pending on the node as reported by {@link NodeStatsCollector#getMessagesPending()}.
+ * It's published to the cluster session every {@link #CONFIG_KEY_LOAD_PUBLISH_INTERVAL_MILLIS} milliseconds, but only
+ * when it's changed.
+ * </p>
+ */
+public class LeastLoadedInbound implements Inbound {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LeastLoadedInbound.class);
+    private static final long RETRY_TIMEOUT = 500L;
+
+    public static final String LEAST_LOADED_SUBDIR = "leastloaded";
+
+    public static final String CONFIG_KEY_LOAD_PUBLISH_INTERVAL_MILLIS = "load_publish_interval_millis";
+    public static final String DEFAULT_LOAD_PUBLISH_INTERVAL_MILLIS = "1000";
+
+    private ClusterId clusterId;
+    private ContainerAddress address;
+    private ClusterInfoSession session;
+    private NodeStatsCollector statsCollector;
+    private AutoDisposeSingleThreadScheduler scheduler;
+    private long intervalMillis;
+    private String membersDir;
+    private PersistentTask registerer;
+
+    private volatile String actualDir = null;
+    private volatile long lastPublished = 0L;
+
+    private final AtomicBoolean isRunning = new AtomicBoolean(false);
+    private final AtomicBoolean isReady = new AtomicBoolean(false);
+
+    @Override
+    public void setContainerDetails(final ClusterId clusterId, final ContainerAddress address, final KeyspaceChangeListener nothing) {
+        this.clusterId = clusterId;
+        this.address = address;
+    }
+
+    @Override
+    public void start(final Infrastructure infra) {
+        this.session = infra.getCollaborator();
+        this.statsCollector = infra.getNodeStatsCollector();
+        this.scheduler = infra.getScheduler();
+        this.intervalMillis = loadPublishIntervalMillis(infra);
+        this.membersDir = membersDir(infra, clusterId);
+
+        this.registerer = new PersistentTask(LOGGER, isRunning, scheduler, RETRY_TIMEOUT) {
+
+            @Override
+            public boolean execute() {
+                try {
+                    // check if we're still here.
+                    if(actualDir != null && session.exists(actualDir, this)) {
+                        isReady.set(true);
+                        return true;
+                    }
+                    session.recursiveMkdir(membersDir, null, DirMode.PERSISTENT, DirMode.PERSISTENT);
+                    final long load = currentLoad();
+                    actualDir = session.mkdir(membersDir + "/node_", new NodeLoad(address, load), DirMode.EPHEMERAL_SEQUENTIAL);
+                    lastPublished = load;
+                    session.exists(actualDir, this);
+                    LOGGER.debug("Registered " + LeastLoadedInbound.class.getSimpleName() + " at " + actualDir);
+                    isReady.set(true);
+                    return true;
+                } catch(final ClusterInfoException e) {
+                    final String message = "Failed to register " + LeastLoadedInbound.class.getSimpleName() + " for cluster " + clusterId
+                        + ". Will retry shortly.";
+                    if(LOGGER.isTraceEnabled())
+                        LOGGER.debug(message, e);
+                    else
+                        LOGGER.debug(message);
+                    return false;
+                }
+            }
+
+            @Override
+            public String toString() {
+                return "register " + LeastLoadedInbound.class.getSimpleName() + " for cluster " + clusterId;
+            }
+        };
+
+        isRunning.set(true);
+        registerer.process();
+        scheduleNext();
+    }
+
+    @Override
+    public void stop() {
+        isRunning.set(false);
+    }
+
+    @Override
+    public boolean isReady() {
+        return isReady.get();
+    }
+
+    @Override
+    public boolean doesMessageKeyBelongToNode(final Object messageKey) {
+        return true; // any node can take any message
+    }
+
+    public ContainerAddress getAddress() {
+        return address;
+    }
+
+    public String getAddressSubdirectory() {
+        return actualDir;
+    }
+
+    static long loadPublishIntervalMillis(final Infrastructure infra) {
+        return Long.parseLong(infra.getConfigValue(LeastLoadedInbound.class, CONFIG_KEY_LOAD_PUBLISH_INTERVAL_MILLIS,
+            DEFAULT_LOAD_PUBLISH_INTERVAL_MILLIS));
+    }
+
+    static String membersDir(final Infrastructure infra, final ClusterId clusterId) {
+        return infra.getRootPaths().clustersDir + "/" + clusterId.clusterName + "/" + LEAST_LOADED_SUBDIR;
+    }
+
+    /**
+     * Read the most recently published load of all of the nodes registered in the given directory.
+     */
+    static List<NodeLoad> readMembers(final ClusterInfoSession session, final String membersDir, final ClusterInfoWatcher watcher)
+        throws ClusterInfoException {
+        final Collection<String> subdirs = session.getSubdirs(membersDir, watcher);
+        final List<String> sorted = new ArrayList<>(subdirs);
+        sorted.sort(null);
+
+        // a node that registered again can briefly be there twice. The later one wins.
+        final Map<ContainerAddress, NodeLoad> members = new LinkedHashMap<>();
+        for(final String subdir: sorted) {
+            final NodeLoad load = (NodeLoad)session.getData(membersDir + "/" + subdir, null);
+            if(load != null && load.address != null)
+                members.put(load.address, load);
+        }
+        return new ArrayList<>(members.values());
+    }
+
+    // =======================================================================
+    // Test Access
+    // =======================================================================
+
+    synchronized void publish() throws ClusterInfoException {
+        final String dir = actualDir;
+        if(dir == null)
+            return;
+
+        final long load = currentLoad();
+        if(load != lastPublished) {
+            session.setData(dir, new NodeLoad(address, load));
+            lastPublished = load;
+        }
+    }
+
+    // =======================================================================
+
+    private long currentLoad() {
+        return Math.max(statsCollector.getMessagesPending(), 0L);
+    }
+
+    private void scheduleNext() {
+        if(isRunning.get())
+            scheduler.schedule(() -> {
+                try {
+                    if(isRunning.get())
+                        publish();
+                } catch(final ClusterInfoException | RuntimeException e) {
+                    LOGGER.debug("Failed to publish the load for " + address + " in cluster " + clusterId + ". Will try again in " + intervalMillis
+                        + " milliseconds.", e);
+                    // we may need to register again.
+                    registerer.process();
+                } finally {
+                    scheduleNext();
+                }
+            }, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+}
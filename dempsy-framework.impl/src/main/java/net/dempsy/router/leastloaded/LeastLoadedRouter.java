@@ -0,0 +1,168 @@
+package net.dempsy.router.leastloaded;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.DempsyException;
+import net.dempsy.Infrastructure;
+import net.dempsy.cluster.ClusterInfoException;
+import net.dempsy.cluster.ClusterInfoSession;
+import net.dempsy.config.ClusterId;
+import net.dempsy.messages.KeyedMessageWithType;
+import net.dempsy.router.RoutingStrategy.ContainerAddress;
+import net.dempsy.router.RoutingStrategy.Router;
+import net.dempsy.util.SafeString;
+import net.dempsy.util.executor.AutoDisposeSingleThreadScheduler;
+import net.dempsy.utils.PersistentTask;
+
+/**
+ * <p>
+ * Sends each message to one of the nodes registered by a {@link LeastLoadedInbound} using the power of two choices:
+ * two different nodes are picked at random and the one that last reported fewer pending messages gets the message. The
+ * key isn't used at all.
+ * </p>
+ *
+ * <p>
+ * The loads are read again from the cluster session every
+ * {@link LeastLoadedInbound#CONFIG_KEY_LOAD_PUBLISH_INTERVAL_MILLIS} milliseconds so they're always a little out of
+ * date. Always picking the least loaded of all of the nodes would send everything to the same node until the next
+ * update. Comparing only two random nodes still keeps messages away from an overloaded node without that.
+ * </p>
+ */
+public class LeastLoadedRouter implements Router {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LeastLoadedRouter.class);
+    private static final long RETRY_TIMEOUT = 500L;
+
+    final ClusterId clusterId;
+    private final LeastLoadedRouterFactory mommy;
+    private final String thisNodeId;
+    private final AutoDisposeSingleThreadScheduler scheduler;
+    private final long intervalMillis;
+    private final PersistentTask keepUpToDate;
+    private final AtomicBoolean isRunning = new AtomicBoolean(false);
+    private final AtomicReference<Loads> loads = new AtomicReference<>(null);
+
+    /**
+     * An immutable snapshot of the registered nodes and their loads.
+     */
+    static class Loads {
+        final ContainerAddress[] addresses;
+        final long[] messagesPending;
+
+        Loads(final List<NodeLoad> members) {
+            addresses = members.stream().map(m -> m.address).toArray(ContainerAddress[]::new);
+            messagesPending = members.stream().mapToLong(m -> m.messagesPending).toArray();
+        }
+    }
+
+    LeastLoadedRouter(final LeastLoadedRouterFactory mom, final ClusterId clusterId, final Infrastructure infra) {
+        this.mommy = mom;
+        this.clusterId = clusterId;
+        this.thisNodeId = infra.getNodeId();
+        this.scheduler = infra.getScheduler();
+        this.intervalMillis = LeastLoadedInbound.loadPublishIntervalMillis(infra);
+        final ClusterInfoSession session = infra.getCollaborator();
+        final String membersDir = LeastLoadedInbound.membersDir(infra, clusterId);
+
+        this.keepUpToDate = new PersistentTask(LOGGER, isRunning, scheduler, RETRY_TIMEOUT) {
+
+            @Override
+            public boolean execute() {
+                try {
+                    final List<NodeLoad> cur = LeastLoadedInbound.readMembers(session, membersDir, this);
+                    loads.set(new Loads(cur));
+                    if(cur.size() == 0) {
+                        LOGGER.debug("Checking on registered nodes for " + clusterId + " yields no registered nodes yet");
+                        return false;
+                    }
+                    return true;
+                } catch(final ClusterInfoException e) {
+                    LOGGER.debug("Failed attempt to retreive node destination information:" + e.getLocalizedMessage());
+                    return false;
+                }
+            }
+
+            @Override
+            public String toString() {
+                return "find nodes using " + LeastLoadedRouter.class.getSimpleName() + " for cluster " + clusterId;
+            }
+        };
+
+        isRunning.set(true);
+        keepUpToDate.process();
+        scheduleNext();
+    }
+
+    @Override
+    public ContainerAddress selectDestinationForMessage(final KeyedMessageWithType message) {
+        final Loads cur = loads.get();
+        if(cur == null)
+            throw new DempsyException("It appears the " + LeastLoadedRouter.class.getSimpleName() + " strategy for the message key " +
+                SafeString.objectDescription(message != null ? message.key : null)
+                + " is being used prior to initialization or after a failure.");
+
+        final int num = cur.addresses.length;
+        if(num < 2)
+            return num == 0 ? null : cur.addresses[0];
+
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int first = random.nextInt(num);
+        int second = random.nextInt(num - 1);
+        if(second >= first)
+            second++;
+        return cur.messagesPending[second] < cur.messagesPending[first] ? cur.addresses[second] : cur.addresses[first];
+    }
+
+    @Override
+    public Collection<ContainerAddress> allDesintations() {
+        final Loads cur = loads.get();
+        return cur == null ? new ArrayList<>() : new ArrayList<>(Arrays.asList(cur.addresses));
+    }
+
+    @Override
+    public void release() {
+        mommy.release(this);
+        isRunning.set(false);
+    }
+
+    @Override
+    public String toString() {
+        return "{" + LeastLoadedRouter.class.getSimpleName() + " at " + thisNodeId + " to " + clusterId + "}";
+    }
+
+    boolean isReady() {
+        final Loads cur = loads.get();
+        return cur != null && cur.addresses.length > 0;
+    }
+
+    // =======================================================================
+    // Test Access
+    // =======================================================================
+
+    Loads getLoads() {
+        return loads.get();
+    }
+
+    // =======================================================================
+
+    // the membership is watched but the loads change too often for that so they're polled.
+    private void scheduleNext() {
+        if(isRunning.get())
+            scheduler.schedule(() -> {
+                try {
+                    keepUpToDate.process();
+                } finally {
+                    scheduleNext();
+                }
+            }, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,30 @@
+package net.dempsy.router.leastloaded;
+
+import java.io.Serializable;
+
+import net.dempsy.router.RoutingStrategy.ContainerAddress;
+
+/**
+ * What each {@link LeastLoadedInbound} registers, and keeps up to date, in the cluster session.
+ */
+public class NodeLoad implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public final ContainerAddress address;
+    public final long messagesPending;
+
+    public NodeLoad(final ContainerAddress address, final long messagesPending) {
+        this.address = address;
+        this.messagesPending = messagesPending;
+    }
+
+    @SuppressWarnings("unused") // serialization
+    private NodeLoad() {
+        this(null, 0L);
+    }
+
+    @Override
+    public String toString() {
+        return "NodeLoad[address=" + address + ", messagesPending=" + messagesPending + "]";
+    }
+}
@@ -8,12 +8,14 @@ import net.dempsy.config.ClusterId;
 import net.dempsy.router.RoutingStrategy.ContainerAddress;
 import net.dempsy.router.RoutingStrategy.Inbound;
 import net.dempsy.router.shardutils.Leader;
+import net.dempsy.router.shardutils.ShardLoadReporter;
 import net.dempsy.router.shardutils.Subscriber;
 import net.dempsy.router.shardutils.Utils;
 
 public class ManagedInbound implements Inbound {
     private Leader<ContainerAddress> leader;
     private Subscriber<ContainerAddress> subscriber;
+    private ShardLoadReporter<ContainerAddress> loadReporter = null;
     private Utils<ContainerAddress> utils;
     private ClusterId clusterId;
     private ContainerAddress address;
@@ -33,6 +35,8 @@ public class ManagedInbound implements Inbound {
         final int totalShards = Integer
                 .parseInt(infra.getConfigValue(ManagedInbound.class, Utils.CONFIG_KEY_TOTAL_SHARDS, Utils.DEFAULT_TOTAL_SHARDS));
         final int minNodes = Integer.parseInt(infra.getConfigValue(ManagedInbound.class, Utils.CONFIG_KEY_MIN_NODES, Utils.DEFAULT_MIN_NODES));
+        final long loadBalanceMillis = Long
+                .parseLong(infra.getConfigValue(ManagedInbound.class, Utils.CONFIG_KEY_LOAD_BALANCE_MILLIS, Utils.DEFAULT_LOAD_BALANCE_MILLIS));
 
         if (Integer.bitCount(totalShards) != 1)
             throw new IllegalArgumentException("The configuration property \"" + Utils.CONFIG_KEY_TOTAL_SHARDS
@@ -40,12 +44,24 @@ public class ManagedInbound implements Inbound {
 
         this.mask = totalShards - 1;
 
-        utils = new Utils<ContainerAddress>(infra, clusterId.clusterName, address);
+        utils = new Utils<ContainerAddress>(infra, clusterId.clusterName, address)
+                .shardHash(Utils.configuredShardHash(infra, ManagedInbound.class, clusterId.clusterName));
         // subscriber first because it registers as a node. If there's no nodes
         // there's nothing for the leader to do.
         subscriber = new Subscriber<ContainerAddress>(utils, infra, isRunning, listener, totalShards);
         subscriber.process();
-        leader = new Leader<ContainerAddress>(utils, totalShards, minNodes, infra, isRunning, ContainerAddress[]::new);
+        leader = new Leader<ContainerAddress>(utils, totalShards, minNodes, infra, isRunning, ContainerAddress[]::new, ca -> ca.node);
+
+        if (loadBalanceMillis > 0) {
+            final double threshold = Double.parseDouble(infra.getConfigValue(ManagedInbound.class, Utils.CONFIG_KEY_LOAD_IMBALANCE_THRESHOLD,
+                    Utils.DEFAULT_LOAD_IMBALANCE_THRESHOLD));
+            final int maxMoves = Integer
+                    .parseInt(infra.getConfigValue(ManagedInbound.class, Utils.CONFIG_KEY_MAX_LOAD_MOVES, Utils.DEFAULT_MAX_LOAD_MOVES));
+            leader.loadBalancing(loadBalanceMillis, threshold, maxMoves);
+            loadReporter = new ShardLoadReporter<ContainerAddress>(utils, infra, isRunning, totalShards, loadBalanceMillis);
+            loadReporter.start();
+        }
+
         leader.process();
     }
 
@@ -61,7 +77,12 @@ public class ManagedInbound implements Inbound {
 
     @Override
     public boolean doesMessageKeyBelongToNode(final Object messageKey) {
-        final int shardNum = utils.determineShard(messageKey, mask);
-        return subscriber.doIOwnShard(shardNum);
+        return subscriber.doIOwnShard(utils.determineShard(messageKey, mask));
+    }
+
+    @Override
+    public void messageAccepted(final Object messageKey) {
+        if (loadReporter != null)
+            loadReporter.record(utils.determineShard(messageKey, mask));
     }
 }
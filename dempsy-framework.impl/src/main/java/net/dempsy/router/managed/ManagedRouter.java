@@ -1,12 +1,12 @@
 package net.dempsy.router.managed;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.function.IntConsumer;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
@@ -22,7 +22,7 @@ import net.dempsy.router.shardutils.ShardState;
 import net.dempsy.router.shardutils.Utils;
 import net.dempsy.util.SafeString;
 
-public class ManagedRouter implements Router, IntConsumer {
+public class ManagedRouter implements Router {
     private static Logger LOGGER = LoggerFactory.getLogger(ManagedRouter.class);
     private final AtomicReference<ContainerAddress[]> destinations;
 
@@ -33,24 +33,18 @@ public class ManagedRouter implements Router, IntConsumer {
 
     private final ShardState<ContainerAddress> state;
     private final Utils<ContainerAddress> utils;
-    private int mask = 0;
 
     ManagedRouter(final ManagedRouterFactory mom, final ClusterId clusterId, final Infrastructure infra) {
         this.mommy = mom;
         this.clusterId = clusterId;
         this.thisNodeId = infra.getNodeId();
         this.isRunning = new AtomicBoolean(true);
-        this.state = new ShardState<ContainerAddress>(clusterId.clusterName, infra, isRunning, ContainerAddress[]::new, this);
+        this.state = new ShardState<ContainerAddress>(clusterId.clusterName, infra, isRunning, ContainerAddress[]::new);
         this.utils = state.getUtils();
         this.destinations = state.getShardContentsArray();
         this.state.process();
     }
 
-    @Override
-    public void accept(final int mask) {
-        this.mask = mask;
-    }
-
     @Override
     public ContainerAddress selectDestinationForMessage(final KeyedMessageWithType message) {
         final ContainerAddress[] destinations = this.destinations.get();
@@ -59,7 +53,7 @@ public class ManagedRouter implements Router, IntConsumer {
                 SafeString.objectDescription(message != null ? message.key : null)
                 + " is being used prior to initialization or after a failure.");
 
-        return destinations[utils.determineShard(message.key, mask)];
+        return destinations[utils.determineShard(message.key, destinations.length - 1)];
     }
 
     @Override
@@ -70,6 +64,16 @@ public class ManagedRouter implements Router, IntConsumer {
         return new ArrayList<>(Arrays.stream(cur).filter(ca -> ca != null).collect(Collectors.toSet()));
     }
 
+    @Override
+    public Serializable snapshot() {
+        return state.snapshot();
+    }
+
+    @Override
+    public boolean seed(final Serializable snapshot) {
+        return state.seed(snapshot);
+    }
+
     @Override
     public synchronized void release() {
         mommy.release(this);
@@ -0,0 +1,20 @@
+package net.dempsy.router.rendezvous;
+
+import net.dempsy.Locator;
+import net.dempsy.router.RoutingStrategy;
+import net.dempsy.router.RoutingStrategy.Inbound;
+
+public class Factory implements Locator {
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T locate(final Class<T> clazz) {
+        if(Inbound.class.equals(clazz))
+            return (T)new RendezvousInbound();
+        else if(RoutingStrategy.Factory.class.equals(clazz))
+            return (T)new RendezvousRouterFactory();
+        else
+            return null;
+    }
+
+}
@@ -0,0 +1,120 @@
+package net.dempsy.router.rendezvous;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.dempsy.router.RoutingStrategy.ContainerAddress;
+
+/**
+ * <p>
+ * An immutable snapshot of the nodes in a cluster that picks the node for a key using (weighted) rendezvous hashing.
+ * Each node scores every key and the node with the highest score gets it. The score only depends on the key and
+ * the node so when a node joins it only takes the keys it now wins and when a node leaves only its keys move. That's
+ * about {@code 1/N} of the keys either way.
+ * </p>
+ *
+ * <p>
+ * A node with twice the weight of another ends up with twice the keys, as if it were two virtual nodes, without the
+ * cost of scoring each virtual node separately.
+ * </p>
+ */
+public class RendezvousHash {
+    private static final double UNIT = 1.0D / (1L << 53);
+
+    private final List<RendezvousNode> nodes;
+    private final ContainerAddress[] addresses;
+    private final long[] seeds;
+    private final double[] weights;
+    private final boolean weighted;
+
+    /**
+     * @param members every node in the cluster.
+     */
+    public RendezvousHash(final List<RendezvousNode> members) {
+        nodes = Collections.unmodifiableList(new ArrayList<>(members));
+        final int num = members.size();
+        addresses = new ContainerAddress[num];
+        seeds = new long[num];
+        weights = new double[num];
+        for(int i = 0; i < num; i++) {
+            final RendezvousNode cur = members.get(i);
+            addresses[i] = cur.address;
+            seeds[i] = seed(cur.id());
+            weights[i] = cur.weight;
+        }
+        weighted = Arrays.stream(weights).distinct().count() > 1;
+    }
+
+    /**
+     * @return the node that gets messages with the given key or null if there are no nodes.
+     */
+    public ContainerAddress select(final Object key) {
+        final int index = selectIndex(key);
+        return index < 0 ? null : addresses[index];
+    }
+
+    public int selectIndex(final Object key) {
+        final long keyHash = mix(key.hashCode() * 0x9E3779B97F4A7C15L);
+        int ret = -1;
+        if(weighted) {
+            double best = Double.NEGATIVE_INFINITY;
+            for(int i = 0; i < seeds.length; i++) {
+                // -weight / ln(u) for u uniform in (0, 1) is highest for a node with probability in proportion to its weight.
+                final double u = ((mix(keyHash ^ seeds[i]) >>> 11) + 0.5D) * UNIT;
+                final double score = -weights[i] / Math.log(u);
+                if(score > best) {
+                    best = score;
+                    ret = i;
+                }
+            }
+        } else {
+            // with equal weights the score is just the hash.
+            long best = Long.MIN_VALUE;
+            for(int i = 0; i < seeds.length; i++) {
+                final long score = mix(keyHash ^ seeds[i]);
+                if(ret < 0 || score > best) {
+                    best = score;
+                    ret = i;
+                }
+            }
+        }
+        return ret;
+    }
+
+    public List<ContainerAddress> getAddresses() {
+        return Collections.unmodifiableList(Arrays.asList(addresses));
+    }
+
+    public List<RendezvousNode> getNodes() {
+        return nodes;
+    }
+
+    public boolean contains(final ContainerAddress address) {
+        return Arrays.asList(addresses).contains(address);
+    }
+
+    public int size() {
+        return addresses.length;
+    }
+
+    // The murmur3 64 bit finalizer.
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long seed(final String id) {
+        long h = 0xcbf29ce484222325L; // FNV-1a
+        for(int i = 0; i < id.length(); i++) {
+            h ^= id.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+}
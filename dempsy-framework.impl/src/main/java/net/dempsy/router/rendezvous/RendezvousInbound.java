@@ -0,0 +1,183 @@
+package net.dempsy.router.rendezvous;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.Infrastructure;
+import net.dempsy.KeyspaceChangeListener;
+import net.dempsy.cluster.ClusterInfoException;
+import net.dempsy.cluster.ClusterInfoSession;
+import net.dempsy.cluster.ClusterInfoWatcher;
+import net.dempsy.cluster.DirMode;
+import net.dempsy.config.ClusterId;
+import net.dempsy.config.Node;
+import net.dempsy.router.RoutingStrategy.ContainerAddress;
+import net.dempsy.router.RoutingStrategy.Inbound;
+import net.dempsy.utils.PersistentTask;
+
+/**
+ * <p>
+ * The inbound side of a routing strategy that gives each key to a node using rendezvous hashing over the nodes
+ * currently registered for the cluster. Each node simply registers itself. There's no leader and nothing else is
+ * written to the cluster session. When a node joins or leaves only about {@code 1/N} of the keys move.
+ * </p>
+ *
+ * <p>
+ * The share of the keys a node gets is in proportion to its weight. The weight is, in order of precedence, what's set
+ * using {@link #weight(double)}, the {@link #CONFIG_KEY_WEIGHT} configuration value, or the node's
+ * {@link Node#getCapacityWeight()}.
+ * </p>
+ */
+public class RendezvousInbound implements Inbound {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RendezvousInbound.class);
+    private static final long RETRY_TIMEOUT = 500L;
+
+    public static final String RENDEZVOUS_SUBDIR = "rendezvous";
+    public static final String CONFIG_KEY_WEIGHT = "weight";
+
+    private ClusterId clusterId;
+    private ContainerAddress address;
+    private KeyspaceChangeListener listener;
+    private ClusterInfoSession session;
+    private String membersDir;
+    private String actualDir = null;
+    private Double weight = null;
+    private PersistentTask keepUpToDate;
+    private volatile RendezvousHash members = null;
+
+    private final AtomicBoolean isRunning = new AtomicBoolean(false);
+
+    /**
+     * Explicitly set the weight of this node relative to the others in the cluster.
+     */
+    public RendezvousInbound weight(final double weight) {
+        if(!(weight > 0.0D) || Double.isInfinite(weight))
+            throw new IllegalArgumentException("The weight of a " + RendezvousInbound.class.getSimpleName() + " must be positive. It was " + weight);
+        this.weight = weight;
+        return this;
+    }
+
+    @Override
+    public void setContainerDetails(final ClusterId clusterId, final ContainerAddress address, final KeyspaceChangeListener listener) {
+        this.clusterId = clusterId;
+        this.address = address;
+        this.listener = listener;
+    }
+
+    @Override
+    public void start(final Infrastructure infra) {
+        if(weight == null) {
+            final String configured = infra.getConfigValue(RendezvousInbound.class, CONFIG_KEY_WEIGHT, null);
+            weight(configured != null ? Double.parseDouble(configured) : infra.getNode().getCapacityWeight());
+        }
+
+        this.session = infra.getCollaborator();
+        this.membersDir = membersDir(infra, clusterId);
+        final RendezvousNode registration = new RendezvousNode(address, weight);
+
+        this.keepUpToDate = new PersistentTask(LOGGER, isRunning, infra.getScheduler(), RETRY_TIMEOUT) {
+
+            @Override
+            public boolean execute() {
+                try {
+                    if(actualDir == null || !session.exists(actualDir, null)) {
+                        session.recursiveMkdir(membersDir, null, DirMode.PERSISTENT, DirMode.PERSISTENT);
+                        actualDir = session.mkdir(membersDir + "/node_", registration, DirMode.EPHEMERAL_SEQUENTIAL);
+                        LOGGER.debug("Registered " + RendezvousInbound.class.getSimpleName() + " at " + actualDir);
+                    }
+
+                    final RendezvousHash prev = members;
+                    final RendezvousHash cur = readMembers(session, membersDir, this);
+                    // we're not done until we can see ourselves.
+                    if(!cur.contains(address))
+                        return false;
+
+                    members = cur;
+                    notifyListener(prev, cur);
+                    return true;
+                } catch(final ClusterInfoException e) {
+                    final String message = "Failed to register or update " + RendezvousInbound.class.getSimpleName() + " for cluster " + clusterId
+                        + ". Will retry shortly.";
+                    if(LOGGER.isTraceEnabled())
+                        LOGGER.debug(message, e);
+                    else
+                        LOGGER.debug(message);
+                    return false;
+                }
+            }
+
+            @Override
+            public String toString() {
+                return "keep " + RendezvousInbound.class.getSimpleName() + " up to date for cluster " + clusterId;
+            }
+        };
+
+        isRunning.set(true);
+        keepUpToDate.process();
+    }
+
+    @Override
+    public void stop() {
+        isRunning.set(false);
+    }
+
+    @Override
+    public boolean isReady() {
+        return members != null;
+    }
+
+    @Override
+    public boolean doesMessageKeyBelongToNode(final Object messageKey) {
+        final RendezvousHash cur = members;
+        return cur != null && address.equals(cur.select(messageKey));
+    }
+
+    public ContainerAddress getAddress() {
+        return address;
+    }
+
+    public String getAddressSubdirectory() {
+        return actualDir;
+    }
+
+    static String membersDir(final Infrastructure infra, final ClusterId clusterId) {
+        return infra.getRootPaths().clustersDir + "/" + clusterId.clusterName + "/" + RENDEZVOUS_SUBDIR;
+    }
+
+    /**
+     * Read all of the nodes registered in the given directory.
+     */
+    static RendezvousHash readMembers(final ClusterInfoSession session, final String membersDir, final ClusterInfoWatcher watcher)
+        throws ClusterInfoException {
+        final Collection<String> subdirs = session.getSubdirs(membersDir, watcher);
+        final List<String> sorted = new ArrayList<>(subdirs);
+        sorted.sort(null);
+
+        // a node that registered again can briefly be there twice.
+        final Map<ContainerAddress, RendezvousNode> nodes = new LinkedHashMap<>();
+        for(final String subdir: sorted) {
+            final RendezvousNode node = (RendezvousNode)session.getData(membersDir + "/" + subdir, null);
+            if(node != null && node.address != null)
+                nodes.put(node.address, node);
+        }
+        return new RendezvousHash(new ArrayList<>(nodes.values()));
+    }
+
+    // A node joining can take keys from us. A node leaving can give us keys. The first time we get everything we own.
+    private void notifyListener(final RendezvousHash prev, final RendezvousHash cur) {
+        if(listener == null)
+            return;
+
+        final boolean less = prev != null && cur.getNodes().stream().anyMatch(n -> !prev.getNodes().contains(n));
+        final boolean more = prev == null || prev.getNodes().stream().anyMatch(n -> !cur.getNodes().contains(n));
+        if(less || more)
+            listener.keyspaceChanged(less, more);
+    }
+}
@@ -0,0 +1,55 @@
+package net.dempsy.router.rendezvous;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Objects;
+
+import net.dempsy.router.RoutingStrategy.ContainerAddress;
+
+/**
+ * What each {@link RendezvousInbound} registers in the cluster session.
+ */
+public class RendezvousNode implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public final ContainerAddress address;
+    public final double weight;
+
+    public RendezvousNode(final ContainerAddress address, final double weight) {
+        this.address = address;
+        this.weight = weight;
+    }
+
+    @SuppressWarnings("unused") // serialization
+    private RendezvousNode() {
+        this(null, 1.0D);
+    }
+
+    /**
+     * This seeds the node's hash so it needs to be the same wherever it's computed. It's also the same if the node
+     * registers again after losing its session so the node gets the same keys back.
+     */
+    public String id() {
+        return address.node.getGuid() + Arrays.toString(address.clusters);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(address, Double.valueOf(weight));
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if(this == obj)
+            return true;
+        if(obj == null || getClass() != obj.getClass())
+            return false;
+        final RendezvousNode other = (RendezvousNode)obj;
+        return Objects.equals(address, other.address) && Double.compare(weight, other.weight) == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "RendezvousNode[address=" + address + ", weight=" + weight + "]";
+    }
+}
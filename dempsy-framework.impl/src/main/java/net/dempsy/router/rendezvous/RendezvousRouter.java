@@ -0,0 +1,111 @@
+package net.dempsy.router.rendezvous;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.DempsyException;
+import net.dempsy.Infrastructure;
+import net.dempsy.cluster.ClusterInfoException;
+import net.dempsy.cluster.ClusterInfoSession;
+import net.dempsy.config.ClusterId;
+import net.dempsy.messages.KeyedMessageWithType;
+import net.dempsy.router.RoutingStrategy.ContainerAddress;
+import net.dempsy.router.RoutingStrategy.Router;
+import net.dempsy.util.SafeString;
+import net.dempsy.utils.PersistentTask;
+
+/**
+ * Sends each message to the node that wins its key using the same rendezvous hash as the {@link RendezvousInbound}s.
+ * All it needs is the set of registered nodes which it watches for changes.
+ */
+public class RendezvousRouter implements Router {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RendezvousRouter.class);
+    private static final long RETRY_TIMEOUT = 500L;
+
+    final ClusterId clusterId;
+    private final RendezvousRouterFactory mommy;
+    private final String thisNodeId;
+    private final AtomicBoolean isRunning = new AtomicBoolean(false);
+    private final AtomicReference<RendezvousHash> members = new AtomicReference<>(null);
+
+    RendezvousRouter(final RendezvousRouterFactory mom, final ClusterId clusterId, final Infrastructure infra) {
+        this.mommy = mom;
+        this.clusterId = clusterId;
+        this.thisNodeId = infra.getNodeId();
+        final ClusterInfoSession session = infra.getCollaborator();
+        final String membersDir = RendezvousInbound.membersDir(infra, clusterId);
+
+        final PersistentTask keepUpToDate = new PersistentTask(LOGGER, isRunning, infra.getScheduler(), RETRY_TIMEOUT) {
+
+            @Override
+            public boolean execute() {
+                try {
+                    final RendezvousHash cur = RendezvousInbound.readMembers(session, membersDir, this);
+                    members.set(cur);
+                    if(cur.size() == 0) {
+                        LOGGER.debug("Checking on registered nodes for " + clusterId + " yields no registered nodes yet");
+                        return false;
+                    }
+                    return true;
+                } catch(final ClusterInfoException e) {
+                    LOGGER.debug("Failed attempt to retreive node destination information:" + e.getLocalizedMessage());
+                    return false;
+                }
+            }
+
+            @Override
+            public String toString() {
+                return "find nodes using " + RendezvousRouter.class.getSimpleName() + " for cluster " + clusterId;
+            }
+        };
+
+        isRunning.set(true);
+        keepUpToDate.process();
+    }
+
+    @Override
+    public ContainerAddress selectDestinationForMessage(final KeyedMessageWithType message) {
+        final RendezvousHash cur = members.get();
+        if(cur == null)
+            throw new DempsyException("It appears the " + RendezvousRouter.class.getSimpleName() + " strategy for the message key " +
+                SafeString.objectDescription(message != null ? message.key : null)
+                + " is being used prior to initialization or after a failure.");
+
+        return cur.select(message.key);
+    }
+
+    @Override
+    public Collection<ContainerAddress> allDesintations() {
+        final RendezvousHash cur = members.get();
+        return cur == null ? new ArrayList<>() : new ArrayList<>(cur.getAddresses());
+    }
+
+    @Override
+    public void release() {
+        mommy.release(this);
+        isRunning.set(false);
+    }
+
+    @Override
+    public String toString() {
+        return "{" + RendezvousRouter.class.getSimpleName() + " at " + thisNodeId + " to " + clusterId + "}";
+    }
+
+    boolean isReady() {
+        final RendezvousHash cur = members.get();
+        return cur != null && cur.size() > 0;
+    }
+
+    // =======================================================================
+    // Test Access
+    // =======================================================================
+
+    RendezvousHash getMembers() {
+        return members.get();
+    }
+}
@@ -3,15 +3,18 @@ package net.dempsy.router.shardutils;
 import static net.dempsy.util.Functional.chain;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.function.IntFunction;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -20,17 +23,23 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import net.dempsy.Infrastructure;
+import net.dempsy.NodeInformation;
 import net.dempsy.cluster.ClusterInfoException;
 import net.dempsy.cluster.ClusterInfoSession;
+import net.dempsy.cluster.ClusterInfoWatcher;
 import net.dempsy.cluster.DirMode;
+import net.dempsy.config.Node;
 import net.dempsy.router.shardutils.Utils.ShardAssignment;
+import net.dempsy.router.shardutils.Utils.ShardLoad;
 import net.dempsy.router.shardutils.Utils.SubdirAndData;
+import net.dempsy.transport.NodeAddress;
+import net.dempsy.util.executor.AutoDisposeSingleThreadScheduler;
 import net.dempsy.utils.PersistentTask;
 
 public class Leader<C> extends PersistentTask {
     private static final Logger LOGGER = LoggerFactory.getLogger(Leader.class);
 
-    private boolean imIt = false;
+    private volatile boolean imIt = false;
     private final Utils<C> utils;
     private final ClusterInfoSession session;
     private final PersistentTask nodesChangedTask;
@@ -38,15 +47,38 @@ public class Leader<C> extends PersistentTask {
     private final IntFunction<C[]> newArraySupplier;
     private final int totalNumShards;
     private final int minNodes;
+    private final Function<C, NodeAddress> nodeAddressOf;
+    private final AutoDisposeSingleThreadScheduler scheduler;
+
+    // both the nodes changing and the load balancing rewrite the assignments.
+    private final Object assignmentLock = new Object();
+    private final AtomicBoolean loadBalancingStarted = new AtomicBoolean(false);
+    private long loadBalanceMillis = 0;
+    private double loadImbalanceThreshold = Double.parseDouble(Utils.DEFAULT_LOAD_IMBALANCE_THRESHOLD);
+    private int maxLoadMoves = Integer.parseInt(Utils.DEFAULT_MAX_LOAD_MOVES);
+
+    // the nodes the last time the assignments were balanced by count.
+    private List<C> lastNodes = null;
 
     public Leader(final Utils<C> msutils, final int totalNumShards, final int minNodes, final Infrastructure infra, final AtomicBoolean isRunning,
             final IntFunction<C[]> newArraySupplier) {
+        this(msutils, totalNumShards, minNodes, infra, isRunning, newArraySupplier, null);
+    }
+
+    /**
+     * @param nodeAddressOf when this is supplied shards are distributed in proportion to the
+     *            {@link NodeInformation#capacityWeight} that each node registered. Otherwise every node gets the same share.
+     */
+    public Leader(final Utils<C> msutils, final int totalNumShards, final int minNodes, final Infrastructure infra, final AtomicBoolean isRunning,
+            final IntFunction<C[]> newArraySupplier, final Function<C, NodeAddress> nodeAddressOf) {
         super(LOGGER, isRunning, infra.getScheduler(), 500);
         this.utils = msutils;
         this.session = utils.session;
         this.newArraySupplier = newArraySupplier;
         this.totalNumShards = totalNumShards;
         this.minNodes = minNodes;
+        this.nodeAddressOf = nodeAddressOf;
+        this.scheduler = infra.getScheduler();
 
         if (Integer.bitCount(totalNumShards) != 1)
             throw new IllegalArgumentException("The configuration property \"" + Utils.CONFIG_KEY_TOTAL_SHARDS
@@ -83,6 +115,8 @@ public class Leader<C> extends PersistentTask {
             if (imIt) {
                 if (!nodesChanged())
                     return false;
+                if (loadBalanceMillis > 0 && !loadBalancingStarted.getAndSet(true))
+                    scheduleLoadBalancing();
             }
 
             isReady.set(true);
@@ -97,6 +131,22 @@ public class Leader<C> extends PersistentTask {
         return isReady.get();
     }
 
+    /**
+     * Have this leader, once it's it, periodically move shards from nodes carrying more than their share of the message
+     * load (as published by each node's {@link ShardLoadReporter}) to the ones carrying less. Nothing moves until some
+     * node is {@code imbalanceThreshold} over its share and then shards move until every node is within half of that,
+     * or {@code maxMovesPerInterval} shards have moved.
+     *
+     * While load balancing is on, shards are only rebalanced by count when the set of nodes changes. Otherwise that would
+     * undo what was moved for load.
+     */
+    public Leader<C> loadBalancing(final long intervalMillis, final double imbalanceThreshold, final int maxMovesPerInterval) {
+        this.loadBalanceMillis = intervalMillis;
+        this.loadImbalanceThreshold = imbalanceThreshold;
+        this.maxLoadMoves = maxMovesPerInterval;
+        return this;
+    }
+
     @Override
     public String toString() {
         return "try to become leader of " + utils.leaderDir + (imIt ? " and I'm it." : " and I'm not it.");
@@ -119,27 +169,82 @@ public class Leader<C> extends PersistentTask {
         } else
             LOGGER.trace("Master was notifed of node changes");
 
-        // current nodes registered, sorted by rank
-        final List<SubdirAndData<C>> currentNodes = chain(
-                // I need to be notified when Nodes appear or disappear v
-                utils.persistentGetSubdirAndData(utils.nodesDir, nodesChangedTask, null), p -> Utils.rankSort(p));
+        synchronized (assignmentLock) {
+            // I need to be notified when Nodes appear or disappear
+            final List<C> nodes = currentNodes(nodesChangedTask);
+
+            // when balancing by load the counts aren't expected to match so leave them alone unless the nodes change.
+            if (loadBalanceMillis > 0 && nodes.equals(lastNodes))
+                return true;
+
+            final C[] assignedTo = currentAssignments(nodes);
+
+            // move only what needs to move to get to the target distribution.
+            final int numMoved = assign(assignedTo, nodes, capacityWeights(nodes), minNodes);
+            if (numMoved > 0)
+                LOGGER.debug("Reassigned " + numMoved + " of " + totalNumShards + " shards across " + nodes.size() + " nodes.");
+
+            writeAssignments(assignedTo);
+            lastNodes = nodes;
+            return true;
+        }
+    }
+
+    private void scheduleLoadBalancing() {
+        if (getIsRunningFlag().get())
+            scheduler.schedule(() -> {
+                try {
+                    balanceLoad();
+                } catch (final ClusterInfoException | RuntimeException e) {
+                    LOGGER.debug("Failed to balance the load across " + utils.groupDir + ". Will try again in " + loadBalanceMillis
+                            + " milliseconds.", e);
+                } finally {
+                    scheduleLoadBalancing();
+                }
+            }, loadBalanceMillis, TimeUnit.MILLISECONDS);
+    }
 
+    private void balanceLoad() throws ClusterInfoException {
+        if (!imIt || !getIsRunningFlag().get())
+            return;
+
+        synchronized (assignmentLock) {
+            final List<C> nodes = currentNodes(null);
+            final C[] assignedTo = currentAssignments(nodes);
+
+            // if the shards aren't all placed yet then the next nodesChanged will take care of it.
+            if (Arrays.stream(assignedTo).anyMatch(Objects::isNull))
+                return;
+
+            final List<ShardLoad<C>> loads = utils.persistentGetSubdirData(utils.shardLoadDir, null, null);
+            final int numMoved = balanceLoad(assignedTo, nodes, capacityWeights(nodes), shardRates(loads, totalNumShards), loadImbalanceThreshold,
+                    maxLoadMoves);
+            if (numMoved > 0) {
+                LOGGER.debug("Moved " + numMoved + " shards across " + nodes.size() + " nodes to balance the load.");
+                writeAssignments(assignedTo);
+            }
+        }
+    }
+
+    // current nodes registered, in rank order
+    private List<C> currentNodes(final ClusterInfoWatcher watcher) throws ClusterInfoException {
+        final List<SubdirAndData<C>> currentNodes = chain(utils.persistentGetSubdirAndData(utils.nodesDir, watcher, null), p -> Utils.rankSort(p));
+        return currentNodes.stream().map(n -> n.data).filter(Objects::nonNull).distinct().collect(Collectors.toList());
+    }
+
+    // create an array of already assigned and accepted addresses
+    private C[] currentAssignments(final List<C> nodes) throws ClusterInfoException {
         // get all of the current shard assignments
         @SuppressWarnings("unchecked")
         final List<ShardAssignment<C>> assignments = Optional
                 .ofNullable((List<ShardAssignment<C>>) utils.persistentGetData(utils.shardsAssignedDir, null))
                 .orElse(new ArrayList<>());
 
-        // Build a lookup to determine the rank of a given node denoted by its ContainerAddress
-        final Map<C, Integer> rankByCa = new HashMap<>();
-        for (int i = 0; i < currentNodes.size(); i++)
-            rankByCa.put(currentNodes.get(i).data, Integer.valueOf(i));
-
-        // create an array of already assigned and accepted addresses
+        final Set<C> known = new HashSet<>(nodes);
         final C[] assignedTo = newArraySupplier.apply(totalNumShards);
         for (final ShardAssignment<C> sa : assignments) {
             // do we know about this destination?
-            if (rankByCa.get(sa.addr) != null) {
+            if (known.contains(sa.addr)) {
                 for (final int shard : sa.shards) {
                     if (assignedTo[shard] == null)
                         assignedTo[shard] = sa.addr;
@@ -151,27 +256,10 @@ public class Leader<C> extends PersistentTask {
                 LOGGER.info("The node " + sa.addr + " seems to have dissapeared.");
             }
         }
+        return assignedTo;
+    }
 
-        // for each node in order I need to build a reduced state.
-        for (int i = currentNodes.size() - 1; i >= 0; i--) {
-            final C cur = currentNodes.get(i).data;
-
-            final Set<Integer> shardsToRelease = perNodeRelease(cur, assignedTo, currentNodes.size(), i);
-            for (final Integer shard : shardsToRelease) {
-                assignedTo[shard] = null;
-            }
-        }
-
-        // now go through and add
-        for (int i = 0; i < currentNodes.size(); i++) {
-            final C cur = currentNodes.get(i).data;
-            final Set<Integer> shardsToAdd = perNodeAcquire(cur, assignedTo, currentNodes.size(), i);
-            for (final Integer shard : shardsToAdd) {
-                assignedTo[shard] = cur;
-            }
-        }
-
-        // now write the results.
+    private void writeAssignments(final C[] assignedTo) throws ClusterInfoException {
         final Map<C, List<Integer>> tmp = new HashMap<>();
         for (int i = 0; i < assignedTo.length; i++) {
             final C cur = assignedTo[i];
@@ -187,83 +275,262 @@ public class Leader<C> extends PersistentTask {
 
         // now create the list of new assignments.
         final List<ShardAssignment<C>> newAssignments = new ArrayList<>(tmp.entrySet().stream()
-                .map(e -> new ShardAssignment<C>(e.getValue().stream().mapToInt(i -> i.intValue()).toArray(), e.getKey(), totalNumShards, minNodes))
+                .map(e -> new ShardAssignment<C>(e.getValue().stream().mapToInt(i -> i.intValue()).toArray(), e.getKey(), totalNumShards, minNodes,
+                        utils.getShardHashName()))
                 .collect(Collectors.toList()));
 
         session.setData(utils.shardsAssignedDir, newAssignments);
-        return true;
     }
 
-    private static <C> List<Integer> buildDestinationsAcquired(final C thisNodeAddress, final C[] currentState) {
-        // destinationsAcquired reflects what we already have according to the currentState
-        return new ArrayList<>(IntStream.range(0, currentState.length)
-                .filter(i -> thisNodeAddress.equals(currentState[i]))
-                .mapToObj(i -> Integer.valueOf(i))
-                .collect(Collectors.toSet()));
+    // The latest rate for each shard. A shard that just moved may be in the reports from both its old and new owner so
+    // take the larger.
+    static <C> double[] shardRates(final List<ShardLoad<C>> loads, final int totalNumShards) {
+        final double[] ret = new double[totalNumShards];
+        for (final ShardLoad<C> load : loads) {
+            if (load == null || load.messagesPerSecond == null || load.messagesPerSecond.length != totalNumShards)
+                continue;
+            for (int i = 0; i < totalNumShards; i++)
+                ret[i] = Math.max(ret[i], load.messagesPerSecond[i]);
+        }
+        return ret;
     }
 
-    // go through and determine which nodes to give up ... if any
-    private Set<Integer> perNodeRelease(final C thisNodeAddress, final C[] currentState, final int nodeCount, final int nodeRank) {
-        final int numberIShouldHave = howManyShouldIHave(totalNumShards, nodeCount, minNodes, nodeRank);
-
-        // destinationsAcquired reflects what we already have according to the currentState
-        final List<Integer> destinationsAcquired = buildDestinationsAcquired(thisNodeAddress, currentState);
+    /**
+     * Move shards from the node that's furthest over its share of the load to the one that's furthest under, one at a
+     * time, each time picking the shard that leaves the pair closest to even. A node's share is in proportion to its
+     * capacity weight.
+     *
+     * @param assignedTo the owner of each shard. This is updated in place.
+     * @param nodes the current nodes in rank order.
+     * @param weights the capacity weight of each of the nodes.
+     * @param shardRates the message rate for each shard.
+     * @param threshold nothing moves unless some node is more than this fraction over its share. When something does
+     *            shards move until every node is within half of this fraction.
+     * @param maxMoves the most shards to move.
+     * @return the number of shards moved.
+     */
+    static <C> int balanceLoad(final C[] assignedTo, final List<C> nodes, final double[] weights, final double[] shardRates,
+            final double threshold, final int maxMoves) {
+        final int numNodes = nodes.size();
+        if (numNodes < 2)
+            return 0;
 
-        final int numHad = destinationsAcquired.size();
-        final Set<Integer> ret = new HashSet<>();
-        if (destinationsAcquired.size() > numberIShouldHave) { // there's some to remove.
-            final Random random = new Random();
+        final Map<C, Integer> rankByCa = new HashMap<>();
+        for (int i = 0; i < numNodes; i++)
+            rankByCa.put(nodes.get(i), Integer.valueOf(i));
+
+        final double[] load = new double[numNodes];
+        for (int shard = 0; shard < assignedTo.length; shard++) {
+            final Integer rank = assignedTo[shard] == null ? null : rankByCa.get(assignedTo[shard]);
+            if (rank != null)
+                load[rank.intValue()] += shardRates[shard];
+        }
 
-            while (destinationsAcquired.size() > numberIShouldHave) {
-                final int index = random.nextInt(destinationsAcquired.size());
-                ret.add(destinationsAcquired.remove(index));
+        final double totalLoad = Arrays.stream(load).sum();
+        if (!(totalLoad > 0.0D))
+            return 0;
+        final double totalWeight = Arrays.stream(weights).sum();
+        final double[] share = Arrays.stream(weights).map(w -> totalLoad * w / totalWeight).toArray();
+
+        // hysteresis. Don't start unless it's bad enough.
+        if (relativeLoad(load, share, mostLoaded(load, share)) <= 1.0D + threshold)
+            return 0;
+
+        final double settled = 1.0D + (threshold / 2.0D);
+        int numMoved = 0;
+        while (numMoved < maxMoves) {
+            final int from = mostLoaded(load, share);
+            final double fromRelativeLoad = relativeLoad(load, share, from);
+            if (fromRelativeLoad <= settled)
+                break;
+            final int to = leastLoaded(load, share);
+            final C fromNode = nodes.get(from);
+
+            // find the shard that leaves the most loaded of the pair the least loaded.
+            int best = -1;
+            double bestResult = fromRelativeLoad;
+            for (int shard = 0; shard < assignedTo.length; shard++) {
+                final double rate = shardRates[shard];
+                if (rate > 0.0D && fromNode.equals(assignedTo[shard])) {
+                    final double result = Math.max((load[from] - rate) / share[from], (load[to] + rate) / share[to]);
+                    if (result < bestResult) {
+                        best = shard;
+                        bestResult = result;
+                    }
+                }
             }
+
+            // nothing helps. This happens when a single shard is more than a node's share.
+            if (best == -1)
+                break;
+
+            assignedTo[best] = nodes.get(to);
+            load[from] -= shardRates[best];
+            load[to] += shardRates[best];
+            numMoved++;
         }
 
-        if (LOGGER.isTraceEnabled() && ret.size() > 0)
-            LOGGER.trace(thisNodeAddress.toString() + " removing shards " + ret + " because I have " +
-                    numHad + " but shouldn't have more than " + numberIShouldHave + ".");
+        return numMoved;
+    }
 
+    private static double relativeLoad(final double[] load, final double[] share, final int rank) {
+        return load[rank] / share[rank];
+    }
+
+    private static int mostLoaded(final double[] load, final double[] share) {
+        int ret = 0;
+        for (int i = 1; i < load.length; i++) {
+            if (relativeLoad(load, share, i) > relativeLoad(load, share, ret))
+                ret = i;
+        }
         return ret;
     }
 
-    private Set<Integer> perNodeAcquire(final C thisNodeAddress, final C[] currentState, final int nodeCount, final int nodeRank) {
-        final int numberIShouldHave = howManyShouldIHave(totalNumShards, nodeCount, minNodes, nodeRank);
+    private static int leastLoaded(final double[] load, final double[] share) {
+        int ret = 0;
+        for (int i = 1; i < load.length; i++) {
+            if (relativeLoad(load, share, i) < relativeLoad(load, share, ret))
+                ret = i;
+        }
+        return ret;
+    }
 
-        // destinationsAcquired reflects what we already have according to the currentState
-        final List<Integer> destinationsAcquired = buildDestinationsAcquired(thisNodeAddress, currentState);
+    // The capacity weight of each of the nodes from the NodeInformation they registered.
+    private double[] capacityWeights(final List<C> nodes) throws ClusterInfoException {
+        final double[] ret = new double[nodes.size()];
+        Arrays.fill(ret, Node.DEFAULT_CAPACITY_WEIGHT);
+        if (nodeAddressOf == null)
+            return ret;
+
+        // A node may register its NodeInformation after it's already been given shards so we need to be
+        // notified of those changes also.
+        final List<NodeInformation> infos = utils.persistentGetSubdirData(utils.rootNodesDir, nodesChangedTask, null);
+        final Map<NodeAddress, Double> weightByAddress = new HashMap<>();
+        for (final NodeInformation ni : infos) {
+            if (ni != null && ni.nodeAddress != null && ni.capacityWeight > 0.0D)
+                weightByAddress.put(ni.nodeAddress, Double.valueOf(ni.capacityWeight));
+        }
 
-        final int numHad = destinationsAcquired.size();
+        for (int i = 0; i < ret.length; i++) {
+            final Double weight = weightByAddress.get(nodeAddressOf.apply(nodes.get(i)));
+            if (weight != null)
+                ret[i] = weight.doubleValue();
+        }
+        return ret;
+    }
 
-        final Set<Integer> ret = new HashSet<>();
-        if (destinationsAcquired.size() < numberIShouldHave) {
-            final int numICanAdd = numberIShouldHave - destinationsAcquired.size();
+    /**
+     * The same as {@link #assign(Object[], List, double[], int)} with every node having the same weight.
+     */
+    static <C> int assign(final C[] assignedTo, final List<C> nodes, final int minNodes) {
+        final double[] weights = new double[nodes.size()];
+        Arrays.fill(weights, Node.DEFAULT_CAPACITY_WEIGHT);
+        return assign(assignedTo, nodes, weights, minNodes);
+    }
 
-            final Random random = new Random();
+    /**
+     * Move the fewest shards possible so that each of the {@code nodes} ends up with the number of shards given by
+     * {@link #howManyShouldEachHave(int, int, int[], double[])}. Nodes over their target give up their surplus and those
+     * shards, along with any that are currently unassigned, go to the nodes under their target. Every other shard
+     * stays where it is.
+     *
+     * @param assignedTo the current owner of each shard (or null if it's unassigned). This is updated in place and must
+     *            only contain entries from {@code nodes}.
+     * @param nodes the current nodes in rank order.
+     * @param weights the capacity weight of each of the nodes.
+     * @return the number of shards whose owner changed.
+     */
+    static <C> int assign(final C[] assignedTo, final List<C> nodes, final double[] weights, final int minNodes) {
+        final C[] before = assignedTo.clone();
+        final Map<C, Integer> rankByCa = new HashMap<>();
+        for (int i = 0; i < nodes.size(); i++)
+            rankByCa.put(nodes.get(i), Integer.valueOf(i));
 
-            final List<Integer> shardsAvailable = new ArrayList<>(IntStream.range(0, currentState.length)
-                    .filter(i -> currentState[i] == null)
-                    .mapToObj(i -> Integer.valueOf(i))
-                    .collect(Collectors.toSet()));
+        final int[] counts = new int[nodes.size()];
+        for (final C cur : assignedTo) {
+            if (cur != null)
+                counts[rankByCa.get(cur).intValue()]++;
+        }
+
+        final int[] targets = howManyShouldEachHave(assignedTo.length, minNodes, counts, weights);
 
-            while (shardsAvailable.size() > 0 && ret.size() < numICanAdd) {
-                final int index = random.nextInt(shardsAvailable.size());
-                ret.add(shardsAvailable.remove(index));
+        // release the surplus. Shards are given up from the top so which ones go is deterministic.
+        for (int shard = assignedTo.length - 1; shard >= 0; shard--) {
+            final C cur = assignedTo[shard];
+            if (cur != null) {
+                final int rank = rankByCa.get(cur).intValue();
+                if (counts[rank] > targets[rank]) {
+                    counts[rank]--;
+                    assignedTo[shard] = null;
+                }
             }
         }
 
-        if (LOGGER.isTraceEnabled() && ret.size() > 0)
-            LOGGER.trace(thisNodeAddress.toString() + " adding shards " + ret + " because I have " +
-                    numHad + " but should have " + numberIShouldHave + ".");
+        // hand out the unassigned shards to the nodes that are short.
+        int rank = 0;
+        for (int shard = 0; shard < assignedTo.length; shard++) {
+            if (assignedTo[shard] == null) {
+                while (rank < counts.length && counts[rank] >= targets[rank])
+                    rank++;
+                if (rank == counts.length)
+                    break;
+                assignedTo[shard] = nodes.get(rank);
+                counts[rank]++;
+            }
+        }
 
-        return ret;
+        if (LOGGER.isTraceEnabled())
+            LOGGER.trace("Target shard counts by node rank are " + Arrays.toString(targets));
+
+        return (int) IntStream.range(0, assignedTo.length).filter(i -> !Objects.equals(before[i], assignedTo[i])).count();
     }
 
-    private final static int howManyShouldIHave(final int totalShardCount, final int numNodes, final int minNodes, final int myRank) {
+    /**
+     * <p>
+     * Each node's share of the shards is in proportion to its capacity weight. Every node gets at least the whole
+     * number part of its share and the shards left over go one apiece to the nodes with the largest fractional part.
+     * That means no node is ever off from its exact share by a whole shard. Ties (which is every node when the weights
+     * are all the same) go to the nodes already holding more than their whole number part (and then to the lower rank)
+     * so the fewest shards need to move and nothing moves at all when neither the nodes nor the weights change.
+     * </p>
+     *
+     * <p>
+     * If there are fewer nodes than {@code minNodes} then the shares are calculated as if the missing nodes were there
+     * with the average weight of the ones that are.
+     * </p>
+     *
+     * @param currentCounts how many shards each node currently has, in rank order.
+     * @param weights the capacity weight of each node, in rank order.
+     * @return how many shards each node should have, in rank order.
+     */
+    static int[] howManyShouldEachHave(final int totalShardCount, final int minNodes, final int[] currentCounts, final double[] weights) {
+        final int numNodes = currentCounts.length;
         final int numNodesToConsider = Math.max(numNodes, minNodes);
-        final int base = Math.floorDiv(totalShardCount, numNodesToConsider);
-        final int mod = Math.floorMod(totalShardCount, numNodesToConsider);
-        return myRank < mod ? (base + 1) : base;
+
+        final double liveWeight = Arrays.stream(weights).sum();
+        final double missingWeight = numNodes == 0 ? Node.DEFAULT_CAPACITY_WEIGHT : (liveWeight / numNodes);
+        final double totalWeight = liveWeight + ((numNodesToConsider - numNodes) * missingWeight);
+
+        final int[] ret = new int[numNodesToConsider];
+        final double[] fraction = new double[numNodesToConsider];
+        int numAssigned = 0;
+        for (int i = 0; i < numNodesToConsider; i++) {
+            final double share = totalShardCount * (i < numNodes ? weights[i] : missingWeight) / totalWeight;
+            ret[i] = (int) Math.floor(share);
+            fraction[i] = share - ret[i];
+            numAssigned += ret[i];
+        }
+
+        final int numExtra = totalShardCount - numAssigned;
+        final int[] surplus = IntStream.range(0, numNodesToConsider).map(i -> i < numNodes ? currentCounts[i] - ret[i] : 0).toArray();
+        IntStream.range(0, numNodesToConsider)
+                .boxed()
+                .sorted((r1, r2) -> fraction[r1] != fraction[r2] ? Double.compare(fraction[r2], fraction[r1])
+                        : (surplus[r1] != surplus[r2] ? Integer.compare(surplus[r2], surplus[r1]) : Integer.compare(r1, r2)))
+                .limit(numExtra)
+                .forEach(r -> ret[r]++);
+
+        return Arrays.copyOf(ret, numNodes);
     }
 
     // Register to listen for changes on the manage directory and also figure out
@@ -0,0 +1,80 @@
+package net.dempsy.router.shardutils;
+
+/**
+ * <p>
+ * Turns a message key into the hash that {@link Utils#determineShard(Object, int)} masks to get the shard. Which one a
+ * cluster uses is set with the {@link Utils#CONFIG_KEY_SHARD_HASH} configuration and published along with the shard
+ * assignments so the routers sending to the cluster use the same one.
+ * </p>
+ *
+ * <p>
+ * {@link #LEGACY} is what was always used and is still the default so existing clusters keep their shards. It only
+ * multiplies the key's {@code hashCode()} by an odd number which leaves the low bits alone. Keys whose hash codes
+ * only differ in the high bits, like timestamps rounded to the second or {@code Double}s, end up in a few shards.
+ * {@link #MURMUR3} mixes every bit of the hash code into the low bits first.
+ * </p>
+ *
+ * <p>
+ * Anything else is taken as the name of a class implementing this interface with a public no-arg constructor. It
+ * needs to be available on every node that sends messages to the cluster.
+ * </p>
+ */
+@FunctionalInterface
+public interface ShardHash {
+    public static final String LEGACY = "legacy";
+    public static final String MURMUR3 = "murmur3";
+
+    public int hash(Object key);
+
+    /**
+     * The name {@link #forName(String)} understands the given one as. {@link #LEGACY} and {@link #MURMUR3} are matched
+     * without regard to case and null means {@link #LEGACY}. Anything else is a class name and is left alone.
+     */
+    public static String canonicalName(final String name) {
+        if(name == null || LEGACY.equalsIgnoreCase(name))
+            return LEGACY;
+        if(MURMUR3.equalsIgnoreCase(name))
+            return MURMUR3;
+        return name;
+    }
+
+    public static ShardHash forName(final String name) {
+        if(name == null || LEGACY.equalsIgnoreCase(name))
+            return Legacy.INSTANCE;
+        if(MURMUR3.equalsIgnoreCase(name))
+            return Murmur3.INSTANCE;
+        try {
+            return (ShardHash)Class.forName(name).getConstructor().newInstance();
+        } catch(final ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("The shard hash \"" + name + "\" should be \"" + LEGACY + "\", \"" + MURMUR3 + "\" or the name of a class that implements "
+                + ShardHash.class.getName() + " with a public no-arg constructor.", e);
+        }
+    }
+
+    public static class Legacy implements ShardHash {
+        public static final Legacy INSTANCE = new Legacy();
+
+        @Override
+        public int hash(final Object key) {
+            return Utils.prime * key.hashCode();
+        }
+    }
+
+    /**
+     * The 32 bit finalizer from MurmurHash3 applied to the key's {@code hashCode()}.
+     */
+    public static class Murmur3 implements ShardHash {
+        public static final Murmur3 INSTANCE = new Murmur3();
+
+        @Override
+        public int hash(final Object key) {
+            int h = key.hashCode();
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            h *= 0xc2b2ae35;
+            h ^= h >>> 16;
+            return h;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package net.dempsy.router.shardutils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * <p>
+ * A diagnostic that replays a sample of message keys through a {@link ShardHash} and reports how many land in each
+ * shard. Use it to check whether a cluster's keys are spread out before picking a {@link ShardHash}.
+ * </p>
+ *
+ * <p>
+ * It can be run from the command line on a file with one key per line:
+ * </p>
+ *
+ * <pre>
+ * java net.dempsy.router.shardutils.ShardHistogram keys.txt [total_shards] [string|long|double]
+ * </pre>
+ *
+ * <p>
+ * which prints the report for both the {@link ShardHash#LEGACY} and {@link ShardHash#MURMUR3} hashes.
+ * </p>
+ */
+public class ShardHistogram {
+    public final String shardHashName;
+    public final int[] counts;
+    public final long numKeys;
+
+    private ShardHistogram(final String shardHashName, final int[] counts, final long numKeys) {
+        this.shardHashName = shardHashName;
+        this.counts = counts;
+        this.numKeys = numKeys;
+    }
+
+    /**
+     * Count the keys in each shard using the named {@link ShardHash}.
+     */
+    public static ShardHistogram of(final Iterable<?> keys, final String shardHashName, final int totalShards) {
+        if(Integer.bitCount(totalShards) != 1)
+            throw new IllegalArgumentException("The total number of shards must be a power of 2. It's " + totalShards);
+        final ShardHash hash = ShardHash.forName(shardHashName);
+        final int mask = totalShards - 1;
+        final int[] counts = new int[totalShards];
+        long numKeys = 0;
+        for(final Object key: keys) {
+            counts[hash.hash(key) & mask]++;
+            numKeys++;
+        }
+        return new ShardHistogram(shardHashName, counts, numKeys);
+    }
+
+    public double mean() {
+        return (double)numKeys / counts.length;
+    }
+
+    public int max() {
+        return Arrays.stream(counts).max().getAsInt();
+    }
+
+    public int min() {
+        return Arrays.stream(counts).min().getAsInt();
+    }
+
+    public int numEmptyShards() {
+        return (int)Arrays.stream(counts).filter(c -> c == 0).count();
+    }
+
+    /**
+     * The fullest shard relative to an even spread. 1.0 is perfect.
+     */
+    public double maxOverMean() {
+        return numKeys == 0 ? 0.0D : max() / mean();
+    }
+
+    /**
+     * The standard deviation of the shard counts relative to the mean.
+     */
+    public double coefficientOfVariation() {
+        if(numKeys == 0)
+            return 0.0D;
+        final double mean = mean();
+        final double variance = Arrays.stream(counts).mapToDouble(c -> (c - mean) * (c - mean)).sum() / counts.length;
+        return Math.sqrt(variance) / mean;
+    }
+
+    /**
+     * The summary followed by one line per shard with a bar scaled to the fullest shard.
+     */
+    public String report() {
+        final StringBuilder sb = new StringBuilder(toString()).append(System.lineSeparator());
+        final int max = Math.max(max(), 1);
+        for(int i = 0; i < counts.length; i++) {
+            final int barLength = (int)Math.round(50.0D * counts[i] / max);
+            sb.append(String.format("%5d %10d ", i, counts[i]));
+            for(int j = 0; j < barLength; j++)
+                sb.append('#');
+            sb.append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d keys over %d shards, min=%d, max=%d, max/mean=%.2f, cv=%.3f, empty=%d", shardHashName, numKeys,
+            counts.length, min(), max(), maxOverMean(), coefficientOfVariation(), numEmptyShards());
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if(args.length < 1) {
+            System.err.println("usage: java " + ShardHistogram.class.getName() + " keyfile [total_shards] [string|long|double]");
+            System.exit(1);
+        }
+
+        final int totalShards = args.length > 1 ? Integer.parseInt(args[1]) : Integer.parseInt(Utils.DEFAULT_TOTAL_SHARDS);
+        final String type = args.length > 2 ? args[2] : "string";
+        final List<Object> keys;
+        try (Stream<String> lines = Files.lines(Paths.get(args[0]));) {
+            keys = lines.map(String::trim)
+                .filter(l -> l.length() > 0)
+                .map(l -> "long".equals(type) ? (Object)Long.valueOf(l) : ("double".equals(type) ? (Object)Double.valueOf(l) : l))
+                .collect(Collectors.toList());
+        }
+
+        for(final String hash: new String[] {ShardHash.LEGACY,ShardHash.MURMUR3})
+            System.out.println(of(keys, hash, totalShards).report());
+    }
+}
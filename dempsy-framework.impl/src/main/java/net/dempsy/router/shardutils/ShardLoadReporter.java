@@ -0,0 +1,95 @@
+package net.dempsy.router.shardutils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.Infrastructure;
+import net.dempsy.cluster.ClusterInfoException;
+import net.dempsy.cluster.ClusterInfoSession;
+import net.dempsy.cluster.DirMode;
+import net.dempsy.router.shardutils.Utils.ShardLoad;
+import net.dempsy.util.executor.AutoDisposeSingleThreadScheduler;
+
+/**
+ * Counts the messages that arrive at this node for each shard and periodically publishes the rates as a {@link ShardLoad}
+ * so the {@link Leader} can move shards from overloaded nodes to underloaded ones.
+ */
+public class ShardLoadReporter<C> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShardLoadReporter.class);
+
+    private final Utils<C> utils;
+    private final ClusterInfoSession session;
+    private final AutoDisposeSingleThreadScheduler scheduler;
+    private final AtomicBoolean isRunning;
+    private final long intervalMillis;
+    private final LongAdder[] counts;
+
+    private String loadDirectory = null;
+    private long lastReportNanos;
+
+    public ShardLoadReporter(final Utils<C> msutils, final Infrastructure infra, final AtomicBoolean isRunning, final int totalNumShards,
+            final long intervalMillis) {
+        this.utils = msutils;
+        this.session = msutils.session;
+        this.scheduler = infra.getScheduler();
+        this.isRunning = isRunning;
+        this.intervalMillis = intervalMillis;
+        this.counts = new LongAdder[totalNumShards];
+        for (int i = 0; i < totalNumShards; i++)
+            counts[i] = new LongAdder();
+    }
+
+    /**
+     * Count a message for the given shard. This is called for every message the node's container accepts for delivery.
+     */
+    public void record(final int shard) {
+        counts[shard].increment();
+    }
+
+    public void start() {
+        lastReportNanos = System.nanoTime();
+        scheduleNext();
+    }
+
+    // =======================================================================
+    // Test Access
+    // =======================================================================
+
+    synchronized void report() throws ClusterInfoException {
+        final long now = System.nanoTime();
+        final double seconds = Math.max(now - lastReportNanos, 1L) / 1000000000.0D;
+        lastReportNanos = now;
+
+        final double[] rates = new double[counts.length];
+        for (int i = 0; i < counts.length; i++)
+            rates[i] = counts[i].sumThenReset() / seconds;
+
+        final ShardLoad<C> load = new ShardLoad<>(rates, utils.thisNodeAddress);
+        if (loadDirectory == null || !session.exists(loadDirectory, null)) {
+            session.recursiveMkdir(utils.shardLoadDir, null, DirMode.PERSISTENT, DirMode.PERSISTENT);
+            loadDirectory = session.recursiveMkdir(utils.shardLoadDir + "/load_", load, DirMode.PERSISTENT, DirMode.EPHEMERAL_SEQUENTIAL);
+        } else
+            session.setData(loadDirectory, load);
+    }
+
+    // =======================================================================
+
+    private void scheduleNext() {
+        if (isRunning.get())
+            scheduler.schedule(() -> {
+                try {
+                    if (isRunning.get())
+                        report();
+                } catch (final ClusterInfoException | RuntimeException e) {
+                    LOGGER.debug("Failed to publish the shard load for " + utils.thisNodeAddress + ". Will try again in " + intervalMillis
+                            + " milliseconds.", e);
+                } finally {
+                    scheduleNext();
+                }
+            }, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -1,11 +1,11 @@
 package net.dempsy.router.shardutils;
 
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.function.IntConsumer;
 import java.util.function.IntFunction;
 import java.util.stream.Collectors;
 
@@ -25,17 +25,35 @@ public class ShardState<C> extends PersistentTask {
     private final String thisNodeId;
     private final IntFunction<C[]> newArraySupplier;
     private final String groupName;
-    private final IntConsumer setMask;
     private int mask = 0;
+    private boolean seeded = false;
 
-    public ShardState(final String groupName, final Infrastructure infra, final AtomicBoolean isRunning, final IntFunction<C[]> newArraySupplier,
-            final IntConsumer setMask) {
+    /**
+     * A complete copy of the shard contents and the {@link ShardHash} used to pick the shard. See
+     * {@link #snapshot()} and {@link #seed(Object)}.
+     */
+    public static class Snapshot<C> implements Serializable {
+        private static final long serialVersionUID = 1L;
+        public final C[] destinations;
+        public final String shardHash;
+
+        public Snapshot(final C[] destinations, final String shardHash) {
+            this.destinations = destinations;
+            this.shardHash = shardHash;
+        }
+
+        @SuppressWarnings("unused") // serialization
+        private Snapshot() {
+            this(null, null);
+        }
+    }
+
+    public ShardState(final String groupName, final Infrastructure infra, final AtomicBoolean isRunning, final IntFunction<C[]> newArraySupplier) {
         super(LOGGER, isRunning, infra.getScheduler(), 500);
         this.groupName = groupName;
         this.utils = new Utils<C>(infra, groupName, null);
         this.thisNodeId = infra.getNodeId();
         this.newArraySupplier = newArraySupplier;
-        this.setMask = setMask;
         process();
     }
 
@@ -47,8 +65,9 @@ public class ShardState<C> extends PersistentTask {
         return utils;
     }
 
+    // synchronized with seed so a snapshot and the assignments read from the cluster can't interleave.
     @Override
-    public boolean execute() {
+    public synchronized boolean execute() {
         try {
             final List<ShardAssignment<C>> assignments = utils.persistentGetData(utils.shardsAssignedDir, this);
             if (assignments == null || assignments.size() < 1)
@@ -66,7 +85,6 @@ public class ShardState<C> extends PersistentTask {
 
             if (mask == 0) {
                 mask = totalShardCount - 1;
-                setMask.accept(mask);
             } else {
                 if (mask != totalShardCount - 1) {
                     final String message = "The cluster group " + groupName
@@ -87,6 +105,17 @@ public class ShardState<C> extends PersistentTask {
                         newState[index] = sa.addr;
                 }
             }
+            if (seeded) {
+                // while the cluster's still forming the snapshot is a better guess than a partial assignment.
+                if (!isComplete(newState)) {
+                    LOGGER.debug("{} keeping the snapshot it was seeded with until the shard assignments are complete", this);
+                    return true;
+                }
+                LOGGER.debug("{} replacing the snapshot it was seeded with now that the shard assignments are complete", this);
+                seeded = false;
+            }
+            // the routers hash keys the same way the cluster does.
+            utils.shardHash(first.shardHash);
             this.destinations.set(newState);
             return true;
         } catch (final ClusterInfoException cie) {
@@ -94,6 +123,49 @@ public class ShardState<C> extends PersistentTask {
         }
     }
 
+    /**
+     * A copy of the current shard contents or null if they're not complete yet.
+     */
+    public Snapshot<C> snapshot() {
+        final C[] ds = destinations.get();
+        if (!isComplete(ds))
+            return null;
+        return new Snapshot<C>(Arrays.copyOf(ds, ds.length), utils.getShardHashName());
+    }
+
+    /**
+     * Use the shard contents from a {@link #snapshot()} until a complete set of shard assignments is read from the
+     * cluster. Nothing changes if that's already happened or if the snapshot isn't complete. The mask isn't set from a
+     * snapshot so the shard count can change when the real assignments arrive. Routers should use one less than the
+     * length of the shard contents they've read as the mask.
+     *
+     * @return true if the snapshot is being used.
+     */
+    public synchronized boolean seed(final Object snapshot) {
+        if (!(snapshot instanceof Snapshot) || isComplete(destinations.get()))
+            return false;
+
+        final Object[] ds = ((Snapshot<?>) snapshot).destinations;
+        if (ds == null || Integer.bitCount(ds.length) != 1)
+            return false;
+
+        final C[] newState = newArraySupplier.apply(ds.length);
+        try {
+            System.arraycopy(ds, 0, newState, 0, ds.length);
+        } catch (final ArrayStoreException ase) {
+            LOGGER.warn("{} can't be seeded with a snapshot of a different kind of shard contents", this);
+            return false;
+        }
+        if (!isComplete(newState))
+            return false;
+
+        utils.shardHash(((Snapshot<?>) snapshot).shardHash);
+        seeded = true;
+        this.destinations.set(newState);
+        LOGGER.debug("{} seeded with a snapshot of {} shards", this, newState.length);
+        return true;
+    }
+
     @Override
     public String toString() {
         return "{" + ShardState.class.getSimpleName() + " at " + thisNodeId + " to " + groupName + "}";
@@ -104,12 +176,7 @@ public class ShardState<C> extends PersistentTask {
      */
     boolean isReady() {
         final C[] ds = destinations.get();
-        if (ds == null)
-            return false;
-        for (final C d : ds)
-            if (d == null)
-                return false;
-        final boolean ret = ds.length != 0; // this method is only called in tests and this needs to be true there.
+        final boolean ret = isComplete(ds); // this method is only called in tests and this needs to be true there.
 
         if (ret && LOGGER.isDebugEnabled())
             LOGGER.debug("at {} to {} is Ready " + shorthand(ds), thisNodeId, groupName);
@@ -117,6 +184,15 @@ public class ShardState<C> extends PersistentTask {
         return ret;
     }
 
+    private static <C> boolean isComplete(final C[] ds) {
+        if (ds == null || ds.length == 0)
+            return false;
+        for (final C d : ds)
+            if (d == null)
+                return false;
+        return true;
+    }
+
     private static final <C> Set<C> shorthand(final C[] addr) {
         if (addr == null)
             return null;
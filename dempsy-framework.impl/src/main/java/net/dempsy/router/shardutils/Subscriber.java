@@ -60,6 +60,11 @@ public class Subscriber<C> extends PersistentTask {
             for (final ShardAssignment<C> sa : assignments) {
                 // find me.
                 if (thisNode.equals(sa.addr)) { // found me
+                    final String published = ShardHash.canonicalName(sa.shardHash);
+                    if (!published.equals(utils.getShardHashName()))
+                        LOGGER.error("The cluster group " + utils.groupDir + " is not consistently configured. The leader is using the shard hash \""
+                                + published + "\" but this node is configured with \"" + utils.getShardHashName() + "\"");
+
                     final boolean[] newState = new boolean[totalNumShards];
                     for (final int index : sa.shards)
                         newState[index] = true;
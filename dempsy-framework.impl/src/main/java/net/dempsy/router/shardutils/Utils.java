@@ -8,6 +8,7 @@ import java.util.List;
 
 import net.dempsy.Infrastructure;
 import net.dempsy.Infrastructure.RootPaths;
+import net.dempsy.NodeInformation;
 import net.dempsy.cluster.ClusterInfoException;
 import net.dempsy.cluster.ClusterInfoException.NoNodeException;
 import net.dempsy.cluster.ClusterInfoSession;
@@ -25,6 +26,33 @@ public class Utils<C> {
     public static final String DEFAULT_TOTAL_SHARDS = "256";
     public static final String DEFAULT_MIN_NODES = "1";
 
+    /**
+     * How often each node publishes the message rate for each of its shards and the leader moves shards from overloaded
+     * nodes to underloaded ones. Zero (the default) turns load balancing off and shards are only balanced by count.
+     */
+    public static final String CONFIG_KEY_LOAD_BALANCE_MILLIS = "load_balance_interval_millis";
+    public static final String DEFAULT_LOAD_BALANCE_MILLIS = "0";
+
+    /**
+     * The leader won't move shards for load until some node is this fraction over its share of the total load. It then
+     * moves shards until every node is within half of that.
+     */
+    public static final String CONFIG_KEY_LOAD_IMBALANCE_THRESHOLD = "load_imbalance_threshold";
+    public static final String DEFAULT_LOAD_IMBALANCE_THRESHOLD = "0.2";
+
+    /**
+     * The most shards the leader will move for load each interval.
+     */
+    public static final String CONFIG_KEY_MAX_LOAD_MOVES = "max_load_moves_per_interval";
+    public static final String DEFAULT_MAX_LOAD_MOVES = "8";
+
+    /**
+     * The {@link ShardHash} used to turn message keys into shards. It can be set for one cluster by appending
+     * {@code .[clustername]} to the key. The routers sending to the cluster use whatever the leader publishes.
+     */
+    public static final String CONFIG_KEY_SHARD_HASH = "shard_hash";
+    public static final String DEFAULT_SHARD_HASH = ShardHash.LEGACY;
+
     /**
      * PERSISTENT directory at: {@code /[appname]/clusters/[grouname]}
      */
@@ -61,9 +89,26 @@ public class Utils<C> {
      */
     public final String nodesDir;
 
+    /**
+     * The application wide directory where every node registers its {@link NodeInformation}. See
+     * {@link RootPaths#nodesDir}.
+     */
+    public final String rootNodesDir;
+
+    /**
+     * PERSISTENT directory at: {@code /[appname]/clusters/[groupname]/shardLoad}
+     *
+     * Subdirectories here are {@link DirMode} EPHEMERAL_SEQUENTIAL and contain the {@link ShardLoad} last published by
+     * each node.
+     */
+    public final String shardLoadDir;
+
     public final C thisNodeAddress;
     public final ClusterInfoSession session;
 
+    private volatile String shardHashName = DEFAULT_SHARD_HASH;
+    private volatile ShardHash shardHash = ShardHash.forName(DEFAULT_SHARD_HASH);
+
     public Utils(final Infrastructure infra, final String groupName, final C thisNode) {
         final RootPaths paths = infra.getRootPaths();
 
@@ -72,6 +117,8 @@ public class Utils<C> {
         this.masterDetermineDir = this.leaderDir + "/ImIt";
         this.shardsAssignedDir = this.groupDir + "/shardAssignment";
         this.nodesDir = this.groupDir + "/nodes";
+        this.rootNodesDir = paths.nodesDir;
+        this.shardLoadDir = this.groupDir + "/shardLoad";
 
         this.session = infra.getCollaborator();
 
@@ -142,7 +189,33 @@ public class Utils<C> {
     }
 
     public int determineShard(final Object key, final int mask) {
-        return (prime * key.hashCode()) & mask;
+        return shardHash.hash(key) & mask;
+    }
+
+    /**
+     * Set the {@link ShardHash} by name. A null name means the {@link ShardHash#LEGACY} one. The name is kept as its
+     * {@link ShardHash#canonicalName(String)} so it can be compared with the one other nodes publish.
+     */
+    public Utils<C> shardHash(final String name) {
+        final String newName = ShardHash.canonicalName(name);
+        if(!newName.equals(shardHashName)) {
+            shardHash = ShardHash.forName(newName);
+            shardHashName = newName;
+        }
+        return this;
+    }
+
+    public String getShardHashName() {
+        return shardHashName;
+    }
+
+    /**
+     * The configured {@link ShardHash} name for the given cluster. The cluster specific
+     * {@code [package].shard_hash.[clustername]} takes precedence over {@code [package].shard_hash}.
+     */
+    public static String configuredShardHash(final Infrastructure infra, final Class<?> clazz, final String clusterName) {
+        return infra.getConfigValue(clazz, CONFIG_KEY_SHARD_HASH + "." + clusterName,
+            infra.getConfigValue(clazz, CONFIG_KEY_SHARD_HASH, DEFAULT_SHARD_HASH));
     }
 
     public static <T> void rankSort(final List<SubdirAndData<T>> toSort) {
@@ -155,17 +228,45 @@ public class Utils<C> {
         public final int minShards;
         public final int[] shards;
         public final C addr;
+        /**
+         * The name of the {@link ShardHash} the cluster uses. Null means {@link ShardHash#LEGACY}.
+         */
+        public final String shardHash;
 
-        public ShardAssignment(final int[] shards, final C addr, final int totalNumShards, final int minShards) {
+        public ShardAssignment(final int[] shards, final C addr, final int totalNumShards, final int minShards, final String shardHash) {
             this.shards = shards;
             this.addr = addr;
             this.totalNumShards = totalNumShards;
             this.minShards = minShards;
+            this.shardHash = shardHash;
+        }
+
+        public ShardAssignment(final int[] shards, final C addr, final int totalNumShards, final int minShards) {
+            this(shards, addr, totalNumShards, minShards, null);
         }
 
         @SuppressWarnings("unused") // serialization
         private ShardAssignment() {
-            this(null, null, -1, -1);
+            this(null, null, -1, -1, null);
+        }
+    }
+
+    public static class ShardLoad<C> implements Serializable {
+        private static final long serialVersionUID = 1L;
+        public final C addr;
+        /**
+         * The messages per second for each shard over the last interval. Shards the node doesn't own are zero.
+         */
+        public final double[] messagesPerSecond;
+
+        public ShardLoad(final double[] messagesPerSecond, final C addr) {
+            this.messagesPerSecond = messagesPerSecond;
+            this.addr = addr;
+        }
+
+        @SuppressWarnings("unused") // serialization
+        private ShardLoad() {
+            this(null, null);
         }
     }
 
@@ -16,9 +16,11 @@
 
 package net.dempsy.transport.blockingqueue;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
@@ -27,6 +29,7 @@ import org.slf4j.LoggerFactory;
 import net.dempsy.Infrastructure;
 import net.dempsy.Infrastructure.ThePlug;
 import net.dempsy.transport.Listener;
+import net.dempsy.transport.MessageBatch;
 import net.dempsy.transport.NodeAddress;
 import net.dempsy.transport.Receiver;
 import net.dempsy.util.SafeString;
@@ -45,19 +48,42 @@ import net.dempsy.util.SafeString;
  * <p>
  * Optionally you can provide it with a name that will be used in the thread that's started to read messages from the queue.
  * </p>
+ *
+ * <p>
+ * Each receiving thread waits for a message and then drains whatever else is already on the queue, up to the
+ * {@link #maxBatchSize(int)}, and hands it all to the {@link Listener} at once. With a max batch size of 1 each
+ * message is handed over on its own. With more than one receiving thread the order messages are handed to the
+ * {@link Listener} in isn't preserved.
+ * </p>
  */
 public class BlockingQueueReceiver implements Runnable, Receiver {
     private static Logger LOGGER = LoggerFactory.getLogger(BlockingQueueReceiver.class);
 
+    /**
+     * The most messages a receiving thread takes off of the queue at once when it's not been set explicitly using
+     * {@link #maxBatchSize(int)}.
+     */
+    public static final String CONFIG_KEY_RECEIVER_MAX_BATCH = "receive_max_batch";
+    public static final String DEFAULT_RECEIVER_MAX_BATCH = "64";
+
+    /**
+     * The number of threads taking messages off of the queue when it's not been set explicitly using
+     * {@link #numThreads(int)}.
+     */
+    public static final String CONFIG_KEY_RECEIVER_THREADS = "receive_threads";
+    public static final String DEFAULT_RECEIVER_THREADS = "1";
+
     private final BlockingQueueAddress address;
     private final BlockingQueue<Object> queue;
 
     private Listener<Object> listener = null;
 
-    private final AtomicBoolean running = new AtomicBoolean(false);
-    private Thread currentThread = null;
+    private final AtomicInteger running = new AtomicInteger(0);
+    private final List<Thread> currentThreads = new ArrayList<>();
     private boolean shutdown;
     private ThePlug thePlug;
+    private int maxBatchSize = -1;
+    private int numThreads = -1;
 
     private final static AtomicLong guidGenerator = new AtomicLong(0);
 
@@ -70,25 +96,48 @@ public class BlockingQueueReceiver implements Runnable, Receiver {
         this.address = new BlockingQueueAddress(queue, baseName + guidGenerator.getAndIncrement());
     }
 
+    /**
+     * Receive from a {@link MpscBlockingQueue} of the given capacity. It's cheaper for many senders to put messages on
+     * than a general purpose {@link BlockingQueue} but it can only have one receiving thread.
+     */
+    public BlockingQueueReceiver(final String baseName, final int capacity) {
+        this(baseName, new MpscBlockingQueue<>(capacity));
+    }
+
     @Override
     public void run() {
         synchronized(this) {
-            currentThread = Thread.currentThread();
-
             if(shutdown == true)
                 return;
 
-            running.set(true);
+            currentThreads.add(Thread.currentThread());
+            running.incrementAndGet();
         }
 
         final Listener<Object> curListener = listener;
+        final List<Object> drained = maxBatchSize > 1 ? new ArrayList<>(maxBatchSize) : null;
+        final MessageBatch<Object> batch = maxBatchSize > 1 ? new MessageBatch<>(maxBatchSize) : null;
 
         // This check is cheap but unlocked
         try {
             while(!shutdown) {
                 try {
                     final Object val = queue.take();
-                    curListener.onMessage(val);
+                    if(batch == null)
+                        curListener.onMessage(val);
+                    else {
+                        try {
+                            // take everything else that's already there without waiting for more.
+                            queue.drainTo(drained, maxBatchSize - 1);
+                            batch.add(() -> val);
+                            for(final Object cur: drained)
+                                batch.add(() -> cur);
+                            curListener.onMessages(batch);
+                        } finally {
+                            drained.clear();
+                            batch.clear();
+                        }
+                    }
                 } catch(final InterruptedException ie) {
                     synchronized(this) {
                         // if we were interrupted we're probably stopping.
@@ -105,7 +154,7 @@ public class BlockingQueueReceiver implements Runnable, Receiver {
             Optional.ofNullable(thePlug).ifPresent(p -> p.pull());
             throw err;
         } finally {
-            running.set(false);
+            running.decrementAndGet();
         }
     }
 
@@ -125,8 +174,58 @@ public class BlockingQueueReceiver implements Runnable, Receiver {
             throw new IllegalStateException(
                 "Cannot set a new Listener (" + SafeString.objectDescription(listener) + ") on a " + BlockingQueueReceiver.class.getSimpleName()
                     + " when there's one already set (" + SafeString.objectDescription(this.listener) + ")");
+
+        if(maxBatchSize < 1)
+            maxBatchSize = Integer.parseInt(infra.getConfigValue(BlockingQueueReceiver.class, CONFIG_KEY_RECEIVER_MAX_BATCH, DEFAULT_RECEIVER_MAX_BATCH));
+        if(numThreads < 1)
+            numThreads = Math.max(1,
+                Integer.parseInt(infra.getConfigValue(BlockingQueueReceiver.class, CONFIG_KEY_RECEIVER_THREADS, DEFAULT_RECEIVER_THREADS)));
+        if(numThreads > 1 && queue instanceof MpscBlockingQueue)
+            throw new IllegalStateException("A " + BlockingQueueReceiver.class.getSimpleName() + " receiving from a " + MpscBlockingQueue.class.getSimpleName()
+                + " can only have one receiving thread but it was set to " + numThreads);
+
         this.listener = listener;
-        infra.getThreadingModel().runDaemon(this, "BQReceiver-" + address.toString());
+        for(int i = 0; i < numThreads; i++)
+            infra.getThreadingModel().runDaemon(this, "BQReceiver-" + address.toString() + (numThreads > 1 ? ("-" + i) : ""));
+    }
+
+    /**
+     * The most messages a receiving thread takes off of the queue at once. 1 means they're handed to the
+     * {@link Listener} one at a time. Anything less than 1 means it's taken from the configuration
+     * ({@link #CONFIG_KEY_RECEIVER_MAX_BATCH}). It must be set prior to the receiver being started.
+     */
+    public BlockingQueueReceiver maxBatchSize(final int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    /**
+     * The number of threads taking messages off of the queue. Anything less than 1 means it's taken from the
+     * configuration ({@link #CONFIG_KEY_RECEIVER_THREADS}). It must be set prior to the receiver being started.
+     */
+    public BlockingQueueReceiver numThreads(final int numThreads) {
+        this.numThreads = numThreads;
+        return this;
+    }
+
+    // =============================================================================
+    // These methods are to support spring dependency injection which (stupidly) requires
+    // adherence to a 15 year old JavaBeans spec.
+    // =============================================================================
+    public void setMaxBatchSize(final int maxBatchSize) {
+        maxBatchSize(maxBatchSize);
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public void setNumThreads(final int numThreads) {
+        numThreads(numThreads);
+    }
+
+    public int getNumThreads() {
+        return numThreads;
     }
 
     @Override
@@ -135,9 +234,10 @@ public class BlockingQueueReceiver implements Runnable, Receiver {
             shutdown = true;
         }
 
-        while(running.get()) {
-            if(currentThread != null)
-                currentThread.interrupt();
+        while(running.get() > 0) {
+            synchronized(this) {
+                currentThreads.forEach(t -> t.interrupt());
+            }
             Thread.yield();
         }
 
@@ -0,0 +1,209 @@
+package net.dempsy.transport.blockingqueue;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * A bounded, array backed {@link BlockingQueue} for many producing threads and a <b>single</b> consuming thread.
+ * Producers claim a slot with a compare-and-set on the producer index rather than taking a lock so they don't
+ * serialize behind each other or behind the consumer.
+ * </p>
+ *
+ * <p>
+ * Only one thread at a time may take elements off of the queue ({@link #poll()}, {@link #take()}, {@link #drainTo(Collection)},
+ * etc.). A consumer waiting on an empty queue is woken by the next producer. Producers waiting on a full queue
+ * poll for room with an increasing back off.
+ * </p>
+ *
+ * <p>
+ * The {@link #iterator()} is over a snapshot and doesn't support removal.
+ * </p>
+ */
+public class MpscBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+    private static final long MAX_PRODUCER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AtomicReferenceArray<E> buffer;
+    private final int mask;
+    private final int capacity;
+
+    private final AtomicLong producerIndex = new AtomicLong(0);
+    // only ever written by the consumer.
+    private volatile long consumerIndex = 0;
+    // the consumer when it's parked waiting for something to be added.
+    private volatile Thread waitingConsumer = null;
+
+    public MpscBlockingQueue(final int capacity) {
+        if(capacity < 1)
+            throw new IllegalArgumentException("The capacity of a " + MpscBlockingQueue.class.getSimpleName() + " must be at least 1. It was " + capacity);
+        this.capacity = capacity;
+        // the array is a power of 2 so the index can be masked but it never holds more than the capacity.
+        final int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.buffer = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    @Override
+    public boolean offer(final E e) {
+        if(e == null)
+            throw new NullPointerException();
+
+        while(true) {
+            final long pIndex = producerIndex.get();
+            if(pIndex - consumerIndex >= capacity)
+                return false;
+            if(producerIndex.compareAndSet(pIndex, pIndex + 1)) {
+                // This is a volatile write so it's ordered before the read of the waitingConsumer
+                buffer.set((int)(pIndex & mask), e);
+                final Thread consumer = waitingConsumer;
+                if(consumer != null)
+                    LockSupport.unpark(consumer);
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void put(final E e) throws InterruptedException {
+        long parkNanos = 1000;
+        while(!offer(e)) {
+            if(Thread.interrupted())
+                throw new InterruptedException();
+            LockSupport.parkNanos(parkNanos);
+            parkNanos = Math.min(parkNanos << 1, MAX_PRODUCER_PARK_NANOS);
+        }
+    }
+
+    @Override
+    public boolean offer(final E e, final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long parkNanos = 1000;
+        while(!offer(e)) {
+            if(Thread.interrupted())
+                throw new InterruptedException();
+            final long remaining = deadline - System.nanoTime();
+            if(remaining <= 0)
+                return false;
+            LockSupport.parkNanos(Math.min(parkNanos, remaining));
+            parkNanos = Math.min(parkNanos << 1, MAX_PRODUCER_PARK_NANOS);
+        }
+        return true;
+    }
+
+    @Override
+    public E poll() {
+        final long cIndex = consumerIndex;
+        final int offset = (int)(cIndex & mask);
+        E e = buffer.get(offset);
+        if(e == null) {
+            if(cIndex == producerIndex.get())
+                return null;
+            // a producer has claimed the slot but not filled it in yet.
+            do {
+                Thread.onSpinWait();
+                e = buffer.get(offset);
+            } while(e == null);
+        }
+        buffer.lazySet(offset, null);
+        consumerIndex = cIndex + 1;
+        return e;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        return poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public E poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        E e = poll();
+        if(e != null)
+            return e;
+
+        final long deadline = timeout == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + unit.toNanos(timeout);
+        waitingConsumer = Thread.currentThread();
+        try {
+            while(true) {
+                // this has to come after waitingConsumer is set so a producer either sees us waiting or we see what it added.
+                e = poll();
+                if(e != null)
+                    return e;
+                if(Thread.interrupted())
+                    throw new InterruptedException();
+                if(deadline == Long.MAX_VALUE)
+                    LockSupport.park(this);
+                else {
+                    final long remaining = deadline - System.nanoTime();
+                    if(remaining <= 0)
+                        return null;
+                    LockSupport.parkNanos(this, remaining);
+                }
+            }
+        } finally {
+            waitingConsumer = null;
+        }
+    }
+
+    @Override
+    public E peek() {
+        return buffer.get((int)(consumerIndex & mask));
+    }
+
+    @Override
+    public int size() {
+        // read the consumer index first so the size can't come out negative.
+        final long cIndex = consumerIndex;
+        return (int)Math.min(capacity, Math.max(0, producerIndex.get() - cIndex));
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return consumerIndex == producerIndex.get();
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    @Override
+    public int drainTo(final Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(final Collection<? super E> c, final int maxElements) {
+        if(c == this)
+            throw new IllegalArgumentException();
+        int num = 0;
+        while(num < maxElements) {
+            final E e = poll();
+            if(e == null)
+                break;
+            c.add(e);
+            num++;
+        }
+        return num;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        final List<E> snapshot = new ArrayList<>();
+        final long pIndex = producerIndex.get();
+        for(long i = consumerIndex; i < pIndex; i++) {
+            final E e = buffer.get((int)(i & mask));
+            if(e != null)
+                snapshot.add(e);
+        }
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+}
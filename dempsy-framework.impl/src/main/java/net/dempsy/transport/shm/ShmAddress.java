@@ -0,0 +1,78 @@
+package net.dempsy.transport.shm;
+
+import net.dempsy.transport.NodeAddress;
+
+/**
+ * The address of a {@link ShmReceiver}. It's the directory senders create their ring buffers in so it's only
+ * usable by nodes on the same host.
+ */
+public class ShmAddress implements NodeAddress {
+    private static final long serialVersionUID = 1L;
+
+    public final String guid;
+
+    /**
+     * The directory that the receiver's own directory, named with the {@link #guid}, is in.
+     */
+    public final String directory;
+    public final String serializerId;
+    public final int ringSize;
+    public final int maxMessageSize;
+
+    /**
+     * The process id of the receiver. A sender waiting for room in a ring buffer checks this to see if the receiver has died.
+     */
+    public final long pid;
+
+    @SuppressWarnings("unused")
+    private ShmAddress() {
+        guid = null;
+        directory = null;
+        serializerId = null;
+        ringSize = -1;
+        maxMessageSize = -1;
+        pid = -1;
+    }
+
+    public ShmAddress(final String guid, final String directory, final String serializerId, final int ringSize, final int maxMessageSize,
+        final long pid) {
+        this.guid = guid;
+        this.directory = directory;
+        this.serializerId = serializerId;
+        this.ringSize = ringSize;
+        this.maxMessageSize = maxMessageSize;
+        this.pid = pid;
+    }
+
+    @Override
+    public String getGuid() {
+        return guid;
+    }
+
+    @Override
+    public String toString() {
+        return guid;
+    }
+
+    @Override
+    public int hashCode() {
+        return guid.hashCode();
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if(this == obj)
+            return true;
+        if(obj == null)
+            return false;
+        if(getClass() != obj.getClass())
+            return false;
+        final ShmAddress other = (ShmAddress)obj;
+        if(guid == null) {
+            if(other.guid != null)
+                return false;
+        } else if(!guid.equals(other.guid))
+            return false;
+        return true;
+    }
+}
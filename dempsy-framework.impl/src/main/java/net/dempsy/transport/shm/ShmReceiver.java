@@ -0,0 +1,308 @@
+package net.dempsy.transport.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.DempsyException;
+import net.dempsy.Infrastructure;
+import net.dempsy.Infrastructure.ThePlug;
+import net.dempsy.serialization.Serializer;
+import net.dempsy.transport.Listener;
+import net.dempsy.transport.MessageBatch;
+import net.dempsy.transport.MessageTransportException;
+import net.dempsy.transport.Receiver;
+import net.dempsy.transport.RoutedMessage;
+import net.dempsy.transport.shm.internal.ShmRing;
+import net.dempsy.transport.shm.internal.ShmRing.Backoff;
+import net.dempsy.util.io.MessageBufferInput;
+
+/**
+ * <p>
+ * A {@link Receiver} for nodes on the same host. Each sender creates its own {@link ShmRing} in this receiver's
+ * directory (normally under /dev/shm) and this receiver's single reader thread polls all of them. Messages cross
+ * from one process to the other without any system calls.
+ * </p>
+ *
+ * <p>
+ * Since the reader polls, an idle receiver parks for up to {@link #CONFIG_KEY_MAX_PARK_MICROS} between checks.
+ * </p>
+ */
+public class ShmReceiver<T> implements Receiver {
+    private static Logger LOGGER = LoggerFactory.getLogger(ShmReceiver.class);
+
+    /**
+     * The directory the receiver's own directory is created in. When it's not set it's /dev/shm if that exists, otherwise the
+     * java.io.tmpdir.
+     */
+    public static final String CONFIG_KEY_SHM_DIRECTORY = "shm_directory";
+
+    /**
+     * The size of the ring buffer each sender creates. It has to be at least twice the max message size.
+     */
+    public static final String CONFIG_KEY_RING_SIZE = "shm_ring_size_bytes";
+    public static final String DEFAULT_RING_SIZE = Integer.toString(4 * 1024 * 1024);
+
+    /**
+     * The longest the reader will park when there's nothing to read.
+     */
+    public static final String CONFIG_KEY_MAX_PARK_MICROS = "shm_max_park_micros";
+    public static final String DEFAULT_MAX_PARK_MICROS = "1000";
+
+    public final static int DEFAULT_MAX_MESSAGE_SIZE_BYTES = 1024 * 1024;
+
+    // how often the directory is checked for new senders.
+    private static final long SCAN_INTERVAL_MILLIS = 100;
+
+    // upper bound on the number of messages taken from one ring in a single pass so a busy sender can't starve the others.
+    private static final int MAX_MESSAGES_PER_RING_READ = 1024;
+
+    private final Serializer serializer;
+    private final String serId;
+    private final AtomicBoolean isRunning = new AtomicBoolean(true);
+    private final AtomicBoolean done = new AtomicBoolean(false);
+
+    private int maxMessageSize = DEFAULT_MAX_MESSAGE_SIZE_BYTES;
+    private String directory = null;
+    private ShmAddress address = null;
+    private Path receiverDir = null;
+    private boolean started = false;
+
+    public ShmReceiver(final Serializer serializer) {
+        this.serializer = serializer;
+        this.serId = serializer.getClass().getPackage().getName();
+    }
+
+    @Override
+    public synchronized ShmAddress getAddress(final Infrastructure infra) {
+        if(address == null) {
+            final String baseDir = directory != null ? directory : infra.getConfigValue(ShmReceiver.class, CONFIG_KEY_SHM_DIRECTORY, defaultDirectory());
+            final int ringSize = Integer.parseInt(infra.getConfigValue(ShmReceiver.class, CONFIG_KEY_RING_SIZE, DEFAULT_RING_SIZE));
+            if(ringSize < ShmRing.minCapacity(maxMessageSize))
+                throw new DempsyException("The " + ShmReceiver.class.getSimpleName() + " ring size (" + ringSize
+                    + ") must be at least " + ShmRing.minCapacity(maxMessageSize) + ", twice the max message size (" + maxMessageSize
+                    + ") plus its frame header");
+
+            final String guid = "dempsy-shm-" + UUID.randomUUID().toString();
+            receiverDir = Paths.get(baseDir, guid);
+            try {
+                Files.createDirectories(receiverDir);
+            } catch(final IOException e) {
+                throw new DempsyException("Failed to create the directory " + receiverDir, e, false);
+            }
+
+            address = new ShmAddress(guid, baseDir, serId, ringSize, maxMessageSize, ProcessHandle.current().pid());
+        }
+        return address;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public synchronized void start(final Listener<?> listener, final Infrastructure infra) throws MessageTransportException {
+        if(!isRunning.get() || started)
+            throw new IllegalStateException("Cannot restart an " + ShmReceiver.class.getSimpleName());
+        started = true;
+
+        if(address == null)
+            getAddress(infra);
+
+        final long maxParkMicros = Long.parseLong(infra.getConfigValue(ShmReceiver.class, CONFIG_KEY_MAX_PARK_MICROS, DEFAULT_MAX_PARK_MICROS));
+
+        infra.getThreadingModel().runDaemon(new Reader((Listener<T>)listener, infra.getThePlug(), TimeUnit.MICROSECONDS.toNanos(maxParkMicros)),
+            "shm-reader-" + address);
+    }
+
+    @Override
+    public void close() {
+        isRunning.set(false);
+
+        synchronized(this) {
+            if(started) {
+                while(!done.get())
+                    Thread.yield();
+            }
+        }
+
+        // anything left over, including the directory, is removed.
+        if(receiverDir != null) {
+            try(Stream<Path> files = Files.list(receiverDir);) {
+                files.forEach(f -> deleteQuietly(f));
+            } catch(final IOException ioe) {
+                LOGGER.warn("Failed to clean up the directory {}", receiverDir, ioe);
+            }
+            deleteQuietly(receiverDir);
+        }
+    }
+
+    public ShmReceiver<T> directory(final String directory) {
+        this.directory = directory;
+        return this;
+    }
+
+    public ShmReceiver<T> maxMessageSize(final int maxMessageSize) {
+        this.maxMessageSize = maxMessageSize;
+        return this;
+    }
+
+    // =============================================================================
+    // These methods are to support spring dependency injection which (stupidly) requires
+    // adherence to a 15 year old JavaBeans spec.
+    // =============================================================================
+    public void setDirectory(final String directory) {
+        directory(directory);
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setMaxMessageSize(final int maxMessageSize) {
+        maxMessageSize(maxMessageSize);
+    }
+
+    public int getMaxMessageSize() {
+        return maxMessageSize;
+    }
+    // =============================================================================
+
+    private static String defaultDirectory() {
+        return new File("/dev/shm").isDirectory() ? "/dev/shm" : System.getProperty("java.io.tmpdir");
+    }
+
+    private static void deleteQuietly(final Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch(final IOException ioe) {
+            LOGGER.warn("Failed to delete {}", path, ioe);
+        }
+    }
+
+    private class Reader implements Runnable {
+        private final Listener<T> typedListener;
+        private final ThePlug thePlug;
+        private final Backoff backoff;
+        private final List<ShmRing> rings = new ArrayList<>();
+        private final Set<Path> known = new HashSet<>();
+        private final MessageBatch<T> batch = new MessageBatch<>();
+        private long nextScan = 0;
+
+        private Reader(final Listener<T> typedListener, final ThePlug thePlug, final long maxParkNanos) {
+            this.typedListener = typedListener;
+            this.thePlug = thePlug;
+            this.backoff = new Backoff(maxParkNanos);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while(isRunning.get()) {
+                    try {
+                        final long now = System.currentTimeMillis();
+                        if(now >= nextScan) {
+                            scan();
+                            nextScan = now + SCAN_INTERVAL_MILLIS;
+                        }
+
+                        for(int i = rings.size() - 1; i >= 0; i--) {
+                            final ShmRing ring = rings.get(i);
+                            try {
+                                read(ring);
+                                if(ring.isProducerClosed() && ring.isEmpty())
+                                    retire(i);
+                            } catch(final IOException ioe) {
+                                LOGGER.error(address + " failed reading from " + ring.file + ". It will no longer be read.", ioe);
+                                retire(i);
+                            }
+                        }
+                    } catch(final RuntimeException rte) {
+                        LOGGER.error("Unexpected exception! Not exiting read loop.", rte);
+                    } finally {
+                        if(batch.isEmpty())
+                            backoff.idle();
+                        else {
+                            backoff.reset();
+                            flushBatch();
+                        }
+                    }
+                }
+            } catch(final Error err) {
+                // attempt to log the error.
+                LOGGER.error("CRITICAL FAILURE IN REAED THREAD!", err);
+                Optional.ofNullable(thePlug).ifPresent(p -> p.pull());
+                throw err;
+            } finally {
+                rings.forEach(r -> r.markConsumerClosed());
+                done.set(true);
+            }
+        }
+
+        private void read(final ShmRing ring) throws IOException {
+            for(int i = 0; i < MAX_MESSAGES_PER_RING_READ; i++) {
+                final byte[] frame = ring.poll();
+                if(frame == null)
+                    return;
+                batch.add(() -> deserialize(frame));
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private T deserialize(final byte[] frame) {
+            try(final MessageBufferInput mbi = new MessageBufferInput(frame, 0, frame.length);) {
+                return (T)serializer.deserialize(mbi, RoutedMessage.class);
+            } catch(final IOException ioe) {
+                LOGGER.error(address + " failed on deserialization", ioe);
+                throw new DempsyException(ioe, false);
+            }
+        }
+
+        private void scan() {
+            try(Stream<Path> files = Files.list(receiverDir);) {
+                files.filter(f -> f.getFileName().toString().endsWith(ShmRing.RING_SUFFIX))
+                    .filter(f -> !known.contains(f))
+                    .forEach(f -> {
+                        known.add(f);
+                        try {
+                            rings.add(ShmRing.open(f));
+                            LOGGER.debug("{} has a new sender using {}", address, f);
+                        } catch(final IOException ioe) {
+                            LOGGER.error(address + " failed to open the ring buffer " + f + ". It will be ignored.", ioe);
+                        }
+                    });
+            } catch(final IOException ioe) {
+                LOGGER.error(address + " failed to look for new senders in " + receiverDir, ioe);
+            }
+        }
+
+        private void retire(final int index) {
+            final ShmRing ring = rings.remove(index);
+            ring.markConsumerClosed();
+            ring.close();
+            deleteQuietly(ring.file);
+            known.remove(ring.file);
+        }
+
+        private void flushBatch() {
+            try {
+                typedListener.onMessages(batch);
+            } catch(final RuntimeException rte) {
+                LOGGER.error(address + " failed handing " + batch.size() + " messages to the listener.", rte);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+}
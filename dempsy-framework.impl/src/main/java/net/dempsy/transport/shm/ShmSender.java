@@ -0,0 +1,152 @@
+package net.dempsy.transport.shm;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.monitoring.NodeStatsCollector;
+import net.dempsy.serialization.Serializer;
+import net.dempsy.transport.FanOutRoutedMessage;
+import net.dempsy.transport.MessageTransportException;
+import net.dempsy.transport.Sender;
+import net.dempsy.transport.shm.internal.ShmRing;
+import net.dempsy.transport.shm.internal.ShmRing.Backoff;
+import net.dempsy.util.io.MessageBufferOutput;
+
+/**
+ * A {@link Sender} that writes serialized messages into a {@link ShmRing} that it creates in the {@link ShmReceiver}'s directory.
+ * The ring buffer has a single producer so sends from different threads take turns.
+ */
+public final class ShmSender implements Sender {
+    private final static Logger LOGGER = LoggerFactory.getLogger(ShmSender.class);
+
+    // how often a sender waiting on a full ring buffer checks that the receiver is still there.
+    private static final long RECEIVER_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final ThreadLocal<MessageBufferOutput> buffers = ThreadLocal.withInitial(() -> new MessageBufferOutput(2048));
+
+    final ShmAddress addr;
+
+    private final ShmSenderFactory owner;
+    private final Serializer serializer;
+    private final NodeStatsCollector statsCollector;
+    private final ShmRing ring;
+    private final Backoff backoff;
+    private final int maxMessageSize;
+    private final long sendTimeoutNanos;
+    private volatile boolean running = true;
+
+    ShmSender(final ShmAddress addr, final ShmSenderFactory owner) throws MessageTransportException {
+        this.addr = addr;
+        this.owner = owner;
+        this.serializer = owner.serializerManager.getAssociatedInstance(addr.serializerId);
+        this.statsCollector = owner.statsCollector;
+        this.backoff = new Backoff(TimeUnit.MICROSECONDS.toNanos(owner.maxParkMicros));
+        this.sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(owner.sendTimeoutMillis);
+
+        final Path file = Paths.get(addr.directory, addr.guid, UUID.randomUUID().toString() + ShmRing.RING_SUFFIX);
+        try {
+            ring = ShmRing.create(file, addr.ringSize);
+        } catch(final IOException ioe) {
+            throw new MessageTransportException(owner.nodeId + " failed to create the ring buffer " + file + " to send to " + addr, ioe);
+        }
+        this.maxMessageSize = Math.min(addr.maxMessageSize, ring.maxFrameSize());
+        LOGGER.debug("{} is sending to {} through {}", owner.nodeId, addr, file);
+    }
+
+    @Override
+    public void send(final Object message) throws MessageTransportException, InterruptedException {
+        if(!running)
+            throw new MessageTransportException(owner.nodeId + " sender to " + addr + " is no longer running. Message not sent.");
+
+        // the serialized form is shared between nodes by the nio transport. Here it's simpler to just serialize it for each.
+        final Object toSer = (message instanceof FanOutRoutedMessage) ? ((FanOutRoutedMessage)message).toRoutedMessage() : message;
+
+        final MessageBufferOutput buf = buffers.get();
+        buf.reset();
+        try {
+            serializer.serialize(toSer, buf);
+        } catch(final IOException ioe) {
+            if(statsCollector != null)
+                statsCollector.messageNotSent();
+            throw new MessageTransportException(owner.nodeId + " failed to serialize a message to send to " + addr, ioe);
+        }
+
+        final int size = buf.getPosition();
+        if(size > maxMessageSize) {
+            if(statsCollector != null)
+                statsCollector.messageNotSent();
+            throw new MessageTransportException(owner.nodeId + " can't send a message of " + size + " bytes to " + addr + ". The max is " + maxMessageSize);
+        }
+
+        synchronized(this) {
+            final long start = System.nanoTime();
+            long nextReceiverCheck = start + RECEIVER_CHECK_NANOS;
+            while(!ring.offer(buf.getBuffer(), 0, size)) {
+                if(Thread.interrupted())
+                    throw new InterruptedException();
+
+                if(!running || ring.isConsumerClosed()) {
+                    if(statsCollector != null)
+                        statsCollector.messageNotSent();
+                    throw new MessageTransportException(owner.nodeId + " sender to " + addr + " was closed while waiting to send.");
+                }
+
+                final long now = System.nanoTime();
+                if(now >= nextReceiverCheck) {
+                    if(!ProcessHandle.of(addr.pid).map(p -> p.isAlive()).orElse(Boolean.FALSE)) {
+                        if(statsCollector != null)
+                            statsCollector.messageNotSent();
+                        stop();
+                        throw new MessageTransportException(owner.nodeId + " sender to " + addr + " found the receiving process is gone.");
+                    }
+                    nextReceiverCheck = now + RECEIVER_CHECK_NANOS;
+                }
+
+                if(now - start >= sendTimeoutNanos) {
+                    backoff.reset();
+                    if(statsCollector != null)
+                        statsCollector.messageNotSent();
+                    throw new MessageTransportException(owner.nodeId + " sender to " + addr + " gave up after waiting "
+                        + TimeUnit.NANOSECONDS.toMillis(now - start) + " millis for room in the ring buffer.");
+                }
+
+                backoff.idle();
+            }
+            backoff.reset();
+        }
+
+        // it's been sent so the fan-out reference is ours to release. If we'd thrown it would still be the caller's.
+        if(message instanceof FanOutRoutedMessage)
+            ((FanOutRoutedMessage)message).fanOut.release();
+
+        if(statsCollector != null)
+            statsCollector.messageSent(message);
+    }
+
+    @Override
+    public void stop() {
+        if(running) {
+            running = false;
+            LOGGER.debug("Stopping sender for {}", addr);
+            ring.markProducerClosed();
+            ring.close();
+            owner.imDone(this);
+        }
+    }
+
+    @Override
+    public boolean considerMessageOwnsershipTransfered() {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return ShmSender.class.getSimpleName() + " to " + addr + " through " + ring.file;
+    }
+}
@@ -0,0 +1,78 @@
+package net.dempsy.transport.shm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.dempsy.Infrastructure;
+import net.dempsy.Manager;
+import net.dempsy.monitoring.NodeStatsCollector;
+import net.dempsy.serialization.Serializer;
+import net.dempsy.transport.MessageTransportException;
+import net.dempsy.transport.NodeAddress;
+import net.dempsy.transport.Sender;
+import net.dempsy.transport.SenderFactory;
+
+public class ShmSenderFactory implements SenderFactory {
+    /**
+     * The longest a sender will park at a time while waiting for room in a full ring buffer.
+     */
+    public static final String CONFIG_KEY_SENDER_MAX_PARK_MICROS = "shm_send_max_park_micros";
+    public static final String DEFAULT_SENDER_MAX_PARK_MICROS = "1000";
+
+    /**
+     * The longest a send will wait for room in a full ring buffer before it fails.
+     */
+    public static final String CONFIG_KEY_SENDER_TIMEOUT_MILLIS = "shm_send_timeout_millis";
+    public static final String DEFAULT_SENDER_TIMEOUT_MILLIS = "10000";
+
+    private final Map<NodeAddress, ShmSender> senders = new HashMap<>();
+    final Manager<Serializer> serializerManager = new Manager<Serializer>(Serializer.class);
+
+    NodeStatsCollector statsCollector;
+    String nodeId;
+    long maxParkMicros = Long.parseLong(DEFAULT_SENDER_MAX_PARK_MICROS);
+    long sendTimeoutMillis = Long.parseLong(DEFAULT_SENDER_TIMEOUT_MILLIS);
+    private boolean running = true;
+
+    @Override
+    public synchronized Sender getSender(final NodeAddress destination) throws MessageTransportException {
+        if(!running)
+            throw new MessageTransportException(nodeId + " sender factory is stopped.");
+
+        ShmSender ret = senders.get(destination);
+        if(ret == null) {
+            ret = new ShmSender((ShmAddress)destination, this);
+            senders.put(destination, ret);
+        }
+        return ret;
+    }
+
+    @Override
+    public void close() {
+        final List<ShmSender> toStop;
+        synchronized(this) {
+            running = false;
+            toStop = new ArrayList<>(senders.values());
+        }
+        toStop.forEach(s -> s.stop());
+    }
+
+    @Override
+    public void start(final Infrastructure infra) {
+        this.statsCollector = infra.getNodeStatsCollector();
+        this.nodeId = infra.getNodeId();
+        maxParkMicros = Long.parseLong(infra.getConfigValue(ShmSender.class, CONFIG_KEY_SENDER_MAX_PARK_MICROS, DEFAULT_SENDER_MAX_PARK_MICROS));
+        sendTimeoutMillis = Long.parseLong(infra.getConfigValue(ShmSender.class, CONFIG_KEY_SENDER_TIMEOUT_MILLIS, DEFAULT_SENDER_TIMEOUT_MILLIS));
+    }
+
+    @Override
+    public boolean isReady() {
+        return true;
+    }
+
+    synchronized void imDone(final ShmSender sender) {
+        senders.remove(sender.addr);
+    }
+}
@@ -0,0 +1,303 @@
+package net.dempsy.transport.shm.internal;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import net.dempsy.util.QuietCloseable;
+
+/**
+ * <p>
+ * A single producer, single consumer ring buffer of frames in a memory mapped file. The producer and consumer
+ * are normally in different processes on the same host and the file is normally on a tmpfs like /dev/shm so
+ * nothing is ever actually written to disk.
+ * </p>
+ *
+ * <p>
+ * The file starts with a header holding the capacity, the total number of bytes ever written (the write sequence)
+ * and ever read (the read sequence), each on its own cache line, and a closed flag for each side. The producer is
+ * the only one that writes the write sequence and the consumer is the only one that writes the read sequence. Each
+ * publishes its sequence with a release store after it's done with the data so the other side, reading it with an
+ * acquire load, sees the data.
+ * </p>
+ *
+ * <p>
+ * Each frame is an int length followed by the data, padded to 8 bytes. If a frame doesn't fit before the end of the
+ * buffer the rest of the buffer is skipped by writing {@link #PADDING} as the length and the frame starts at the
+ * beginning.
+ * </p>
+ *
+ * <p>
+ * There's no blocking. Both sides poll and, when there's nothing to do, wait using a {@link Backoff}.
+ * </p>
+ */
+public class ShmRing implements QuietCloseable {
+    public static final String RING_SUFFIX = ".ring";
+    private static final String INCOMPLETE_SUFFIX = ".tmp";
+
+    private static final int MAGIC = 0x44454d50; // "DEMP"
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int WRITE_SEQ_OFFSET = 64;
+    private static final int READ_SEQ_OFFSET = 128;
+    private static final int PRODUCER_CLOSED_OFFSET = 192;
+    private static final int CONSUMER_CLOSED_OFFSET = 256;
+    public static final int HEADER_SIZE = 320;
+
+    private static final int FRAME_HEADER_SIZE = 4;
+    private static final int FRAME_ALIGNMENT = 8;
+    private static final int PADDING = -1;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    public final Path file;
+    public final int capacity;
+    private final int mask;
+    private final MappedByteBuffer bb;
+    private final ByteBuffer data;
+
+    // each of these is only touched by one side.
+    private long writeSeq;
+    private long cachedReadSeq;
+    private long readSeq;
+    private long cachedWriteSeq;
+
+    private ShmRing(final Path file, final MappedByteBuffer bb) throws IOException {
+        this.file = file;
+        this.bb = bb;
+        bb.order(ByteOrder.nativeOrder());
+
+        if((int)INTS.getAcquire(bb, MAGIC_OFFSET) != MAGIC)
+            throw new IOException("The file " + file + " isn't a ring buffer.");
+
+        capacity = bb.getInt(CAPACITY_OFFSET);
+        if(Integer.bitCount(capacity) != 1 || bb.capacity() < HEADER_SIZE + capacity)
+            throw new IOException("The ring buffer " + file + " has a corrupt header. Its capacity is " + capacity);
+        mask = capacity - 1;
+
+        data = bb.duplicate();
+        data.order(ByteOrder.nativeOrder());
+
+        writeSeq = cachedWriteSeq = (long)LONGS.getAcquire(bb, WRITE_SEQ_OFFSET);
+        readSeq = cachedReadSeq = (long)LONGS.getAcquire(bb, READ_SEQ_OFFSET);
+    }
+
+    /**
+     * Create a new ring buffer in the given file. The capacity is rounded up to a power of 2. The file only
+     * appears under its name once it's completely initialized so a consumer scanning for files ending in
+     * {@link #RING_SUFFIX} will never see a partially written header.
+     */
+    public static ShmRing create(final Path file, final int requestedCapacity) throws IOException {
+        final int capacity = Integer.highestOneBit(Math.max(FRAME_ALIGNMENT * 2, requestedCapacity - 1)) << 1;
+        final Path incomplete = file.resolveSibling(file.getFileName().toString() + INCOMPLETE_SUFFIX);
+
+        try(final RandomAccessFile raf = new RandomAccessFile(incomplete.toFile(), "rw");
+            final FileChannel channel = raf.getChannel();) {
+            raf.setLength(HEADER_SIZE + (long)capacity);
+            final MappedByteBuffer bb = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE + (long)capacity);
+            bb.order(ByteOrder.nativeOrder());
+            bb.putInt(CAPACITY_OFFSET, capacity);
+            LONGS.setRelease(bb, WRITE_SEQ_OFFSET, 0L);
+            LONGS.setRelease(bb, READ_SEQ_OFFSET, 0L);
+            INTS.setRelease(bb, MAGIC_OFFSET, MAGIC);
+
+            Files.move(incomplete, file, StandardCopyOption.ATOMIC_MOVE);
+            return new ShmRing(file, bb);
+        } catch(final IOException | RuntimeException e) {
+            Files.deleteIfExists(incomplete);
+            throw e;
+        }
+    }
+
+    /**
+     * Open a ring buffer created by {@link #create(Path, int)}.
+     */
+    public static ShmRing open(final Path file) throws IOException {
+        try(final RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw");
+            final FileChannel channel = raf.getChannel();) {
+            return new ShmRing(file, channel.map(MapMode.READ_WRITE, 0, channel.size()));
+        }
+    }
+
+    /**
+     * The largest frame that can always be written once the consumer has caught up. A frame that doesn't fit before
+     * the end of the buffer needs the rest of the buffer as well as its own space so anything larger than half of the
+     * buffer might never fit.
+     */
+    public int maxFrameSize() {
+        return (capacity >> 1) - FRAME_HEADER_SIZE;
+    }
+
+    /**
+     * The smallest capacity with a {@link #maxFrameSize()} of at least the given size.
+     */
+    public static long minCapacity(final int maxFrameSize) {
+        return 2L * align(FRAME_HEADER_SIZE + maxFrameSize);
+    }
+
+    // =============================================================================
+    // Producer side
+    // =============================================================================
+
+    /**
+     * Write a frame if there's room for it. Only ever call this from one thread at a time.
+     *
+     * @return false if there isn't currently room.
+     */
+    public boolean offer(final byte[] src, final int offset, final int length) {
+        if(length < 0 || length > maxFrameSize())
+            throw new IllegalArgumentException("A frame of " + length + " bytes can't fit in the ring buffer " + file + " of " + capacity + " bytes.");
+
+        final int frameSize = align(FRAME_HEADER_SIZE + length);
+        int index = (int)(writeSeq & mask);
+        final int toEnd = capacity - index;
+        final int needed = frameSize <= toEnd ? frameSize : toEnd + frameSize;
+
+        if(writeSeq + needed - cachedReadSeq > capacity) {
+            cachedReadSeq = (long)LONGS.getAcquire(bb, READ_SEQ_OFFSET);
+            if(writeSeq + needed - cachedReadSeq > capacity)
+                return false;
+        }
+
+        long newWriteSeq = writeSeq;
+        if(frameSize > toEnd) {
+            // skip the rest of the buffer.
+            data.putInt(HEADER_SIZE + index, PADDING);
+            newWriteSeq += toEnd;
+            index = 0;
+        }
+
+        data.position(HEADER_SIZE + index + FRAME_HEADER_SIZE);
+        data.put(src, offset, length);
+        data.putInt(HEADER_SIZE + index, length);
+        newWriteSeq += frameSize;
+
+        writeSeq = newWriteSeq;
+        LONGS.setRelease(bb, WRITE_SEQ_OFFSET, newWriteSeq);
+        return true;
+    }
+
+    public void markProducerClosed() {
+        INTS.setRelease(bb, PRODUCER_CLOSED_OFFSET, 1);
+    }
+
+    public boolean isConsumerClosed() {
+        return (int)INTS.getAcquire(bb, CONSUMER_CLOSED_OFFSET) != 0;
+    }
+
+    // =============================================================================
+    // Consumer side
+    // =============================================================================
+
+    /**
+     * Take the next frame if there is one. Only ever call this from one thread at a time.
+     *
+     * @return a copy of the next frame or null if there isn't one.
+     */
+    public byte[] poll() throws IOException {
+        if(readSeq == cachedWriteSeq) {
+            cachedWriteSeq = (long)LONGS.getAcquire(bb, WRITE_SEQ_OFFSET);
+            if(readSeq == cachedWriteSeq)
+                return null;
+        }
+
+        long newReadSeq = readSeq;
+        int index = (int)(newReadSeq & mask);
+        int length = data.getInt(HEADER_SIZE + index);
+        if(length == PADDING) {
+            newReadSeq += capacity - index;
+            index = 0;
+            length = data.getInt(HEADER_SIZE);
+        }
+
+        if(length < 0 || length > maxFrameSize())
+            throw new IOException("The ring buffer " + file + " is corrupt. It has a frame of " + length + " bytes.");
+
+        final byte[] ret = new byte[length];
+        data.position(HEADER_SIZE + index + FRAME_HEADER_SIZE);
+        data.get(ret);
+        newReadSeq += align(FRAME_HEADER_SIZE + length);
+
+        readSeq = newReadSeq;
+        LONGS.setRelease(bb, READ_SEQ_OFFSET, newReadSeq);
+        return ret;
+    }
+
+    /**
+     * @return true if there's nothing left to read right now.
+     */
+    public boolean isEmpty() {
+        cachedWriteSeq = (long)LONGS.getAcquire(bb, WRITE_SEQ_OFFSET);
+        return readSeq == cachedWriteSeq;
+    }
+
+    public boolean isProducerClosed() {
+        return (int)INTS.getAcquire(bb, PRODUCER_CLOSED_OFFSET) != 0;
+    }
+
+    public void markConsumerClosed() {
+        INTS.setRelease(bb, CONSUMER_CLOSED_OFFSET, 1);
+    }
+
+    /**
+     * There's no way to unmap the file. The mapping goes away when it's garbage collected.
+     */
+    @Override
+    public void close() {}
+
+    private static int align(final int size) {
+        return (size + FRAME_ALIGNMENT - 1) & ~(FRAME_ALIGNMENT - 1);
+    }
+
+    /**
+     * <p>
+     * How either side waits when there's nothing to do. It spins for a bit, then yields, then parks for longer and longer
+     * up to {@code maxParkNanos}. Nothing is ever signaled between processes so the max park time is the worst case
+     * extra latency of a message arriving at an idle receiver.
+     * </p>
+     */
+    public static class Backoff {
+        private static final int SPINS = 100;
+        private static final int YIELDS = 100;
+        private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+
+        private final long maxParkNanos;
+        private int count = 0;
+        private long parkNanos = MIN_PARK_NANOS;
+
+        public Backoff(final long maxParkNanos) {
+            this.maxParkNanos = maxParkNanos;
+        }
+
+        public void idle() {
+            if(count < SPINS) {
+                count++;
+                Thread.onSpinWait();
+            } else if(count < SPINS + YIELDS) {
+                count++;
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(parkNanos);
+                parkNanos = Math.min(parkNanos << 1, maxParkNanos);
+            }
+        }
+
+        public void reset() {
+            count = 0;
+            parkNanos = MIN_PARK_NANOS;
+        }
+    }
+}
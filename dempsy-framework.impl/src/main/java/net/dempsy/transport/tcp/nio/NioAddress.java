@@ -7,11 +7,56 @@ import net.dempsy.transport.tcp.TcpAddress;
 public class NioAddress extends TcpAddress {
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Whether or not the receiver at this address can handle compressed frames. This is how
+     * compression is negotiated. Addresses published by older receivers won't have this set
+     * so senders will never compress anything sent to them.
+     */
+    public final boolean acceptsCompressedFrames;
+
+    /**
+     * Whether or not the receiver at this address can handle frames where the containers are sent separately
+     * from the serialized key and message. This lets a message going to several nodes be serialized once.
+     */
+    public final boolean acceptsSharedPayloadFrames;
+
+    /**
+     * The version of the per-connection class dictionary the receiver at this address understands, or 0 if it
+     * doesn't. Senders only use the dictionary when this is a version they know.
+     *
+     * @see net.dempsy.transport.tcp.nio.internal.NioUtils#CLASS_DICTIONARY_VERSION
+     */
+    public final int classDictionaryVersion;
+
+    /**
+     * Whether or not the receiver at this address can handle frames prefixed with the time they were sent.
+     */
+    public final boolean acceptsTimestamps;
+
     public NioAddress(final InetAddress inetAddress, final int port, final String serializerId, final int recvBufferSize, final long messageSizeLimit) {
+        this(inetAddress, port, serializerId, recvBufferSize, messageSizeLimit, false, false);
+    }
+
+    public NioAddress(final InetAddress inetAddress, final int port, final String serializerId, final int recvBufferSize, final long messageSizeLimit,
+        final boolean acceptsCompressedFrames, final boolean acceptsSharedPayloadFrames) {
+        this(inetAddress, port, serializerId, recvBufferSize, messageSizeLimit, acceptsCompressedFrames, acceptsSharedPayloadFrames, 0, false);
+    }
+
+    public NioAddress(final InetAddress inetAddress, final int port, final String serializerId, final int recvBufferSize, final long messageSizeLimit,
+        final boolean acceptsCompressedFrames, final boolean acceptsSharedPayloadFrames, final int classDictionaryVersion, final boolean acceptsTimestamps) {
         super(inetAddress, port, serializerId, recvBufferSize, messageSizeLimit);
+        this.acceptsCompressedFrames = acceptsCompressedFrames;
+        this.acceptsSharedPayloadFrames = acceptsSharedPayloadFrames;
+        this.classDictionaryVersion = classDictionaryVersion;
+        this.acceptsTimestamps = acceptsTimestamps;
     }
 
     @SuppressWarnings("unused")
-    private NioAddress() {}
+    private NioAddress() {
+        acceptsCompressedFrames = false;
+        acceptsSharedPayloadFrames = false;
+        classDictionaryVersion = 0;
+        acceptsTimestamps = false;
+    }
 
 }
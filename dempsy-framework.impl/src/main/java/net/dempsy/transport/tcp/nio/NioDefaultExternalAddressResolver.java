@@ -42,7 +42,8 @@ public class NioDefaultExternalAddressResolver implements TcpAddressResolver<Nio
             try {
                 return new NioAddress(
                     ipAddr == null ? TcpUtils.getFirstNonLocalhostInetAddress() : InetAddress.getByName(ipAddr),
-                    port, addr.serializerId, addr.recvBufferSize, addr.messageSizeLimit);
+                    port, addr.serializerId, addr.recvBufferSize, addr.messageSizeLimit, addr.acceptsCompressedFrames,
+                    addr.acceptsSharedPayloadFrames, addr.classDictionaryVersion, addr.acceptsTimestamps);
             } catch(final UnknownHostException | SocketException uhe) {
                 throw new DempsyException(uhe, true);
             }
@@ -53,7 +54,8 @@ public class NioDefaultExternalAddressResolver implements TcpAddressResolver<Nio
             try {
                 return new NioAddress(
                     TcpUtils.getFirstNonLocalhostInetAddress(),
-                    addr.port, addr.serializerId, addr.recvBufferSize, addr.messageSizeLimit);
+                    addr.port, addr.serializerId, addr.recvBufferSize, addr.messageSizeLimit, addr.acceptsCompressedFrames,
+                    addr.acceptsSharedPayloadFrames, addr.classDictionaryVersion, addr.acceptsTimestamps);
             } catch(final SocketException e) {
                 throw new DempsyException(e, false);
             }
@@ -13,12 +13,17 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,17 +31,21 @@ import org.slf4j.LoggerFactory;
 import net.dempsy.DempsyException;
 import net.dempsy.Infrastructure;
 import net.dempsy.Infrastructure.ThePlug;
+import net.dempsy.monitoring.NodeStatsCollector;
 import net.dempsy.serialization.Serializer;
 import net.dempsy.threading.ThreadingModel;
 import net.dempsy.transport.DisruptableRecevier;
 import net.dempsy.transport.Listener;
+import net.dempsy.transport.MessageBatch;
 import net.dempsy.transport.MessageTransportException;
 import net.dempsy.transport.NodeAddress;
 import net.dempsy.transport.RoutedMessage;
 import net.dempsy.transport.tcp.AbstractTcpReceiver;
 import net.dempsy.transport.tcp.TcpUtils;
+import net.dempsy.transport.tcp.nio.internal.FrameCompression;
 import net.dempsy.transport.tcp.nio.internal.NioUtils;
 import net.dempsy.transport.tcp.nio.internal.NioUtils.ReturnableBufferOutput;
+import net.dempsy.transport.tcp.nio.internal.ReadChunk;
 import net.dempsy.util.QuietCloseable;
 import net.dempsy.util.io.MessageBufferInput;
 
@@ -45,6 +54,24 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
 
     public static final String CONFIG_KEY_RECEIVER_NETWORK_IF_NAME = "reciever_network_if";
 
+    /**
+     * The number of reader threads when it's not been set explicitly using {@link #numHandlers(int)}. Anything
+     * less than 1 means it's sized from the number of cores.
+     */
+    public static final String CONFIG_KEY_RECEIVER_THREADS = "receive_threads";
+    public static final String DEFAULT_RECEIVER_THREADS = "-1";
+
+    /**
+     * How often the load on each reader is measured and, if they're out of balance, a connection is moved from the
+     * busiest reader to the least busy one. Anything less than 1 disables moving connections.
+     */
+    public static final String CONFIG_KEY_RECEIVER_REBALANCE_MILLIS = "receive_rebalance_interval_millis";
+    public static final String DEFAULT_RECEIVER_REBALANCE_MILLIS = "1000";
+
+    // upper bound on the number of messages taken from one connection in a single pass of a reader
+    // so that a busy connection can't starve the others on the same selector.
+    private static final int MAX_MESSAGES_PER_CLIENT_READ = 1024;
+
     private final AtomicBoolean isRunning = new AtomicBoolean(true);
 
     private NioAddress internal = null;
@@ -52,8 +79,13 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
     private Binding binding = null;
     private Acceptor acceptor = null;
     private ThePlug thePlug = null;
+    private boolean acceptCompressedFrames = true;
+    private boolean acceptClassDictionary = true;
+    private boolean acceptTimestamps = true;
+    private Clock clock = Clock.systemUTC();
+    private int numHandlers = -1;
 
-    @SuppressWarnings("unchecked") private Reader<T>[] readers = new Reader[2];
+    private Reader<T>[] readers = null;
 
     public NioReceiver(final Serializer serializer, final int port) {
         super(serializer, port);
@@ -70,7 +102,8 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
         if(acceptor != null)
             acceptor.close();
 
-        Arrays.stream(readers).filter(r -> r != null).forEach(r -> r.close());
+        if(readers != null)
+            Arrays.stream(readers).filter(r -> r != null).forEach(r -> r.close());
 
         if(binding != null)
             binding.close();
@@ -109,7 +142,8 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
                 if(bindAddr == null)
                     bindAddr = binding.bound.getAddress(); // this will be the wildcard address.
 
-                internal = new NioAddress(bindAddr, internalPort, serId, binding.recvBufferSize, this.maxMessageSize);
+                internal = new NioAddress(bindAddr, internalPort, serId, binding.recvBufferSize, this.maxMessageSize, acceptCompressedFrames, true,
+                    acceptClassDictionary ? NioUtils.CLASS_DICTIONARY_VERSION : 0, acceptTimestamps);
 
                 address = resolver.getExternalAddresses(internal);
             } catch(final BindException be) {
@@ -132,10 +166,21 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
         if(binding == null)
             getAddress(infra); // sets binding via side affect.
 
+        final int configuredReaders = numHandlers > 0 ? numHandlers
+            : Integer.parseInt(infra.getConfigValue(NioReceiver.class, CONFIG_KEY_RECEIVER_THREADS, DEFAULT_RECEIVER_THREADS));
+        final int numReaders = configuredReaders > 0 ? configuredReaders : defaultNumReaders();
+        final long rebalanceMillis = Long
+            .parseLong(infra.getConfigValue(NioReceiver.class, CONFIG_KEY_RECEIVER_REBALANCE_MILLIS, DEFAULT_RECEIVER_REBALANCE_MILLIS));
+
+        LOGGER.info("{} is starting {} readers{}", address, numReaders,
+            rebalanceMillis > 0 ? " rebalancing every " + rebalanceMillis + " millis" : "");
+
         // before starting the acceptor, make sure we have Readers created.
+        readers = new Reader[numReaders];
         try {
             for(int i = 0; i < readers.length; i++)
-                readers[i] = new Reader<T>(isRunning, address, (Listener<T>)listener, serializer, maxMessageSize, thePlug);
+                readers[i] = new Reader<T>(isRunning, address, (Listener<T>)listener, serializer, maxMessageSize, thePlug, infra.getNodeStatsCollector(),
+                    clock);
         } catch(final IOException ioe) {
             LOGGER.error(address.toString() + " failed to start up readers", ioe);
             throw new MessageTransportException(address.toString() + " failed to start up readers", ioe);
@@ -147,14 +192,56 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
             threadingModel.runDaemon(readers[i], "nio-reader-" + i + "-" + address);
 
         // start the acceptor
-        threadingModel.runDaemon(acceptor = new Acceptor(binding, isRunning, readers, address, thePlug), "nio-acceptor-" + address);
+        threadingModel.runDaemon(acceptor = new Acceptor(binding, isRunning, readers, address, thePlug, rebalanceMillis), "nio-acceptor-" + address);
     }
 
+    /**
+     * Whether or not to advertise, in this receiver's address, that senders may compress the frames they
+     * send to it. Senders only compress when this is set and they've been configured to. It must be set
+     * prior to the address being retrieved.
+     */
+    public NioReceiver<T> acceptCompressedFrames(final boolean acceptCompressedFrames) {
+        this.acceptCompressedFrames = acceptCompressedFrames;
+        return this;
+    }
+
+    /**
+     * Whether or not to advertise, in this receiver's address, that senders may replace the classes of the keys
+     * and messages they send with small ids given once per connection. It must be set prior to the address
+     * being retrieved.
+     */
+    public NioReceiver<T> acceptClassDictionary(final boolean acceptClassDictionary) {
+        this.acceptClassDictionary = acceptClassDictionary;
+        return this;
+    }
+
+    /**
+     * Whether or not to advertise, in this receiver's address, that senders may prefix frames with the time they
+     * were sent. When they do, the time each message took to get here is given to the
+     * {@link NodeStatsCollector#messageTransitTime(String, long)}. It must be set prior to the address being retrieved.
+     */
+    public NioReceiver<T> acceptTimestamps(final boolean acceptTimestamps) {
+        this.acceptTimestamps = acceptTimestamps;
+        return this;
+    }
+
+    /**
+     * The clock that the times messages were sent are compared against. It must be set prior to the receiver
+     * being started.
+     */
+    public NioReceiver<T> clock(final Clock clock) {
+        this.clock = clock;
+        return this;
+    }
+
+    /**
+     * The number of reader threads. Anything less than 1 means it's taken from the configuration
+     * ({@link #CONFIG_KEY_RECEIVER_THREADS}) or sized from the number of cores. It must be set prior to
+     * the receiver being started.
+     */
     @Override
-    @SuppressWarnings("unchecked")
     public NioReceiver<T> numHandlers(final int numHandlers) {
-        Arrays.stream(readers).filter(r -> r != null).forEach(r -> r.close());
-        readers = new Reader[numHandlers];
+        this.numHandlers = numHandlers;
         return this;
     }
 
@@ -167,7 +254,38 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
     }
 
     public int getNumHandlers() {
-        return readers == null ? 0 : readers.length;
+        return readers == null ? numHandlers : readers.length;
+    }
+
+    public void setAcceptCompressedFrames(final boolean acceptCompressedFrames) {
+        acceptCompressedFrames(acceptCompressedFrames);
+    }
+
+    public boolean getAcceptCompressedFrames() {
+        return acceptCompressedFrames;
+    }
+
+    public void setAcceptClassDictionary(final boolean acceptClassDictionary) {
+        acceptClassDictionary(acceptClassDictionary);
+    }
+
+    public boolean getAcceptClassDictionary() {
+        return acceptClassDictionary;
+    }
+
+    public void setAcceptTimestamps(final boolean acceptTimestamps) {
+        acceptTimestamps(acceptTimestamps);
+    }
+
+    public boolean getAcceptTimestamps() {
+        return acceptTimestamps;
+    }
+
+    /**
+     * The number of times a connection has been moved from one reader to another to even out their load.
+     */
+    public long getNumConnectionsMoved() {
+        return readers == null ? 0 : Arrays.stream(readers).filter(r -> r != null).mapToLong(r -> r.numConnectionsMoved).sum();
     }
 
     // =============================================================================
@@ -175,11 +293,20 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
     // =============================================================================
     @Override
     public boolean disrupt(final NodeAddress nodeAddress) {
+        if(readers == null)
+            return false;
         return Arrays.stream(readers)
             .filter(r -> r.disrupt(nodeAddress))
             .findFirst().orElse(null) != null;
     }
 
+    /**
+     * Reading is mostly waiting on the network so there's no need for one reader per core.
+     */
+    private static int defaultNumReaders() {
+        return Math.max(2, Runtime.getRuntime().availableProcessors() / 4);
+    }
+
     // =============================================================================
     // These classes manages accepting external connections.
     // =============================================================================
@@ -212,22 +339,39 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
     }
 
     private static class Acceptor implements Runnable {
+        // don't measure the readers' load over a shorter time than this since it would be too noisy.
+        private static final long MIN_SAMPLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+        // the readers need to be at least this far apart, in bytes per second, before a connection is moved.
+        private static final double MIN_IMBALANCE_BYTES_PER_SEC = 1024 * 1024;
+
+        // ... and the busiest needs to be doing at least this many times what the least busy is doing.
+        private static final double MIN_IMBALANCE_RATIO = 1.5;
+
         final Binding binding;
         final AtomicBoolean isRunning;
         final Reader<?>[] readers;
-        final long numReaders;
-        final AtomicLong messageNum = new AtomicLong(0);
         final AtomicBoolean done = new AtomicBoolean(false);
         final NioAddress thisNode;
         final ThePlug thePlug;
+        final long rebalanceMillis;
+
+        // These are only touched from the acceptor thread. The load is the bytes per second each reader read
+        // over the last sample plus an estimate for each connection given to it since.
+        private final double[] load;
+        private final long[] bytesAtLastSample;
+        private long lastSampleNanos = System.nanoTime();
 
-        private Acceptor(final Binding binding, final AtomicBoolean isRunning, final Reader<?>[] readers, final NioAddress thisNode, final ThePlug thePlug) {
+        private Acceptor(final Binding binding, final AtomicBoolean isRunning, final Reader<?>[] readers, final NioAddress thisNode, final ThePlug thePlug,
+            final long rebalanceMillis) {
             this.binding = binding;
             this.isRunning = isRunning;
             this.readers = readers;
-            this.numReaders = readers.length;
             this.thisNode = thisNode;
             this.thePlug = thePlug;
+            this.rebalanceMillis = rebalanceMillis;
+            this.load = new double[readers.length];
+            this.bytesAtLastSample = new long[readers.length];
         }
 
         @Override
@@ -240,8 +384,15 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
                     try {
                         serverChannel.register(selector, SelectionKey.OP_ACCEPT);
 
+                        long nextRebalance = System.currentTimeMillis() + rebalanceMillis;
                         while(isRunning.get()) {
-                            final int numSelected = selector.select();
+                            // when we're not rebalancing a timeout of 0 means wait for the next connection.
+                            final int numSelected = selector.select(rebalanceMillis > 0 ? Math.max(1, nextRebalance - System.currentTimeMillis()) : 0);
+
+                            if(rebalanceMillis > 0 && System.currentTimeMillis() >= nextRebalance) {
+                                rebalance();
+                                nextRebalance = System.currentTimeMillis() + rebalanceMillis;
+                            }
 
                             if(numSelected == 0)
                                 continue;
@@ -278,15 +429,68 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
         }
 
         private void accept(final SelectionKey key) throws IOException {
-            final Reader<?> reader = readers[(int)(messageNum.getAndIncrement() % numReaders)];
-
             final ServerSocketChannel serverChannel = (ServerSocketChannel)key.channel();
             final SocketChannel channel = serverChannel.accept();
+            if(channel == null) // someone else got it.
+                return;
+
+            if(System.nanoTime() - lastSampleNanos >= MIN_SAMPLE_NANOS)
+                sample();
+
+            final int index = leastLoaded();
+
+            // A new connection hasn't read anything yet so we guess it will be an average one. This also keeps a
+            // burst of new connections from all landing on the same reader.
+            final double totalLoad = Arrays.stream(load).sum();
+            final int totalClients = Arrays.stream(readers).mapToInt(r -> r.numClients).sum();
+            load[index] += Math.max(1.0, totalClients == 0 ? 0.0 : totalLoad / totalClients);
 
             // This only happens when a client connects so info level isn't that bad
-            LOGGER.info(thisNode + " is accepting a connection from " + channel.getRemoteAddress());
+            LOGGER.info(thisNode + " is accepting a connection from " + channel.getRemoteAddress() + " on reader " + index);
+
+            readers[index].newClient(channel);
+        }
+
+        private void sample() {
+            final long now = System.nanoTime();
+            final double seconds = Math.max(1L, now - lastSampleNanos) / 1.0E9;
+            for(int i = 0; i < readers.length; i++) {
+                final long bytesRead = readers[i].bytesRead;
+                load[i] = (bytesRead - bytesAtLastSample[i]) / seconds;
+                bytesAtLastSample[i] = bytesRead;
+            }
+            lastSampleNanos = now;
+        }
+
+        private int leastLoaded() {
+            int best = 0;
+            for(int i = 1; i < readers.length; i++) {
+                if(load[i] < load[best] || (load[i] == load[best] && readers[i].numClients < readers[best].numClients))
+                    best = i;
+            }
+            return best;
+        }
 
-            reader.newClient(channel);
+        /**
+         * If the busiest reader is doing a lot more than the least busy one then ask it to hand over a connection
+         * that will bring them closer together.
+         */
+        private void rebalance() {
+            sample();
+
+            if(readers.length < 2)
+                return;
+
+            int busiest = 0;
+            for(int i = 1; i < readers.length; i++) {
+                if(load[i] > load[busiest])
+                    busiest = i;
+            }
+            final int leastBusy = leastLoaded();
+
+            final double difference = load[busiest] - load[leastBusy];
+            if(busiest != leastBusy && difference >= MIN_IMBALANCE_BYTES_PER_SEC && load[busiest] >= MIN_IMBALANCE_RATIO * load[leastBusy])
+                readers[busiest].migrate(difference / 2.0, readers[leastBusy]);
         }
 
         // assumes isRunning is already set to false
@@ -303,59 +507,54 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
     // A Client instance is attached to each socket in the selector's register
     // =============================================================================
     private static class Client<T> {
-        ReturnableBufferOutput partialRead = null;
+        // What's been read from the channel but not yet passed on as a frame starts at frameStart and ends at the
+        // chunk's position. Frames are deserialized straight out of the chunk.
+        private ReadChunk chunk = null;
+        private int frameStart = 0;
+
+        // The classes the sender on this connection has given ids to. The class with id n is at n - 1. It's
+        // replaced rather than modified when a class is added since the frames that reference it are
+        // deserialized on other threads. A class that couldn't be loaded is null.
+        private Class<?>[] dictionary = new Class<?>[0];
+
+        // only touched by the reader thread that currently owns this client.
+        long bytesRead = 0;
+        private long bytesAtMark = 0;
+        private long markNanos = System.nanoTime();
+
         private final NioAddress thisNode;
-        private final Listener<T> typedListener;
         private final Serializer serializer;
         private final int maxMessageSize;
+        private final NodeStatsCollector statsCollector;
+        private final Clock clock;
+        // who the transit times of timestamped frames are recorded against.
+        private final String peer;
 
-        private Client(final NioAddress thisNode, final Listener<T> listener, final Serializer serializer, final int maxMessageSize) {
+        private Client(final NioAddress thisNode, final Serializer serializer, final int maxMessageSize, final NodeStatsCollector statsCollector,
+            final Clock clock, final String peer) {
             this.thisNode = thisNode;
-            this.typedListener = listener;
             this.serializer = serializer;
             this.maxMessageSize = maxMessageSize;
+            this.statsCollector = statsCollector;
+            this.clock = clock;
+            this.peer = peer;
+        }
+
+        private int read(final SocketChannel channel, final ByteBuffer bb) throws IOException {
+            final int numBytes = channel.read(bb);
+            if(numBytes > 0)
+                bytesRead += numBytes;
+            return numBytes;
         }
 
         /**
-         * Read the size
-         *
-         * @return -1 if there aren't enough bytes read in to figure out the size. -2 if the socket channel reached it's eof. Otherwise, the size actually read.
+         * @return the bytes per second read since the last call.
          */
-        private final int readSize(final SocketChannel channel, final ByteBuffer bb) throws IOException {
-            final int size;
-
-            if(bb.position() < 2) {
-                // read a Short
-                bb.limit(2);
-                if(channel.read(bb) == -1)
-                    return -2;
-            }
-
-            if(bb.position() >= 2) { // we read the full short in
-                final short ssize = bb.getShort(0); // read the short.
-
-                if(ssize == -1) { // we need to read the int ... indication that an int size is there.
-                    if(bb.position() < 6) {
-                        bb.limit(6); // set the limit to read the int.
-                        if(channel.read(bb) == -1) // read 4 more bytes.
-                            return -2;
-                    }
-
-                    if(bb.position() >= 6) // we have an int based size
-                        size = bb.getInt(2); // read an int starting after the short.
-                    else
-                        // we need an int based size but don't have it all yet.
-                        size = -1; // we're going to need to try again.
-
-                } else { // the ssize contains the full size.
-                    size = ssize;
-                }
-            } else {
-                // we already tried to read the short but didn't get enough bytes.
-                size = -1; // try again.
-            }
-
-            return size;
+        private double resetRate(final long now) {
+            final double rate = (bytesRead - bytesAtMark) * 1.0E9 / Math.max(1L, now - markNanos);
+            bytesAtMark = bytesRead;
+            markNanos = now;
+            return rate;
         }
 
         private void closeup(final SocketChannel channel, final SelectionKey key) {
@@ -368,78 +567,320 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
                 LOGGER.error(thisNode + " failed to close the receiver channel receiving data from " + remoteAddr + ". Ingoring", ioe);
             }
             key.cancel();
+
+            if(chunk != null) {
+                chunk.release();
+                chunk = null;
+            }
         }
 
-        private void read(final SelectionKey key) throws IOException {
+        /**
+         * Read every complete message currently available on the channel (up to {@link NioReceiver#MAX_MESSAGES_PER_CLIENT_READ})
+         * and add them to the batch.
+         */
+        private void read(final SelectionKey key, final MessageBatch<T> batch) throws IOException {
             final SocketChannel channel = (SocketChannel)key.channel();
-            final ReturnableBufferOutput buf;
-            if(partialRead == null) {
-                buf = NioUtils.getReturnableBufferOutput();
-                buf.getBb().limit(2); // set it to read the short for size initially
-                partialRead = buf; // set the partialRead. We'll unset this when we pass it on
-            } else
-                buf = partialRead;
-            ByteBuffer bb = buf.getBb();
-
-            if(bb.limit() <= 6) { // we haven't read the size yet.
-                final int size = readSize(channel, bb);
-                if(size == -2) { // indication we hit an eof
-                    closeup(channel, key);
-                    return; // we're done
-                }
-                if(size == -1) { // we didn't read the size yet so just go back.
-                    return;
-                }
-                // if the results are less than zero or WAY to big, we need to assume a corrupt channel.
-                if(size <= 0 || size > maxMessageSize) {
-                    // assume the channel is corrupted and close us out.
-                    LOGGER.warn(thisNode + " received what appears to be a corrupt message because it's size is " + size + " which is greater than the max ("
-                        + maxMessageSize + ")");
+            if(chunk == null)
+                chunk = ReadChunk.get(ReadChunk.DEFAULT_SIZE);
+
+            int numMessages = 0;
+            while(numMessages < MAX_MESSAGES_PER_CLIENT_READ) {
+                final int frameSize = nextFrameSize();
+                if(frameSize == CORRUPT) {
                     closeup(channel, key);
                     return;
                 }
 
-                final int limit = bb.limit();
-                if(bb.capacity() < limit + size) {
-                    // we need to grow the underlying buffer.
-                    buf.grow(limit + size);
-                    bb = buf.getBb();
+                if(frameSize > 0 && chunk.getBb().position() - frameStart >= frameSize) {
+                    // we have a whole frame.
+                    final short frameType = chunk.getBb().getShort(frameStart);
+                    if(frameType == NioUtils.TIMESTAMP) {
+                        if(statsCollector != null)
+                            statsCollector.messageTransitTime(peer, NioUtils.epochNanos(clock) - chunk.getBb().getLong(frameStart + 2));
+                        frameStart += frameSize;
+                        continue;
+                    }
+                    if(frameType == NioUtils.CLASS_DEFINITION_INT_SIZE) {
+                        if(!define(frameStart, frameSize)) {
+                            closeup(channel, key);
+                            return;
+                        }
+                        frameStart += frameSize;
+                        continue;
+                    }
+
+                    batch.add(frame(frameStart, frameSize));
+                    frameStart += frameSize;
+                    numMessages++;
+                    continue;
                 }
 
-                buf.messageStart = bb.position();
-                bb.limit(limit + size); // set the limit to read the entire message.
-            }
+                // we need more data so make sure there's room for it.
+                makeRoom(frameSize > 0 ? frameSize : MAX_HEADER_SIZE);
 
-            if(bb.position() < bb.limit()) {
-                // continue reading
-                if(channel.read(bb) == -1) {
+                final int numBytes = read(channel, chunk.getBb());
+                if(numBytes == -1) {
                     closeup(channel, key);
                     return;
                 }
+                if(numBytes == 0)
+                    return;
             }
+        }
+
+        // the longest thing that has to be read before the size of the next frame is known is a timestamp prefix.
+        private static final int MAX_HEADER_SIZE = NioUtils.TIMESTAMP_SIZE;
+        private static final int CORRUPT = -2;
 
-            if(bb.position() < bb.limit())
-                return; // we need to wait for more data.
+        /**
+         * @return the size of the next frame including its header, -1 if there isn't enough read yet to tell, or {@link #CORRUPT}.
+         */
+        private int nextFrameSize() {
+            final ByteBuffer bb = chunk.getBb();
+            final int available = bb.position() - frameStart;
+            if(available < 2)
+                return -1;
+
+            final short ssize = bb.getShort(frameStart);
+            if(ssize == NioUtils.TIMESTAMP)
+                return available < NioUtils.TIMESTAMP_SIZE ? -1 : NioUtils.TIMESTAMP_SIZE;
 
-            // otherwise we have a message ready to go.
-            final ReturnableBufferOutput toGo = partialRead;
-            partialRead = null;
-            typedListener.onMessage(() -> {
-                try(final ReturnableBufferOutput mbo = toGo;
-                    final MessageBufferInput mbi = new MessageBufferInput(mbo.getBuffer(), mbo.messageStart, mbo.getBb().position());) {
-                    @SuppressWarnings("unchecked")
-                    final T rm = (T)serializer.deserialize(mbi, RoutedMessage.class);
-                    return rm;
+            final int headerSize;
+            final int size;
+            // Compressed, shared payload and class dictionary frames always have an int size.
+            if(ssize == NioUtils.INT_SIZE || ssize == NioUtils.COMPRESSED_INT_SIZE || ssize == NioUtils.SHARED_PAYLOAD_INT_SIZE
+                || ssize == NioUtils.CLASS_DEFINITION_INT_SIZE || ssize == NioUtils.DICTIONARY_INT_SIZE) {
+                if(available < 6)
+                    return -1;
+                headerSize = 6;
+                size = bb.getInt(frameStart + 2);
+            } else {
+                headerSize = 2;
+                size = ssize;
+            }
+
+            // if the results are less than zero or WAY to big, we need to assume a corrupt channel.
+            if(size <= 0 || size > maxMessageSize) {
+                LOGGER.warn(thisNode + " received what appears to be a corrupt message because it's size is " + size + " which is greater than the max ("
+                    + maxMessageSize + ")");
+                return CORRUPT;
+            }
+            return headerSize + size;
+        }
+
+        /**
+         * Make sure there's room in the chunk for the rest of a frame of the given size that starts at frameStart.
+         * If there isn't then the partial frame is moved to the start of the chunk, when no frames still need it, or
+         * into a new chunk.
+         */
+        private void makeRoom(final int frameSize) {
+            final ByteBuffer bb = chunk.getBb();
+            if(frameStart + frameSize <= bb.capacity())
+                return;
+
+            final int partial = bb.position() - frameStart;
+            if(chunk.isExclusive() && frameSize <= bb.capacity()) {
+                System.arraycopy(chunk.getBuffer(), frameStart, chunk.getBuffer(), 0, partial);
+            } else {
+                final ReadChunk next = ReadChunk.get(frameSize);
+                System.arraycopy(chunk.getBuffer(), frameStart, next.getBuffer(), 0, partial);
+                chunk.release();
+                chunk = next;
+            }
+            chunk.getBb().position(partial);
+            frameStart = 0;
+        }
+
+        /**
+         * The frame holds a reference to the chunk until it's been deserialized or, if it never will be because
+         * the job delivering it was rejected or shed, until it's closed.
+         */
+        private Supplier<T> frame(final int start, final int frameSize) {
+            return new Frame(start, frameSize);
+        }
+
+        private class Frame implements Supplier<T>, QuietCloseable {
+            private final ReadChunk frameChunk;
+            private final byte[] buf;
+            private final short frameType;
+            private final int messageStart;
+            private final int end;
+            private final Class<?>[] classes;
+            private final AtomicBoolean released = new AtomicBoolean(false);
+
+            private Frame(final int start, final int frameSize) {
+                frameChunk = chunk.retain();
+                buf = frameChunk.getBuffer();
+                frameType = frameChunk.getBb().getShort(start);
+                messageStart = start + (frameType < 0 ? 6 : 2);
+                end = start + frameSize;
+                classes = dictionary;
+            }
+
+            @Override
+            public T get() {
+                try {
+                    if(frameType == NioUtils.DICTIONARY_INT_SIZE)
+                        return deserializeDictionary(buf, messageStart, end, classes);
+                    else if(frameType == NioUtils.SHARED_PAYLOAD_INT_SIZE)
+                        return deserializeShared(buf, messageStart, end);
+                    else if(frameType == NioUtils.COMPRESSED_INT_SIZE) {
+                        // decompression happens here so that it's done on the thread doing the deserialization rather than the reader.
+                        try(final ReturnableBufferOutput inflated = inflate(buf, messageStart, end);) {
+                            return deserialize(inflated.getBuffer(), 0, inflated.getBb().position());
+                        }
+                    } else
+                        return deserialize(buf, messageStart, end);
                 } catch(final IOException ioe) {
                     LOGGER.error(thisNode + " failed on deserialization", ioe);
                     throw new DempsyException(ioe, false);
+                } finally {
+                    close();
                 }
-            });
+            }
+
+            /**
+             * Give the chunk back without deserializing the frame. This is safe to call more than once.
+             */
+            @Override
+            public void close() {
+                if(released.compareAndSet(false, true))
+                    frameChunk.release();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private T deserialize(final byte[] buf, final int start, final int end) throws IOException {
+            try(final MessageBufferInput mbi = new MessageBufferInput(buf, start, end);) {
+                return (T)serializer.deserialize(mbi, RoutedMessage.class);
+            }
+        }
+
+        /**
+         * A shared payload frame has the containers ahead of the serialized key and message.
+         */
+        @SuppressWarnings("unchecked")
+        private T deserializeShared(final byte[] buf, final int start, final int end) throws IOException {
+            final int[] containers = containers(buf, start, end);
+            try(final MessageBufferInput mbi = new MessageBufferInput(buf, start + 4 + (containers.length * 4), end);) {
+                final RoutedMessage payload = serializer.deserialize(mbi, RoutedMessage.class);
+                return (T)new RoutedMessage(containers, payload.key, payload.message);
+            }
+        }
+
+        /**
+         * A dictionary frame has the containers followed by the key and message each serialized as their own
+         * class, which is given by its id in the dictionary.
+         */
+        @SuppressWarnings("unchecked")
+        private T deserializeDictionary(final byte[] buf, final int start, final int end, final Class<?>[] classes) throws IOException {
+            final ByteBuffer bb = ByteBuffer.wrap(buf);
+            final int[] containers = containers(buf, start, end);
+            int pos = start + 4 + (containers.length * 4);
+
+            final short keyClassId = bb.getShort(pos);
+            final int keySize = bb.getInt(pos + 2);
+            pos += 6;
+            if(keySize < 0 || pos + (long)keySize + 2 > end)
+                throw new IOException(thisNode + " received a corrupt frame claiming to have a key of " + keySize + " bytes.");
+            final Object key = deserialize(buf, pos, pos + keySize, keyClassId, classes);
+            pos += keySize;
+
+            final short messageClassId = bb.getShort(pos);
+            pos += 2;
+            final Object message = deserialize(buf, pos, end, messageClassId, classes);
+            return (T)new RoutedMessage(containers, key, message);
+        }
+
+        private Object deserialize(final byte[] buf, final int start, final int end, final short classId, final Class<?>[] classes)
+            throws IOException {
+            if(classId == 0)
+                return null;
+            final Class<?> clazz = classId > 0 && classId <= classes.length ? classes[classId - 1] : null;
+            if(clazz == null)
+                throw new IOException(thisNode + " received a message with the class id " + classId + " which it doesn't have a class for.");
+            try(final MessageBufferInput mbi = new MessageBufferInput(buf, start, end);) {
+                return serializer.deserialize(mbi, clazz);
+            }
+        }
+
+        private int[] containers(final byte[] buf, final int start, final int end) throws IOException {
+            final ByteBuffer bb = ByteBuffer.wrap(buf);
+            int pos = start;
+            final int numContainers = bb.getInt(pos);
+            pos += 4;
+            if(numContainers < 0 || pos + (numContainers * 4L) > end)
+                throw new IOException(thisNode + " received a corrupt frame claiming to be for " + numContainers + " containers.");
+            final int[] containers = new int[numContainers];
+            for(int i = 0; i < numContainers; i++, pos += 4)
+                containers[i] = bb.getInt(pos);
+            return containers;
+        }
+
+        /**
+         * Add the class in a class definition frame to this connection's dictionary.
+         *
+         * @return false if the frame can't be understood, in which case the connection should be closed.
+         */
+        private boolean define(final int start, final int frameSize) {
+            final ByteBuffer bb = chunk.getBb();
+            final int end = start + frameSize;
+            final int version = bb.get(start + 6);
+            if(version != NioUtils.CLASS_DICTIONARY_VERSION || frameSize < 9) {
+                LOGGER.warn(thisNode + " received a class definition for version " + version + " of the class dictionary but only understands version "
+                    + NioUtils.CLASS_DICTIONARY_VERSION);
+                return false;
+            }
+            final short id = bb.getShort(start + 7);
+            if(id <= 0) {
+                LOGGER.warn(thisNode + " received a class definition with the invalid id " + id);
+                return false;
+            }
+            final String className = new String(chunk.getBuffer(), start + 9, end - (start + 9), StandardCharsets.UTF_8);
+
+            Class<?> clazz = null;
+            try {
+                final ClassLoader cl = Thread.currentThread().getContextClassLoader();
+                clazz = Class.forName(className, false, cl == null ? NioReceiver.class.getClassLoader() : cl);
+            } catch(final ClassNotFoundException | LinkageError e) {
+                // messages using it will fail to deserialize, just as they would have without the dictionary.
+                LOGGER.warn(thisNode + " received a class definition for " + className + " which couldn't be loaded", e);
+            }
+
+            final Class<?>[] next = Arrays.copyOf(dictionary, Math.max(dictionary.length, id));
+            next[id - 1] = clazz;
+            dictionary = next;
+            return true;
+        }
+
+        /**
+         * Inflate a compressed frame into a new buffer.
+         */
+        private ReturnableBufferOutput inflate(final byte[] buf, final int start, final int end) throws IOException {
+            final int uncompressedSize = ByteBuffer.wrap(buf).getInt(start);
+            if(uncompressedSize <= 0 || uncompressedSize > maxMessageSize)
+                throw new IOException(thisNode + " received a compressed message that claims to inflate to " + uncompressedSize
+                    + " bytes which isn't between 0 and the max (" + maxMessageSize + ")");
+
+            final ReturnableBufferOutput ret = NioUtils.getReturnableBufferOutput();
+            try {
+                if(ret.getBuffer().length < uncompressedSize)
+                    ret.grow(uncompressedSize);
+                FrameCompression.inflate(buf, start + 4, end - (start + 4), ret.getBuffer(), uncompressedSize);
+                ret.messageStart = 0;
+                ret.getBb().position(uncompressedSize);
+                return ret;
+            } catch(final IOException | RuntimeException e) {
+                ret.close();
+                throw e;
+            }
         }
     }
 
     public static class Reader<T> implements Runnable {
-        private final AtomicReference<SocketChannel> landing = new AtomicReference<SocketChannel>(null);
+        // new connections from the acceptor and connections moved here from other readers.
+        private final Queue<Adoption<T>> incoming = new ConcurrentLinkedQueue<>();
+        private final AtomicReference<Migration> migration = new AtomicReference<>(null);
         private final Selector selector;
         private final AtomicBoolean isRunning;
         private final NioAddress thisNode;
@@ -449,9 +890,24 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
         private final AtomicBoolean done = new AtomicBoolean(false);
         private final AtomicReference<CloseCommand> clientToClose = new AtomicReference<CloseCommand>(null);
         private final ThePlug thePlug;
+        private final NodeStatsCollector statsCollector;
+        private final Clock clock;
+
+        // messages read during the current pass over the selected keys. Reused from pass to pass.
+        private final MessageBatch<T> batch = new MessageBatch<>();
+
+        // These are only written by the reader thread and are read by the acceptor to decide where connections go.
+        volatile long bytesRead = 0;
+        volatile int numClients = 0;
+        volatile long numConnectionsMoved = 0;
 
         public Reader(final AtomicBoolean isRunning, final NioAddress thisNode, final Listener<T> typedListener, final Serializer serializer,
             final int maxMessageSize, final ThePlug thePlug) throws IOException {
+            this(isRunning, thisNode, typedListener, serializer, maxMessageSize, thePlug, null, Clock.systemUTC());
+        }
+
+        public Reader(final AtomicBoolean isRunning, final NioAddress thisNode, final Listener<T> typedListener, final Serializer serializer,
+            final int maxMessageSize, final ThePlug thePlug, final NodeStatsCollector statsCollector, final Clock clock) throws IOException {
             selector = Selector.open();
             this.isRunning = isRunning;
             this.thisNode = thisNode;
@@ -459,6 +915,8 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
             this.serializer = serializer;
             this.maxMessageSize = maxMessageSize;
             this.thePlug = thePlug;
+            this.statsCollector = statsCollector;
+            this.clock = clock;
         }
 
         @Override
@@ -468,7 +926,10 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
                     try {
                         final int numKeysSelected = selector.select();
 
+                        registerIncoming();
+
                         if(numKeysSelected > 0) {
+                            long bytesThisPass = 0;
                             final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
                             while(keys.hasNext()) {
                                 final SelectionKey key = keys.next();
@@ -479,46 +940,47 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
                                     continue;
 
                                 if(key.isReadable()) {
-                                    ((Client<?>)key.attachment()).read(key);
+                                    @SuppressWarnings("unchecked")
+                                    final Client<T> client = (Client<T>)key.attachment();
+                                    final long before = client.bytesRead;
+                                    client.read(key, batch);
+                                    bytesThisPass += client.bytesRead - before;
                                 } else // this shouldn't be possible
                                     LOGGER.info(thisNode + " reciever got an unexpexted selection key " + key);
                             }
-                        } else if(isRunning.get() && !done.get()) {
-                            // if we processed no keys then maybe we have a new client passed over to us.
-                            final SocketChannel newClient = landing.getAndSet(null); // mark it as retrieved.
-                            if(newClient != null) {
-                                // we have a new client
-                                newClient.configureBlocking(false);
-                                final Socket socket = newClient.socket();
-                                final SocketAddress remote = socket.getRemoteSocketAddress();
-                                LOGGER.debug(thisNode + " received connection from " + remote);
-                                newClient.register(selector, SelectionKey.OP_READ,
-                                    new Client<T>(thisNode, typedListener, serializer, maxMessageSize));
-                            } else if(clientToClose.get() != null) {
-                                final NioAddress addr = clientToClose.get().addrToClose;
-                                final Object[] toClose = selector.keys().stream()
-                                    .map(k -> new Object[] {k,(Client<?>)k.attachment()})
-                                    .filter(c -> ((Client<?>)c[1]).thisNode.equals(addr))
-                                    .findFirst()
-                                    .orElse(null);
-
-                                if(toClose != null) {
-                                    final SelectionKey key = (SelectionKey)toClose[0];
-                                    final Client<?> client = ((Client<?>)toClose[1]);
-                                    try {
-                                        client.closeup((SocketChannel)key.channel(), key);
-                                    } finally {
-                                        clientToClose.get().set(client);
-                                    }
-                                } else
-                                    clientToClose.set(null);
-                            }
+                            bytesRead += bytesThisPass; // there's only one writer
+                        } else if(isRunning.get() && !done.get() && clientToClose.get() != null) {
+                            final NioAddress addr = clientToClose.get().addrToClose;
+                            final Object[] toClose = selector.keys().stream()
+                                .map(k -> new Object[] {k,(Client<?>)k.attachment()})
+                                .filter(c -> ((Client<?>)c[1]).thisNode.equals(addr))
+                                .findFirst()
+                                .orElse(null);
+
+                            if(toClose != null) {
+                                final SelectionKey key = (SelectionKey)toClose[0];
+                                final Client<?> client = ((Client<?>)toClose[1]);
+                                try {
+                                    client.closeup((SocketChannel)key.channel(), key);
+                                } finally {
+                                    clientToClose.get().set(client);
+                                }
+                            } else
+                                clientToClose.set(null);
                         }
                     } catch(final IOException ioe) {
                         LOGGER.error("Failed during reader loop.", ioe);
                     } catch(final RuntimeException rte) {
                         LOGGER.error("Unexpected exception! Not exiting read loop.", rte);
+                    } finally {
+                        // hand everything read this pass to the listener at once.
+                        flushBatch();
                     }
+
+                    // This is done after the batch is flushed so that anything already read from a connection that's
+                    // moved is passed on before the next reader can read anything more from it.
+                    migrateIfRequested();
+                    numClients = selector.keys().size();
                 }
             } catch(final Error err) {
                 // attempt to log the error.
@@ -529,6 +991,83 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
                 if(selector != null)
                     NioUtils.closeQuietly(selector, LOGGER, "Failed to close selector on reader thread.");
                 done.set(true);
+                closeIncoming();
+            }
+        }
+
+        private void registerIncoming() {
+            for(Adoption<T> adoption = incoming.poll(); adoption != null; adoption = incoming.poll()) {
+                final SocketChannel channel = adoption.channel;
+                try {
+                    final Client<T> client;
+                    if(adoption.client == null) {
+                        // we have a new client
+                        channel.configureBlocking(false);
+                        final Socket socket = channel.socket();
+                        final SocketAddress remote = socket.getRemoteSocketAddress();
+                        LOGGER.debug(thisNode + " received connection from " + remote);
+                        client = new Client<T>(thisNode, serializer, maxMessageSize, statsCollector, clock,
+                            remote instanceof InetSocketAddress ? ((InetSocketAddress)remote).getAddress().getHostAddress() : String.valueOf(remote));
+                    } else
+                        client = adoption.client;
+
+                    client.resetRate(System.nanoTime());
+                    channel.register(selector, SelectionKey.OP_READ, client);
+                } catch(final IOException ioe) {
+                    LOGGER.error(thisNode + " failed to register a connection with a reader. It will be closed.", ioe);
+                    NioUtils.closeQuietly(channel, LOGGER, "Failed to close a connection that couldn't be registered.");
+                }
+            }
+        }
+
+        /**
+         * Hand the connection that will do the most to even out the load, without overshooting, to the other reader.
+         */
+        @SuppressWarnings("unchecked")
+        private void migrateIfRequested() {
+            final Migration request = migration.getAndSet(null);
+            if(request == null)
+                return;
+
+            final long now = System.nanoTime();
+            SelectionKey toMove = null;
+            double toMoveRate = 0.0;
+            int numValid = 0;
+            for(final SelectionKey key: selector.keys()) {
+                if(!key.isValid())
+                    continue;
+                numValid++;
+                final double rate = ((Client<?>)key.attachment()).resetRate(now);
+                if(rate <= request.bytesPerSecond && rate > toMoveRate) {
+                    toMove = key;
+                    toMoveRate = rate;
+                }
+            }
+
+            // moving our only connection would just move the problem.
+            if(toMove != null && numValid > 1 && isRunning.get()) {
+                final SocketChannel channel = (SocketChannel)toMove.channel();
+                toMove.cancel();
+                LOGGER.debug("{} is moving a connection reading {} bytes/sec to another reader", thisNode, (long)toMoveRate);
+                ((Reader<T>)request.to).adopt(channel, (Client<T>)toMove.attachment());
+                numConnectionsMoved++; // there's only one writer
+            }
+        }
+
+        private void closeIncoming() {
+            for(Adoption<T> adoption = incoming.poll(); adoption != null; adoption = incoming.poll())
+                NioUtils.closeQuietly(adoption.channel, LOGGER, "Failed to close a connection given to a reader that's stopped.");
+        }
+
+        private void flushBatch() {
+            if(!batch.isEmpty()) {
+                try {
+                    typedListener.onMessages(batch);
+                } catch(final RuntimeException rte) {
+                    LOGGER.error(thisNode + " failed handing " + batch.size() + " messages to the listener.", rte);
+                } finally {
+                    batch.clear();
+                }
             }
         }
 
@@ -576,15 +1115,45 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
             }
         }
 
-        public synchronized void newClient(final SocketChannel newClient) throws IOException {
-            // attempt to set the landing as long as it's null
-            while(landing.compareAndSet(null, newClient))
-                Thread.yield();
+        public void newClient(final SocketChannel newClient) {
+            adopt(newClient, null);
+        }
 
-            // wait until the Reader runnable takes it.
-            while(landing.get() != null && isRunning.get() && !done.get()) {
-                selector.wakeup();
-                Thread.yield();
+        /**
+         * Ask this reader to move one of its connections to {@code to} that's reading close to, but not more than, the
+         * given bytes per second. This replaces any request it hasn't gotten to yet.
+         */
+        void migrate(final double bytesPerSecond, final Reader<?> to) {
+            migration.set(new Migration(bytesPerSecond, to));
+            selector.wakeup();
+        }
+
+        private void adopt(final SocketChannel channel, final Client<T> client) {
+            incoming.add(new Adoption<>(channel, client));
+            selector.wakeup();
+
+            // if the reader's already gone then it's not going to pick this up.
+            if(done.get())
+                closeIncoming();
+        }
+
+        private static class Adoption<T> {
+            public final SocketChannel channel;
+            public final Client<T> client; // null for a brand new connection
+
+            Adoption(final SocketChannel channel, final Client<T> client) {
+                this.channel = channel;
+                this.client = client;
+            }
+        }
+
+        private static class Migration {
+            public final double bytesPerSecond;
+            public final Reader<?> to;
+
+            Migration(final double bytesPerSecond, final Reader<?> to) {
+                this.bytesPerSecond = bytesPerSecond;
+                this.to = to;
             }
         }
     }
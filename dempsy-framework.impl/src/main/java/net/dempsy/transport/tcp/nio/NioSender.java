@@ -5,8 +5,11 @@ import static net.dempsy.transport.tcp.nio.internal.NioUtils.dontInterrupt;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.channels.SocketChannel;
+import java.time.Clock;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -16,6 +19,7 @@ import org.slf4j.LoggerFactory;
 
 import net.dempsy.monitoring.NodeStatsCollector;
 import net.dempsy.serialization.Serializer;
+import net.dempsy.transport.FanOutRoutedMessage;
 import net.dempsy.transport.MessageTransportException;
 import net.dempsy.transport.Sender;
 import net.dempsy.transport.tcp.TcpAddress;
@@ -27,11 +31,33 @@ public final class NioSender implements Sender {
     final TcpAddress addr;
     final String nodeId;
 
+    // which of the striped connections to addr this is and, if there's more than one, which
+    // sending thread handles it. -1 means any sending thread.
+    final int stripe;
+    final int sendingThread;
+
     private final NioSenderFactory owner;
-    private final NodeStatsCollector statsCollector;
+    final NodeStatsCollector statsCollector;
 
     public final Serializer serializer;
 
+    // serialized messages at least this large are compressed. Less than zero means never.
+    final int compressThreshold;
+    final int compressLevel;
+
+    // can the receiver on the other end handle the key and message being serialized separately from the containers?
+    final boolean sharedPayload;
+
+    // should the classes of keys and messages be sent once per connection and referred to by id after that?
+    final boolean classDictionary;
+
+    // the ids given to classes on the current connection. Only touched by the sending thread that has this sender.
+    final Map<Class<?>, Short> classIds = new HashMap<>();
+
+    // should each frame be prefixed with the time it was sent?
+    final boolean timestamps;
+    final Clock clock;
+
     SocketChannel channel = null;
 
     private boolean connected = false;
@@ -40,15 +66,30 @@ public final class NioSender implements Sender {
 
     // read from NioSenderFactory.Sending
     BlockingQueue<Object> messages;
-    boolean running = true;
+    // also read by a StripedNioSender to tell when this connection needs replacing.
+    volatile boolean running = true;
 
-    NioSender(final TcpAddress addr, final NioSenderFactory parent) {
+    NioSender(final TcpAddress addr, final int stripe, final NioSenderFactory parent) {
         this.owner = parent;
         this.addr = addr;
+        this.stripe = stripe;
+        this.sendingThread = parent.connectionsPerDestination > 1 ? stripe % parent.numSenderThreads : -1;
         serializer = parent.serializerManager.getAssociatedInstance(addr.serializerId);
         this.statsCollector = parent.statsCollector;
         this.nodeId = parent.nodeId;
 
+        // only compress if the receiver on the other end said it can handle it.
+        final boolean receiverAcceptsCompression = (addr instanceof NioAddress) && ((NioAddress)addr).acceptsCompressedFrames;
+        this.compressThreshold = receiverAcceptsCompression ? parent.compressThreshold : -1;
+        this.compressLevel = parent.compressLevel;
+        this.sharedPayload = (addr instanceof NioAddress) && ((NioAddress)addr).acceptsSharedPayloadFrames;
+        // a compressed frame is always a whole RoutedMessage so the dictionary is only used when not compressing.
+        this.classDictionary = parent.classDictionary && compressThreshold < 0 && (addr instanceof NioAddress)
+            && ((NioAddress)addr).classDictionaryVersion == NioUtils.CLASS_DICTIONARY_VERSION;
+
+        this.timestamps = parent.timestamps && (addr instanceof NioAddress) && ((NioAddress)addr).acceptsTimestamps;
+        this.clock = parent.clock;
+
         // messages = new LinkedBlockingQueue<>();
         messages = new ArrayBlockingQueue<>(2);
         makeChannel();
@@ -56,11 +97,12 @@ public final class NioSender implements Sender {
 
     @Override
     public void send(final Object message) throws MessageTransportException, InterruptedException {
+        final Object toQueue = timestamps ? new Timestamped(message, NioUtils.epochNanos(clock)) : message;
         boolean done = false;
         while(running && !done) {
             if(running) {
                 // let's not try forever in case we're locked up and shutting down.
-                done = messages.offer(message, 1, TimeUnit.SECONDS);
+                done = messages.offer(toQueue, 1, TimeUnit.SECONDS);
             }
             // if(!done && Thread.interrupted())
             // throw new InterruptedException();
@@ -108,9 +150,15 @@ public final class NioSender implements Sender {
             }
         }
 
-        drainTo.forEach(o -> statsCollector.messageNotSent());
+        drainTo.forEach(o -> {
+            statsCollector.messageNotSent();
+            // a copy of a fan-out that's never going to be serialized still holds a reference to it.
+            final Object message = (o instanceof Timestamped) ? ((Timestamped)o).message : o;
+            if(message instanceof FanOutRoutedMessage)
+                ((FanOutRoutedMessage)message).fanOut.release();
+        });
         owner.idleSenders.remove(this);
-        owner.imDone(addr);
+        owner.imDone(this);
 
         // if(channel.isOpen()) {
         NioUtils.closeQuietly(channel, LOGGER, nodeId + " failed directly closing channel from " + NioSender.class);
@@ -131,8 +179,30 @@ public final class NioSender implements Sender {
         return NioSender.class.getSimpleName() + " to " + addr;
     }
 
+    void serialized(final int serializedSize) {
+        owner.numBytesSerialized.add(serializedSize);
+        owner.numSerializations.increment();
+    }
+
+    void framed(final int framedSize) {
+        owner.numBytesFramed.add(framedSize);
+    }
+
     static class StopMessage {}
 
+    /**
+     * A message along with when it was sent so the time it spends queued can be measured.
+     */
+    static class Timestamped {
+        final Object message;
+        final long sentNanos;
+
+        Timestamped(final Object message, final long sentNanos) {
+            this.message = message;
+            this.sentNanos = sentNanos;
+        }
+    }
+
     /**
      * Mark this sender as dead and evict it from the factory's sender cache.
      * Called by SenderHolder when a reconnection attempt fails, so the next
@@ -140,7 +210,7 @@ public final class NioSender implements Sender {
      */
     void markDeadAndEvict() {
         running = false;
-        owner.removeSender(addr, this);
+        owner.removeSender(this);
     }
 
     void connect(final boolean force) throws IOException {
@@ -151,6 +221,8 @@ public final class NioSender implements Sender {
                 Thread.yield();
             sendBufferSize = channel.socket().getSendBufferSize();
             recvBufferSize = addr.recvBufferSize;
+            // the receiver starts a new dictionary for every connection.
+            classIds.clear();
             connected = true;
             owner.idleSenders.putIfAbsent(this, this);
         }
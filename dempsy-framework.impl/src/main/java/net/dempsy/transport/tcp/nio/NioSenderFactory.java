@@ -6,6 +6,7 @@ import static net.dempsy.util.Functional.chain;
 import java.io.IOException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.time.Clock;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -14,6 +15,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,6 +26,7 @@ import net.dempsy.monitoring.NodeStatsCollector;
 import net.dempsy.serialization.Serializer;
 import net.dempsy.transport.MessageTransportException;
 import net.dempsy.transport.NodeAddress;
+import net.dempsy.transport.Sender;
 import net.dempsy.transport.SenderFactory;
 import net.dempsy.transport.tcp.TcpAddress;
 import net.dempsy.transport.tcp.nio.internal.NioUtils;
@@ -46,11 +49,73 @@ public class NioSenderFactory implements SenderFactory {
     public static final String CONFIG_KEY_SENDER_STOP_TIMEOUT_MILLIS = "sender_stop_timeout_millis";
     public static final String DEFAULT_SENDER_STOP_TIMEOUT_MILLIS = "3000";
 
-    private final ConcurrentHashMap<TcpAddress, NioSender> senders = new ConcurrentHashMap<>();
+    /**
+     * Serialized messages at least this large are compressed when the destination accepts compressed
+     * frames. Less than zero turns compression off.
+     */
+    public static final String CONFIG_KEY_SENDER_COMPRESS_THRESHOLD = "send_compress_threshold_bytes";
+    public static final String DEFAULT_SENDER_COMPRESS_THRESHOLD = "-1";
+
+    public static final String CONFIG_KEY_SENDER_COMPRESS_LEVEL = "send_compress_level";
+    public static final String DEFAULT_SENDER_COMPRESS_LEVEL = "1";
+
+    /**
+     * Whether or not to give the classes of the keys and messages sent on each connection a small id, sent once,
+     * instead of leaving the serializer to describe them in every message. It's only used when the destination
+     * accepts it and the message isn't being compressed.
+     */
+    public static final String CONFIG_KEY_SENDER_CLASS_DICTIONARY = "send_class_dictionary";
+    public static final String DEFAULT_SENDER_CLASS_DICTIONARY = "true";
+
+    /**
+     * Whether or not to prefix each frame with the time it was sent so the destination can measure how long
+     * messages take to get there. It's only used when the destination accepts it. It also turns on recording
+     * how long each message waits between being sent and being written.
+     */
+    public static final String CONFIG_KEY_SENDER_TIMESTAMPS = "send_timestamps";
+    public static final String DEFAULT_SENDER_TIMESTAMPS = "false";
+
+    /**
+     * The number of connections to open to each destination. When this is more than one, messages are spread
+     * across the connections by the hash of their key so that messages with the same key stay in order.
+     */
+    public static final String CONFIG_KEY_SENDER_CONNECTIONS_PER_DESTINATION = "send_connections_per_destination";
+    public static final String DEFAULT_SENDER_CONNECTIONS_PER_DESTINATION = "1";
+
+    private final ConcurrentHashMap<SenderKey, NioSender> senders = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<TcpAddress, StripedNioSender> stripedSenders = new ConcurrentHashMap<>();
 
     /** Package-private: allows NioSender to evict itself from the cache on unrecoverable failure. */
-    void removeSender(final TcpAddress addr, final NioSender expected) {
-        senders.remove(addr, expected);
+    void removeSender(final NioSender expected) {
+        senders.remove(new SenderKey(expected.addr, expected.stripe), expected);
+    }
+
+    /**
+     * Each connection to a destination is identified by the destination and which of the striped connections it is.
+     */
+    static final class SenderKey {
+        final TcpAddress addr;
+        final int stripe;
+
+        SenderKey(final TcpAddress addr, final int stripe) {
+            this.addr = addr;
+            this.stripe = stripe;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * addr.hashCode()) + stripe;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if(this == obj)
+                return true;
+            if(!(obj instanceof SenderKey))
+                return false;
+            final SenderKey other = (SenderKey)obj;
+            return stripe == other.stripe && addr.equals(other.addr);
+        }
     }
 
     final ConcurrentHashMap<NioSender, NioSender> idleSenders = new ConcurrentHashMap<>();
@@ -65,6 +130,17 @@ public class NioSenderFactory implements SenderFactory {
     // boolean blocking;
     int mtu = Integer.parseInt(DEFAULT_SENDER_TCP_MTU);
     int stopTimeout = Integer.parseInt(DEFAULT_SENDER_STOP_TIMEOUT_MILLIS);
+    int compressThreshold = Integer.parseInt(DEFAULT_SENDER_COMPRESS_THRESHOLD);
+    int compressLevel = Integer.parseInt(DEFAULT_SENDER_COMPRESS_LEVEL);
+    boolean classDictionary = Boolean.parseBoolean(DEFAULT_SENDER_CLASS_DICTIONARY);
+    boolean timestamps = Boolean.parseBoolean(DEFAULT_SENDER_TIMESTAMPS);
+    Clock clock = Clock.systemUTC();
+    int connectionsPerDestination = Integer.parseInt(DEFAULT_SENDER_CONNECTIONS_PER_DESTINATION);
+    int numSenderThreads = Integer.parseInt(DEFAULT_SENDER_THREADS);
+
+    final LongAdder numBytesSerialized = new LongAdder();
+    final LongAdder numBytesFramed = new LongAdder();
+    final LongAdder numSerializations = new LongAdder();
     // =======================================
 
     private Sending[] sendings;
@@ -78,6 +154,7 @@ public class NioSenderFactory implements SenderFactory {
         synchronized(this) {
             isRunning.set(false);
             snapshot = new ArrayList<>(senders.values());
+            stripedSenders.clear();
         }
         snapshot.forEach(s -> s.stop());
 
@@ -116,11 +193,25 @@ public class NioSenderFactory implements SenderFactory {
     }
 
     @Override
-    public NioSender getSender(final NodeAddress destination) throws MessageTransportException {
+    public Sender getSender(final NodeAddress destination) throws MessageTransportException {
         final TcpAddress tcpaddr = (TcpAddress)destination;
+        if(connectionsPerDestination <= 1)
+            return getSender(tcpaddr, 0);
+
+        if(!isRunning.get())
+            throw new MessageTransportException(nodeId + " sender had getSender called while stopped.");
+        final StripedNioSender ret = stripedSenders.computeIfAbsent(tcpaddr, a -> new StripedNioSender(a, connectionsPerDestination, this));
+        // make sure every connection can be made now rather than on the first send.
+        for(int i = 0; i < connectionsPerDestination; i++)
+            ret.sender(i);
+        return ret;
+    }
+
+    NioSender getSender(final TcpAddress tcpaddr, final int stripe) throws MessageTransportException {
+        final SenderKey key = new SenderKey(tcpaddr, stripe);
         NioSender ret;
         if(isRunning.get()) {
-            ret = senders.computeIfAbsent(tcpaddr, a -> new NioSender(a, this));
+            ret = senders.computeIfAbsent(key, k -> new NioSender(k.addr, k.stripe, this));
         } else
             throw new MessageTransportException(nodeId + " sender had getSender called while stopped.");
 
@@ -129,16 +220,16 @@ public class NioSenderFactory implements SenderFactory {
         } catch(final IOException e) {
             // Connection is dead (e.g. remote pod restarted in k8s).
             // Evict the stale sender and retry once with a fresh connection.
-            LOGGER.warn(nodeId + " sender to " + destination + " failed to connect, evicting stale sender and retrying.", e);
-            senders.remove(tcpaddr, ret);
+            LOGGER.warn(nodeId + " sender to " + tcpaddr + " failed to connect, evicting stale sender and retrying.", e);
+            senders.remove(key, ret);
             ret.stop();
             if(isRunning.get()) {
-                ret = new NioSender(tcpaddr, this);
+                ret = new NioSender(tcpaddr, stripe, this);
                 try {
                     ret.connect(false);
-                    senders.putIfAbsent(tcpaddr, ret);
+                    senders.putIfAbsent(key, ret);
                 } catch(final IOException e2) {
-                    throw new MessageTransportException(nodeId + " sender failed to connect to " + destination + " after retry", e2);
+                    throw new MessageTransportException(nodeId + " sender failed to connect to " + tcpaddr + " after retry", e2);
                 }
             } else {
                 throw new MessageTransportException(nodeId + " sender had getSender called while stopped.");
@@ -152,7 +243,7 @@ public class NioSenderFactory implements SenderFactory {
         this.statsCollector = infra.getNodeStatsCollector();
         this.nodeId = infra.getNodeId();
 
-        final int numSenderThreads = Integer
+        numSenderThreads = Integer
             .parseInt(infra.getConfigValue(NioSender.class, CONFIG_KEY_SENDER_THREADS, DEFAULT_SENDER_THREADS));
 
         mtu = Integer
@@ -163,29 +254,85 @@ public class NioSenderFactory implements SenderFactory {
         stopTimeout = Integer
             .parseInt(infra.getConfigValue(NioSender.class, CONFIG_KEY_SENDER_STOP_TIMEOUT_MILLIS, DEFAULT_SENDER_STOP_TIMEOUT_MILLIS));
 
+        compressThreshold = Integer
+            .parseInt(infra.getConfigValue(NioSender.class, CONFIG_KEY_SENDER_COMPRESS_THRESHOLD, DEFAULT_SENDER_COMPRESS_THRESHOLD));
+
+        compressLevel = Integer
+            .parseInt(infra.getConfigValue(NioSender.class, CONFIG_KEY_SENDER_COMPRESS_LEVEL, DEFAULT_SENDER_COMPRESS_LEVEL));
+
+        classDictionary = Boolean
+            .parseBoolean(infra.getConfigValue(NioSender.class, CONFIG_KEY_SENDER_CLASS_DICTIONARY, DEFAULT_SENDER_CLASS_DICTIONARY));
+
+        timestamps = Boolean.parseBoolean(infra.getConfigValue(NioSender.class, CONFIG_KEY_SENDER_TIMESTAMPS, DEFAULT_SENDER_TIMESTAMPS));
+
+        connectionsPerDestination = Integer.parseInt(infra.getConfigValue(NioSender.class, CONFIG_KEY_SENDER_CONNECTIONS_PER_DESTINATION,
+            DEFAULT_SENDER_CONNECTIONS_PER_DESTINATION));
+
         sendings = new Sending[numSenderThreads];
         sendingsThreads = new Thread[numSenderThreads];
 
         // now start the sending threads.
         for(int i = 0; i < sendings.length; i++)
-            chain(sendingsThreads[i] = new Thread(sendings[i] = new Sending(sendingsRunning, nodeId, idleSenders, statsCollector),
+            chain(sendingsThreads[i] = new Thread(sendings[i] = new Sending(i, sendingsRunning, nodeId, idleSenders, statsCollector),
                 "nio-sender-" + i + "-" + nodeId), t -> t.start());
 
     }
 
-    void imDone(final TcpAddress tcp) {
-        senders.remove(tcp);
+    /**
+     * The clock used to timestamp messages. It must be set prior to the factory being started.
+     */
+    public NioSenderFactory clock(final Clock clock) {
+        this.clock = clock;
+        return this;
+    }
+
+    /**
+     * The total size of all of the messages serialized by this factory's senders.
+     */
+    public long getNumBytesSerialized() {
+        return numBytesSerialized.sum();
+    }
+
+    /**
+     * The number of times this factory's senders have invoked a serializer. A message going to several
+     * destinations only needs to be serialized once.
+     */
+    public long getNumSerializations() {
+        return numSerializations.sum();
+    }
+
+    /**
+     * The total size of all of the frames, including the headers, sent by this factory's senders.
+     * This is smaller than {@link #getNumBytesSerialized()} when compression is saving anything.
+     */
+    public long getNumBytesFramed() {
+        return numBytesFramed.sum();
+    }
+
+    void imDone(final NioSender sender) {
+        senders.remove(new SenderKey(sender.addr, sender.stripe), sender);
+    }
+
+    void imDone(final StripedNioSender sender) {
+        stripedSenders.remove(sender.addr, sender);
+        for(int i = 0; i < sender.numStripes; i++) {
+            final NioSender cur = senders.get(new SenderKey(sender.addr, i));
+            if(cur != null)
+                cur.stop();
+        }
     }
 
     public static class Sending implements Runnable {
+        final int index;
         final AtomicBoolean isRunning;
         final Selector selector;
         final String nodeId;
         final Map<NioSender, NioSender> idleSenders;
         final NodeStatsCollector statsCollector;
 
-        Sending(final AtomicBoolean isRunning, final String nodeId, final Map<NioSender, NioSender> idleSenders,
+        Sending(final int index, final AtomicBoolean isRunning, final String nodeId, final Map<NioSender, NioSender> idleSenders,
             final NodeStatsCollector statsCollector) throws MessageTransportException {
+            this.index = index;
             this.isRunning = isRunning;
             this.nodeId = nodeId;
             this.idleSenders = idleSenders;
@@ -312,7 +459,8 @@ public class NioSenderFactory implements SenderFactory {
             try { // if we fail here we need to put the senders back or we'll loose them forever.
                   // move any NioSenders with data from working and onto newSenders
                 for(final NioSender s: cfnsCurSenders) {
-                    if(s.messages.peek() != null) {
+                    // striped connections to the same destination are spread across the sending threads.
+                    if(s.messages.peek() != null && (s.sendingThread < 0 || s.sendingThread == index)) {
                         // try to get it
                         cfnsNewSenders[pos++] = idleSenders.remove(s);
                         // removing them means putting them on the newSenders set so we can track them.
@@ -8,14 +8,22 @@ import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.Map;
 
 import org.slf4j.Logger;
 
 import net.dempsy.monitoring.NodeStatsCollector;
 import net.dempsy.serialization.Serializer;
+import net.dempsy.transport.FanOutRoutedMessage;
+import net.dempsy.transport.FanOutRoutedMessage.FanOut;
+import net.dempsy.transport.RoutedMessage;
 import net.dempsy.transport.tcp.nio.NioSender.StopMessage;
+import net.dempsy.transport.tcp.nio.NioSender.Timestamped;
+import net.dempsy.transport.tcp.nio.internal.FrameCompression;
 import net.dempsy.transport.tcp.nio.internal.NioUtils;
 import net.dempsy.transport.tcp.nio.internal.NioUtils.ReturnableBufferOutput;
 import net.dempsy.util.SafeString;
@@ -26,19 +34,92 @@ public class SenderHolder {
     private boolean previouslyWroteOddNumBufs = false;
 
     private int numBytesToWrite = 0;
-    private final LinkedList<ReturnableBufferOutput> serializedMessages = new LinkedList<>();
+    private final LinkedList<Outgoing> serializedMessages = new LinkedList<>();
+
+    // when the message currently being serialized was sent, if it's being timed.
+    private static final long NOT_TIMED = Long.MIN_VALUE;
+    private long sentNanos = NOT_TIMED;
 
     public SenderHolder(final NioSender sender, final Logger l) {
         this.sender = sender;
         this.LOGGER = l;
     }
 
+    /**
+     * A buffer waiting to be written along with whatever needs to be released once it has been.
+     */
+    private static class Outgoing {
+        final ByteBuffer bb;
+        final ReturnableBufferOutput owned;
+        final FanOut shared;
+        // when the message this finishes was sent, if it's being timed.
+        final long sentNanos;
+
+        Outgoing(final ReturnableBufferOutput owned, final long sentNanos) {
+            this.bb = owned.getFloppedBb();
+            this.owned = owned;
+            this.shared = null;
+            this.sentNanos = sentNanos;
+        }
+
+        Outgoing(final SharedPayload payload, final FanOut shared, final long sentNanos) {
+            // each sender needs its own position in the shared bytes.
+            this.bb = ByteBuffer.wrap(payload.serialized.getBuffer(), 0, payload.serialized.getPosition());
+            this.owned = null;
+            this.shared = shared;
+            this.sentNanos = sentNanos;
+        }
+
+        // once it's been written, or it's been dropped.
+        void release() {
+            if(owned != null)
+                owned.close();
+            if(shared != null)
+                shared.release();
+        }
+    }
+
+    /**
+     * The key and message of a {@link FanOutRoutedMessage} serialized once and shared by every sender it's going to.
+     */
+    private static class SharedPayload implements AutoCloseable {
+        final ReturnableBufferOutput serialized;
+        final IOException failure;
+
+        private SharedPayload(final ReturnableBufferOutput serialized, final IOException failure) {
+            this.serialized = serialized;
+            this.failure = failure;
+        }
+
+        @Override
+        public void close() {
+            if(serialized != null)
+                serialized.close();
+        }
+    }
+
+    /**
+     * Queue a frame's header to be written.
+     */
     private final void add(final ReturnableBufferOutput ob) {
         numBytesToWrite += ob.getPosition();
-        serializedMessages.add(ob);
+        serializedMessages.add(new Outgoing(ob, NOT_TIMED));
+    }
+
+    /**
+     * Queue the body of the frame for the message currently being serialized.
+     */
+    private final void addBody(final ReturnableBufferOutput ob) {
+        numBytesToWrite += ob.getPosition();
+        serializedMessages.add(new Outgoing(ob, sentNanos));
+    }
+
+    private final void addBody(final SharedPayload payload, final FanOut fanOut) {
+        numBytesToWrite += payload.serialized.getPosition();
+        serializedMessages.add(new Outgoing(payload, fanOut, sentNanos));
     }
 
-    private final void addBack(final ReturnableBufferOutput ob, final int remaining) {
+    private final void addBack(final Outgoing ob, final int remaining) {
         numBytesToWrite += remaining;
         serializedMessages.add(ob);
     }
@@ -69,13 +150,8 @@ public class SenderHolder {
         prepareToWriteBestEffort();
     }
 
-    private static ByteBuffer[] removeFirst(final ByteBuffer[] src, final boolean andSecond) {
-        final LinkedList<ByteBuffer> tmp = new LinkedList<>(Arrays.asList(src));
-        if(tmp.size() > 0)
-            tmp.removeFirst();
-        if(andSecond && tmp.size() > 0)
-            tmp.removeFirst();
-        return tmp.toArray(new ByteBuffer[tmp.size()]);
+    private static <T> T[] removeFirst(final T[] src, final boolean andSecond) {
+        return Arrays.copyOfRange(src, Math.min(src.length, andSecond ? 2 : 1), src.length);
     }
 
     public boolean close(final SelectionKey key) {
@@ -97,17 +173,18 @@ public class SenderHolder {
             // ==================================================
             // collect up the ByteBuffers to send.
             final int numBb = serializedMessages.size();
-            final ReturnableBufferOutput[] toSendRbos = new ReturnableBufferOutput[numBb];
+            Outgoing[] toSendRbos = new Outgoing[numBb];
             ByteBuffer[] toSend = new ByteBuffer[numBb];
             int curIndex = 0;
 
-            for(final ReturnableBufferOutput c: serializedMessages) {
-                toSend[curIndex] = c.getFloppedBb();
+            for(final Outgoing c: serializedMessages) {
+                toSend[curIndex] = c.bb;
                 toSendRbos[curIndex] = c;
                 curIndex++;
             }
 
             final SocketChannel channel = (SocketChannel)key.channel();
+            Map<Class<?>, Short> redefine = null;
             try {
                 channel.write(toSend); // okay, let's see what we have now.
             } catch(final IOException ioe) {
@@ -115,15 +192,24 @@ public class SenderHolder {
 
                 if(previouslyWroteOddNumBufs || (toSend[0].hasRemaining() && toSend[0].position() > 0)) { // this means we were in the MIDDLE of a message.
                     statsCollector.messageNotSent();
+                    // what's left of the partly written message is dropped so give back what it's holding.
+                    final int numDropped = Math.min(toSendRbos.length, previouslyWroteOddNumBufs ? 1 : 2);
+                    for(int i = 0; i < numDropped; i++)
+                        toSendRbos[i].release();
                     toSend = removeFirst(toSend, !previouslyWroteOddNumBufs);
+                    toSendRbos = removeFirst(toSendRbos, !previouslyWroteOddNumBufs);
                 }
                 previouslyWroteOddNumBufs = false;
 
+                // what's left to write may refer to classes that were only defined on the old connection.
+                final Map<Class<?>, Short> defined = new HashMap<>(sender.classIds);
+
                 // now let's retry the connection
                 final SocketChannel oldChannel = sender.makeChannel(); // remake the channel
                 try {
                     closeQuietly(oldChannel.socket(), LOGGER, sender.nodeId + " failed to close previous channel to " + sender.addr);
                     sender.connect(true); // reconnect.
+                    redefine = defined;
 
                     // Eliminate the key - only if the connect succeeded
                     key.cancel(); // otherwise this is the only place to keep track of the channel
@@ -137,16 +223,24 @@ public class SenderHolder {
             numBytesToWrite = 0;
             serializedMessages.clear();
             int numBufsCompletelyWritten = 0;
+            final long now = sender.timestamps ? NioUtils.epochNanos(sender.clock) : 0;
             for(int i = 0; i < toSend.length; i++) {
                 final ByteBuffer curBb = toSend[i];
-                final ReturnableBufferOutput curRob = toSendRbos[i];
+                final Outgoing curRob = toSendRbos[i];
                 final int remaining = curBb.remaining();
                 if(remaining != 0)
                     addBack(curRob, remaining);
-                else
+                else {
                     numBufsCompletelyWritten++;
+                    curRob.release();
+                    if(curRob.sentNanos != NOT_TIMED)
+                        statsCollector.messageSendQueueTime(now - curRob.sentNanos);
+                }
             }
 
+            if(redefine != null && !redefine.isEmpty() && !serializedMessages.isEmpty())
+                redefineAhead(redefine);
+
             // how many messages did we write?
             if(previouslyWroteOddNumBufs)
                 numBufsCompletelyWritten++;
@@ -168,6 +262,29 @@ public class SenderHolder {
 
     }
 
+    /**
+     * After a reconnect, frames that were serialized for the old connection can refer to classes by ids the
+     * receiver's new dictionary doesn't have. Rather than clearing the ids, the whole table is defined again
+     * in front of the first frame still waiting to be written. The first one is always a header since a
+     * partly written message is dropped on reconnect.
+     */
+    private void redefineAhead(final Map<Class<?>, Short> defined) throws IOException {
+        final ReturnableBufferOutput definitions = NioUtils.getReturnableBufferOutput();
+        definitions.reset();
+        for(final Map.Entry<Class<?>, Short> e: defined.entrySet())
+            writeDefinition(e.getKey(), e.getValue().shortValue(), definitions);
+
+        final Outgoing first = serializedMessages.removeFirst();
+        final ByteBuffer rest = first.bb;
+        numBytesToWrite -= rest.remaining();
+        definitions.write(rest.array(), rest.arrayOffset() + rest.position(), rest.remaining());
+        first.release();
+
+        numBytesToWrite += definitions.getPosition();
+        serializedMessages.addFirst(new Outgoing(definitions, NOT_TIMED));
+        sender.classIds.putAll(defined);
+    }
+
     private void prepareToWriteBestEffort() throws IOException {
         while(true) {
             if(!readyToWrite(true)) {
@@ -185,33 +302,233 @@ public class SenderHolder {
         if(shouldClose())
             return false;
 
-        final Object toSer = sender.messages.poll();
+        Object toSer = sender.messages.poll();
         if(toSer != null) {
-            final ReturnableBufferOutput header = NioUtils.getReturnableBufferOutput();
-            final ReturnableBufferOutput data = NioUtils.getReturnableBufferOutput();
-            serialize(sender.serializer, toSer, header, data, sender.addr.messageSizeLimit);
+            if(toSer instanceof Timestamped) {
+                final Timestamped timestamped = (Timestamped)toSer;
+                sentNanos = timestamped.sentNanos;
+                toSer = timestamped.message;
+            } else
+                sentNanos = NOT_TIMED;
+
+            if(toSer instanceof FanOutRoutedMessage) {
+                final FanOutRoutedMessage fanOutMessage = (FanOutRoutedMessage)toSer;
+                if(sender.sharedPayload) {
+                    serializeShared(fanOutMessage);
+                    return true;
+                }
+
+                // the receiver can't handle a shared payload so send it like any other message.
+                toSer = fanOutMessage.toRoutedMessage();
+                fanOutMessage.fanOut.release();
+            }
+
+            if(sender.classDictionary && toSer instanceof RoutedMessage && serializeWithDictionary((RoutedMessage)toSer))
+                return true;
+
+            final ReturnableBufferOutput header = newHeader();
+            final ReturnableBufferOutput data = serialize(sender.serializer, toSer, header, NioUtils.getReturnableBufferOutput(),
+                sender.addr.messageSizeLimit);
             add(header);
-            add(data);
+            addBody(data);
             return true;
         }
         return false;
 
     }
 
-    private void serialize(final Serializer ser, final Object obj, final ReturnableBufferOutput header, final ReturnableBufferOutput data,
+    private void serializeShared(final FanOutRoutedMessage message) throws IOException {
+        final FanOut fanOut = message.fanOut;
+        // whichever sender gets here first serializes it for everyone using the same serializer.
+        final SharedPayload payload = fanOut.attachment(sender.serializer, () -> serializePayload(message));
+        if(payload.failure != null) {
+            fanOut.release();
+            throw payload.failure;
+        }
+
+        final int[] containers = message.containers;
+        final int payloadSize = payload.serialized.getPosition();
+        final ReturnableBufferOutput header = newHeader();
+        header.writeShort(NioUtils.SHARED_PAYLOAD_INT_SIZE);
+        header.writeInt(4 + (containers.length * 4) + payloadSize);
+        header.writeInt(containers.length);
+        for(final int container: containers)
+            header.writeInt(container);
+
+        sender.framed(header.getPosition() + payloadSize);
+        add(header);
+        addBody(payload, fanOut);
+    }
+
+    /**
+     * @return an empty buffer for a frame's header, prefixed with the time if the frames are being timestamped.
+     */
+    private ReturnableBufferOutput newHeader() throws IOException {
+        final ReturnableBufferOutput header = NioUtils.getReturnableBufferOutput();
+        header.reset();
+        if(sender.timestamps) {
+            final long now = NioUtils.epochNanos(sender.clock);
+            header.writeShort(NioUtils.TIMESTAMP);
+            header.writeInt((int)(now >>> 32));
+            header.writeInt((int)now);
+        }
+        return header;
+    }
+
+    /**
+     * Serialize the key and message separately, each as its own class, and refer to those classes by the ids
+     * they've been given on this connection. A class is defined, in the same buffer as the frame's header, the
+     * first time it's used.
+     *
+     * @return false if the message couldn't be sent this way and needs to be sent as a whole {@link RoutedMessage}.
+     */
+    private boolean serializeWithDictionary(final RoutedMessage message) throws IOException {
+        // the ids are shorts so once we run out new classes go the normal way.
+        if(message.containers == null || sender.classIds.size() > Short.MAX_VALUE - 2)
+            return false;
+
+        final int numDefined = sender.classIds.size();
+        final ReturnableBufferOutput header = newHeader();
+        final ReturnableBufferOutput data = NioUtils.getReturnableBufferOutput();
+        try {
+            data.reset();
+            final short keyClassId = classId(message.key, header);
+            final short messageClassId = classId(message.message, header);
+
+            final int[] containers = message.containers;
+            data.writeInt(containers.length);
+            for(final int container: containers)
+                data.writeInt(container);
+
+            data.writeShort(keyClassId);
+            final int keySizePos = data.getPosition();
+            data.writeInt(0); // filled in once we know it.
+            if(message.key != null)
+                sender.serializer.serialize(message.key, data);
+            final int keySize = data.getPosition() - (keySizePos + 4);
+
+            data.writeShort(messageClassId);
+            if(message.message != null)
+                sender.serializer.serialize(message.message, data);
+
+            // the buffer may have grown while serializing so get it now.
+            ByteBuffer.wrap(data.getBuffer()).putInt(keySizePos, keySize);
+
+            final int size = data.getPosition();
+            if(size > sender.addr.messageSizeLimit)
+                LOGGER.warn("The message " + SafeString.objectDescription(message.message) + " is too large to be sent to the destination "
+                    + sender.addr);
+
+            header.writeShort(NioUtils.DICTIONARY_INT_SIZE);
+            header.writeInt(size);
+
+            sender.serialized(size);
+            sender.framed(header.getPosition() + size);
+        } catch(final IOException | RuntimeException e) {
+            // any classes defined for this message never made it to the receiver.
+            sender.classIds.values().removeIf(id -> id.shortValue() > numDefined);
+            header.close();
+            data.close();
+            throw e;
+        }
+        add(header);
+        addBody(data);
+        return true;
+    }
+
+    /**
+     * @return the id of the class of the given object, writing its definition to the buffer if it's not been given one yet.
+     */
+    private short classId(final Object obj, final ReturnableBufferOutput definitions) throws IOException {
+        if(obj == null)
+            return 0;
+
+        final Class<?> clazz = obj.getClass();
+        final Short existing = sender.classIds.get(clazz);
+        if(existing != null)
+            return existing.shortValue();
+
+        final short id = (short)(sender.classIds.size() + 1);
+        writeDefinition(clazz, id, definitions);
+        sender.classIds.put(clazz, id);
+        return id;
+    }
+
+    private static void writeDefinition(final Class<?> clazz, final short id, final ReturnableBufferOutput definitions) throws IOException {
+        final byte[] name = clazz.getName().getBytes(StandardCharsets.UTF_8);
+        definitions.writeShort(NioUtils.CLASS_DEFINITION_INT_SIZE);
+        definitions.writeInt(3 + name.length);
+        definitions.write(NioUtils.CLASS_DICTIONARY_VERSION);
+        definitions.writeShort(id);
+        definitions.write(name, 0, name.length);
+    }
+
+    private SharedPayload serializePayload(final FanOutRoutedMessage message) {
+        final ReturnableBufferOutput data = NioUtils.getReturnableBufferOutput();
+        try {
+            data.reset();
+            // the containers are different for every destination so they go in the header.
+            sender.serializer.serialize(new RoutedMessage(null, message.key, message.message), data);
+            final int size = data.getPosition();
+            if(size > sender.addr.messageSizeLimit)
+                LOGGER.warn("The message " + SafeString.objectDescription(message.message) + " is too large to be sent to the destination "
+                    + sender.addr);
+            sender.serialized(size);
+            return new SharedPayload(data, null);
+        } catch(final IOException ioe) {
+            data.close();
+            return new SharedPayload(null, ioe);
+        }
+    }
+
+    /**
+     * @return the buffer holding the frame to send. This will be different from the data passed in if the message was compressed.
+     */
+    private ReturnableBufferOutput serialize(final Serializer ser, final Object obj, final ReturnableBufferOutput header, final ReturnableBufferOutput data,
         final long maxMessageSize)
         throws IOException {
-        header.reset();
         data.reset();
         ser.serialize(obj, data);
         final int size = data.getPosition();
         if(size > maxMessageSize) {
             LOGGER.warn("The message " + SafeString.objectDescription(obj) + " is too large to be sent to the destination " + sender.addr);
         }
-        if(size > Short.MAX_VALUE) {
-            header.writeShort((short)-1);
-            header.writeInt(size);
-        } else
-            header.writeShort((short)size);
+
+        final ReturnableBufferOutput compressed = compress(data, size);
+        final ReturnableBufferOutput frame;
+        if(compressed != null) {
+            data.close();
+            frame = compressed;
+            header.writeShort(NioUtils.COMPRESSED_INT_SIZE);
+            header.writeInt(frame.getPosition());
+        } else {
+            frame = data;
+            if(size > Short.MAX_VALUE) {
+                header.writeShort(NioUtils.INT_SIZE);
+                header.writeInt(size);
+            } else
+                header.writeShort((short)size);
+        }
+
+        sender.serialized(size);
+        sender.framed(header.getPosition() + frame.getPosition());
+        return frame;
+    }
+
+    /**
+     * @return the compressed frame or null if the message shouldn't be compressed or compressing it didn't make it any smaller.
+     */
+    private ReturnableBufferOutput compress(final ReturnableBufferOutput data, final int size) throws IOException {
+        if(sender.compressThreshold < 0 || size < sender.compressThreshold)
+            return null;
+
+        final ReturnableBufferOutput compressed = NioUtils.getReturnableBufferOutput();
+        compressed.reset();
+        FrameCompression.deflate(data.getBuffer(), 0, size, sender.compressLevel, compressed);
+        if(compressed.getPosition() < size)
+            return compressed;
+
+        compressed.close();
+        return null;
     }
 }
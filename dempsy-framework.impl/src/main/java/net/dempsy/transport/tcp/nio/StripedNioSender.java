@@ -0,0 +1,90 @@
+package net.dempsy.transport.tcp.nio;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.transport.MessageTransportException;
+import net.dempsy.transport.RoutedMessage;
+import net.dempsy.transport.Sender;
+import net.dempsy.transport.tcp.TcpAddress;
+
+/**
+ * <p>
+ * A {@link Sender} that spreads the messages to a single destination across several connections
+ * (see {@link NioSenderFactory#CONFIG_KEY_SENDER_CONNECTIONS_PER_DESTINATION}). This lets a busy
+ * link use more than one congestion window and more than one reader thread on the receiving side.
+ * </p>
+ *
+ * <p>
+ * Messages are assigned a connection by the hash of their key so messages with the same key are
+ * always sent, and therefore received, in order.
+ * </p>
+ */
+public final class StripedNioSender implements Sender {
+    private final static Logger LOGGER = LoggerFactory.getLogger(StripedNioSender.class);
+
+    final TcpAddress addr;
+    final int numStripes;
+
+    private final NioSenderFactory owner;
+    private volatile boolean running = true;
+
+    // the connection for each stripe. They're only looked up from the factory again once they stop running.
+    private final AtomicReferenceArray<NioSender> stripes;
+
+    StripedNioSender(final TcpAddress addr, final int numStripes, final NioSenderFactory owner) {
+        this.addr = addr;
+        this.numStripes = numStripes;
+        this.owner = owner;
+        this.stripes = new AtomicReferenceArray<>(numStripes);
+    }
+
+    @Override
+    public void send(final Object message) throws MessageTransportException, InterruptedException {
+        if(!running)
+            throw new MessageTransportException(owner.nodeId + " sender to " + addr + " is no longer running. Message not sent.");
+
+        sender(stripe(message)).send(message);
+    }
+
+    /**
+     * The connection for the given stripe. If the one we have has stopped the factory replaces it.
+     */
+    NioSender sender(final int stripe) throws MessageTransportException {
+        final NioSender cur = stripes.get(stripe);
+        if(cur != null && cur.running)
+            return cur;
+
+        final NioSender ret = owner.getSender(addr, stripe);
+        stripes.set(stripe, ret);
+        return ret;
+    }
+
+    @Override
+    public void stop() {
+        LOGGER.info("Stopping striped sender for " + addr);
+        running = false;
+        owner.imDone(this);
+    }
+
+    @Override
+    public boolean considerMessageOwnsershipTransfered() {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return StripedNioSender.class.getSimpleName() + " to " + addr + " over " + numStripes + " connections";
+    }
+
+    private int stripe(final Object message) {
+        if(message instanceof RoutedMessage) {
+            final Object key = ((RoutedMessage)message).key;
+            if(key != null)
+                return Math.floorMod(key.hashCode(), numStripes);
+        }
+        return 0;
+    }
+}
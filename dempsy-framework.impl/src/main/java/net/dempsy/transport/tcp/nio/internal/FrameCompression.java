@@ -0,0 +1,72 @@
+package net.dempsy.transport.tcp.nio.internal;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import net.dempsy.util.io.MessageBufferOutput;
+
+/**
+ * <p>
+ * Compression of individual frames on the nio transport. A compressed frame's header is
+ * {@link NioUtils#COMPRESSED_INT_SIZE} followed by an int with the size of the compressed frame. The compressed
+ * frame itself is the size of the uncompressed payload as an int followed by the deflated payload.
+ * </p>
+ *
+ * <p>
+ * The {@link Deflater} and {@link Inflater} are kept per thread since the sending and
+ * deserializing threads are long lived.
+ * </p>
+ */
+public class FrameCompression {
+    private static final int SCRATCH_SIZE = 16 * 1024;
+
+    private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater());
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater());
+    private static final ThreadLocal<byte[]> scratch = ThreadLocal.withInitial(() -> new byte[SCRATCH_SIZE]);
+
+    /**
+     * Write the compressed form of the given payload to {@code out}.
+     */
+    public static void deflate(final byte[] src, final int offset, final int length, final int level, final MessageBufferOutput out) throws IOException {
+        final Deflater deflater = deflaters.get();
+        final byte[] buf = scratch.get();
+
+        deflater.reset();
+        deflater.setLevel(level);
+        deflater.setInput(src, offset, length);
+        deflater.finish();
+
+        out.writeInt(length);
+        while(!deflater.finished()) {
+            final int numBytes = deflater.deflate(buf);
+            out.write(buf, 0, numBytes);
+        }
+    }
+
+    /**
+     * Inflate the given compressed payload (not including the leading uncompressed size) into exactly
+     * {@code dstLength} bytes of {@code dst}.
+     */
+    public static void inflate(final byte[] src, final int offset, final int length, final byte[] dst, final int dstLength) throws IOException {
+        final Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(src, offset, length);
+
+        int total = 0;
+        try {
+            while(total < dstLength) {
+                final int numBytes = inflater.inflate(dst, total, dstLength - total);
+                if(numBytes == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                total += numBytes;
+            }
+        } catch(final DataFormatException dfe) {
+            throw new IOException("Corrupt compressed frame.", dfe);
+        }
+
+        if(total != dstLength)
+            throw new IOException("Compressed frame inflated to " + total + " bytes but should have been " + dstLength);
+    }
+}
@@ -6,6 +6,8 @@ import java.nio.ByteBuffer;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.time.Clock;
+import java.time.Instant;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -16,6 +18,54 @@ import net.dempsy.util.Functional.RunnableThrows;
 import net.dempsy.util.io.MessageBufferOutput;
 
 public class NioUtils {
+    // =============================================================================
+    // A frame's size header is normally a short. When the short is one of these
+    // it's followed by an int with the size and says how to interpret the frame.
+    // =============================================================================
+    public static final short INT_SIZE = -1;
+    /**
+     * @see FrameCompression
+     */
+    public static final short COMPRESSED_INT_SIZE = -2;
+    /**
+     * The frame is the number of containers as an int, followed by each container as an int, followed by the
+     * serialized {@link net.dempsy.transport.RoutedMessage} without the containers.
+     */
+    public static final short SHARED_PAYLOAD_INT_SIZE = -3;
+    /**
+     * The frame gives a class a small id for the rest of the connection. It's the {@link #CLASS_DICTIONARY_VERSION}
+     * as a byte, followed by the id as a short, followed by the class name in UTF-8.
+     */
+    public static final short CLASS_DEFINITION_INT_SIZE = -4;
+    /**
+     * The frame is the number of containers as an int, followed by each container as an int, followed by the id
+     * of the key's class as a short, the size of the serialized key as an int, the serialized key, the id of the
+     * message's class as a short and then the serialized message. The ids were given in earlier
+     * {@link #CLASS_DEFINITION_INT_SIZE} frames on the same connection. An id of zero means null and nothing is
+     * serialized for it.
+     */
+    public static final short DICTIONARY_INT_SIZE = -5;
+
+    /**
+     * Not a frame of its own. It's followed by the time the next frame was sent, in nanoseconds since the epoch, as
+     * a long and then by the frame itself.
+     */
+    public static final short TIMESTAMP = -6;
+    public static final int TIMESTAMP_SIZE = 10;
+
+    /**
+     * The version of the class dictionary frames that a receiver advertises it understands in its address.
+     */
+    public static final int CLASS_DICTIONARY_VERSION = 1;
+
+    /**
+     * The current time from the clock in nanoseconds since the epoch.
+     */
+    public static long epochNanos(final Clock clock) {
+        final Instant now = clock.instant();
+        return (now.getEpochSecond() * 1000000000L) + now.getNano();
+    }
+
     // =============================================================================
     // These classes manage the buffer pool used by the readers and clients
     // =============================================================================
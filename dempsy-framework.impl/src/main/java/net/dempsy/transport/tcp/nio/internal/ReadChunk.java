@@ -0,0 +1,86 @@
+package net.dempsy.transport.tcp.nio.internal;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * A buffer that a reader reads many frames into at once. The frames are deserialized straight out of it so
+ * each frame that's been read but not yet deserialized holds a reference to it. The reader holds one as well
+ * while it's still reading into it. Once the last reference is {@link #release()}d it goes back to the pool.
+ * </p>
+ *
+ * <p>
+ * Frames bigger than {@link #DEFAULT_SIZE} get a chunk of their own which isn't pooled.
+ * </p>
+ */
+public class ReadChunk {
+    public static final int DEFAULT_SIZE = 64 * 1024;
+    public static final int MAX_POOL_SIZE = 100;
+
+    private static final ConcurrentLinkedQueue<ReadChunk> pool = new ConcurrentLinkedQueue<>();
+    private static final LongAdder numAllocated = new LongAdder();
+
+    private final byte[] buffer;
+    private final ByteBuffer bb;
+    private final AtomicInteger references = new AtomicInteger(0);
+
+    private ReadChunk(final int size) {
+        buffer = new byte[size];
+        bb = ByteBuffer.wrap(buffer);
+        numAllocated.increment();
+    }
+
+    /**
+     * Get a chunk with room for at least {@code minSize} bytes. The caller holds the only reference to it.
+     */
+    public static ReadChunk get(final int minSize) {
+        ReadChunk ret = minSize <= DEFAULT_SIZE ? pool.poll() : null;
+        if(ret == null)
+            ret = new ReadChunk(Math.max(DEFAULT_SIZE, minSize));
+        ret.bb.clear();
+        ret.references.set(1);
+        return ret;
+    }
+
+    /**
+     * The total number of chunks ever created. Since they're reused this should stay small.
+     */
+    public static long getNumAllocated() {
+        return numAllocated.sum();
+    }
+
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * What's read from the channel goes in here. Its position is the end of what's been read so far.
+     */
+    public ByteBuffer getBb() {
+        return bb;
+    }
+
+    public ReadChunk retain() {
+        references.incrementAndGet();
+        return this;
+    }
+
+    public void release() {
+        final int refs = references.decrementAndGet();
+        if(refs == 0) {
+            if(buffer.length == DEFAULT_SIZE && pool.size() < MAX_POOL_SIZE)
+                pool.offer(this);
+        } else if(refs < 0)
+            throw new IllegalStateException("A " + ReadChunk.class.getSimpleName() + " was released more times than it was retained.");
+    }
+
+    /**
+     * @return true if nothing but the current holder is referencing this chunk.
+     */
+    public boolean isExclusive() {
+        return references.get() == 1;
+    }
+}
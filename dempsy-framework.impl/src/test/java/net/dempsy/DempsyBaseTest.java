@@ -24,6 +24,7 @@ import net.dempsy.threading.DefaultThreadingModel;
 import net.dempsy.threading.OrderedPerContainerThreadingModel;
 import net.dempsy.threading.OrderedPerContainerThreadingModelAlt;
 import net.dempsy.threading.ThreadingModel;
+import net.dempsy.threading.WorkStealingThreadingModel;
 import net.dempsy.transport.blockingqueue.BlockingQueueAddress;
 import static net.dempsy.util.Functional.ignore;
 import static net.dempsy.util.Functional.reverseRange;
@@ -153,7 +154,7 @@ public abstract class DempsyBaseTest {
     }
 
     private static List<String> elasticRouterIds = Arrays.asList("managed", "group");
-    private static List<String> transportsThatRequireSerializer = Arrays.asList("nio");
+    private static List<String> transportsThatRequireSerializer = Arrays.asList("nio", "shm");
     private static List<String> groupRoutingStrategies = Arrays.asList("group");
     private static List<String> containersThatSupportLimitedQueueLen = Arrays.asList("locking");
     private static List<String> containersThatDontInternallyQueue = Arrays.asList("locking", "simple");
@@ -175,7 +176,7 @@ public abstract class DempsyBaseTest {
             // the non-locking container is broken
             new String[] {"locking","altnonlocking","altnonlockingbulk"},
             new String[] {"local","zookeeper"},
-            new String[] {"bq","passthrough","nio"},
+            new String[] {"bq","passthrough","nio","shm"},
             new String[] {"json","java","kryo"},
             new Object[][] {
                 {"blocking",(Function<String, ThreadingModel>)(testName) -> new DefaultThreadingModel(testName)
@@ -206,6 +207,11 @@ public abstract class DempsyBaseTest {
                     .setCoresFactor(TM_CORES_FACTOR)
                     .setMaxNumberOfQueuedLimitedTasks(-1)
                 },
+                {"workstealing",(Function<String, ThreadingModel>)(testName) -> new WorkStealingThreadingModel(testName)
+                    .setAdditionalThreads(TM_ADDITIONAL_THREADS)
+                    .setCoresFactor(TM_CORES_FACTOR)
+                    .setMaxNumberOfQueuedLimitedTasks(TM_QUEUE_DEPTH_WHEN_LIMITED)
+                },
             });
     }
 
@@ -250,6 +256,11 @@ public abstract class DempsyBaseTest {
                     .setCoresFactor(TM_CORES_FACTOR)
                     .setMaxNumberOfQueuedLimitedTasks(-1)
                 },
+                {"workstealing",(Function<String, ThreadingModel>)(testName) -> new WorkStealingThreadingModel(testName)
+                    .setAdditionalThreads(TM_ADDITIONAL_THREADS)
+                    .setCoresFactor(TM_CORES_FACTOR)
+                    .setMaxNumberOfQueuedLimitedTasks(TM_QUEUE_DEPTH_WHEN_LIMITED)
+                },
             });
     }
 
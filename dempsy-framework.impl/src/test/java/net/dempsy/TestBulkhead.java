@@ -0,0 +1,126 @@
+package net.dempsy;
+
+import static net.dempsy.util.Functional.ignore;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.cluster.local.LocalClusterSessionFactory;
+import net.dempsy.config.Node;
+import net.dempsy.lifecycle.simple.MessageProcessor;
+import net.dempsy.lifecycle.simple.Mp;
+import net.dempsy.lifecycle.simple.MpFactory;
+import net.dempsy.messages.Adaptor;
+import net.dempsy.messages.Dispatcher;
+import net.dempsy.messages.KeyedMessage;
+import net.dempsy.messages.KeyedMessageWithType;
+import net.dempsy.monitoring.basic.BasicNodeStatsCollector;
+import net.dempsy.threading.DefaultThreadingModel;
+import net.dempsy.threading.ThreadingModel;
+import net.dempsy.utils.test.ConditionPoll;
+
+/**
+ * A message processor that never returns in one cluster shouldn't stop another cluster on the same
+ * node from processing messages when the stalled cluster has its own bulkhead.
+ */
+public class TestBulkhead {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TestBulkhead.class);
+
+    private static final int NUM_MESSAGES = 1000;
+    private static final int NUM_NODE_THREADS = 2;
+
+    @Test
+    public void testStalledClusterIsIsolated() throws Exception {
+        final CountDownLatch stall = new CountDownLatch(1);
+        final AtomicLong stalledReceived = new AtomicLong(0L);
+        final AtomicLong healthyProcessed = new AtomicLong(0L);
+
+        try(final NodeManager nm = new NodeManager();
+            final DefaultThreadingModel tm = new DefaultThreadingModel("TB", NUM_NODE_THREADS, 1000000)) {
+            final Node n = new Node.Builder("test-app")
+                .defaultRoutingStrategyId("net.dempsy.router.simple")
+                .receiver(new TestSimple.Dummy())
+                .nodeStatsCollector(new BasicNodeStatsCollector())
+                .clusterStatsCollectorFactoryId("net.dempsy.monitoring.basic")
+                .cluster("start")
+                .adaptor(new Adaptor() {
+                    private Dispatcher disp;
+                    boolean done = false;
+
+                    @Override
+                    public void stop() {
+                        done = true;
+                    }
+
+                    @Override
+                    public void start() {
+                        try {
+                            for(int i = 0; i < NUM_MESSAGES && !done; i++) {
+                                disp.dispatch(new KeyedMessageWithType(Integer.valueOf(i), "stall", "stall"));
+                                disp.dispatch(new KeyedMessageWithType(Integer.valueOf(i), "healthy", "healthy"));
+                            }
+                        } catch(final InterruptedException ie) {
+                            if(!done)
+                                LOGGER.error("Interrupted but not stopping.");
+                        }
+                    }
+
+                    @Override
+                    public void setDispatcher(final Dispatcher dispatcher) {
+                        this.disp = dispatcher;
+                    }
+                })
+                .cluster("stalled")
+                .bulkhead(1, 100)
+                .mp(new MessageProcessor(MpFactory.make(() -> new Mp() {
+                    @Override
+                    public KeyedMessageWithType[] handle(final KeyedMessage message) {
+                        stalledReceived.incrementAndGet();
+                        ignore(() -> stall.await());
+                        return null;
+                    }
+                }, "stall")))
+                .cluster("healthy")
+                .mp(new MessageProcessor(MpFactory.make(() -> new Mp() {
+                    @Override
+                    public KeyedMessageWithType[] handle(final KeyedMessage message) {
+                        healthyProcessed.incrementAndGet();
+                        return null;
+                    }
+                }, "healthy")))
+                .build();
+
+            nm.node(n)
+                .collaborator(new LocalClusterSessionFactory().createSession())
+                .threadingModel(tm.start("nodeid"));
+
+            nm.start();
+
+            final ThreadingModel bulkhead = nm.getContainer("stalled").getThreadingModel();
+            assertNotNull(bulkhead);
+            assertNull(nm.getContainer("healthy").getThreadingModel());
+
+            try {
+                // the healthy cluster gets everything even though the stalled one is stuck.
+                assertTrue(ConditionPoll.poll(o -> healthyProcessed.get() == NUM_MESSAGES));
+
+                // only the bulkhead's single thread is stuck and the rest is queued (or shed) in the bulkhead.
+                assertEquals(1, stalledReceived.get());
+                assertTrue(bulkhead.getNumberLimitedPending() > 0);
+            } finally {
+                stall.countDown();
+            }
+
+            assertTrue(ConditionPoll.poll(o -> bulkhead.getNumberLimitedPending() == 0));
+            assertTrue(stalledReceived.get() > 1);
+        }
+    }
+}
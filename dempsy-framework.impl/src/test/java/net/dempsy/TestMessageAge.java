@@ -0,0 +1,119 @@
+package net.dempsy;
+
+import static net.dempsy.util.Functional.ignore;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.cluster.local.LocalClusterSessionFactory;
+import net.dempsy.config.ClusterId;
+import net.dempsy.config.Node;
+import net.dempsy.container.ClusterMetricGetters;
+import net.dempsy.container.NodeMetricGetters;
+import net.dempsy.lifecycle.simple.MessageProcessor;
+import net.dempsy.lifecycle.simple.Mp;
+import net.dempsy.lifecycle.simple.MpFactory;
+import net.dempsy.messages.Adaptor;
+import net.dempsy.messages.Dispatcher;
+import net.dempsy.messages.KeyedMessage;
+import net.dempsy.messages.KeyedMessageWithType;
+import net.dempsy.monitoring.basic.BasicNodeStatsCollector;
+import net.dempsy.threading.DefaultThreadingModel;
+import net.dempsy.utils.test.ConditionPoll;
+
+/**
+ * Saturate a slow message processor and make sure that messages that have waited
+ * longer than the cluster's max message age are shed rather than processed.
+ */
+public class TestMessageAge {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TestMessageAge.class);
+
+    private static final int NUM_MESSAGES = 20000;
+    private static final long MAX_AGE_MILLIS = 100;
+    // the age is checked just prior to dispatching to the container so there can be a little
+    // time between the check and the message processor seeing the message.
+    private static final long SLOP_MILLIS = 50;
+
+    @Test
+    public void testStaleMessagesAreShed() throws Exception {
+        final AtomicLong processed = new AtomicLong(0L);
+        final AtomicLong oldestProcessedNanos = new AtomicLong(0L);
+
+        try(final NodeManager nm = new NodeManager();
+            final DefaultThreadingModel tm = new DefaultThreadingModel("TMA", 2, 1000000)) {
+            final Node n = new Node.Builder("test-app")
+                .defaultRoutingStrategyId("net.dempsy.router.simple")
+                .receiver(new TestSimple.Dummy())
+                .nodeStatsCollector(new BasicNodeStatsCollector())
+                .clusterStatsCollectorFactoryId("net.dempsy.monitoring.basic")
+                .cluster("start")
+                .adaptor(new Adaptor() {
+                    private Dispatcher disp;
+                    boolean done = false;
+
+                    @Override
+                    public void stop() {
+                        done = true;
+                    }
+
+                    @Override
+                    public void start() {
+                        try {
+                            for(int i = 0; i < NUM_MESSAGES && !done; i++)
+                                disp.dispatch(new KeyedMessageWithType(Integer.valueOf(i % 10), Long.valueOf(System.nanoTime()), "timestamp"));
+                        } catch(final InterruptedException ie) {
+                            if(!done)
+                                LOGGER.error("Interrupted but not stopping.");
+                        }
+                    }
+
+                    @Override
+                    public void setDispatcher(final Dispatcher dispatcher) {
+                        this.disp = dispatcher;
+                    }
+                })
+                .cluster("mp")
+                .maxMessageAgeMillis(MAX_AGE_MILLIS)
+                .mp(new MessageProcessor(MpFactory.make(() -> new Mp() {
+                    @Override
+                    public KeyedMessageWithType[] handle(final KeyedMessage message) {
+                        final long age = System.nanoTime() - ((Long)message.message).longValue();
+                        oldestProcessedNanos.accumulateAndGet(age, Math::max);
+                        processed.incrementAndGet();
+                        ignore(() -> Thread.sleep(1)); // slow Mp
+                        return null;
+                    }
+                }, "timestamp")))
+                .build();
+
+            nm.node(n)
+                .collaborator(new LocalClusterSessionFactory().createSession())
+                .threadingModel(tm.start("nodeid"));
+
+            nm.start();
+
+            final NodeMetricGetters nodeStats = (NodeMetricGetters)nm.getNodeStatsCollector();
+            final ClusterMetricGetters clusterStats = (ClusterMetricGetters)nm.getClusterStatsCollector(new ClusterId("test-app", "mp"));
+
+            // every message is either processed or shed.
+            assertTrue(ConditionPoll.poll(o -> processed.get() + nodeStats.getDiscardedMessageCount()
+                + clusterStats.getMessageDiscardedCount() == NUM_MESSAGES));
+
+            // we can't process 20000 messages at 1 millisecond each with 2 threads within the max age.
+            assertTrue(nodeStats.getDiscardedMessageCount() + clusterStats.getMessageDiscardedCount() > 0);
+            assertTrue(processed.get() < NUM_MESSAGES);
+
+            assertTrue(oldestProcessedNanos.get() <= TimeUnit.MILLISECONDS.toNanos(MAX_AGE_MILLIS + SLOP_MILLIS),
+                "The oldest message processed was " + TimeUnit.NANOSECONDS.toMillis(oldestProcessedNanos.get()) + " millis old.");
+
+            // the queue wait time is being tracked
+            assertTrue(nodeStats.getMessagesDequeuedCount() > 0);
+            assertTrue(nodeStats.getMaxQueueWaitNanos() > TimeUnit.MILLISECONDS.toNanos(MAX_AGE_MILLIS));
+        }
+    }
+}
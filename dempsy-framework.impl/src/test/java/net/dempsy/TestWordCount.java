@@ -23,6 +23,7 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
@@ -531,6 +532,7 @@ public class TestWordCount extends DempsyBaseTest {
 
                 final WordProducer adaptor;
 
+                final long startNanos = System.nanoTime();
                 WordProducer.latch.countDown();
 
                 adaptor = ctx.getBean(WordProducer.class);
@@ -549,6 +551,10 @@ public class TestWordCount extends DempsyBaseTest {
                     return adaptor.numDispatched == allDiscardedMessagesCount + rstat.getDispatchedMessageCount();
                 }));
 
+                // this gives a rough comparison of the threading models on a multi-stage local pipeline.
+                LOGGER.info("{}: {} words through count and rank in {} millis", threadingModelDescription, adaptor.numDispatched,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+
                 stopSystem();
 
                 // pull the Rank mp from the manager
@@ -19,4 +19,10 @@ public interface NodeMetricGetters {
     long getMessagesPending();
 
     long getMessagesOutPending();
+
+    long getMessagesDequeuedCount();
+
+    long getTotalQueueWaitNanos();
+
+    long getMaxQueueWaitNanos();
 }
@@ -1,5 +1,7 @@
 package net.dempsy.container.mocks;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import net.dempsy.Infrastructure;
 import net.dempsy.KeyspaceChangeListener;
 import net.dempsy.config.ClusterId;
@@ -7,6 +9,7 @@ import net.dempsy.router.RoutingStrategy;
 import net.dempsy.router.RoutingStrategy.ContainerAddress;
 
 public class DummyInbound implements RoutingStrategy.Inbound {
+    public final AtomicLong numAccepted = new AtomicLong();
 
     @Override
     public void stop() {}
@@ -26,4 +29,9 @@ public class DummyInbound implements RoutingStrategy.Inbound {
     public boolean doesMessageKeyBelongToNode(final Object messageKey) {
         return true;
     }
+
+    @Override
+    public void messageAccepted(final Object messageKey) {
+        numAccepted.incrementAndGet();
+    }
 }
@@ -421,6 +421,23 @@ public class TestInstanceManager {
         }
     }
 
+    @Test
+    public void testInboundToldOfAcceptedMessages() throws Exception {
+        final CombinedMP prototype = new CombinedMP();
+        try(final SimpleContainer manager = setupContainer(new MessageProcessor<CombinedMP>(prototype));) {
+            final DummyInbound inbound = new DummyInbound();
+            manager.setInbound(inbound);
+
+            manager.dispatch(km(new MessageOne(123)), Operation.handle, true);
+            manager.dispatch(km(new MessageOne(456)), Operation.handle, true);
+            assertEquals(2, inbound.numAccepted.get());
+
+            // an output pass isn't a delivery.
+            manager.invokeOutput();
+            assertEquals(2, inbound.numAccepted.get());
+        }
+    }
+
     @Test
     public void testMultipleInstanceCreation() throws Exception {
         final CombinedMP prototype = new CombinedMP();
@@ -0,0 +1,158 @@
+package net.dempsy.intern;
+
+import static net.dempsy.utils.test.ConditionPoll.poll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+public class TestEpochReclaimer {
+
+    @Test
+    public void testCleanupWaitsForReaders() throws Exception {
+        final EpochReclaimer reclaimer = new EpochReclaimer();
+        final AtomicBoolean cleaned = new AtomicBoolean(false);
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch letExit = new CountDownLatch(1);
+
+        final Thread reader = new Thread(() -> {
+            reclaimer.enter();
+            try {
+                entered.countDown();
+                letExit.await();
+            } catch(final InterruptedException ie) {} finally {
+                reclaimer.exit();
+            }
+        });
+        reader.start();
+        entered.await();
+
+        reclaimer.retire(() -> cleaned.set(true));
+        assertEquals(1, reclaimer.reclaim());
+        assertFalse(cleaned.get());
+
+        // readers entering after the retire don't hold it up.
+        reclaimer.enter();
+        try {
+            assertEquals(1, reclaimer.reclaim());
+            letExit.countDown();
+            reader.join();
+            assertEquals(0, reclaimer.reclaim());
+            assertTrue(cleaned.get());
+        } finally {
+            reclaimer.exit();
+        }
+    }
+
+    @Test
+    public void testNestedEnter() throws Exception {
+        final EpochReclaimer reclaimer = new EpochReclaimer();
+        final AtomicBoolean cleaned = new AtomicBoolean(false);
+
+        reclaimer.enter();
+        reclaimer.enter();
+        reclaimer.exit();
+        reclaimer.retire(() -> cleaned.set(true));
+        assertEquals(1, reclaimer.reclaim());
+        reclaimer.exit();
+        assertEquals(0, reclaimer.reclaim());
+        assertTrue(cleaned.get());
+    }
+
+    @Test
+    public void testReclaimAll() throws Exception {
+        final EpochReclaimer reclaimer = new EpochReclaimer();
+        final AtomicLong cleaned = new AtomicLong(0);
+
+        reclaimer.enter();
+        try {
+            reclaimer.retire(() -> cleaned.incrementAndGet());
+            reclaimer.retire(() -> cleaned.incrementAndGet());
+            assertEquals(2, reclaimer.reclaim());
+            reclaimer.reclaimAll();
+            assertEquals(2, cleaned.get());
+            assertEquals(0, reclaimer.reclaim());
+        } finally {
+            reclaimer.exit();
+        }
+    }
+
+    @Test
+    public void testRecordsOfDeadThreadsAreDropped() throws Exception {
+        final EpochReclaimer reclaimer = new EpochReclaimer();
+        for(int i = 0; i < 10; i++) {
+            final Thread t = new Thread(() -> {
+                reclaimer.enter();
+                reclaimer.exit();
+            });
+            t.start();
+            t.join();
+        }
+        assertEquals(10, reclaimer.numRecords());
+
+        // they're dropped when checking if something retired can be cleaned up.
+        assertTrue(poll(o -> {
+            System.gc();
+            reclaimer.retire(() -> {});
+            reclaimer.reclaim();
+            return reclaimer.numRecords() == 0;
+        }));
+    }
+
+    /**
+     * Many readers constantly reading a reference that's constantly replaced. Nothing a reader is using is ever cleaned
+     * up.
+     */
+    @Test
+    public void testNothingInUseIsCleanedUp() throws Exception {
+        final EpochReclaimer reclaimer = new EpochReclaimer();
+        final AtomicReference<boolean[]> ref = new AtomicReference<>(new boolean[] {true});
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicLong usedAfterCleanup = new AtomicLong(0);
+        final AtomicLong reads = new AtomicLong(0);
+
+        final List<Thread> readers = new ArrayList<>();
+        for(int i = 0; i < 4; i++) {
+            final Thread t = new Thread(() -> {
+                while(!done.get()) {
+                    reclaimer.enter();
+                    try {
+                        final boolean[] cur = ref.get();
+                        for(int j = 0; j < 100; j++) {
+                            if(!cur[0])
+                                usedAfterCleanup.incrementAndGet();
+                        }
+                        reads.incrementAndGet();
+                    } finally {
+                        reclaimer.exit();
+                    }
+                }
+            });
+            t.start();
+            readers.add(t);
+        }
+
+        for(int i = 0; i < 100000; i++) {
+            final boolean[] old = ref.getAndSet(new boolean[] {true});
+            reclaimer.retire(() -> old[0] = false);
+            reclaimer.reclaim();
+        }
+        done.set(true);
+        for(final Thread t: readers)
+            t.join();
+
+        assertEquals(0, reclaimer.reclaim());
+        assertEquals(0, usedAfterCleanup.get());
+        assertNotNull(ref.get());
+        assertTrue(reads.get() > 0);
+    }
+}
@@ -0,0 +1,192 @@
+package net.dempsy.intern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.monitoring.HotKey;
+
+public class TestHeavyHitters {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TestHeavyHitters.class);
+
+    private static final int NUM_KEYS = 10000;
+    private static final int NUM_MESSAGES = 1000000;
+
+    @Test
+    public void testZipfAccuracy() throws Exception {
+        // any key with more than 1/128 of the messages is guaranteed to be there.
+        final HeavyHitters hh = new HeavyHitters(128, 1, 0);
+        final long[] actual = new long[NUM_KEYS];
+        final Random random = new Random(2112L);
+        final double[] cumulative = zipfCumulative(1.0D);
+        for(int i = 0; i < NUM_MESSAGES; i++) {
+            final int key = nextZipf(random, cumulative);
+            actual[key]++;
+            hh.add(Integer.valueOf(key));
+        }
+
+        final List<HotKey> top = hh.top(10);
+        assertEquals(10, top.size());
+        assertEquals(NUM_MESSAGES, hh.total());
+
+        // with Zipf the most frequent keys are the smallest ones.
+        assertEquals(IntStream.range(0, 10).boxed().collect(Collectors.toSet()), top.stream().map(hk -> hk.key).collect(Collectors.toSet()));
+        for(final HotKey hk: top) {
+            final long real = actual[((Integer)hk.key).intValue()];
+            // Space-Saving never under counts and is never over by more than the error.
+            assertTrue(hk.count >= real && hk.count - hk.error <= real, hk + " but really " + real);
+            assertEquals((double)real / NUM_MESSAGES, hk.share, 0.01D);
+        }
+
+        // most frequent first
+        for(int i = 1; i < top.size(); i++)
+            assertTrue(top.get(i - 1).count >= top.get(i).count);
+    }
+
+    @Test
+    public void testSampledZipfAccuracy() throws Exception {
+        final HeavyHitters hh = new HeavyHitters(32, 16, 0);
+        final long[] actual = new long[NUM_KEYS];
+        final Random random = new Random(2112L);
+        final double[] cumulative = zipfCumulative(1.2D);
+        for(int i = 0; i < NUM_MESSAGES; i++) {
+            final int key = nextZipf(random, cumulative);
+            actual[key]++;
+            hh.offer(Integer.valueOf(key));
+        }
+
+        // about one in 16
+        assertEquals(NUM_MESSAGES / 16.0D, hh.total(), NUM_MESSAGES / 160.0D);
+
+        final List<HotKey> top = hh.top(5);
+        assertEquals(IntStream.range(0, 5).boxed().collect(Collectors.toSet()), top.stream().map(hk -> hk.key).collect(Collectors.toSet()));
+        for(final HotKey hk: top)
+            assertEquals((double)actual[((Integer)hk.key).intValue()] / NUM_MESSAGES, hk.share, 0.01D);
+    }
+
+    @Test
+    public void testStripedZipfAccuracy() throws Exception {
+        final int numThreads = 4;
+        final HeavyHitters hh = new HeavyHitters(128, 1, 0, numThreads);
+        final AtomicLongArray actual = new AtomicLongArray(NUM_KEYS);
+        final double[] cumulative = zipfCumulative(1.0D);
+        final Thread[] threads = IntStream.range(0, numThreads).mapToObj(t -> new Thread(() -> {
+            final Random random = new Random(2112L + t);
+            for(int i = 0; i < NUM_MESSAGES / numThreads; i++) {
+                final int key = nextZipf(random, cumulative);
+                actual.incrementAndGet(key);
+                hh.add(Integer.valueOf(key));
+            }
+        }, "testStripedZipfAccuracy-" + t)).toArray(Thread[]::new);
+        Arrays.stream(threads).forEach(Thread::start);
+        for(final Thread t: threads)
+            t.join();
+
+        assertEquals(NUM_MESSAGES, hh.total());
+        final List<HotKey> top = hh.top(10);
+        assertEquals(IntStream.range(0, 10).boxed().collect(Collectors.toSet()), top.stream().map(hk -> hk.key).collect(Collectors.toSet()));
+        for(final HotKey hk: top) {
+            final long real = actual.get(((Integer)hk.key).intValue());
+            // merging the stripes keeps the same bounds.
+            assertTrue(hk.count >= real && hk.count - hk.error <= real, hk + " but really " + real);
+        }
+        for(int i = 1; i < top.size(); i++)
+            assertTrue(top.get(i - 1).count >= top.get(i).count);
+    }
+
+    @Test
+    public void testFollowsTheCurrentHotKey() throws Exception {
+        final HeavyHitters hh = new HeavyHitters(8, 1, 10000);
+        final Random random = new Random(2112L);
+        for(int i = 0; i < 100000; i++)
+            hh.add(random.nextInt(2) == 0 ? "old-hot-key" : Integer.valueOf(random.nextInt(NUM_KEYS)));
+        assertEquals("old-hot-key", hh.top(1).get(0).key);
+
+        for(int i = 0; i < 100000; i++)
+            hh.add(random.nextInt(2) == 0 ? "new-hot-key" : Integer.valueOf(random.nextInt(NUM_KEYS)));
+        final HotKey hottest = hh.top(1).get(0);
+        assertEquals("new-hot-key", hottest.key);
+        assertEquals(0.5D, hottest.share, 0.1D);
+        assertTrue(hh.total() < 10000);
+    }
+
+    @Test
+    public void testBoundedMemory() throws Exception {
+        final HeavyHitters hh = new HeavyHitters(16, 1, 0);
+        for(int i = 0; i < 100000; i++)
+            hh.add(Integer.valueOf(i));
+        assertEquals(16, hh.top().size());
+        final Set<Object> keys = hh.top().stream().map(hk -> hk.key).collect(Collectors.toSet());
+        assertEquals(16, keys.size());
+    }
+
+    @Test
+    public void testOverhead() throws Exception {
+        final Object[] keys = IntStream.range(0, 4096).mapToObj(i -> "key-" + i).toArray();
+        final Random random = new Random(2112L);
+        final double[] cumulative = zipfCumulative(1.0D);
+        final int[] stream = IntStream.range(0, 1 << 16).map(i -> nextZipf(random, cumulative) & 4095).toArray();
+        final int mask = stream.length - 1;
+        final int numMessages = 2000000;
+
+        for(final int sampleRate: new int[] {1,16,64}) {
+            final HeavyHitters hh = new HeavyHitters(32, sampleRate, 100000);
+            // warm up
+            for(int i = 0; i < numMessages; i++)
+                hh.offer(keys[stream[i & mask]]);
+
+            final long start = System.nanoTime();
+            for(int i = 0; i < numMessages; i++)
+                hh.offer(keys[stream[i & mask]]);
+            final long nanos = System.nanoTime() - start;
+            LOGGER.info("Tracking hot keys sampling 1 in {} costs {} ns per message", sampleRate, String.format("%.1f", (double)nanos / numMessages));
+            assertTrue(hh.total() > 0);
+        }
+
+        // and from several threads at once.
+        final int numThreads = 4;
+        final HeavyHitters hh = new HeavyHitters(32, 16, 100000, numThreads);
+        final AtomicLong totalNanos = new AtomicLong(0);
+        final Thread[] threads = IntStream.range(0, numThreads).mapToObj(t -> new Thread(() -> {
+            final long start = System.nanoTime();
+            for(int i = 0; i < numMessages; i++)
+                hh.offer(keys[stream[(i + t * 997) & mask]]);
+            totalNanos.addAndGet(System.nanoTime() - start);
+        }, "testOverhead-" + t)).toArray(Thread[]::new);
+        Arrays.stream(threads).forEach(Thread::start);
+        for(final Thread t: threads)
+            t.join();
+        LOGGER.info("Tracking hot keys sampling 1 in 16 from {} threads costs {} ns per message", numThreads,
+            String.format("%.1f", (double)totalNanos.get() / (numThreads * (long)numMessages)));
+        assertEquals(keys[0], hh.top(1).get(0).key);
+    }
+
+    private static double[] zipfCumulative(final double exponent) {
+        final double[] ret = new double[NUM_KEYS];
+        double total = 0.0D;
+        for(int k = 1; k <= NUM_KEYS; k++)
+            total += (ret[k - 1] = 1.0D / Math.pow(k, exponent));
+        double sum = 0.0D;
+        for(int i = 0; i < NUM_KEYS; i++)
+            ret[i] = (sum += ret[i] / total);
+        return ret;
+    }
+
+    // 0 is the most frequent
+    private static int nextZipf(final Random random, final double[] cumulative) {
+        final int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(index < 0 ? -(index + 1) : index, NUM_KEYS - 1);
+    }
+}
@@ -0,0 +1,170 @@
+package net.dempsy.intern;
+
+import static net.dempsy.util.Functional.uncheck;
+import static net.dempsy.util.NodeTestUtils.startNode;
+import static net.dempsy.utils.test.ConditionPoll.poll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.NodeManager;
+import net.dempsy.ServiceTracker;
+import net.dempsy.cluster.local.LocalClusterSessionFactory;
+import net.dempsy.config.Node;
+import net.dempsy.lifecycle.simple.MessageProcessor;
+import net.dempsy.lifecycle.simple.Mp;
+import net.dempsy.lifecycle.simple.MpFactory;
+import net.dempsy.messages.Adaptor;
+import net.dempsy.messages.Dispatcher;
+import net.dempsy.messages.KeyedMessage;
+import net.dempsy.messages.KeyedMessageWithType;
+import net.dempsy.router.managed.ManagedInbound;
+import net.dempsy.router.shardutils.Utils;
+import net.dempsy.serialization.java.JavaSerializer;
+import net.dempsy.transport.tcp.nio.NioReceiver;
+
+public class TestRoutingSnapshot {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TestRoutingSnapshot.class);
+
+    private static final String APP = "test-routing-snapshot";
+    private static final String MANAGED = ManagedInbound.class.getPackage().getName();
+    private static final String SNAPSHOT_FILE_KEY = OutgoingDispatcher.class.getPackage().getName() + "."
+        + OutgoingDispatcher.CONFIG_KEY_ROUTING_SNAPSHOT_FILE;
+    private static final long LATE_NODE_MILLIS = 1000L;
+
+    @Test
+    public void testStaleSnapshotsAreIgnored(@TempDir final Path dir) throws Exception {
+        final File file = dir.resolve("routing.snapshot").toFile();
+        assertNull(RoutingSnapshot.read(file, "/app", Long.MAX_VALUE));
+
+        final Map<String, Serializable> routers = new HashMap<>();
+        routers.put("cluster", "router snapshot");
+        new RoutingSnapshot("/app", new HashSet<>(), routers).write(file);
+
+        final RoutingSnapshot read = RoutingSnapshot.read(file, "/app", Long.MAX_VALUE);
+        assertNotNull(read);
+        assertEquals(RoutingSnapshot.FORMAT_VERSION, read.formatVersion);
+        assertEquals("router snapshot", read.routerSnapshotsByClusterName.get("cluster"));
+
+        // a different application
+        assertNull(RoutingSnapshot.read(file, "/other-app", Long.MAX_VALUE));
+        // too old
+        Thread.sleep(10);
+        assertNull(RoutingSnapshot.read(file, "/app", 1L));
+        // not a snapshot
+        Files.write(file.toPath(), "garbage".getBytes());
+        assertNull(RoutingSnapshot.read(file, "/app", Long.MAX_VALUE));
+    }
+
+    /**
+     * The whole application restarts and the second message processor node is late. Without a snapshot the adaptor can't
+     * dispatch until the shards have been assigned, which needs both nodes. With the snapshot saved when the adaptor
+     * stopped the first time it dispatches right away and switches to the live view once the shards are assigned.
+     */
+    @Test
+    public void testTimeToFirstDispatchAfterRestart(@TempDir final Path dir) throws Exception {
+        final File file = dir.resolve("routing.snapshot").toFile();
+
+        final long coldMillis = runUntilDelivered(file);
+        assertTrue(file.exists());
+        final long warmMillis = runUntilDelivered(file);
+
+        LOGGER.info("Time to first dispatch without a routing snapshot: {} millis, with one: {} millis", coldMillis, warmMillis);
+        assertTrue(coldMillis >= LATE_NODE_MILLIS, "The first dispatch without a snapshot took " + coldMillis + " millis.");
+        assertTrue(warmMillis < LATE_NODE_MILLIS, "The first dispatch with a snapshot took " + warmMillis + " millis.");
+    }
+
+    // returns the millis from starting the adaptor's node to its first dispatch.
+    private static long runUntilDelivered(final File snapshotFile) throws Exception {
+        LocalClusterSessionFactory.completeReset();
+        final LocalClusterSessionFactory sessionFactory = new LocalClusterSessionFactory();
+        final AtomicLong received = new AtomicLong();
+        final AtomicLong firstDispatchNanos = new AtomicLong(0L);
+        final AtomicBoolean done = new AtomicBoolean(false);
+
+        try(final ServiceTracker tr = new ServiceTracker();) {
+            startNode(TestRoutingSnapshot.class, tr, mpNode(received), sessionFactory, "mp-0");
+
+            final Node an = new Node.Builder(APP)
+                .receiver(new NioReceiver<>(new JavaSerializer()).useLocalHost(true))
+                .conf(SNAPSHOT_FILE_KEY, snapshotFile.getPath())
+                .cluster("adaptor")
+                .adaptor(new Adaptor() {
+                    private Dispatcher disp;
+
+                    @Override
+                    public void setDispatcher(final Dispatcher dispatcher) {
+                        this.disp = dispatcher;
+                    }
+
+                    @Override
+                    public void start() {
+                        for(long i = 0; !done.get(); i++) {
+                            final long seq = i;
+                            uncheck(() -> disp.dispatch(new KeyedMessageWithType("key-" + (seq % 100), Long.valueOf(seq), "work")));
+                            firstDispatchNanos.compareAndSet(0L, System.nanoTime());
+                            uncheck(() -> Thread.sleep(10));
+                        }
+                    }
+
+                    @Override
+                    public void stop() {
+                        done.set(true);
+                    }
+                })
+                .build();
+
+            final long start = System.nanoTime();
+            final NodeManager adaptorNode = startNode(TestRoutingSnapshot.class, tr, an, sessionFactory, "adaptor");
+
+            // the shards can't all be assigned until this one's here.
+            Thread.sleep(LATE_NODE_MILLIS);
+            startNode(TestRoutingSnapshot.class, tr, mpNode(received), sessionFactory, "mp-1");
+
+            assertTrue(poll(o -> firstDispatchNanos.get() != 0L));
+            // once the live view is in place messages get through.
+            assertTrue(poll(o -> received.get() > 0));
+
+            // stop the adaptor's node first so the snapshot it saves has all of the message processor nodes in it.
+            adaptorNode.stop();
+            return TimeUnit.NANOSECONDS.toMillis(firstDispatchNanos.get() - start);
+        } finally {
+            done.set(true);
+            LocalClusterSessionFactory.completeReset();
+        }
+    }
+
+    private static Node mpNode(final AtomicLong received) {
+        return new Node.Builder(APP)
+            .defaultRoutingStrategyId(MANAGED)
+            .receiver(new NioReceiver<>(new JavaSerializer()).useLocalHost(true))
+            .conf(MANAGED + "." + Utils.CONFIG_KEY_MIN_NODES, "2")
+            .conf(MANAGED + "." + Utils.CONFIG_KEY_TOTAL_SHARDS, "16")
+            .cluster("work")
+            .mp(new MessageProcessor(MpFactory.make(() -> new Mp() {
+                @Override
+                public KeyedMessageWithType[] handle(final KeyedMessage message) {
+                    received.incrementAndGet();
+                    return null;
+                }
+            }, "work")))
+            .build();
+    }
+}
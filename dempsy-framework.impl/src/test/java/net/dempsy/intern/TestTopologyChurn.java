@@ -0,0 +1,145 @@
+package net.dempsy.intern;
+
+import static net.dempsy.util.Functional.uncheck;
+import static net.dempsy.util.NodeTestUtils.startNode;
+import static net.dempsy.utils.test.ConditionPoll.poll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.NodeManager;
+import net.dempsy.ServiceTracker;
+import net.dempsy.cluster.local.LocalClusterSessionFactory;
+import net.dempsy.config.Node;
+import net.dempsy.lifecycle.simple.MessageProcessor;
+import net.dempsy.lifecycle.simple.Mp;
+import net.dempsy.lifecycle.simple.MpFactory;
+import net.dempsy.messages.Adaptor;
+import net.dempsy.messages.Dispatcher;
+import net.dempsy.messages.KeyedMessage;
+import net.dempsy.messages.KeyedMessageWithType;
+import net.dempsy.router.rendezvous.RendezvousInbound;
+import net.dempsy.serialization.java.JavaSerializer;
+import net.dempsy.transport.tcp.nio.NioReceiver;
+
+/**
+ * Nodes joining and leaving while messages are being dispatched. A topology update swaps in the new
+ * {@link ApplicationState} without making the dispatching threads wait for it.
+ */
+public class TestTopologyChurn {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TestTopologyChurn.class);
+
+    private static final int NUM_ROUNDS = 10;
+    private static final long MAX_DISPATCH_MILLIS = 500L;
+
+    public static class Work implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        public final long sequence;
+
+        public Work(final long sequence) {
+            this.sequence = sequence;
+        }
+    }
+
+    @Test
+    public void testDispatchDoesntBlockWhileTopologyChanges() throws Exception {
+        LocalClusterSessionFactory.completeReset();
+        final LocalClusterSessionFactory sessionFactory = new LocalClusterSessionFactory();
+        final AtomicLong received = new AtomicLong();
+        final AtomicLong sent = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong maxDispatchNanos = new AtomicLong();
+        final AtomicBoolean done = new AtomicBoolean(false);
+
+        try(final ServiceTracker tr = new ServiceTracker();) {
+            startNode(TestTopologyChurn.class, tr, mpNode(received), sessionFactory, "mp-stable");
+
+            final Node an = new Node.Builder("test-churn")
+                .defaultRoutingStrategyId(RendezvousInbound.class.getPackage().getName())
+                .receiver(new NioReceiver<>(new JavaSerializer()).useLocalHost(true))
+                .cluster("adaptor")
+                .adaptor(new Adaptor() {
+                    private Dispatcher disp;
+
+                    @Override
+                    public void setDispatcher(final Dispatcher dispatcher) {
+                        this.disp = dispatcher;
+                    }
+
+                    @Override
+                    public void start() {
+                        for(long i = 0; !done.get(); i++) {
+                            final long start = System.nanoTime();
+                            try {
+                                disp.dispatch(new KeyedMessageWithType("key-" + (i % 100), new Work(i), "work"));
+                                sent.incrementAndGet();
+                            } catch(final Exception e) {
+                                // a message to a node that just left can fail. That's fine as long as it doesn't wait.
+                                failed.incrementAndGet();
+                            }
+                            final long took = System.nanoTime() - start;
+                            maxDispatchNanos.accumulateAndGet(took, Math::max);
+                            if(i % 10 == 0)
+                                uncheck(() -> Thread.sleep(1));
+                        }
+                    }
+
+                    @Override
+                    public void stop() {
+                        done.set(true);
+                    }
+                })
+                .build();
+            final NodeManager adaptorNode = startNode(TestTopologyChurn.class, tr, an, sessionFactory, "adaptor");
+
+            assertTrue(poll(o -> adaptorNode.getReachableContainers("work").size() == 1));
+            assertTrue(poll(o -> received.get() > 0));
+
+            for(int round = 0; round < NUM_ROUNDS; round++) {
+                try(final ServiceTracker churn = new ServiceTracker();) {
+                    startNode(churn, mpNode(new AtomicLong()), sessionFactory, "mp-churn-" + round);
+                    assertTrue(poll(o -> adaptorNode.getReachableContainers("work").size() == 2));
+                    final long sentSoFar = sent.get();
+                    assertTrue(poll(o -> sent.get() > sentSoFar));
+                }
+                assertTrue(poll(o -> adaptorNode.getReachableContainers("work").size() == 1));
+            }
+
+            // everything's still going to the node that stayed.
+            final long receivedSoFar = received.get();
+            assertTrue(poll(o -> received.get() > receivedSoFar));
+
+            done.set(true);
+            final long maxMillis = TimeUnit.NANOSECONDS.toMillis(maxDispatchNanos.get());
+            LOGGER.info("Sent {} messages ({} failed) with the longest dispatch taking {} millis", sent, failed, maxMillis);
+            assertTrue(maxMillis < MAX_DISPATCH_MILLIS, "A dispatch took " + maxMillis + " millis.");
+            assertEquals(0, failed.get());
+        } finally {
+            LocalClusterSessionFactory.completeReset();
+        }
+    }
+
+    private static Node mpNode(final AtomicLong received) {
+        return new Node.Builder("test-churn")
+            .defaultRoutingStrategyId(RendezvousInbound.class.getPackage().getName())
+            .receiver(new NioReceiver<>(new JavaSerializer()).useLocalHost(true))
+            .cluster("work")
+            .mp(new MessageProcessor(MpFactory.make(() -> new Mp() {
+                @Override
+                public KeyedMessageWithType[] handle(final KeyedMessage message) {
+                    received.incrementAndGet();
+                    return null;
+                }
+            }, "work")))
+            .build();
+    }
+}
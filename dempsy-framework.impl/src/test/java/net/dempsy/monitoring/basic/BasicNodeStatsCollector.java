@@ -33,6 +33,9 @@ public class BasicNodeStatsCollector implements NodeStatsCollector, NodeMetricGe
     private final AtomicLong messagesDiscarded = new AtomicLong();
     private final AtomicLong messagesSent = new AtomicLong();
     private final AtomicLong messagesUnsent = new AtomicLong();
+    private final AtomicLong messagesDequeued = new AtomicLong();
+    private final AtomicLong totalQueueWaitNanos = new AtomicLong();
+    private final AtomicLong maxQueueWaitNanos = new AtomicLong();
 
     private final AtomicLong bytesReceived = new AtomicLong();
     private final AtomicLong bytesSent = new AtomicLong();
@@ -53,6 +56,13 @@ public class BasicNodeStatsCollector implements NodeStatsCollector, NodeMetricGe
         messagesDiscarded.incrementAndGet();
     }
 
+    @Override
+    public void messageDequeued(final long queueWaitNanos) {
+        messagesDequeued.incrementAndGet();
+        totalQueueWaitNanos.addAndGet(queueWaitNanos);
+        maxQueueWaitNanos.accumulateAndGet(queueWaitNanos, Math::max);
+    }
+
     @Override
     public void messageNotSent() {
         messagesUnsent.incrementAndGet();
@@ -63,6 +73,11 @@ public class BasicNodeStatsCollector implements NodeStatsCollector, NodeMetricGe
         messagesReceived.incrementAndGet();
     }
 
+    @Override
+    public void messagesReceived(final int count) {
+        messagesReceived.addAndGet(count);
+    }
+
     @Override
     public void messageSent(final Object message) {
         messagesSent.incrementAndGet();
@@ -71,6 +86,21 @@ public class BasicNodeStatsCollector implements NodeStatsCollector, NodeMetricGe
     @Override
     public void stop() {}
 
+    @Override
+    public long getMessagesDequeuedCount() {
+        return messagesDequeued.get();
+    }
+
+    @Override
+    public long getTotalQueueWaitNanos() {
+        return totalQueueWaitNanos.get();
+    }
+
+    @Override
+    public long getMaxQueueWaitNanos() {
+        return maxQueueWaitNanos.get();
+    }
+
     @Override
     public long getMessagesNotSentCount() {
         return messagesUnsent.get();
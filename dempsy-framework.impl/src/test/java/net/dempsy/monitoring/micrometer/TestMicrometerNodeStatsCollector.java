@@ -5,15 +5,22 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Timer;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 import net.dempsy.cluster.ClusterInfoException;
+import net.dempsy.monitoring.HotKey;
 
 public class TestMicrometerNodeStatsCollector {
 
@@ -49,6 +56,27 @@ public class TestMicrometerNodeStatsCollector {
         verifyCounter(MicrometerNodeStatsCollector.MESSAGE_RECEIVED, 3);
     }
 
+    @Test
+    public void verifyTransportTimers() {
+        collector.messageTransitTime("a", 1000L);
+        collector.messageTransitTime("a", 3000L);
+        collector.messageTransitTime("b", 5000L);
+        collector.messageSendQueueTime(7000L);
+
+        final Timer a = registry.find(MicrometerNodeStatsCollector.MESSAGE_TRANSIT).tag(MicrometerNodeStatsCollector.PEER_TAG, "a").timer();
+        assertNotNull(a);
+        assertEquals(2, a.count());
+        assertEquals(4000.0, a.totalTime(TimeUnit.NANOSECONDS), 0.001);
+
+        final Timer b = registry.find(MicrometerNodeStatsCollector.MESSAGE_TRANSIT).tag(MicrometerNodeStatsCollector.PEER_TAG, "b").timer();
+        assertNotNull(b);
+        assertEquals(1, b.count());
+
+        final Timer queued = registry.find(MicrometerNodeStatsCollector.MESSAGE_SEND_QUEUE).timer();
+        assertNotNull(queued);
+        assertEquals(7000.0, queued.totalTime(TimeUnit.NANOSECONDS), 0.001);
+    }
+
     private void verifyCounter(final String name, final long expectedValue) {
         final Counter c = registry.find(name).counter();
         assertNotNull(c, "Counter " + name + " not found");
@@ -70,6 +98,48 @@ public class TestMicrometerNodeStatsCollector {
         assertEquals((double)expectedValue, g.value(), 0.001);
     }
 
+    @Test
+    public void verifyHotKeyGauges() {
+        final List<HotKey> hotKeys = Arrays.asList(new HotKey("a", 50, 0, 0.5D), new HotKey("b", 20, 1, 0.2D));
+        collector.setHotKeysGauge("cluster", () -> hotKeys);
+
+        final Gauge first = registry.find(MicrometerNodeStatsCollector.HOT_KEY_SHARE).tag(MicrometerNodeStatsCollector.CLUSTER_TAG, "cluster")
+            .tag(MicrometerNodeStatsCollector.RANK_TAG, "1").gauge();
+        assertNotNull(first);
+        assertEquals(0.5D, first.value(), 0.001);
+
+        final Gauge second = registry.find(MicrometerNodeStatsCollector.HOT_KEY_SHARE).tag(MicrometerNodeStatsCollector.RANK_TAG, "2").gauge();
+        assertNotNull(second);
+        assertEquals(0.2D, second.value(), 0.001);
+
+        // fewer keys than ranks
+        final Gauge last = registry.find(MicrometerNodeStatsCollector.HOT_KEY_SHARE)
+            .tag(MicrometerNodeStatsCollector.RANK_TAG, Integer.toString(MicrometerNodeStatsCollector.HOT_KEY_RANKS)).gauge();
+        assertNotNull(last);
+        assertEquals(0.0D, last.value(), 0.001);
+
+        assertEquals("a", collector.getHotKeys("cluster").get(0).key);
+        assertTrue(collector.getHotKeys("unknown").isEmpty());
+    }
+
+    @Test
+    public void verifyHotKeyGaugesShareOneRead() {
+        final AtomicInteger numReads = new AtomicInteger(0);
+        final List<HotKey> hotKeys = Arrays.asList(new HotKey("a", 50, 0, 0.5D), new HotKey("b", 20, 1, 0.2D));
+        collector.setHotKeysGauge("cluster", () -> {
+            numReads.incrementAndGet();
+            return hotKeys;
+        });
+
+        double total = 0.0D;
+        for(final Gauge g: registry.find(MicrometerNodeStatsCollector.HOT_KEY_SHARE).tag(MicrometerNodeStatsCollector.CLUSTER_TAG, "cluster")
+            .gauges())
+            total += g.value();
+
+        assertEquals(0.7D, total, 0.001);
+        assertEquals(1, numReads.get());
+    }
+
     @Test
     public void verifyMetricsGetCleanedUp() {
         collector.messageReceived(null);
@@ -0,0 +1,236 @@
+package net.dempsy.router.broadcast;
+
+import static net.dempsy.util.Functional.chain;
+import static net.dempsy.util.Functional.uncheck;
+import static net.dempsy.util.NodeTestUtils.startNode;
+import static net.dempsy.utils.test.ConditionPoll.poll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.Manager;
+import net.dempsy.NodeManager;
+import net.dempsy.ServiceTracker;
+import net.dempsy.cluster.ClusterInfoSession;
+import net.dempsy.cluster.ClusterInfoSessionFactory;
+import net.dempsy.cluster.local.LocalClusterSessionFactory;
+import net.dempsy.config.ClusterId;
+import net.dempsy.config.Node;
+import net.dempsy.lifecycle.simple.MessageProcessor;
+import net.dempsy.lifecycle.simple.Mp;
+import net.dempsy.lifecycle.simple.MpFactory;
+import net.dempsy.messages.Adaptor;
+import net.dempsy.messages.Dispatcher;
+import net.dempsy.messages.KeyedMessage;
+import net.dempsy.messages.KeyedMessageWithType;
+import net.dempsy.router.BaseRouterTestWithSession;
+import net.dempsy.router.RoutingStrategy;
+import net.dempsy.router.RoutingStrategy.ContainerAddress;
+import net.dempsy.router.RoutingStrategyManager;
+import net.dempsy.serialization.java.JavaSerializer;
+import net.dempsy.transport.NodeAddress;
+import net.dempsy.transport.tcp.nio.NioReceiver;
+
+public class TestBroadcastRoutingStrategy extends BaseRouterTestWithSession {
+    static final Logger LOGGER = LoggerFactory.getLogger(TestBroadcastRoutingStrategy.class);
+
+    private static final int NUM_NODES = 3;
+    private static final int NUM_MESSAGES = 1000;
+    private static final int NUM_KEYS = 10;
+
+    {
+        super.LOGGER = TestBroadcastRoutingStrategy.LOGGER;
+    }
+
+    @ParameterizedTest(name = "{index}: factory={0}, disruptor={1}")
+    @MethodSource("data")
+    public void testEveryNodeIsADestination(final Supplier<ClusterInfoSessionFactory> factory, final String disruptorName,
+        final Consumer<ClusterInfoSession> disruptor) throws Exception {
+        initParams(factory, disruptorName, disruptor);
+        final ClusterId cid = setTestName("testEveryNodeIsADestination");
+        final Manager<RoutingStrategy.Inbound> manager = new Manager<>(RoutingStrategy.Inbound.class);
+
+        final List<ClusterInfoSession> sessions = new ArrayList<>();
+        final List<BroadcastInbound> inbounds = new ArrayList<>();
+        try (final RoutingStrategyManager obman = chain(new RoutingStrategyManager(), o -> o.start(makeInfra(session, sched)));
+            final RoutingStrategy.Factory obf = obman.getAssociatedInstance(BroadcastInbound.class.getPackage().getName());) {
+            obf.start(makeInfra(session, sched));
+            final BroadcastRouter ob = (BroadcastRouter)obf.getStrategy(cid);
+            assertTrue(ob.selectsMultipleDestinations());
+
+            for(int i = 0; i < NUM_NODES; i++) {
+                final ClusterInfoSession ses = sessFact.createSession();
+                sessions.add(ses);
+                final BroadcastInbound ib = (BroadcastInbound)manager.getAssociatedInstance(BroadcastInbound.class.getPackage().getName());
+                ib.setContainerDetails(cid, new ContainerAddress(new DummyNodeAddress("node-" + i), 0), (l, m) -> {});
+                ib.start(makeInfra(ses, sched));
+                inbounds.add(ib);
+            }
+
+            assertTrue(poll(o -> inbounds.stream().allMatch(ib -> ib.isReady()) && obf.isReady()));
+            assertTrue(poll(o -> destinations(ob).size() == NUM_NODES));
+            assertEquals(addresses(inbounds), destinations(ob));
+
+            // every node takes every key
+            for(int key = 0; key < 1000; key++) {
+                final Integer k = Integer.valueOf(key);
+                assertTrue(inbounds.stream().allMatch(ib -> ib.doesMessageKeyBelongToNode(k)));
+            }
+
+            // one of the nodes goes away and stops getting messages.
+            sessions.get(1).close();
+            inbounds.get(1).stop();
+            final List<BroadcastInbound> remaining = List.of(inbounds.get(0), inbounds.get(2));
+            assertTrue(poll(o -> destinations(ob).size() == NUM_NODES - 1));
+            assertEquals(addresses(remaining), destinations(ob));
+        } finally {
+            inbounds.forEach(ib -> ib.stop());
+            sessions.forEach(s -> s.close());
+        }
+    }
+
+    /**
+     * Message objects count how many times they've been serialized.
+     */
+    public static class Counted implements Serializable {
+        private static final long serialVersionUID = 1L;
+        static final AtomicLong numSerializations = new AtomicLong();
+
+        public final int sequence;
+
+        public Counted(final int sequence) {
+            this.sequence = sequence;
+        }
+
+        private void writeObject(final ObjectOutputStream out) throws IOException {
+            numSerializations.incrementAndGet();
+            out.defaultWriteObject();
+        }
+    }
+
+    /**
+     * One node sends to several others in the same process over the nio transport. Every node should get every message
+     * and each message should only be serialized once no matter how many nodes it goes to.
+     */
+    @Test
+    public void testEveryNodeGetsEveryMessage() throws Exception {
+        LocalClusterSessionFactory.completeReset();
+        Counted.numSerializations.set(0);
+        final LocalClusterSessionFactory sessionFactory = new LocalClusterSessionFactory();
+        final List<AtomicLong> received = new ArrayList<>();
+        final CountDownLatch startSending = new CountDownLatch(1);
+        final AtomicLong sent = new AtomicLong();
+
+        try(final ServiceTracker tr = new ServiceTracker();) {
+            for(int i = 0; i < NUM_NODES; i++) {
+                final AtomicLong count = new AtomicLong();
+                received.add(count);
+                final Node n = new Node.Builder("test-broadcast")
+                    .defaultRoutingStrategyId(BroadcastInbound.class.getPackage().getName())
+                    .receiver(new NioReceiver<>(new JavaSerializer()).useLocalHost(true))
+                    .cluster("broadcast")
+                    .mp(new MessageProcessor(MpFactory.make(() -> new Mp() {
+                        @Override
+                        public KeyedMessageWithType[] handle(final KeyedMessage message) {
+                            count.incrementAndGet();
+                            return null;
+                        }
+                    }, "broadcast")))
+                    .build();
+                startNode(TestBroadcastRoutingStrategy.class, tr, n, sessionFactory, "mp-" + i);
+            }
+
+            final Node an = new Node.Builder("test-broadcast")
+                .defaultRoutingStrategyId(BroadcastInbound.class.getPackage().getName())
+                .receiver(new NioReceiver<>(new JavaSerializer()).useLocalHost(true))
+                .cluster("adaptor")
+                .adaptor(new Adaptor() {
+                    private Dispatcher disp;
+
+                    @Override
+                    public void setDispatcher(final Dispatcher dispatcher) {
+                        this.disp = dispatcher;
+                    }
+
+                    @Override
+                    public void start() {
+                        uncheck(() -> startSending.await());
+                        for(int i = 0; i < NUM_MESSAGES; i++) {
+                            final int seq = i;
+                            uncheck(() -> disp.dispatch(new KeyedMessageWithType(Integer.valueOf(seq % NUM_KEYS), new Counted(seq), "broadcast")));
+                            sent.incrementAndGet();
+                        }
+                    }
+
+                    @Override
+                    public void stop() {}
+                })
+                .build();
+            final NodeManager adaptorNode = startNode(TestBroadcastRoutingStrategy.class, tr, an, sessionFactory, "adaptor");
+
+            assertTrue(poll(o -> adaptorNode.getReachableContainers("broadcast").size() == NUM_NODES));
+            startSending.countDown();
+
+            assertTrue(poll(o -> sent.get() == NUM_MESSAGES));
+            assertTrue(poll(o -> received.stream().allMatch(c -> c.get() == NUM_MESSAGES)));
+            assertEquals(NUM_MESSAGES, Counted.numSerializations.get());
+        } finally {
+            LocalClusterSessionFactory.completeReset();
+        }
+    }
+
+    private static Collection<ContainerAddress> destinations(final BroadcastRouter ob) {
+        return new HashSet<>(ob.selectDestinationsForMessage(new KeyedMessageWithType(Integer.valueOf(1), null, "")));
+    }
+
+    private static Collection<ContainerAddress> addresses(final List<BroadcastInbound> inbounds) {
+        return inbounds.stream().map(ib -> ib.getAddress()).collect(Collectors.toSet());
+    }
+
+    private static class DummyNodeAddress implements NodeAddress {
+        private static final long serialVersionUID = 1L;
+        public final String name;
+
+        @SuppressWarnings("unused")
+        private DummyNodeAddress() {
+            name = null;
+        }
+
+        public DummyNodeAddress(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof DummyNodeAddress && name.equals(((DummyNodeAddress)o).name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "DummyNodeAddress[ " + name + " ]";
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package net.dempsy.router.leastloaded;
+
+import static net.dempsy.util.Functional.chain;
+import static net.dempsy.util.Functional.uncheck;
+import static net.dempsy.util.NodeTestUtils.startNode;
+import static net.dempsy.utils.test.ConditionPoll.poll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.Infrastructure;
+import net.dempsy.Manager;
+import net.dempsy.NodeManager;
+import net.dempsy.ServiceTracker;
+import net.dempsy.cluster.ClusterInfoSession;
+import net.dempsy.cluster.ClusterInfoSessionFactory;
+import net.dempsy.cluster.local.LocalClusterSessionFactory;
+import net.dempsy.config.ClusterId;
+import net.dempsy.config.Node;
+import net.dempsy.lifecycle.simple.MessageProcessor;
+import net.dempsy.lifecycle.simple.Mp;
+import net.dempsy.lifecycle.simple.MpFactory;
+import net.dempsy.messages.Adaptor;
+import net.dempsy.messages.Dispatcher;
+import net.dempsy.messages.KeyedMessage;
+import net.dempsy.messages.KeyedMessageWithType;
+import net.dempsy.router.BaseRouterTestWithSession;
+import net.dempsy.router.RoutingStrategy;
+import net.dempsy.router.RoutingStrategy.ContainerAddress;
+import net.dempsy.router.RoutingStrategyManager;
+import net.dempsy.serialization.java.JavaSerializer;
+import net.dempsy.transport.NodeAddress;
+import net.dempsy.transport.tcp.nio.NioReceiver;
+import net.dempsy.util.TestInfrastructure;
+import net.dempsy.util.executor.AutoDisposeSingleThreadScheduler;
+
+public class TestLeastLoadedRoutingStrategy extends BaseRouterTestWithSession {
+    static final Logger LOGGER = LoggerFactory.getLogger(TestLeastLoadedRoutingStrategy.class);
+
+    private static final int NUM_NODES = 3;
+    private static final String INTERVAL_KEY = LeastLoadedInbound.class.getPackage().getName() + "."
+        + LeastLoadedInbound.CONFIG_KEY_LOAD_PUBLISH_INTERVAL_MILLIS;
+    private static final String INTERVAL_MILLIS = "50";
+
+    {
+        super.LOGGER = TestLeastLoadedRoutingStrategy.LOGGER;
+    }
+
+    @ParameterizedTest(name = "{index}: factory={0}, disruptor={1}")
+    @MethodSource("data")
+    public void testTrafficAvoidsTheLoadedNode(final Supplier<ClusterInfoSessionFactory> factory, final String disruptorName,
+        final Consumer<ClusterInfoSession> disruptor) throws Exception {
+        initParams(factory, disruptorName, disruptor);
+        final ClusterId cid = setTestName("testTrafficAvoidsTheLoadedNode");
+        final Manager<RoutingStrategy.Inbound> manager = new Manager<>(RoutingStrategy.Inbound.class);
+
+        final List<ClusterInfoSession> sessions = new ArrayList<>();
+        final List<LeastLoadedInbound> inbounds = new ArrayList<>();
+        final List<AtomicLong> pending = new ArrayList<>();
+        try (final RoutingStrategyManager obman = chain(new RoutingStrategyManager(), o -> o.start(fastInfra(cid, session, sched)));
+            final RoutingStrategy.Factory obf = obman.getAssociatedInstance(LeastLoadedInbound.class.getPackage().getName());) {
+            obf.start(fastInfra(cid, session, sched));
+            final LeastLoadedRouter ob = (LeastLoadedRouter)obf.getStrategy(cid);
+
+            for(int i = 0; i < NUM_NODES; i++) {
+                final ClusterInfoSession ses = sessFact.createSession();
+                sessions.add(ses);
+                final AtomicLong nodePending = new AtomicLong(0L);
+                pending.add(nodePending);
+                final Infrastructure nodeInfra = fastInfra(cid, ses, sched);
+                nodeInfra.getNodeStatsCollector().setMessagesPendingGauge(() -> nodePending.get());
+
+                final LeastLoadedInbound ib = (LeastLoadedInbound)manager.getAssociatedInstance(LeastLoadedInbound.class.getPackage().getName());
+                ib.setContainerDetails(cid, new ContainerAddress(new DummyNodeAddress("node-" + i), 0), (l, m) -> {});
+                ib.start(nodeInfra);
+                inbounds.add(ib);
+            }
+
+            assertTrue(poll(o -> inbounds.stream().allMatch(ib -> ib.isReady()) && obf.isReady()));
+            assertTrue(poll(o -> ob.allDesintations().size() == NUM_NODES));
+            assertTrue(inbounds.stream().allMatch(ib -> ib.doesMessageKeyBelongToNode("anything")));
+
+            // nothing's loaded so it's spread evenly.
+            final ContainerAddress slow = inbounds.get(0).getAddress();
+            assertEquals(1.0D / NUM_NODES, share(ob, slow), 0.05D);
+
+            // the first node backs up.
+            pending.get(0).set(1000L);
+            assertTrue(poll(o -> ob.getLoads().messagesPending[indexOf(ob, slow)] == 1000L));
+            assertEquals(0.0D, share(ob, slow), 0.0D);
+
+            // a second node backs up a bit less so the two compete for what the third doesn't get.
+            pending.get(1).set(10L);
+            assertTrue(poll(o -> ob.getLoads().messagesPending[indexOf(ob, inbounds.get(1).getAddress())] == 10L));
+            assertEquals(0.0D, share(ob, slow), 0.0D);
+            assertEquals(2.0D / (NUM_NODES * (NUM_NODES - 1)), share(ob, inbounds.get(1).getAddress()), 0.05D);
+
+            // and it recovers.
+            pending.forEach(p -> p.set(0L));
+            assertTrue(poll(o -> ob.getLoads().messagesPending[indexOf(ob, slow)] == 0L));
+            assertEquals(1.0D / NUM_NODES, share(ob, slow), 0.05D);
+        } finally {
+            inbounds.forEach(ib -> ib.stop());
+            sessions.forEach(s -> s.close());
+        }
+    }
+
+    public static class Work implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        public final int sequence;
+
+        public Work(final int sequence) {
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Several nodes in the same process where one of them takes much longer to handle a message than the others. Its
+     * messages back up and the sender should move most of the traffic to the other nodes.
+     */
+    @Test
+    public void testTrafficShiftsAwayFromASlowNode() throws Exception {
+        final int numMessages = 3000;
+        LocalClusterSessionFactory.completeReset();
+        final LocalClusterSessionFactory sessionFactory = new LocalClusterSessionFactory();
+        final List<AtomicLong> received = new ArrayList<>();
+        final CountDownLatch startSending = new CountDownLatch(1);
+        final AtomicLong sent = new AtomicLong();
+
+        try(final ServiceTracker tr = new ServiceTracker();) {
+            for(int i = 0; i < NUM_NODES; i++) {
+                final AtomicLong count = new AtomicLong();
+                received.add(count);
+                final long sleepMillis = i == 0 ? 20L : 0L;
+                final Node n = new Node.Builder("test-leastloaded")
+                    .defaultRoutingStrategyId(LeastLoadedInbound.class.getPackage().getName())
+                    .containerTypeId("net.dempsy.container.locking")
+                    .receiver(new NioReceiver<>(new JavaSerializer()).useLocalHost(true))
+                    .conf(INTERVAL_KEY, INTERVAL_MILLIS)
+                    .cluster("work")
+                    .mp(new MessageProcessor(MpFactory.make(() -> new Mp() {
+                        @Override
+                        public KeyedMessageWithType[] handle(final KeyedMessage message) {
+                            if(sleepMillis > 0)
+                                uncheck(() -> Thread.sleep(sleepMillis));
+                            count.incrementAndGet();
+                            return null;
+                        }
+                    }, "work")))
+                    .build();
+                startNode(TestLeastLoadedRoutingStrategy.class, tr, n, sessionFactory, "mp-" + i);
+            }
+
+            final Node an = new Node.Builder("test-leastloaded")
+                .defaultRoutingStrategyId(LeastLoadedInbound.class.getPackage().getName())
+                .receiver(new NioReceiver<>(new JavaSerializer()).useLocalHost(true))
+                .conf(INTERVAL_KEY, INTERVAL_MILLIS)
+                .cluster("adaptor")
+                .adaptor(new Adaptor() {
+                    private Dispatcher disp;
+
+                    @Override
+                    public void setDispatcher(final Dispatcher dispatcher) {
+                        this.disp = dispatcher;
+                    }
+
+                    @Override
+                    public void start() {
+                        uncheck(() -> startSending.await());
+                        for(int i = 0; i < numMessages; i++) {
+                            final int seq = i;
+                            // the same key every time. It can still go anywhere.
+                            uncheck(() -> disp.dispatch(new KeyedMessageWithType("hot", new Work(seq), "work")));
+                            sent.incrementAndGet();
+                            if(i % 10 == 0)
+                                uncheck(() -> Thread.sleep(1));
+                        }
+                    }
+
+                    @Override
+                    public void stop() {}
+                })
+                .build();
+            final NodeManager adaptorNode = startNode(TestLeastLoadedRoutingStrategy.class, tr, an, sessionFactory, "adaptor");
+
+            assertTrue(poll(o -> adaptorNode.getReachableContainers("work").size() == NUM_NODES));
+            startSending.countDown();
+
+            assertTrue(poll(o -> sent.get() == numMessages));
+            assertTrue(poll(o -> received.stream().mapToLong(c -> c.get()).sum() == numMessages));
+
+            final long slow = received.get(0).get();
+            LOGGER.info("Messages received by each node: {}", received);
+            assertTrue(slow < numMessages / (2 * NUM_NODES), "The slow node got " + slow + " of " + numMessages + " messages.");
+            for(int i = 1; i < NUM_NODES; i++)
+                assertTrue(received.get(i).get() > slow);
+        } finally {
+            LocalClusterSessionFactory.completeReset();
+        }
+    }
+
+    private static Infrastructure fastInfra(final ClusterId cid, final ClusterInfoSession session, final AutoDisposeSingleThreadScheduler sched) {
+        return new TestInfrastructure(cid, session, sched) {
+            @Override
+            public Map<String, String> getConfiguration() {
+                final Map<String, String> ret = new HashMap<>();
+                ret.put(INTERVAL_KEY, INTERVAL_MILLIS);
+                return ret;
+            }
+        };
+    }
+
+    private static double share(final LeastLoadedRouter ob, final ContainerAddress ca) {
+        final int numMessages = 30000;
+        int count = 0;
+        for(int i = 0; i < numMessages; i++) {
+            if(ca.equals(ob.selectDestinationForMessage(new KeyedMessageWithType(Integer.valueOf(i), null, ""))))
+                count++;
+        }
+        return (double)count / numMessages;
+    }
+
+    private static int indexOf(final LeastLoadedRouter ob, final ContainerAddress ca) {
+        final ContainerAddress[] addresses = ob.getLoads().addresses;
+        for(int i = 0; i < addresses.length; i++) {
+            if(addresses[i].equals(ca))
+                return i;
+        }
+        return -1;
+    }
+
+    private static class DummyNodeAddress implements NodeAddress {
+        private static final long serialVersionUID = 1L;
+        public final String name;
+
+        @SuppressWarnings("unused")
+        private DummyNodeAddress() {
+            name = null;
+        }
+
+        public DummyNodeAddress(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof DummyNodeAddress && name.equals(((DummyNodeAddress)o).name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "DummyNodeAddress[ " + name + " ]";
+        }
+    }
+}
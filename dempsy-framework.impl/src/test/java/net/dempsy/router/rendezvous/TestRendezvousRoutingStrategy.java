@@ -0,0 +1,246 @@
+package net.dempsy.router.rendezvous;
+
+import static net.dempsy.util.Functional.chain;
+import static net.dempsy.utils.test.ConditionPoll.poll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.Manager;
+import net.dempsy.cluster.ClusterInfoSession;
+import net.dempsy.cluster.ClusterInfoSessionFactory;
+import net.dempsy.config.ClusterId;
+import net.dempsy.messages.KeyedMessageWithType;
+import net.dempsy.router.BaseRouterTestWithSession;
+import net.dempsy.router.RoutingStrategy;
+import net.dempsy.router.RoutingStrategy.ContainerAddress;
+import net.dempsy.router.RoutingStrategyManager;
+import net.dempsy.transport.NodeAddress;
+
+public class TestRendezvousRoutingStrategy extends BaseRouterTestWithSession {
+    static final Logger LOGGER = LoggerFactory.getLogger(TestRendezvousRoutingStrategy.class);
+
+    private static final int NUM_KEYS = 100000;
+
+    {
+        super.LOGGER = TestRendezvousRoutingStrategy.LOGGER;
+    }
+
+    @Test
+    public void testOnlyTheNewNodesKeysMoveOnJoin() throws Exception {
+        final List<RendezvousNode> nodes = makeNodes(20, 1.0D);
+        final ContainerAddress[] before = selectAll(new RendezvousHash(nodes));
+
+        final RendezvousNode joined = new RendezvousNode(new ContainerAddress(new DummyNodeAddress("joined"), 0), 1.0D);
+        nodes.add(joined);
+        final ContainerAddress[] after = selectAll(new RendezvousHash(nodes));
+
+        int moved = 0;
+        for(int key = 0; key < NUM_KEYS; key++) {
+            if(!before[key].equals(after[key])) {
+                assertEquals(joined.address, after[key]);
+                moved++;
+            }
+        }
+
+        // about 1/21 of the keys
+        final double expected = (double)NUM_KEYS / nodes.size();
+        assertTrue(Math.abs(moved - expected) < 0.1D * expected, "moved " + moved + " keys but expected about " + expected);
+    }
+
+    @Test
+    public void testOnlyTheLeavingNodesKeysMoveOnLeave() throws Exception {
+        final List<RendezvousNode> nodes = makeNodes(20, 1.0D);
+        final ContainerAddress[] before = selectAll(new RendezvousHash(nodes));
+
+        final RendezvousNode left = nodes.remove(7);
+        final ContainerAddress[] after = selectAll(new RendezvousHash(nodes));
+
+        int moved = 0;
+        for(int key = 0; key < NUM_KEYS; key++) {
+            if(!before[key].equals(after[key])) {
+                assertEquals(left.address, before[key]);
+                moved++;
+            }
+        }
+        assertEquals(Arrays.stream(before).filter(ca -> left.address.equals(ca)).count(), moved);
+    }
+
+    @Test
+    public void testWeightedShares() throws Exception {
+        final double[] weights = {1,2,4,1};
+        final List<RendezvousNode> nodes = IntStream.range(0, weights.length)
+            .mapToObj(i -> new RendezvousNode(new ContainerAddress(new DummyNodeAddress("node-" + i), 0), weights[i]))
+            .collect(Collectors.toList());
+        final ContainerAddress[] selected = selectAll(new RendezvousHash(nodes));
+
+        final double totalWeight = Arrays.stream(weights).sum();
+        for(int i = 0; i < weights.length; i++) {
+            final ContainerAddress ca = nodes.get(i).address;
+            final long count = Arrays.stream(selected).filter(s -> ca.equals(s)).count();
+            final double expected = NUM_KEYS * weights[i] / totalWeight;
+            assertTrue(Math.abs(count - expected) < 0.05D * expected, "node " + i + " has " + count + " keys but expected about " + expected);
+        }
+
+        // the same ids with the same weights always give the same answer.
+        assertTrue(Arrays.equals(selected, selectAll(new RendezvousHash(nodes))));
+    }
+
+    @ParameterizedTest(name = "{index}: factory={0}, disruptor={1}")
+    @MethodSource("data")
+    public void testInboundsAgreeWithRouter(final Supplier<ClusterInfoSessionFactory> factory, final String disruptorName,
+        final Consumer<ClusterInfoSession> disruptor) throws Exception {
+        initParams(factory, disruptorName, disruptor);
+        final ClusterId cid = setTestName("testInboundsAgreeWithRouter");
+        final Manager<RoutingStrategy.Inbound> manager = new Manager<>(RoutingStrategy.Inbound.class);
+
+        final List<ClusterInfoSession> sessions = new ArrayList<>();
+        final List<RendezvousInbound> inbounds = new ArrayList<>();
+        final List<AtomicBoolean> gotLess = new ArrayList<>();
+        final List<AtomicBoolean> gotMore = new ArrayList<>();
+        try (final RoutingStrategyManager obman = chain(new RoutingStrategyManager(), o -> o.start(makeInfra(session, sched)));
+            final RoutingStrategy.Factory obf = obman.getAssociatedInstance(RendezvousInbound.class.getPackage().getName());) {
+            obf.start(makeInfra(session, sched));
+            final RendezvousRouter ob = (RendezvousRouter)obf.getStrategy(cid);
+
+            for(int i = 0; i < 3; i++) {
+                final AtomicBoolean less = new AtomicBoolean(false);
+                final AtomicBoolean more = new AtomicBoolean(false);
+                gotLess.add(less);
+                gotMore.add(more);
+                final ClusterInfoSession ses = sessFact.createSession();
+                sessions.add(ses);
+                final RendezvousInbound ib = ((RendezvousInbound)manager.getAssociatedInstance(RendezvousInbound.class.getPackage().getName()))
+                    .weight(i + 1);
+                ib.setContainerDetails(cid, new ContainerAddress(new DummyNodeAddress("node-" + i), 0), (l, m) -> {
+                    if(l)
+                        less.set(true);
+                    if(m)
+                        more.set(true);
+                });
+                ib.start(makeInfra(ses, sched));
+                inbounds.add(ib);
+                assertTrue(poll(o -> ib.isReady()));
+            }
+
+            assertTrue(poll(o -> inbounds.stream().allMatch(ib -> ib.isReady()) && obf.isReady()));
+            assertTrue(poll(o -> ob.getMembers().size() == 3));
+            assertTrue(poll(o -> agree(ob, inbounds)));
+
+            // the first ones saw the later ones join.
+            assertTrue(gotLess.get(0).get());
+            assertTrue(gotMore.get(0).get());
+
+            // one of the nodes goes away and the others pick up its keys.
+            gotMore.forEach(b -> b.set(false));
+            sessions.get(1).close();
+            inbounds.get(1).stop();
+            final List<RendezvousInbound> remaining = Arrays.asList(inbounds.get(0), inbounds.get(2));
+            assertTrue(poll(o -> ob.getMembers().size() == 2));
+            assertTrue(poll(o -> agree(ob, remaining)));
+            assertTrue(poll(o -> gotMore.get(0).get() && gotMore.get(2).get()));
+        } finally {
+            inbounds.forEach(ib -> ib.stop());
+            sessions.forEach(s -> s.close());
+        }
+    }
+
+    @Test
+    public void testRoutingCost() throws Exception {
+        final int numMessages = 200000;
+        final Object[] keys = IntStream.range(0, 1024).mapToObj(i -> "key-" + i).toArray();
+
+        for(final int numNodes: new int[] {4,16,64}) {
+            for(final boolean weighted: new boolean[] {false,true}) {
+                final List<RendezvousNode> nodes = makeNodes(numNodes, 1.0D);
+                if(weighted)
+                    nodes.set(0, new RendezvousNode(nodes.get(0).address, 2.0D));
+                final RendezvousHash hash = new RendezvousHash(nodes);
+
+                // warm up
+                int sink = 0;
+                for(int i = 0; i < numMessages; i++)
+                    sink += hash.selectIndex(keys[i & 1023]);
+
+                final long start = System.nanoTime();
+                for(int i = 0; i < numMessages; i++)
+                    sink += hash.selectIndex(keys[i & 1023]);
+                final long nanos = System.nanoTime() - start;
+
+                assertTrue(sink >= 0);
+                LOGGER.info("Rendezvous routing over {} {} nodes costs {} ns per message", numNodes, weighted ? "weighted" : "unweighted",
+                    String.format("%.1f", (double)nanos / numMessages));
+            }
+        }
+    }
+
+    private static boolean agree(final RendezvousRouter ob, final List<RendezvousInbound> inbounds) {
+        for(int key = 0; key < 1000; key++) {
+            final Integer k = Integer.valueOf(key);
+            final ContainerAddress dest = ob.selectDestinationForMessage(new KeyedMessageWithType(k, null, ""));
+            final List<RendezvousInbound> owners = inbounds.stream().filter(ib -> ib.doesMessageKeyBelongToNode(k)).collect(Collectors.toList());
+            if(owners.size() != 1 || dest == null || !dest.equals(owners.get(0).getAddress()))
+                return false;
+        }
+        return true;
+    }
+
+    private static ContainerAddress[] selectAll(final RendezvousHash hash) {
+        final ContainerAddress[] ret = new ContainerAddress[NUM_KEYS];
+        for(int key = 0; key < NUM_KEYS; key++) {
+            ret[key] = hash.select(Integer.valueOf(key));
+            assertNotNull(ret[key]);
+        }
+        return ret;
+    }
+
+    private static List<RendezvousNode> makeNodes(final int numNodes, final double weight) {
+        return IntStream.range(0, numNodes)
+            .mapToObj(i -> new RendezvousNode(new ContainerAddress(new DummyNodeAddress("node-" + i), 0), weight))
+            .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    private static class DummyNodeAddress implements NodeAddress {
+        private static final long serialVersionUID = 1L;
+        public final String name;
+
+        @SuppressWarnings("unused")
+        private DummyNodeAddress() {
+            name = null;
+        }
+
+        public DummyNodeAddress(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof DummyNodeAddress && name.equals(((DummyNodeAddress)o).name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "DummyNodeAddress[ " + name + " ]";
+        }
+    }
+}
@@ -1,27 +1,42 @@
 
 package net.dempsy.router.shardutils;
 
+import static net.dempsy.util.Functional.uncheck;
 import static net.dempsy.utils.test.ConditionPoll.poll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import net.dempsy.NodeInformation;
+import net.dempsy.cluster.ClusterInfoException;
 import net.dempsy.cluster.ClusterInfoSession;
 import net.dempsy.cluster.ClusterInfoSessionFactory;
+import net.dempsy.cluster.DirMode;
+import net.dempsy.cluster.local.LocalClusterSessionFactory;
 import net.dempsy.config.ClusterId;
 import net.dempsy.router.BaseRouterTestWithSession;
 import net.dempsy.router.RoutingStrategy.ContainerAddress;
+import net.dempsy.router.shardutils.Utils.ShardAssignment;
 import net.dempsy.transport.NodeAddress;
 
 public class TestLeaderAndSubscriber extends BaseRouterTestWithSession {
@@ -54,11 +69,20 @@ public class TestLeaderAndSubscriber extends BaseRouterTestWithSession {
         public final ClusterInfoSession session;
         public final Leader<ContainerAddress> l;
         public final Thread t;
+        public final Subscriber<ContainerAddress> s;
+        public final AtomicBoolean isRunning;
 
         public ListenerHolder(final ClusterInfoSession session, final Leader<ContainerAddress> l, final Thread t) {
+            this(session, l, t, null, null);
+        }
+
+        public ListenerHolder(final ClusterInfoSession session, final Leader<ContainerAddress> l, final Thread t,
+            final Subscriber<ContainerAddress> s, final AtomicBoolean isRunning) {
             this.session = session;
             this.l = l;
             this.t = t;
+            this.s = s;
+            this.isRunning = isRunning;
         }
     }
 
@@ -209,6 +233,245 @@ public class TestLeaderAndSubscriber extends BaseRouterTestWithSession {
         }
     }
 
+    @Test
+    public void testAssignMovesTheMinimum() throws Exception {
+        final int numShards = 256;
+        final Random random = new Random(2112L);
+        final List<ContainerAddress> nodes = new ArrayList<>();
+        ContainerAddress[] assignedTo = new ContainerAddress[numShards];
+
+        for(int i = 0; i < 1000; i++) {
+            // join when there's nothing to leave, otherwise flip a coin
+            if(nodes.size() < 2 || random.nextBoolean())
+                nodes.add(random.nextInt(nodes.size() + 1), new ContainerAddress(new DummyNodeAddress(), new int[] {0}));
+            else
+                nodes.remove(random.nextInt(nodes.size()));
+
+            final ContainerAddress[] prev = assignedTo;
+            assignedTo = Arrays.stream(prev).map(ca -> nodes.contains(ca) ? ca : null).toArray(ContainerAddress[]::new);
+            final int moved = Leader.assign(assignedTo, nodes, 1);
+
+            assertBalanced(numShards, nodes, assignedTo);
+            assertEquals(minimumMoves(numShards, nodes, prev), moved);
+            assertEquals(moved, numChanged(prev, assignedTo));
+
+            // and nothing moves if nothing changes
+            assertEquals(0, Leader.assign(assignedTo, nodes, 1));
+        }
+    }
+
+    @Test
+    public void testMinimalShardMovement() throws Exception {
+        initParams(() -> new LocalClusterSessionFactory(), "standard", null);
+        final int numShards = 256;
+        final ClusterId cid = setTestName("testMinimalShardMovement");
+
+        final AtomicBoolean isRunning = new AtomicBoolean(true);
+        final List<ListenerHolder> nodes = new ArrayList<>();
+        try {
+            final Utils<ContainerAddress> utils = new Utils<>(makeInfra(session, sched), cid.clusterName,
+                new ContainerAddress(new DummyNodeAddress(), new int[] {0}));
+            final Leader<ContainerAddress> l = new Leader<>(utils, numShards, 1, infra, isRunning, ContainerAddress[]::new);
+            l.process();
+            assertTrue(poll(o -> l.imIt()));
+
+            // a sequence of nodes joining (true) and leaving (false)
+            final boolean[] sequence = {true,true,true,false,true,true,true,false,false,true,false,true,true,false,false,false};
+            final Random random = new Random(2112L);
+            ContainerAddress[] prev = new ContainerAddress[numShards];
+            int totalMoved = 0;
+            int totalMinimum = 0;
+
+            for(final boolean join: sequence) {
+                if(join) {
+                    final ClusterInfoSession nodeSession = sessFact.createSession();
+                    final AtomicBoolean nodeRunning = new AtomicBoolean(true);
+                    final Utils<ContainerAddress> nodeUtils = new Utils<>(makeInfra(nodeSession, sched), cid.clusterName,
+                        new ContainerAddress(new DummyNodeAddress(), new int[] {0}));
+                    final Subscriber<ContainerAddress> s = new Subscriber<>(nodeUtils, infra, nodeRunning, (ls, m) -> {}, numShards);
+                    s.process();
+                    nodes.add(new ListenerHolder(nodeSession, null, null, s, nodeRunning));
+                } else {
+                    final ListenerHolder leaving = nodes.remove(random.nextInt(nodes.size()));
+                    leaving.isRunning.set(false);
+                    leaving.session.close();
+                }
+
+                final List<ContainerAddress> live = nodes.stream().map(h -> h.s.getUtils().thisNodeAddress).collect(Collectors.toList());
+
+                // wait for the leader to settle on the new set of nodes.
+                assertTrue(poll(o -> {
+                    final ContainerAddress[] cur = uncheck(() -> readAssignments(utils, numShards));
+                    return Arrays.stream(cur).allMatch(ca -> live.contains(ca)) && isBalanced(numShards, live, cur);
+                }));
+                final ContainerAddress[] cur = readAssignments(utils, numShards);
+
+                final int moved = numChanged(prev, cur);
+                final int minimum = minimumMoves(numShards, live, prev);
+                LOGGER.debug("{} nodes after a {}. {} shards moved.", live.size(), join ? "join" : "leave", moved);
+                assertEquals(minimum, moved);
+
+                totalMoved += moved;
+                totalMinimum += minimum;
+                prev = cur;
+            }
+
+            assertEquals(totalMinimum, totalMoved);
+        } finally {
+            isRunning.set(false);
+            nodes.forEach(h -> {
+                h.isRunning.set(false);
+                h.session.close();
+            });
+        }
+    }
+
+    @Test
+    public void testWeightedDistribution() throws Exception {
+        final int numShards = 256;
+        final double[][] weightSets = {{1,2,4},{1,1,8},{0.5,1.5,3,3},{16,1},{1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1}};
+        for(final double[] weights: weightSets) {
+            final List<ContainerAddress> nodes = IntStream.range(0, weights.length)
+                .mapToObj(i -> new ContainerAddress(new DummyNodeAddress(), new int[] {0})).collect(Collectors.toList());
+            final ContainerAddress[] assignedTo = new ContainerAddress[numShards];
+            Leader.assign(assignedTo, nodes, weights, 1);
+            assertWeighted(numShards, nodes, weights, assignedTo);
+
+            // the same nodes with the same weights shouldn't move anything.
+            assertEquals(0, Leader.assign(assignedTo, nodes, weights, 1));
+        }
+
+        // now a random sequence of mixed weight nodes joining and leaving
+        final Random random = new Random(2112L);
+        final List<ContainerAddress> nodes = new ArrayList<>();
+        final List<Double> weights = new ArrayList<>();
+        final ContainerAddress[] assignedTo = new ContainerAddress[numShards];
+        for(int i = 0; i < 1000; i++) {
+            if(nodes.size() < 2 || random.nextBoolean()) {
+                final int index = random.nextInt(nodes.size() + 1);
+                nodes.add(index, new ContainerAddress(new DummyNodeAddress(), new int[] {0}));
+                weights.add(index, Double.valueOf(1 + random.nextInt(16) / 2.0D));
+            } else {
+                final int index = random.nextInt(nodes.size());
+                final ContainerAddress leaving = nodes.remove(index);
+                weights.remove(index);
+                IntStream.range(0, numShards).filter(s -> leaving.equals(assignedTo[s])).forEach(s -> assignedTo[s] = null);
+            }
+
+            final double[] curWeights = weights.stream().mapToDouble(d -> d.doubleValue()).toArray();
+            Leader.assign(assignedTo, nodes, curWeights, 1);
+            assertWeighted(numShards, nodes, curWeights, assignedTo);
+            assertEquals(0, Leader.assign(assignedTo, nodes, curWeights, 1));
+        }
+    }
+
+    @Test
+    public void testWeightsFromNodeInformation() throws Exception {
+        initParams(() -> new LocalClusterSessionFactory(), "standard", null);
+        final int numShards = 256;
+        final ClusterId cid = setTestName("testWeightsFromNodeInformation");
+        final double[] weights = {1,2,4,1,8};
+
+        final AtomicBoolean isRunning = new AtomicBoolean(true);
+        try {
+            final Utils<ContainerAddress> utils = new Utils<>(makeInfra(session, sched), cid.clusterName,
+                new ContainerAddress(new DummyNodeAddress(), new int[] {0}));
+            final List<ContainerAddress> nodes = new ArrayList<>();
+            for(final double weight: weights) {
+                final ContainerAddress ca = new ContainerAddress(new DummyNodeAddress(), new int[] {0});
+                nodes.add(ca);
+                session.recursiveMkdir(utils.rootNodesDir + "/node-" + nodes.size(),
+                    new NodeInformation("test", ca.node, new HashMap<>(), weight), DirMode.PERSISTENT, DirMode.EPHEMERAL);
+                new Subscriber<>(new Utils<>(makeInfra(session, sched), cid.clusterName, ca), infra, isRunning, (l, m) -> {}, numShards).process();
+            }
+
+            final Leader<ContainerAddress> l = new Leader<>(utils, numShards, 1, infra, isRunning, ContainerAddress[]::new, ca -> ca.node);
+            l.process();
+            assertTrue(poll(o -> l.imIt()));
+
+            assertTrue(poll(o -> isWeighted(numShards, nodes, weights, uncheck(() -> readAssignments(utils, numShards)))));
+            final ContainerAddress[] settled = readAssignments(utils, numShards);
+
+            // a node registering that isn't part of this cluster shouldn't change anything.
+            session.recursiveMkdir(utils.rootNodesDir + "/other",
+                new NodeInformation("test", new DummyNodeAddress(), new HashMap<>(), 100.0D), DirMode.PERSISTENT, DirMode.EPHEMERAL);
+            Thread.sleep(100);
+            assertEquals(0, numChanged(settled, readAssignments(utils, numShards)));
+        } finally {
+            isRunning.set(false);
+        }
+    }
+
+    private static boolean isWeighted(final int numShards, final List<ContainerAddress> nodes, final double[] weights,
+        final ContainerAddress[] assignedTo) {
+        if(Arrays.stream(assignedTo).anyMatch(ca -> ca == null))
+            return false;
+        final double totalWeight = Arrays.stream(weights).sum();
+        for(int i = 0; i < nodes.size(); i++) {
+            final ContainerAddress cur = nodes.get(i);
+            final long count = Arrays.stream(assignedTo).filter(ca -> cur.equals(ca)).count();
+            // no node should be off from its exact share by a whole shard.
+            if(Math.abs(count - (numShards * weights[i] / totalWeight)) >= 1.0D)
+                return false;
+        }
+        return true;
+    }
+
+    private static void assertWeighted(final int numShards, final List<ContainerAddress> nodes, final double[] weights,
+        final ContainerAddress[] assignedTo) {
+        assertTrue(isWeighted(numShards, nodes, weights, assignedTo), () -> "Shards aren't distributed by weight " + Arrays.toString(weights));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ContainerAddress[] readAssignments(final Utils<ContainerAddress> utils, final int numShards) throws ClusterInfoException {
+        final ContainerAddress[] ret = new ContainerAddress[numShards];
+        final List<ShardAssignment<ContainerAddress>> assignments = (List<ShardAssignment<ContainerAddress>>)utils.session
+            .getData(utils.shardsAssignedDir, null);
+        if(assignments != null) {
+            for(final ShardAssignment<ContainerAddress> sa: assignments) {
+                for(final int shard: sa.shards)
+                    ret[shard] = sa.addr;
+            }
+        }
+        return ret;
+    }
+
+    private static int numChanged(final ContainerAddress[] prev, final ContainerAddress[] cur) {
+        return (int)IntStream.range(0, prev.length).filter(i -> !Objects.equals(prev[i], cur[i])).count();
+    }
+
+    private static boolean isBalanced(final int numShards, final List<ContainerAddress> nodes, final ContainerAddress[] assignedTo) {
+        if(nodes.size() == 0)
+            return Arrays.stream(assignedTo).allMatch(ca -> ca == null);
+        final int base = numShards / nodes.size();
+        final Map<ContainerAddress, Long> counts = Arrays.stream(assignedTo).filter(ca -> ca != null)
+            .collect(Collectors.groupingBy(ca -> ca, Collectors.counting()));
+        return Arrays.stream(assignedTo).allMatch(ca -> ca != null) && counts.size() == nodes.size()
+            && counts.values().stream().allMatch(c -> c.longValue() == base || c.longValue() == base + 1);
+    }
+
+    private static void assertBalanced(final int numShards, final List<ContainerAddress> nodes, final ContainerAddress[] assignedTo) {
+        assertTrue(isBalanced(numShards, nodes, assignedTo), () -> "Unbalanced assignment over " + nodes.size() + " nodes.");
+    }
+
+    /**
+     * The fewest shards that can change owner going from {@code prev} to a balanced assignment over {@code nodes}. Every
+     * node needs to end up with either the base number of shards or one more. A node can keep at most its target so the
+     * most that can stay put comes from handing the extra shards to the nodes that currently have the most.
+     */
+    private static int minimumMoves(final int numShards, final List<ContainerAddress> nodes, final ContainerAddress[] prev) {
+        final int base = numShards / nodes.size();
+        final int numExtra = numShards % nodes.size();
+        final List<Long> counts = nodes.stream()
+            .map(n -> Long.valueOf(Arrays.stream(prev).filter(ca -> n.equals(ca)).count()))
+            .sorted(Comparator.reverseOrder())
+            .collect(Collectors.toList());
+        long canStay = 0;
+        for(int i = 0; i < counts.size(); i++)
+            canStay += Math.min(counts.get(i).longValue(), i < numExtra ? base + 1 : base);
+        return numShards - (int)canStay;
+    }
+
     public static class DummyNodeAddress implements NodeAddress {
         private static final long serialVersionUID = 1L;
         private static AtomicLong sequence = new AtomicLong(0);
@@ -0,0 +1,131 @@
+package net.dempsy.router.shardutils;
+
+import static net.dempsy.utils.test.ConditionPoll.poll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.cluster.DirMode;
+import net.dempsy.cluster.local.LocalClusterSessionFactory;
+import net.dempsy.config.ClusterId;
+import net.dempsy.router.BaseRouterTestWithSession;
+import net.dempsy.router.RoutingStrategy.ContainerAddress;
+import net.dempsy.router.shardutils.TestLeaderAndSubscriber.DummyNodeAddress;
+import net.dempsy.router.shardutils.Utils.ShardAssignment;
+
+public class TestShardHash extends BaseRouterTestWithSession {
+    static final Logger LOGGER = LoggerFactory.getLogger(TestShardHash.class);
+
+    private static final int NUM_SHARDS = 256;
+    private static final int NUM_KEYS = 100000;
+
+    {
+        super.LOGGER = TestShardHash.LOGGER;
+    }
+
+    public static class Constant implements ShardHash {
+        @Override
+        public int hash(final Object key) {
+            return 7;
+        }
+    }
+
+    @Test
+    public void testSequentialKeyDistribution() throws Exception {
+        // millisecond timestamps a second apart, Doubles counting up, and ids handed out in blocks of 256 all have hash
+        // codes that differ in the high bits.
+        final long now = 1700000000000L;
+        final List<List<Object>> clustered = Arrays.asList(
+            LongStream.range(0, NUM_KEYS).mapToObj(i -> (Object)Long.valueOf(now + i * 1000L)).collect(Collectors.toList()),
+            IntStream.range(0, NUM_KEYS).mapToObj(i -> (Object)Double.valueOf(i)).collect(Collectors.toList()),
+            LongStream.range(0, NUM_KEYS).mapToObj(i -> (Object)Long.valueOf(i << 8)).collect(Collectors.toList()));
+
+        for(final List<Object> keys: clustered) {
+            final ShardHistogram legacy = ShardHistogram.of(keys, ShardHash.LEGACY, NUM_SHARDS);
+            final ShardHistogram murmur3 = ShardHistogram.of(keys, ShardHash.MURMUR3, NUM_SHARDS);
+            LOGGER.info("{}", legacy);
+            LOGGER.info("{}", murmur3);
+
+            assertTrue(legacy.numEmptyShards() > NUM_SHARDS / 2);
+            assertEquals(0, murmur3.numEmptyShards());
+            assertTrue(murmur3.maxOverMean() < 1.5D);
+            assertTrue(murmur3.coefficientOfVariation() < 0.1D);
+        }
+
+        // plain sequential keys are fine either way.
+        final List<Object> sequential = LongStream.range(0, NUM_KEYS).mapToObj(i -> (Object)Long.valueOf(i)).collect(Collectors.toList());
+        assertTrue(ShardHistogram.of(sequential, ShardHash.LEGACY, NUM_SHARDS).maxOverMean() < 1.5D);
+        assertTrue(ShardHistogram.of(sequential, ShardHash.MURMUR3, NUM_SHARDS).maxOverMean() < 1.5D);
+    }
+
+    @Test
+    public void testForName() throws Exception {
+        assertTrue(ShardHash.forName(null) instanceof ShardHash.Legacy);
+        assertTrue(ShardHash.forName("legacy") instanceof ShardHash.Legacy);
+        assertTrue(ShardHash.forName("MURMUR3") instanceof ShardHash.Murmur3);
+        assertTrue(ShardHash.forName(Constant.class.getName()) instanceof Constant);
+        assertThrows(IllegalArgumentException.class, () -> ShardHash.forName("not.a.ShardHash"));
+        assertThrows(IllegalArgumentException.class, () -> ShardHash.forName(String.class.getName()));
+    }
+
+    @Test
+    public void testLegacyIsTheDefault() throws Exception {
+        initParams(() -> new LocalClusterSessionFactory(), "standard", null);
+        final Utils<ContainerAddress> utils = new Utils<>(infra, "testLegacyIsTheDefault", null);
+        assertEquals(ShardHash.LEGACY, utils.getShardHashName());
+        assertEquals(ShardHash.LEGACY, Utils.configuredShardHash(infra, Utils.class, "testLegacyIsTheDefault"));
+
+        // existing clusters need to keep the same shards.
+        for(int i = 0; i < 1000; i++) {
+            final Object key = "key-" + i;
+            assertEquals((514229 * key.hashCode()) & (NUM_SHARDS - 1), utils.determineShard(key, NUM_SHARDS - 1));
+        }
+
+        utils.shardHash(Constant.class.getName());
+        assertEquals(7, utils.determineShard("anything", NUM_SHARDS - 1));
+        utils.shardHash(null);
+        assertEquals(ShardHash.LEGACY, utils.getShardHashName());
+
+        // the name is kept the way other nodes will publish it.
+        utils.shardHash("MURMUR3");
+        assertEquals(ShardHash.MURMUR3, utils.getShardHashName());
+        utils.shardHash("Legacy");
+        assertEquals(ShardHash.LEGACY, utils.getShardHashName());
+    }
+
+    @Test
+    public void testRoutersUseThePublishedHash() throws Exception {
+        initParams(() -> new LocalClusterSessionFactory(), "standard", null);
+        final ClusterId cid = setTestName("testRoutersUseThePublishedHash");
+        final Utils<ContainerAddress> utils = new Utils<>(infra, cid.clusterName, null);
+        final ContainerAddress addr = new ContainerAddress(new DummyNodeAddress(), new int[] {0});
+        final int[] allShards = IntStream.range(0, NUM_SHARDS).toArray();
+
+        session.recursiveMkdir(utils.shardsAssignedDir, null, DirMode.PERSISTENT, DirMode.PERSISTENT);
+        session.setData(utils.shardsAssignedDir, Arrays.asList(new ShardAssignment<>(allShards, addr, NUM_SHARDS, 1, ShardHash.MURMUR3)));
+
+        final AtomicBoolean isRunning = new AtomicBoolean(true);
+        try {
+            final ShardState<ContainerAddress> state = new ShardState<>(cid.clusterName, infra, isRunning, ContainerAddress[]::new);
+            assertTrue(poll(o -> state.isReady()));
+            assertEquals(ShardHash.MURMUR3, state.getUtils().getShardHashName());
+
+            // assignments from before there was a choice mean the legacy hash.
+            session.setData(utils.shardsAssignedDir, Arrays.asList(new ShardAssignment<>(allShards, addr, NUM_SHARDS, 1)));
+            assertTrue(poll(o -> ShardHash.LEGACY.equals(state.getUtils().getShardHashName())));
+        } finally {
+            isRunning.set(false);
+        }
+    }
+}
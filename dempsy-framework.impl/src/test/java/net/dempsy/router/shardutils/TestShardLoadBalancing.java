@@ -0,0 +1,240 @@
+package net.dempsy.router.shardutils;
+
+import static net.dempsy.util.Functional.uncheck;
+import static net.dempsy.utils.test.ConditionPoll.poll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.cluster.ClusterInfoSession;
+import net.dempsy.cluster.local.LocalClusterSessionFactory;
+import net.dempsy.config.ClusterId;
+import net.dempsy.router.BaseRouterTestWithSession;
+import net.dempsy.router.RoutingStrategy.ContainerAddress;
+import net.dempsy.router.shardutils.TestLeaderAndSubscriber.DummyNodeAddress;
+import net.dempsy.router.shardutils.Utils.ShardAssignment;
+import net.dempsy.router.shardutils.Utils.ShardLoad;
+
+public class TestShardLoadBalancing extends BaseRouterTestWithSession {
+    static final Logger LOGGER = LoggerFactory.getLogger(TestShardLoadBalancing.class);
+
+    private static final int NUM_SHARDS = 256;
+    private static final int NUM_KEYS = 1000;
+
+    {
+        super.LOGGER = TestShardLoadBalancing.LOGGER;
+    }
+
+    @Test
+    public void testBalanceLoadOnZipf() throws Exception {
+        final double threshold = 0.2;
+        final double[] rates = zipfShardRates(1000.0D);
+        final double[] weights = {1,1,1,1};
+        final List<ContainerAddress> nodes = makeNodes(weights.length);
+        final ContainerAddress[] assignedTo = new ContainerAddress[NUM_SHARDS];
+        Leader.assign(assignedTo, nodes, weights, 1);
+
+        // evenly distributed shards don't mean an evenly distributed load.
+        assertTrue(maxRelativeLoad(assignedTo, nodes, weights, rates) > 1.0D + threshold);
+
+        // one move per interval.
+        int intervals = 0;
+        int moved;
+        do {
+            moved = Leader.balanceLoad(assignedTo, nodes, weights, rates, threshold, 1);
+            assertTrue(moved <= 1);
+            intervals++;
+        } while(moved > 0 && intervals < 100);
+
+        assertTrue(intervals < 100);
+        assertTrue(maxRelativeLoad(assignedTo, nodes, weights, rates) <= 1.0D + threshold);
+        assertTrue(Arrays.stream(assignedTo).allMatch(ca -> ca != null));
+    }
+
+    @Test
+    public void testBalanceLoadWithWeights() throws Exception {
+        final double threshold = 0.1;
+        final double[] rates = zipfShardRates(1000.0D);
+        final double[] weights = {1,2,4,1};
+        final List<ContainerAddress> nodes = makeNodes(weights.length);
+        final ContainerAddress[] assignedTo = new ContainerAddress[NUM_SHARDS];
+        Leader.assign(assignedTo, nodes, weights, 1);
+
+        int intervals = 0;
+        while(Leader.balanceLoad(assignedTo, nodes, weights, rates, threshold, 8) > 0 && intervals < 100)
+            intervals++;
+
+        assertTrue(intervals < 100);
+        assertTrue(maxRelativeLoad(assignedTo, nodes, weights, rates) <= 1.0D + threshold);
+    }
+
+    @Test
+    public void testNoMovesWithinThreshold() throws Exception {
+        final double[] rates = new double[NUM_SHARDS];
+        final Random random = new Random(2112L);
+        // within 10% of each other
+        for(int i = 0; i < NUM_SHARDS; i++)
+            rates[i] = 100.0D + random.nextDouble() * 10.0D;
+
+        final double[] weights = {1,1,1,1};
+        final List<ContainerAddress> nodes = makeNodes(weights.length);
+        final ContainerAddress[] assignedTo = new ContainerAddress[NUM_SHARDS];
+        Leader.assign(assignedTo, nodes, weights, 1);
+        final ContainerAddress[] before = assignedTo.clone();
+
+        assertEquals(0, Leader.balanceLoad(assignedTo, nodes, weights, rates, 0.2, 8));
+        assertTrue(Arrays.equals(before, assignedTo));
+
+        // and a single shard that's bigger than a node's share can't be helped by moving it around.
+        Arrays.fill(rates, 0.0D);
+        rates[0] = 1000.0D;
+        assertEquals(0, Leader.balanceLoad(assignedTo, nodes, weights, rates, 0.2, 8));
+    }
+
+    @Test
+    public void testLoadConvergesOverSession() throws Exception {
+        initParams(() -> new LocalClusterSessionFactory(), "standard", null);
+        final ClusterId cid = setTestName("testLoadConvergesOverSession");
+        final double threshold = 0.2;
+        final int numNodes = 4;
+
+        final AtomicBoolean isRunning = new AtomicBoolean(true);
+        final List<ClusterInfoSession> sessions = new ArrayList<>();
+        final AtomicReference<Throwable> failed = new AtomicReference<>(null);
+        Thread driver = null;
+        try {
+            final List<Subscriber<ContainerAddress>> subs = new ArrayList<>();
+            final List<ShardLoadReporter<ContainerAddress>> reporters = new ArrayList<>();
+            final List<ContainerAddress> nodes = makeNodes(numNodes);
+            for(final ContainerAddress ca: nodes) {
+                final ClusterInfoSession nodeSession = sessFact.createSession();
+                sessions.add(nodeSession);
+                final Utils<ContainerAddress> utils = new Utils<>(makeInfra(nodeSession, sched), cid.clusterName, ca);
+                final Subscriber<ContainerAddress> s = new Subscriber<>(utils, infra, isRunning, (l, m) -> {}, NUM_SHARDS);
+                s.process();
+                subs.add(s);
+                final ShardLoadReporter<ContainerAddress> reporter = new ShardLoadReporter<>(utils, infra, isRunning, NUM_SHARDS, 100);
+                reporter.start();
+                reporters.add(reporter);
+            }
+
+            final Utils<ContainerAddress> utils = new Utils<>(makeInfra(session, sched), cid.clusterName,
+                new ContainerAddress(new DummyNodeAddress(), new int[] {0}));
+            final Leader<ContainerAddress> l = new Leader<>(utils, NUM_SHARDS, 1, infra, isRunning, ContainerAddress[]::new)
+                .loadBalancing(100, threshold, 8);
+            l.process();
+            assertTrue(poll(o -> l.imIt()));
+            assertTrue(poll(o -> subs.stream().allMatch(s -> s.isReady() && s.numShardsIOwn() == NUM_SHARDS / numNodes)));
+
+            // each message goes to whichever node currently owns its shard.
+            final double[] cumulative = zipfCumulative();
+            driver = new Thread(() -> {
+                try {
+                    final Random random = new Random(2112L);
+                    while(isRunning.get()) {
+                        final int index = Arrays.binarySearch(cumulative, random.nextDouble());
+                        final Integer key = Integer.valueOf((index < 0 ? -(index + 1) : index) + 1);
+                        final int shard = utils.determineShard(key, NUM_SHARDS - 1);
+                        for(int i = 0; i < numNodes; i++) {
+                            if(subs.get(i).doIOwnShard(shard)) {
+                                reporters.get(i).record(shard);
+                                break;
+                            }
+                        }
+                    }
+                } catch(final Throwable th) {
+                    failed.set(th);
+                }
+            }, "testLoadConvergesOverSession-driver");
+            driver.start();
+
+            // within the tolerance according to what the nodes are reporting.
+            assertTrue(poll(o -> {
+                final ContainerAddress[] assignedTo = readAssignments(utils);
+                final List<ShardLoad<ContainerAddress>> loads = uncheck(
+                    () -> utils.<ShardLoad<ContainerAddress>>persistentGetSubdirData(utils.shardLoadDir, null, null));
+                if(loads.size() != numNodes || Arrays.stream(assignedTo).anyMatch(ca -> ca == null))
+                    return false;
+
+                // shards need to have actually moved for load so the counts aren't even anymore.
+                if(nodes.stream().allMatch(n -> Arrays.stream(assignedTo).filter(ca -> n.equals(ca)).count() == NUM_SHARDS / numNodes))
+                    return false;
+
+                return maxRelativeLoad(assignedTo, nodes, new double[] {1,1,1,1}, Leader.shardRates(loads, NUM_SHARDS)) <= 1.0D + threshold;
+            }));
+            assertNull(failed.get());
+        } finally {
+            isRunning.set(false);
+            if(driver != null)
+                driver.join(5000);
+            sessions.forEach(s -> s.close());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ContainerAddress[] readAssignments(final Utils<ContainerAddress> utils) {
+        final ContainerAddress[] ret = new ContainerAddress[NUM_SHARDS];
+        final List<ShardAssignment<ContainerAddress>> assignments = (List<ShardAssignment<ContainerAddress>>)uncheck(
+            () -> utils.session.getData(utils.shardsAssignedDir, null));
+        if(assignments != null) {
+            for(final ShardAssignment<ContainerAddress> sa: assignments) {
+                for(final int shard: sa.shards)
+                    ret[shard] = sa.addr;
+            }
+        }
+        return ret;
+    }
+
+    private static List<ContainerAddress> makeNodes(final int numNodes) {
+        return IntStream.range(0, numNodes).mapToObj(i -> new ContainerAddress(new DummyNodeAddress(), new int[] {0})).collect(Collectors.toList());
+    }
+
+    // The probability of key k (from 1 to NUM_KEYS) is proportional to 1/k
+    private static double[] zipfProbabilities() {
+        final double[] ret = new double[NUM_KEYS];
+        double total = 0.0D;
+        for(int k = 1; k <= NUM_KEYS; k++)
+            total += (ret[k - 1] = 1.0D / k);
+        for(int i = 0; i < NUM_KEYS; i++)
+            ret[i] /= total;
+        return ret;
+    }
+
+    private static double[] zipfCumulative() {
+        final double[] ret = zipfProbabilities();
+        for(int i = 1; i < NUM_KEYS; i++)
+            ret[i] += ret[i - 1];
+        return ret;
+    }
+
+    private static double[] zipfShardRates(final double totalRate) {
+        final double[] probs = zipfProbabilities();
+        final double[] ret = new double[NUM_SHARDS];
+        for(int k = 1; k <= NUM_KEYS; k++)
+            ret[(Utils.prime * Integer.valueOf(k).hashCode()) & (NUM_SHARDS - 1)] += totalRate * probs[k - 1];
+        return ret;
+    }
+
+    private static double maxRelativeLoad(final ContainerAddress[] assignedTo, final List<ContainerAddress> nodes, final double[] weights,
+        final double[] rates) {
+        final double[] load = new double[nodes.size()];
+        for(int shard = 0; shard < assignedTo.length; shard++)
+            load[nodes.indexOf(assignedTo[shard])] += rates[shard];
+        final double totalLoad = Arrays.stream(load).sum();
+        final double totalWeight = Arrays.stream(weights).sum();
+        return IntStream.range(0, load.length).mapToDouble(i -> load[i] / (totalLoad * weights[i] / totalWeight)).max().getAsDouble();
+    }
+}
@@ -18,13 +18,21 @@ package net.dempsy.transport.blockingqueue;
 
 import static net.dempsy.util.Functional.chain;
 import static net.dempsy.utils.test.ConditionPoll.poll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.junit.jupiter.api.Test;
 
@@ -117,4 +125,102 @@ public class BlockingQueueTest {
             assertTrue(poll(o -> !t.isAlive()));
         }
     }
+
+    /**
+     * Several producers put on a {@link MpscBlockingQueue} with room for only a few messages while the receiver
+     * drains it. Every message arrives and each producer's messages arrive in the order it sent them.
+     */
+    @Test
+    public void testMpscQueue() throws Exception {
+        final int numProducers = 4;
+        final int numPerProducer = 100000;
+        try(final TestInfrastructure infra = new TestInfrastructure(new DefaultThreadingModel("BQTest-testMpscQueue-"));
+            final BlockingQueueReceiver r = new BlockingQueueReceiver("BlockingQueue_", 16).maxBatchSize(8);) {
+
+            final long[] lastSeen = new long[numProducers];
+            Arrays.fill(lastSeen, -1);
+            final AtomicLong outOfOrder = new AtomicLong();
+            final AtomicLong received = new AtomicLong();
+            r.start((final long[] msg) -> {
+                final int producer = (int)msg[0];
+                if(msg[1] != lastSeen[producer] + 1)
+                    outOfOrder.incrementAndGet();
+                lastSeen[producer] = msg[1];
+                received.incrementAndGet();
+                return true;
+            }, infra);
+
+            final BlockingQueue<Object> queue = ((BlockingQueueAddress)r.getAddress(infra)).getQueue();
+            final List<Thread> producers = IntStream.range(0, numProducers)
+                .mapToObj(p -> chain(new Thread(() -> {
+                    try {
+                        for(long i = 0; i < numPerProducer; i++)
+                            queue.put(new long[] {p,i});
+                    } catch(final InterruptedException ie) {
+                        throw new RuntimeException(ie);
+                    }
+                }, "testMpscQueue-producer-" + p), t -> t.start()))
+                .collect(Collectors.toList());
+
+            for(final Thread t: producers)
+                t.join();
+            assertTrue(poll(o -> received.get() == (long)numProducers * numPerProducer));
+            assertEquals(0, outOfOrder.get());
+        }
+    }
+
+    @Test
+    public void testMpscQueueAllowsOnlyOneThread() throws Exception {
+        try(final TestInfrastructure infra = new TestInfrastructure(new DefaultThreadingModel("BQTest-testMpscQueueAllowsOnlyOneThread-"));
+            final BlockingQueueReceiver r = new BlockingQueueReceiver("BlockingQueue_", 16).numThreads(2);) {
+            assertThrows(IllegalStateException.class, () -> r.start((final String msg) -> true, infra));
+        }
+    }
+
+    /**
+     * Every message from several producers arrives whether the receiver takes one message at a time, drains
+     * batches, drains batches on 2 threads, or drains batches from a {@link MpscBlockingQueue}.
+     */
+    @Test
+    public void testManyProducers() throws Exception {
+        final int numMessages = 20000;
+        for(final int numProducers: new int[] {1,4}) {
+            runProducers(numProducers, numMessages, false, 1, 1);
+            runProducers(numProducers, numMessages, false, 64, 1);
+            runProducers(numProducers, numMessages, false, 64, 2);
+            runProducers(numProducers, numMessages, true, 64, 1);
+        }
+    }
+
+    private void runProducers(final int numProducers, final int numMessages, final boolean mpsc, final int maxBatchSize, final int numThreads)
+        throws Exception {
+        try(final TestInfrastructure infra = new TestInfrastructure(new DefaultThreadingModel("BQTest-testManyProducers-"));
+            final BlockingQueueReceiver r = (mpsc ? new BlockingQueueReceiver("BlockingQueue_", 1024)
+                : new BlockingQueueReceiver(new ArrayBlockingQueue<>(1024))).maxBatchSize(maxBatchSize).numThreads(numThreads);
+            final TransportManager tranMan = chain(new TransportManager(), c -> c.start(infra));
+            final SenderFactory sf = tranMan.getAssociatedInstance(transportTypeId);) {
+
+            final LongAdder received = new LongAdder();
+            r.start((final String msg) -> {
+                received.increment();
+                return true;
+            }, infra);
+            final Sender sender = sf.getSender(r.getAddress(infra));
+
+            final List<Thread> producers = IntStream.range(0, numProducers)
+                .mapToObj(p -> chain(new Thread(() -> {
+                    try {
+                        for(int i = p; i < numMessages; i += numProducers)
+                            sender.send("Hello");
+                    } catch(final MessageTransportException | InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }, "testManyProducers-producer-" + p), t -> t.start()))
+                .collect(Collectors.toList());
+
+            for(final Thread t: producers)
+                t.join();
+            assertTrue(poll(o -> received.sum() == numMessages));
+        }
+    }
 }
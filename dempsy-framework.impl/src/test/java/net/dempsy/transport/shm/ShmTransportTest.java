@@ -0,0 +1,339 @@
+package net.dempsy.transport.shm;
+
+import static net.dempsy.utils.test.ConditionPoll.poll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.Infrastructure;
+import net.dempsy.NodeManager;
+import net.dempsy.ServiceTracker;
+import net.dempsy.cluster.zookeeper.ZookeeperSessionFactory;
+import net.dempsy.cluster.zookeeper.ZookeeperTestServer;
+import net.dempsy.config.Node;
+import net.dempsy.lifecycle.simple.MessageProcessor;
+import net.dempsy.lifecycle.simple.Mp;
+import net.dempsy.lifecycle.simple.MpFactory;
+import net.dempsy.messages.Adaptor;
+import net.dempsy.messages.Dispatcher;
+import net.dempsy.messages.KeyedMessage;
+import net.dempsy.messages.KeyedMessageWithType;
+import net.dempsy.serialization.jackson.JsonSerializer;
+import net.dempsy.threading.DefaultThreadingModel;
+import net.dempsy.threading.ThreadingModel;
+import net.dempsy.transport.Listener;
+import net.dempsy.transport.MessageTransportException;
+import net.dempsy.transport.RoutedMessage;
+import net.dempsy.transport.Sender;
+import net.dempsy.transport.shm.internal.ShmRing;
+import net.dempsy.util.TestInfrastructure;
+
+public class ShmTransportTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShmTransportTest.class);
+
+    private static final String APP = "shm-test";
+    private static final String ROUTER = "net.dempsy.router.managed";
+
+    @Test
+    public void testRingWrapsAround(@TempDir final Path dir) throws Exception {
+        final int numFrames = 10000;
+        final Path file = dir.resolve("test" + ShmRing.RING_SUFFIX);
+        final ShmRing producer = ShmRing.create(file, 4096);
+        final ShmRing consumer = ShmRing.open(file);
+        assertEquals(4096, consumer.capacity);
+
+        // frames of lots of different sizes so they end in different places relative to the end of the buffer.
+        final Random random = new Random(2112L);
+        final List<byte[]> frames = new ArrayList<>();
+        for(int i = 0; i < numFrames; i++) {
+            final byte[] frame = new byte[random.nextInt(1000)];
+            random.nextBytes(frame);
+            frames.add(frame);
+        }
+
+        final AtomicReference<Throwable> failure = new AtomicReference<>(null);
+        final Thread thread = new Thread(() -> {
+            try {
+                final ShmRing.Backoff backoff = new ShmRing.Backoff(TimeUnit.MICROSECONDS.toNanos(100));
+                for(final byte[] frame: frames) {
+                    while(!producer.offer(frame, 0, frame.length))
+                        backoff.idle();
+                    backoff.reset();
+                }
+                producer.markProducerClosed();
+            } catch(final Throwable th) {
+                failure.set(th);
+            }
+        }, "testRingWrapsAround-producer");
+        thread.start();
+
+        int received = 0;
+        while(received < numFrames) {
+            final byte[] frame = consumer.poll();
+            if(frame == null) {
+                assertNull(failure.get());
+                Thread.yield();
+            } else
+                assertArrayEquals(frames.get(received++), frame);
+        }
+
+        thread.join();
+        assertNull(failure.get());
+        assertTrue(consumer.isProducerClosed());
+        assertTrue(consumer.isEmpty());
+        assertNull(consumer.poll());
+    }
+
+    /**
+     * A frame just over half of the buffer could never be written once the write position wasn't at the start
+     * since it needs the rest of the buffer as well as its own space. Those are refused now and the largest
+     * allowed frame fits wherever the write position is.
+     */
+    @Test
+    public void testLargeFramesAtAnyIndex(@TempDir final Path dir) throws Exception {
+        final Path file = dir.resolve("test" + ShmRing.RING_SUFFIX);
+        final ShmRing producer = ShmRing.create(file, 1024);
+        final ShmRing consumer = ShmRing.open(file);
+        assertTrue(ShmRing.minCapacity(producer.maxFrameSize()) <= producer.capacity);
+
+        final byte[] tooLarge = new byte[(producer.capacity / 2) + 8];
+        final byte[] largest = new byte[producer.maxFrameSize()];
+        new Random(2112L).nextBytes(largest);
+
+        // small frames of different sizes move the write position around the buffer.
+        for(int small = 0; small < producer.capacity / 8; small++) {
+            assertTrue(producer.offer(new byte[small % 8], 0, small % 8));
+            assertEquals(small % 8, consumer.poll().length);
+
+            assertThrows(IllegalArgumentException.class, () -> producer.offer(tooLarge, 0, tooLarge.length));
+
+            assertTrue(producer.offer(largest, 0, largest.length));
+            assertArrayEquals(largest, consumer.poll());
+            assertNull(consumer.poll());
+        }
+    }
+
+    @Test
+    public void testSendTimesOut() throws Exception {
+        try(final ServiceTracker tr = new ServiceTracker();) {
+            final ThreadingModel tm = tr.track(new DefaultThreadingModel(ShmTransportTest.class.getSimpleName() + ".testSendTimesOut"));
+            final Infrastructure infra = tr.track(new TestInfrastructure(tm));
+            // the receiver is never started so nothing is ever read.
+            final ShmReceiver<RoutedMessage> r = tr.track(new ShmReceiver<RoutedMessage>(new JsonSerializer()));
+            final ShmAddress addr = r.getAddress(infra);
+
+            try(final ShmSenderFactory sf = new ShmSenderFactory();) {
+                sf.start(new TestInfrastructure(null, null) {
+                    @Override
+                    public Map<String, String> getConfiguration() {
+                        final Map<String, String> ret = new HashMap<>();
+                        ret.put(ShmSender.class.getPackage().getName() + "." + ShmSenderFactory.CONFIG_KEY_SENDER_TIMEOUT_MILLIS, "100");
+                        return ret;
+                    }
+                });
+                final Sender sender = sf.getSender(addr);
+                final RoutedMessage message = new RoutedMessage(new int[] {0}, "key", "x".repeat(64 * 1024));
+
+                assertThrows(MessageTransportException.class, () -> {
+                    while(true)
+                        sender.send(message);
+                });
+            }
+        }
+    }
+
+    @Test
+    public void testMessages() throws Exception {
+        final int numMessages = 10000;
+        final int numKeys = 16;
+        try(final ServiceTracker tr = new ServiceTracker();) {
+            final ThreadingModel tm = tr.track(new DefaultThreadingModel(ShmTransportTest.class.getSimpleName() + ".testMessages"));
+            final Infrastructure infra = tr.track(new TestInfrastructure(tm));
+            final ShmReceiver<RoutedMessage> r = tr.track(new ShmReceiver<RoutedMessage>(new JsonSerializer()));
+            final ShmAddress addr = r.getAddress(infra);
+            assertTrue(new File(addr.directory, addr.guid).isDirectory());
+
+            final AtomicLong msgCount = new AtomicLong();
+            final AtomicLong outOfOrder = new AtomicLong();
+            final Map<Object, Long> lastSeqByKey = new ConcurrentHashMap<>();
+            r.start((Listener<RoutedMessage>)msg -> {
+                final long seq = Long.parseLong((String)msg.message);
+                final Long prev = lastSeqByKey.put(msg.key, seq);
+                if(prev != null && prev.longValue() >= seq)
+                    outOfOrder.incrementAndGet();
+                msgCount.incrementAndGet();
+                return true;
+            }, infra);
+
+            try(final ShmSenderFactory sf = new ShmSenderFactory();) {
+                sf.start(new TestInfrastructure(null, null));
+                final Sender sender = sf.getSender(addr);
+
+                for(int i = 0; i < numMessages; i++)
+                    sender.send(new RoutedMessage(new int[] {0}, "key-" + (i % numKeys), Long.toString(i)));
+
+                assertTrue(poll(o -> msgCount.get() == numMessages));
+                assertEquals(0, outOfOrder.get());
+            }
+
+            // the sender's ring buffer is removed once it's been drained
+            assertTrue(poll(o -> new File(addr.directory, addr.guid).list().length == 0));
+        }
+    }
+
+    /**
+     * A node in this process dispatches messages to an "echo" cluster in a separate JVM (see {@link #main(String[])})
+     * which sends each back to a "results" cluster in this process. Both directions go through the shm transport.
+     */
+    @Test
+    public void testSeparateProcesses() throws Exception {
+        final int port;
+        try(ServerSocket socket = new ServerSocket(0);) {
+            port = socket.getLocalPort();
+        }
+
+        final AtomicLong results = new AtomicLong();
+        final ZookeeperTestServer zk = new ZookeeperTestServer(port);
+        Process echo = null;
+        try(final ServiceTracker tr = new ServiceTracker();) {
+            final String connectString = zk.connectString();
+
+            final String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+            echo = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), ShmTransportTest.class.getName(), connectString)
+                .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+
+            final AtomicLong sent = new AtomicLong();
+            final Node n = new Node.Builder(APP)
+                .defaultRoutingStrategyId(ROUTER)
+                .receiver(new ShmReceiver<RoutedMessage>(new JsonSerializer()))
+                .cluster("adaptor")
+                .adaptor(new Adaptor() {
+                    private Dispatcher disp;
+                    private volatile boolean done = false;
+
+                    @Override
+                    public void stop() {
+                        done = true;
+                    }
+
+                    @Override
+                    public void start() {
+                        try {
+                            // the echo node may not be up yet so just keep sending until we're stopped.
+                            while(!done) {
+                                final long cur = sent.getAndIncrement();
+                                disp.dispatch(new KeyedMessageWithType(Long.valueOf(cur % 100), Long.toString(cur), "word"));
+                                Thread.sleep(1);
+                            }
+                        } catch(final InterruptedException ie) {
+                            if(!done)
+                                LOGGER.error("Interrupted but not stopping.");
+                        }
+                    }
+
+                    @Override
+                    public void setDispatcher(final Dispatcher dispatcher) {
+                        this.disp = dispatcher;
+                    }
+                })
+                .cluster("results")
+                .mp(new MessageProcessor(MpFactory.make(() -> new Mp() {
+                    @Override
+                    public KeyedMessageWithType[] handle(final KeyedMessage message) {
+                        results.incrementAndGet();
+                        return null;
+                    }
+                }, "result")))
+                .build();
+
+            final ThreadingModel tm = tr.track(new DefaultThreadingModel(ShmTransportTest.class.getSimpleName() + ".testSeparateProcesses"));
+            tr.track(new NodeManager())
+                .node(n)
+                .collaborator(tr.track(new ZookeeperSessionFactory(connectString, 5000, new JsonSerializer()).createSession()))
+                .threadingModel(tm.start("results"))
+                .start();
+
+            assertTrue(poll(o -> results.get() > 1000));
+            assertTrue(echo.isAlive());
+        } finally {
+            if(echo != null) {
+                // closing its stdin tells the echo node to shut down.
+                echo.getOutputStream().close();
+                if(!echo.waitFor(30, TimeUnit.SECONDS))
+                    echo.destroyForcibly();
+            }
+            zk.shutdown();
+        }
+    }
+
+    /**
+     * The echo node for {@link #testSeparateProcesses()}. It runs until its stdin is closed.
+     */
+    public static void main(final String[] args) throws Exception {
+        final String connectString = args[0];
+        try(final ServiceTracker tr = new ServiceTracker();) {
+            final Node n = new Node.Builder(APP)
+                .defaultRoutingStrategyId(ROUTER)
+                .receiver(new ShmReceiver<RoutedMessage>(new JsonSerializer()))
+                .cluster("echo")
+                .mp(new MessageProcessor(MpFactory.make(() -> new Mp() {
+                    @Override
+                    public KeyedMessageWithType[] handle(final KeyedMessage message) {
+                        return new KeyedMessageWithType[] {new KeyedMessageWithType(message.key, message.message, "result")};
+                    }
+                }, "word")))
+                .build();
+
+            final ThreadingModel tm = tr.track(new DefaultThreadingModel(ShmTransportTest.class.getSimpleName() + ".echo"));
+            tr.track(new NodeManager())
+                .node(n)
+                .collaborator(tr.track(new ZookeeperSessionFactory(connectString, 5000, new JsonSerializer()).createSession()))
+                .threadingModel(tm.start("echo"))
+                .start();
+
+            while(System.in.read() != -1)
+                ;
+        }
+    }
+
+    @Test
+    public void testReceiverCleansUp(@TempDir final Path dir) throws Exception {
+        try(final ServiceTracker tr = new ServiceTracker();) {
+            final ThreadingModel tm = tr.track(new DefaultThreadingModel(ShmTransportTest.class.getSimpleName() + ".testReceiverCleansUp"));
+            final Infrastructure infra = tr.track(new TestInfrastructure(tm));
+            final ShmAddress addr;
+            try(final ShmReceiver<RoutedMessage> r = new ShmReceiver<RoutedMessage>(new JsonSerializer()).directory(dir.toString());
+                final ShmSenderFactory sf = new ShmSenderFactory();) {
+                addr = r.getAddress(infra);
+                r.start((Listener<RoutedMessage>)msg -> true, infra);
+                sf.start(new TestInfrastructure(null, null));
+                sf.getSender(addr).send(new RoutedMessage(new int[] {0}, "key", "value"));
+                assertEquals(1, dir.resolve(addr.guid).toFile().list().length);
+            }
+            assertTrue(!Files.exists(dir.resolve(addr.guid)));
+        }
+    }
+}
@@ -5,15 +5,32 @@ import static net.dempsy.util.Functional.chain;
 import static net.dempsy.util.Functional.uncheck;
 import static net.dempsy.utils.test.ConditionPoll.poll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Inet4Address;
+import java.net.InetAddress;
 import java.net.NetworkInterface;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
@@ -22,6 +39,7 @@ import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
@@ -31,23 +49,37 @@ import org.junit.jupiter.params.provider.MethodSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 import net.dempsy.Infrastructure;
+import net.dempsy.NodeReceiver;
 import net.dempsy.ServiceTracker;
 import net.dempsy.TestWordCount;
+import net.dempsy.monitoring.NodeStatsCollector;
+import net.dempsy.monitoring.basic.BasicNodeStatsCollector;
+import net.dempsy.monitoring.micrometer.MicrometerNodeStatsCollector;
 import net.dempsy.serialization.Serializer;
 import net.dempsy.serialization.jackson.JsonSerializer;
 import net.dempsy.serialization.kryo.KryoSerializer;
 import net.dempsy.threading.DefaultThreadingModel;
 import net.dempsy.threading.ThreadingModel;
 import net.dempsy.transport.DisruptableRecevier;
+import net.dempsy.transport.FanOutRoutedMessage;
+import net.dempsy.transport.FanOutRoutedMessage.FanOut;
 import net.dempsy.transport.Listener;
+import net.dempsy.transport.MessageTransportException;
 import net.dempsy.transport.Receiver;
 import net.dempsy.transport.RoutedMessage;
 import net.dempsy.transport.Sender;
 import net.dempsy.transport.SenderFactory;
+import net.dempsy.transport.tcp.nio.NioAddress;
 import net.dempsy.transport.tcp.nio.NioReceiver;
 import net.dempsy.transport.tcp.nio.NioSenderFactory;
+import net.dempsy.transport.tcp.nio.internal.NioUtils;
+import net.dempsy.transport.tcp.nio.internal.ReadChunk;
 import net.dempsy.util.TestInfrastructure;
+import net.dempsy.util.io.MessageBufferOutput;
 
 public class TcpTransportTest {
     private static final Logger LOGGER = LoggerFactory.getLogger(TcpTransportTest.class);
@@ -355,4 +387,889 @@ public class TcpTransportTest {
         }
     }
 
+    private static final int COMPRESS_THRESHOLD = 512;
+
+    /**
+     * Sends the same verbose message over loopback with and without compression at several message sizes and
+     * checks that only the frames over the threshold are compressed and that they end up smaller.
+     */
+    @Test
+    public void testCompression() throws Exception {
+        for(final int size: new int[] {64,1024,16 * 1024,256 * 1024}) {
+            final String message = verboseMessage(size);
+            final int numMessages = Math.max(20, (512 * 1024) / size);
+
+            final long[] plain = runCompression("testCompression", message, numMessages, true, -1);
+            final long[] compressed = runCompression("testCompression", message, numMessages, true, COMPRESS_THRESHOLD);
+
+            // the same thing was serialized either way.
+            assertEquals(plain[0], compressed[0]);
+            if(size >= COMPRESS_THRESHOLD)
+                assertTrue(compressed[1] < plain[1]);
+            else
+                assertEquals(plain[1], compressed[1]);
+        }
+    }
+
+    @Test
+    public void testCompressionNotAccepted() throws Exception {
+        // a receiver that doesn't accept compressed frames, like one running an older version, never gets any.
+        final long[] results = runCompression("testCompressionNotAccepted", verboseMessage(16 * 1024), 100, false, 0);
+        assertTrue(results[1] > results[0]);
+    }
+
+    private static String verboseMessage(final int size) {
+        final StringBuilder sb = new StringBuilder();
+        for(int i = 0; sb.length() < size; i++)
+            sb.append("{\"customerId\":").append(i).append(",\"firstName\":\"Jim\",\"lastName\":\"Carroll\",\"status\":\"ACTIVE\"}");
+        return sb.substring(0, size);
+    }
+
+    /**
+     * @return the number of bytes serialized, the number of bytes framed (sent on the wire), and the nanoseconds it took for everything to arrive.
+     */
+    private long[] runCompression(final String testName, final String message, final int numMessages, final boolean receiverAccepts,
+        final int compressThreshold) throws Exception {
+        try(final ServiceTracker tr = new ServiceTracker();) {
+            final NioReceiver<RoutedMessage> r = tr.track(new NioReceiver<RoutedMessage>(new JsonSerializer()))
+                .acceptCompressedFrames(receiverAccepts)
+                .numHandlers(2)
+                .useLocalHost(true);
+            r.maxMessageSize(1024 * 1024 * 1024);
+
+            final ThreadingModel tm = tr.track(new DefaultThreadingModel(TcpTransportTest.class.getSimpleName() + "." + testName));
+            final Infrastructure infra = tr.track(new TestInfrastructure(tm));
+            final NioAddress addr = r.getAddress(infra);
+            assertEquals(receiverAccepts, addr.acceptsCompressedFrames);
+
+            final AtomicLong msgCount = new AtomicLong();
+            final AtomicLong mismatches = new AtomicLong();
+            r.start((Listener<RoutedMessage>)msg -> {
+                if(!message.equals(msg.message))
+                    mismatches.incrementAndGet();
+                msgCount.incrementAndGet();
+                return true;
+            }, infra);
+
+            try(final NioSenderFactory sf = new NioSenderFactory();) {
+                sf.start(new TestInfrastructure(null, null) {
+                    @Override
+                    public Map<String, String> getConfiguration() {
+                        final Map<String, String> ret = new HashMap<>();
+                        ret.put(sf.getClass().getPackage().getName() + "." + NioSenderFactory.CONFIG_KEY_SENDER_COMPRESS_THRESHOLD,
+                            Integer.toString(compressThreshold));
+                        return ret;
+                    }
+                });
+                final Sender sender = sf.getSender(addr);
+
+                for(int i = 0; i < numMessages; i++)
+                    sender.send(new RoutedMessage(new int[] {0}, "Hello", message));
+
+                assertTrue(poll(o -> msgCount.get() == numMessages));
+                assertEquals(0, mismatches.get());
+                return new long[] {sf.getNumBytesSerialized(),sf.getNumBytesFramed()};
+            }
+        }
+    }
+
+    private static final int NUM_FAN_OUT_RECEIVERS = 8;
+
+    /**
+     * Sends each message to 8 receivers the way the OutgoingDispatcher does when a message is going to several
+     * nodes and makes sure it's only serialized once.
+     */
+    @Test
+    public void testFanOutSerializesOnce() throws Exception {
+        final int numMessages = 1000;
+        try(final ServiceTracker tr = new ServiceTracker();) {
+            final ThreadingModel tm = tr.track(new DefaultThreadingModel(TcpTransportTest.class.getSimpleName() + ".testFanOutSerializesOnce"));
+            final Infrastructure infra = tr.track(new TestInfrastructure(tm));
+
+            final List<NioAddress> addrs = new ArrayList<>();
+            final List<AtomicLong> counts = new ArrayList<>();
+            final AtomicLong mismatches = new AtomicLong();
+            for(int i = 0; i < NUM_FAN_OUT_RECEIVERS; i++) {
+                final int container = i;
+                final AtomicLong count = new AtomicLong();
+                final NioReceiver<RoutedMessage> r = tr.track(new NioReceiver<RoutedMessage>(new JsonSerializer()))
+                    .numHandlers(1)
+                    .useLocalHost(true);
+                final NioAddress addr = r.getAddress(infra);
+                assertTrue(addr.acceptsSharedPayloadFrames);
+                r.start((Listener<RoutedMessage>)msg -> {
+                    // each receiver should see only its own container.
+                    if(msg.containers.length != 1 || msg.containers[0] != container || !"Hello".equals(msg.key) || !"World".equals(msg.message))
+                        mismatches.incrementAndGet();
+                    count.incrementAndGet();
+                    return true;
+                }, infra);
+                addrs.add(addr);
+                counts.add(count);
+            }
+
+            try(final NioSenderFactory sf = new NioSenderFactory();) {
+                sf.start(new TestInfrastructure(null, null));
+                final List<Sender> senders = addrs.stream().map(a -> sf.getSender(a)).collect(Collectors.toList());
+
+                for(int m = 0; m < numMessages; m++) {
+                    final FanOut fanOut = new FanOut(NUM_FAN_OUT_RECEIVERS);
+                    for(int i = 0; i < NUM_FAN_OUT_RECEIVERS; i++)
+                        senders.get(i).send(new FanOutRoutedMessage(new int[] {i}, "Hello", "World", fanOut));
+                }
+
+                assertTrue(poll(o -> counts.stream().allMatch(c -> c.get() == numMessages)));
+                assertEquals(0, mismatches.get());
+                assertEquals(numMessages, sf.getNumSerializations());
+            }
+        }
+    }
+
+    /**
+     * One of the destinations of each fan-out fails to send. The shared serialized buffer still has to go back to
+     * the pool once the rest have been written. A counter attached to each fan-out is closed at the same time as
+     * the buffer.
+     */
+    @Test
+    public void testFanOutReleasedWithFailingDestination() throws Exception {
+        final int numMessages = 100;
+        final int numGood = 2;
+        try(final ServiceTracker tr = new ServiceTracker();) {
+            final ThreadingModel tm = tr
+                .track(new DefaultThreadingModel(TcpTransportTest.class.getSimpleName() + ".testFanOutReleasedWithFailingDestination"));
+            final Infrastructure infra = tr.track(new TestInfrastructure(tm));
+
+            final AtomicLong received = new AtomicLong();
+            final List<NioAddress> addrs = new ArrayList<>();
+            for(int i = 0; i < numGood + 1; i++) {
+                final NioReceiver<RoutedMessage> r = tr.track(new NioReceiver<RoutedMessage>(new JsonSerializer()))
+                    .numHandlers(1)
+                    .useLocalHost(true);
+                addrs.add(r.getAddress(infra));
+                r.start((Listener<RoutedMessage>)msg -> {
+                    received.incrementAndGet();
+                    return true;
+                }, infra);
+            }
+
+            try(final NioSenderFactory sf = new NioSenderFactory();) {
+                sf.start(new TestInfrastructure(null, null));
+                final List<Sender> senders = addrs.stream().map(a -> sf.getSender(a)).collect(Collectors.toList());
+                // the last destination is gone.
+                final Sender failing = senders.get(numGood);
+                failing.stop();
+
+                final AtomicLong returned = new AtomicLong();
+                final Object countKey = new Object();
+                for(int m = 0; m < numMessages; m++) {
+                    final FanOut fanOut = new FanOut(senders.size());
+                    fanOut.attachment(countKey, () -> (AutoCloseable)() -> returned.incrementAndGet());
+                    for(int i = 0; i < senders.size(); i++) {
+                        final Sender sender = senders.get(i);
+                        final int container = i;
+                        if(sender == failing)
+                            assertThrows(MessageTransportException.class,
+                                () -> FanOutRoutedMessage.send(sender, new int[] {container}, "Hello", "World", fanOut));
+                        else
+                            FanOutRoutedMessage.send(sender, new int[] {container}, "Hello", "World", fanOut);
+                    }
+                }
+
+                assertTrue(poll(o -> received.get() == numMessages * numGood));
+                assertTrue(poll(o -> returned.get() == numMessages));
+            }
+        }
+    }
+
+    /**
+     * Sends large messages over a single connection and then over several striped connections and checks that
+     * they all arrive and that messages with the same key arrive in order when striped.
+     */
+    @Test
+    public void testStripedConnections() throws Exception {
+        final String padding = TestWordCount.readBible().substring(0, 16 * 1024);
+        runStriped("testStripedConnections", 1, 200, padding);
+        runStriped("testStripedConnections", 4, 200, padding);
+    }
+
+    private void runStriped(final String testName, final int numConnections, final int numMessages, final String padding) throws Exception {
+        final int numKeys = 16;
+        try(final ServiceTracker tr = new ServiceTracker();) {
+            final NioReceiver<RoutedMessage> r = tr.track(new NioReceiver<RoutedMessage>(new JsonSerializer()))
+                .numHandlers(4)
+                .useLocalHost(true);
+            r.maxMessageSize(1024 * 1024 * 1024);
+
+            final ThreadingModel tm = tr.track(new DefaultThreadingModel(TcpTransportTest.class.getSimpleName() + "." + testName));
+            final Infrastructure infra = tr.track(new TestInfrastructure(tm));
+            final NioAddress addr = r.getAddress(infra);
+
+            final AtomicLong msgCount = new AtomicLong();
+            final AtomicLong outOfOrder = new AtomicLong();
+            final Map<Object, Long> lastSeqByKey = new ConcurrentHashMap<>();
+            r.start((Listener<RoutedMessage>)msg -> {
+                final String str = (String)msg.message;
+                final long seq = Long.parseLong(str.substring(0, str.indexOf(':')));
+                final Long prev = lastSeqByKey.put(msg.key, seq);
+                if(prev != null && prev.longValue() >= seq)
+                    outOfOrder.incrementAndGet();
+                msgCount.incrementAndGet();
+                return true;
+            }, infra);
+
+            try(final NioSenderFactory sf = new NioSenderFactory();) {
+                sf.start(new TestInfrastructure(null, null) {
+                    @Override
+                    public Map<String, String> getConfiguration() {
+                        final Map<String, String> ret = new HashMap<>();
+                        ret.put(sf.getClass().getPackage().getName() + "." + NioSenderFactory.CONFIG_KEY_SENDER_CONNECTIONS_PER_DESTINATION,
+                            Integer.toString(numConnections));
+                        ret.put(sf.getClass().getPackage().getName() + "." + NioSenderFactory.CONFIG_KEY_SENDER_THREADS, "4");
+                        return ret;
+                    }
+                });
+                final Sender sender = sf.getSender(addr);
+
+                for(int i = 0; i < numMessages; i++)
+                    sender.send(new RoutedMessage(new int[] {0}, "key-" + (i % numKeys), i + ":" + padding));
+
+                assertTrue(poll(o -> msgCount.get() == numMessages));
+                assertEquals(0, outOfOrder.get());
+            }
+        }
+    }
+
+    /**
+     * Three connections on two readers where the two busy connections start out on the same reader. One of them
+     * should be moved to the other reader without any messages being lost or reordered.
+     */
+    @Test
+    public void testReaderRebalancing() throws Exception {
+        final String padding = TestWordCount.readBible().substring(0, 64 * 1024);
+        final int numMessages = 2000;
+        final int numKeys = 16;
+        try(final ServiceTracker tr = new ServiceTracker();) {
+            final NioReceiver<RoutedMessage> r = tr.track(new NioReceiver<RoutedMessage>(new JsonSerializer()))
+                .numHandlers(2)
+                .useLocalHost(true);
+            r.maxMessageSize(1024 * 1024 * 1024);
+
+            final ThreadingModel tm = tr.track(new DefaultThreadingModel(TcpTransportTest.class.getSimpleName() + ".testReaderRebalancing"));
+            final Infrastructure infra = tr.track(new TestInfrastructure(tm) {
+                @Override
+                public Map<String, String> getConfiguration() {
+                    final Map<String, String> ret = new HashMap<>();
+                    ret.put(NioReceiver.class.getPackage().getName() + "." + NioReceiver.CONFIG_KEY_RECEIVER_REBALANCE_MILLIS, "50");
+                    return ret;
+                }
+            });
+            final NioAddress addr = r.getAddress(infra);
+
+            final AtomicLong msgCount = new AtomicLong();
+            final AtomicLong outOfOrder = new AtomicLong();
+            final Map<Object, Long> lastSeqByKey = new ConcurrentHashMap<>();
+            r.start((Listener<RoutedMessage>)msg -> {
+                final String str = (String)msg.message;
+                final long seq = Long.parseLong(str.substring(0, str.indexOf(':')));
+                final Long prev = lastSeqByKey.put(msg.key, seq);
+                if(prev != null && prev.longValue() >= seq)
+                    outOfOrder.incrementAndGet();
+                msgCount.incrementAndGet();
+                return true;
+            }, infra);
+
+            assertEquals(2, r.getNumHandlers());
+
+            try(final NioSenderFactory sf1 = new NioSenderFactory();
+                final NioSenderFactory sf2 = new NioSenderFactory();
+                final NioSenderFactory sf3 = new NioSenderFactory();) {
+                final List<Sender> senders = new ArrayList<>();
+                // connect one at a time so the 1st and 3rd land on the same reader and the 2nd on the other. The pause
+                // lets the readers' load be measured as idle before each connection arrives.
+                for(final NioSenderFactory sf: List.of(sf1, sf2, sf3)) {
+                    Thread.sleep(150);
+                    sf.start(new TestInfrastructure(null, null));
+                    final Sender sender = sf.getSender(addr);
+                    final long expected = msgCount.get() + 1;
+                    sender.send(new RoutedMessage(new int[] {0}, "connect-" + senders.size(), "0:"));
+                    assertTrue(poll(o -> msgCount.get() == expected));
+                    senders.add(sender);
+                }
+
+                // only the 1st and 3rd are busy.
+                for(int i = 1; i <= numMessages; i++) {
+                    senders.get(0).send(new RoutedMessage(new int[] {0}, "a-" + (i % numKeys), i + ":" + padding));
+                    senders.get(2).send(new RoutedMessage(new int[] {0}, "b-" + (i % numKeys), i + ":" + padding));
+                }
+
+                assertTrue(poll(o -> msgCount.get() == 3 + (2 * numMessages)));
+                assertEquals(0, outOfOrder.get());
+                assertTrue(r.getNumConnectionsMoved() > 0);
+            }
+        }
+    }
+
+    /**
+     * Small messages over loopback into a {@link NodeReceiver} with and without the batched listener
+     * delivery from the reader threads. Every message should be received and dequeued either way.
+     */
+    @Test
+    public void testBatchedDelivery() throws Exception {
+        final int numMessages = 5000;
+        runDelivery("testBatchedDelivery", false, numMessages);
+        runDelivery("testBatchedDelivery", true, numMessages);
+    }
+
+    private void runDelivery(final String testName, final boolean batched, final int numMessages) throws Exception {
+        try(final ServiceTracker tr = new ServiceTracker();) {
+            final NioReceiver<RoutedMessage> r = tr.track(new NioReceiver<RoutedMessage>(new JsonSerializer()))
+                .numHandlers(1)
+                .useLocalHost(true);
+
+            final ThreadingModel tm = tr.track(new DefaultThreadingModel(TcpTransportTest.class.getSimpleName() + "." + testName, 2, 1000000))
+                .start("nodeid");
+            final Infrastructure infra = tr.track(new TestInfrastructure(tm));
+            final NioAddress addr = r.getAddress(infra);
+
+            // there are no containers so the jobs just deserialize the message.
+            final BasicNodeStatsCollector stats = new BasicNodeStatsCollector();
+            final NodeReceiver nodeReceiver = new NodeReceiver(List.of(), tm, stats);
+            final Listener<RoutedMessage> listener = batched ? nodeReceiver : new Listener<RoutedMessage>() {
+                @Override
+                public boolean onMessage(final RoutedMessage message) {
+                    return nodeReceiver.onMessage(message);
+                }
+
+                @Override
+                public boolean onMessage(final Supplier<RoutedMessage> supplier) {
+                    return nodeReceiver.onMessage(supplier);
+                }
+            };
+            r.start(listener, infra);
+
+            try(final NioSenderFactory sf = new NioSenderFactory();) {
+                sf.start(new TestInfrastructure(null, null));
+                final Sender sender = sf.getSender(addr);
+
+                // about 64 bytes once serialized
+                final RoutedMessage message = new RoutedMessage(new int[0], "k", "0123456789abcdef");
+                for(int i = 0; i < numMessages; i++)
+                    sender.send(message);
+
+                assertTrue(poll(o -> stats.getMessagesDequeuedCount() == numMessages));
+                assertEquals(numMessages, stats.getMessagesReceivedCount());
+            }
+        }
+    }
+
+    /**
+     * Frames written a few bytes at a time, so they're split across reads in every possible way, including a frame
+     * that's bigger than a read chunk.
+     */
+    @Test
+    public void testFramesSplitAcrossReads() throws Exception {
+        final Serializer serializer = new JsonSerializer();
+        final List<String> messages = new ArrayList<>();
+        for(int i = 0; i < 200; i++)
+            messages.add(verboseMessage(1 + (i * 37) % 300));
+        messages.add(verboseMessage(3 * ReadChunk.DEFAULT_SIZE));
+        messages.add("after the big one");
+
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        final DataOutputStream dos = new DataOutputStream(stream);
+        final MessageBufferOutput buf = new MessageBufferOutput(2048);
+        for(final String message: messages) {
+            buf.reset();
+            serializer.serialize(new RoutedMessage(new int[] {0}, "key", message), buf);
+            final int size = buf.getPosition();
+            if(size > Short.MAX_VALUE) {
+                dos.writeShort(NioUtils.INT_SIZE);
+                dos.writeInt(size);
+            } else
+                dos.writeShort(size);
+            dos.write(buf.getBuffer(), 0, size);
+        }
+        dos.flush();
+        final byte[] wire = stream.toByteArray();
+
+        try(final ServiceTracker tr = new ServiceTracker();) {
+            final NioReceiver<RoutedMessage> r = tr.track(new NioReceiver<RoutedMessage>(serializer))
+                .numHandlers(1)
+                .useLocalHost(true);
+            r.maxMessageSize(1024 * 1024);
+
+            final ThreadingModel tm = tr.track(new DefaultThreadingModel(TcpTransportTest.class.getSimpleName() + ".testFramesSplitAcrossReads"));
+            final Infrastructure infra = tr.track(new TestInfrastructure(tm));
+            final NioAddress addr = r.getAddress(infra);
+
+            final List<String> received = Collections.synchronizedList(new ArrayList<>());
+            r.start((Listener<RoutedMessage>)msg -> {
+                received.add((String)msg.message);
+                return true;
+            }, infra);
+
+            try(final Socket socket = new Socket(addr.inetAddress, addr.port);) {
+                socket.setTcpNoDelay(true);
+                final OutputStream os = socket.getOutputStream();
+                // odd sized pieces so the frame boundaries and the size headers land everywhere within a write.
+                int pos = 0;
+                for(int i = 0; pos < wire.length; i++) {
+                    final int len = Math.min(wire.length - pos, 1 + (i * 7) % 13 + (i % 50 == 0 ? 20000 : 0));
+                    os.write(wire, pos, len);
+                    os.flush();
+                    pos += len;
+                    if(i % 100 == 0)
+                        Thread.sleep(1);
+                }
+
+                assertTrue(poll(o -> received.size() == messages.size()));
+                assertEquals(messages, new ArrayList<>(received));
+            }
+        }
+    }
+
+    /**
+     * A timestamp prefix that starts 7 bytes before the end of a read chunk. There's enough there for a frame's size
+     * but not for the timestamp so the rest of it has to be moved somewhere it fits.
+     */
+    @Test
+    public void testTimestampSplitAcrossChunks() throws Exception {
+        final Serializer serializer = new JsonSerializer();
+        final MessageBufferOutput buf = new MessageBufferOutput(2048);
+        serializer.serialize(new RoutedMessage(new int[] {0}, "key", ""), buf);
+        // the first frame, with its 6 byte header, fills all but the last 7 bytes of the chunk.
+        final String first = "x".repeat(ReadChunk.DEFAULT_SIZE - 7 - 6 - buf.getPosition());
+
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        final DataOutputStream dos = new DataOutputStream(stream);
+        buf.reset();
+        serializer.serialize(new RoutedMessage(new int[] {0}, "key", first), buf);
+        dos.writeShort(NioUtils.INT_SIZE);
+        dos.writeInt(buf.getPosition());
+        dos.write(buf.getBuffer(), 0, buf.getPosition());
+        assertEquals(ReadChunk.DEFAULT_SIZE - 7, dos.size());
+
+        dos.writeShort(NioUtils.TIMESTAMP);
+        dos.writeLong(System.currentTimeMillis() * 1000000L);
+        buf.reset();
+        serializer.serialize(new RoutedMessage(new int[] {0}, "key", "after the timestamp"), buf);
+        dos.writeShort(buf.getPosition());
+        dos.write(buf.getBuffer(), 0, buf.getPosition());
+        dos.flush();
+        final byte[] wire = stream.toByteArray();
+
+        try(final ServiceTracker tr = new ServiceTracker();) {
+            final NioReceiver<RoutedMessage> r = tr.track(new NioReceiver<RoutedMessage>(serializer))
+                .numHandlers(1)
+                .useLocalHost(true);
+            r.maxMessageSize(1024 * 1024);
+
+            final ThreadingModel tm = tr.track(new DefaultThreadingModel(TcpTransportTest.class.getSimpleName() + ".testTimestampSplitAcrossChunks"));
+            final Infrastructure infra = tr.track(new TestInfrastructure(tm));
+            final NioAddress addr = r.getAddress(infra);
+
+            final List<String> received = Collections.synchronizedList(new ArrayList<>());
+            r.start((Listener<RoutedMessage>)msg -> {
+                received.add((String)msg.message);
+                return true;
+            }, infra);
+
+            try(final Socket socket = new Socket(addr.inetAddress, addr.port);) {
+                final OutputStream os = socket.getOutputStream();
+                os.write(wire);
+                os.flush();
+
+                assertTrue(poll(o -> received.size() == 2));
+                assertEquals(List.of(first, "after the timestamp"), new ArrayList<>(received));
+            }
+        }
+    }
+
+    /**
+     * Once the messages have been deserialized the chunks they were read into are reused.
+     */
+    @Test
+    public void testReadChunksAreRecycled() throws Exception {
+        final int numMessages = 100000;
+        try(final ServiceTracker tr = new ServiceTracker();) {
+            final NioReceiver<RoutedMessage> r = tr.track(new NioReceiver<RoutedMessage>(new JsonSerializer()))
+                .numHandlers(1)
+                .useLocalHost(true);
+
+            final ThreadingModel tm = tr.track(new DefaultThreadingModel(TcpTransportTest.class.getSimpleName() + ".testReadChunksAreRecycled"));
+            final Infrastructure infra = tr.track(new TestInfrastructure(tm));
+            final NioAddress addr = r.getAddress(infra);
+
+            final AtomicLong msgCount = new AtomicLong();
+            r.start((Listener<RoutedMessage>)msg -> {
+                msgCount.incrementAndGet();
+                return true;
+            }, infra);
+
+            try(final NioSenderFactory sf = new NioSenderFactory();) {
+                sf.start(new TestInfrastructure(null, null));
+                final Sender sender = sf.getSender(addr);
+
+                final long allocatedBefore = ReadChunk.getNumAllocated();
+                final String message = verboseMessage(256);
+                for(int i = 0; i < numMessages; i++)
+                    sender.send(new RoutedMessage(new int[] {0}, "Hello", message));
+
+                assertTrue(poll(o -> msgCount.get() == numMessages));
+
+                // 25MB went through the receiver. Without reuse that's ~400 chunks.
+                final long allocated = ReadChunk.getNumAllocated() - allocatedBefore;
+                LOGGER.debug("{} read chunks allocated for {} messages", allocated, numMessages);
+                assertTrue(allocated <= ReadChunk.MAX_POOL_SIZE, "allocated " + allocated + " read chunks");
+            }
+        }
+    }
+
+    /**
+     * Sends the same messages to a receiver that accepts the class dictionary and one that doesn't and prints the
+     * bytes per message on the wire for each.
+     */
+    @Test
+    public void testClassDictionary() throws Exception {
+        final int numMessages = 1000;
+        final long plain = runClassDictionary("testClassDictionary", false, numMessages);
+        final long dictionary = runClassDictionary("testClassDictionary", true, numMessages);
+        assertTrue(dictionary < plain);
+    }
+
+    /**
+     * @return the number of bytes framed
+     */
+    private long runClassDictionary(final String testName, final boolean receiverAccepts, final int numMessages) throws Exception {
+        try(final ServiceTracker tr = new ServiceTracker();) {
+            final NioReceiver<RoutedMessage> r = tr.track(new NioReceiver<RoutedMessage>(new JsonSerializer()))
+                .acceptClassDictionary(receiverAccepts)
+                .numHandlers(1)
+                .useLocalHost(true);
+
+            final ThreadingModel tm = tr.track(new DefaultThreadingModel(TcpTransportTest.class.getSimpleName() + "." + testName));
+            final Infrastructure infra = tr.track(new TestInfrastructure(tm));
+            final NioAddress addr = r.getAddress(infra);
+            assertEquals(receiverAccepts ? NioUtils.CLASS_DICTIONARY_VERSION : 0, addr.classDictionaryVersion);
+
+            final AtomicLong msgCount = new AtomicLong();
+            final AtomicLong mismatches = new AtomicLong();
+            r.start((Listener<RoutedMessage>)msg -> {
+                final long seq = msgCount.getAndIncrement();
+                if(!("key-" + (seq % 10)).equals(msg.key) || !Long.toString(seq).equals(msg.message) || msg.containers.length != 2
+                    || msg.containers[0] != 0 || msg.containers[1] != 3)
+                    mismatches.incrementAndGet();
+                return true;
+            }, infra);
+
+            try(final NioSenderFactory sf = new NioSenderFactory();) {
+                sf.start(new TestInfrastructure(null, null));
+                final Sender sender = sf.getSender(addr);
+
+                for(int i = 0; i < numMessages; i++)
+                    sender.send(new RoutedMessage(new int[] {0,3}, "key-" + (i % 10), Long.toString(i)));
+
+                assertTrue(poll(o -> msgCount.get() == numMessages));
+                assertEquals(0, mismatches.get());
+                return sf.getNumBytesFramed();
+            }
+        }
+    }
+
+    /**
+     * Frames already serialized when a connection dies are written on the new one. Any classes they refer to
+     * were defined on the old connection so they need to be defined again before those frames arrive.
+     */
+    @Test
+    public void testClassDictionaryAfterReconnectWithFramesQueued() throws Exception {
+        try(final ServiceTracker tr = new ServiceTracker();) {
+            final NioReceiver<RoutedMessage> r = tr.track(new NioReceiver<RoutedMessage>(new JsonSerializer()))
+                .acceptClassDictionary(true)
+                .numHandlers(1)
+                .useLocalHost(true);
+
+            final ThreadingModel tm = tr.track(new DefaultThreadingModel(TcpTransportTest.class.getSimpleName() + ".testClassDictionaryAfterReconnect"));
+            final Infrastructure infra = tr.track(new TestInfrastructure(tm));
+            final NioAddress raddr = r.getAddress(infra);
+
+            final AtomicLong received = new AtomicLong();
+            final AtomicLong failures = new AtomicLong();
+            final AtomicBoolean gotLast = new AtomicBoolean(false);
+            r.start(new Listener<RoutedMessage>() {
+                @Override
+                public boolean onMessage(final RoutedMessage msg) {
+                    received.incrementAndGet();
+                    if("last".equals(msg.message))
+                        gotLast.set(true);
+                    return true;
+                }
+
+                @Override
+                public boolean onMessage(final Supplier<RoutedMessage> supplier) {
+                    final RoutedMessage msg;
+                    try {
+                        msg = supplier.get();
+                    } catch(final RuntimeException rte) {
+                        failures.incrementAndGet();
+                        return true;
+                    }
+                    return onMessage(msg);
+                }
+            }, infra);
+
+            try(final KillableProxy proxy = new KillableProxy(raddr.inetAddress, raddr.port);
+                final NioSenderFactory sf = new NioSenderFactory();) {
+                sf.start(new TestInfrastructure(null, null));
+                final NioAddress addr = new NioAddress(raddr.inetAddress, proxy.port(), raddr.serializerId, raddr.recvBufferSize, raddr.messageSizeLimit,
+                    raddr.acceptsCompressedFrames, raddr.acceptsSharedPayloadFrames, raddr.classDictionaryVersion, raddr.acceptsTimestamps);
+                final Sender sender = sf.getSender(addr);
+
+                sender.send(new RoutedMessage(new int[] {0}, "key", "first"));
+                assertTrue(poll(o -> received.get() == 1));
+
+                // stop passing anything along so the sender backs up with frames it's serialized but can't write.
+                proxy.paused = true;
+                final String big = "x".repeat(2048);
+                final AtomicLong sent = new AtomicLong();
+                final AtomicBoolean stop = new AtomicBoolean(false);
+                final Thread senderThread = new Thread(() -> {
+                    try {
+                        while(!stop.get()) {
+                            sender.send(new RoutedMessage(new int[] {0}, "key", big));
+                            sent.incrementAndGet();
+                        }
+                    } catch(final InterruptedException | MessageTransportException e) {
+                        LOGGER.error("Failed sending", e);
+                    }
+                }, "testClassDictionaryAfterReconnect-sender");
+                senderThread.start();
+
+                try {
+                    assertTrue(poll(o -> {
+                        final long before = sent.get();
+                        dontInterrupt(() -> Thread.sleep(500));
+                        return before > 0 && sent.get() == before;
+                    }));
+                } finally {
+                    stop.set(true);
+                    proxy.kill();
+                }
+
+                assertTrue(poll(senderThread, t -> {
+                    dontInterrupt(() -> t.join(10000));
+                    return !t.isAlive();
+                }));
+
+                sender.send(new RoutedMessage(new int[] {0}, "key", "last"));
+                assertTrue(poll(o -> gotLast.get()));
+                assertEquals(0, failures.get());
+            }
+        }
+    }
+
+    /**
+     * Passes whatever it reads from each connection made to it on to the target until it's paused or the
+     * connection is killed.
+     */
+    private static class KillableProxy implements AutoCloseable {
+        private final ServerSocket server;
+        private final InetAddress target;
+        private final int targetPort;
+        private final List<Socket> open = Collections.synchronizedList(new ArrayList<>());
+        volatile boolean paused = false;
+
+        KillableProxy(final InetAddress target, final int targetPort) throws IOException {
+            this.target = target;
+            this.targetPort = targetPort;
+            server = new ServerSocket(0, 50, target);
+            final Thread acceptor = new Thread(this::accept, "KillableProxy-acceptor");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        int port() {
+            return server.getLocalPort();
+        }
+
+        private void accept() {
+            try {
+                while(true) {
+                    final Socket from = server.accept();
+                    final Socket to = new Socket(target, targetPort);
+                    open.add(from);
+                    open.add(to);
+                    final Thread pump = new Thread(() -> pump(from, to), "KillableProxy-pump");
+                    pump.setDaemon(true);
+                    pump.start();
+                }
+            } catch(final IOException ioe) {
+                // closed
+            }
+        }
+
+        private void pump(final Socket from, final Socket to) {
+            final byte[] buf = new byte[8192];
+            try(final InputStream in = from.getInputStream(); final OutputStream out = to.getOutputStream();) {
+                while(true) {
+                    while(paused)
+                        Thread.sleep(1);
+                    final int numBytes = in.read(buf);
+                    if(numBytes < 0)
+                        return;
+                    out.write(buf, 0, numBytes);
+                }
+            } catch(final IOException | InterruptedException e) {
+                // killed
+            }
+        }
+
+        /**
+         * Reset every connection made so far, throwing away anything the proxy hasn't passed on, and start passing along again.
+         */
+        void kill() throws IOException {
+            synchronized(open) {
+                for(final Socket s: open) {
+                    if(!s.isClosed()) {
+                        s.setSoLinger(true, 0);
+                        s.close();
+                    }
+                }
+                open.clear();
+            }
+            paused = false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+            kill();
+        }
+    }
+
+    /**
+     * A {@link Clock} that starts where it's told and moves forward by a fixed step every time it's read.
+     */
+    private static class ControllableClock extends Clock {
+        private final AtomicLong nanos;
+        private final long stepNanos;
+
+        ControllableClock(final long startNanos, final long stepNanos) {
+            this.nanos = new AtomicLong(startNanos);
+            this.stepNanos = stepNanos;
+        }
+
+        @Override
+        public Instant instant() {
+            final long now = nanos.getAndAdd(stepNanos);
+            return Instant.ofEpochSecond(0, now);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(final ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    @Test
+    public void testTimestamps() throws Exception {
+        final int numMessages = 1000;
+        final long start = TimeUnit.SECONDS.toNanos(1000);
+        final long fiveMillis = TimeUnit.MILLISECONDS.toNanos(5);
+
+        // the receiver's clock is 5 millis ahead of the sender's and neither moves so every message takes exactly 5 millis
+        // to get there and spends no time queued.
+        SimpleMeterRegistry senderRegistry = new SimpleMeterRegistry();
+        SimpleMeterRegistry receiverRegistry = new SimpleMeterRegistry();
+        runTimestamps("testTimestamps", true, numMessages, new ControllableClock(start, 0), new ControllableClock(start + fiveMillis, 0),
+            senderRegistry, receiverRegistry);
+
+        final Collection<Timer> transit = receiverRegistry.find(MicrometerNodeStatsCollector.MESSAGE_TRANSIT).timers();
+        assertEquals(1, transit.size());
+        final Timer peer = transit.iterator().next();
+        assertEquals(numMessages, peer.count());
+        assertEquals(numMessages * (double)fiveMillis, peer.totalTime(TimeUnit.NANOSECONDS), 0.1);
+
+        Timer queued = senderRegistry.find(MicrometerNodeStatsCollector.MESSAGE_SEND_QUEUE).timer();
+        assertEquals(numMessages, queued.count());
+        assertEquals(0.0, queued.totalTime(TimeUnit.NANOSECONDS), 0.1);
+
+        // the sender's clock moves forward a milli every time it's read. It's read when a message is sent, when it's
+        // timestamped and after it's written so every message is queued for at least 2 millis.
+        senderRegistry = new SimpleMeterRegistry();
+        receiverRegistry = new SimpleMeterRegistry();
+        runTimestamps("testTimestamps", true, numMessages, new ControllableClock(start, TimeUnit.MILLISECONDS.toNanos(1)),
+            new ControllableClock(start, 0), senderRegistry, receiverRegistry);
+
+        queued = senderRegistry.find(MicrometerNodeStatsCollector.MESSAGE_SEND_QUEUE).timer();
+        assertEquals(numMessages, queued.count());
+        assertTrue(queued.totalTime(TimeUnit.NANOSECONDS) >= numMessages * (double)TimeUnit.MILLISECONDS.toNanos(2));
+
+        // a receiver that doesn't accept timestamps doesn't get them and nothing's timed.
+        senderRegistry = new SimpleMeterRegistry();
+        receiverRegistry = new SimpleMeterRegistry();
+        runTimestamps("testTimestamps", false, numMessages, new ControllableClock(start, 0), new ControllableClock(start + fiveMillis, 0),
+            senderRegistry, receiverRegistry);
+
+        assertTrue(receiverRegistry.find(MicrometerNodeStatsCollector.MESSAGE_TRANSIT).timers().isEmpty());
+        assertEquals(0, senderRegistry.find(MicrometerNodeStatsCollector.MESSAGE_SEND_QUEUE).timer().count());
+    }
+
+    private void runTimestamps(final String testName, final boolean receiverAccepts, final int numMessages, final Clock senderClock,
+        final Clock receiverClock, final SimpleMeterRegistry senderRegistry, final SimpleMeterRegistry receiverRegistry) throws Exception {
+        try(final ServiceTracker tr = new ServiceTracker();) {
+            final NioReceiver<RoutedMessage> r = tr.track(new NioReceiver<RoutedMessage>(new JsonSerializer()))
+                .acceptTimestamps(receiverAccepts)
+                .clock(receiverClock)
+                .numHandlers(1)
+                .useLocalHost(true);
+
+            final ThreadingModel tm = tr.track(new DefaultThreadingModel(TcpTransportTest.class.getSimpleName() + "." + testName));
+            final NodeStatsCollector receiverStats = new MicrometerNodeStatsCollector(receiverRegistry);
+            final Infrastructure infra = tr.track(new TestInfrastructure(tm) {
+                @Override
+                public NodeStatsCollector getNodeStatsCollector() {
+                    return receiverStats;
+                }
+            });
+            final NioAddress addr = r.getAddress(infra);
+            assertEquals(receiverAccepts, addr.acceptsTimestamps);
+
+            final AtomicLong msgCount = new AtomicLong();
+            r.start((Listener<RoutedMessage>)msg -> {
+                msgCount.incrementAndGet();
+                return true;
+            }, infra);
+
+            try(final NioSenderFactory sf = new NioSenderFactory().clock(senderClock);) {
+                final NodeStatsCollector senderStats = new MicrometerNodeStatsCollector(senderRegistry);
+                sf.start(new TestInfrastructure(null, null) {
+                    @Override
+                    public Map<String, String> getConfiguration() {
+                        final Map<String, String> ret = new HashMap<>();
+                        ret.put(sf.getClass().getPackage().getName() + "." + NioSenderFactory.CONFIG_KEY_SENDER_TIMESTAMPS, "true");
+                        return ret;
+                    }
+
+                    @Override
+                    public NodeStatsCollector getNodeStatsCollector() {
+                        return senderStats;
+                    }
+                });
+                final Sender sender = sf.getSender(addr);
+
+                for(int i = 0; i < numMessages; i++)
+                    sender.send(new RoutedMessage(new int[] {0}, "Hello", Integer.toString(i)));
+
+                assertTrue(poll(o -> msgCount.get() == numMessages));
+                // the queue time is recorded once the write completes which can be just after the message arrives.
+                if(receiverAccepts)
+                    assertTrue(poll(o -> senderRegistry.find(MicrometerNodeStatsCollector.MESSAGE_SEND_QUEUE).timer().count() == numMessages));
+            }
+        }
+    }
 }
@@ -0,0 +1,25 @@
+package net.dempsy.util;
+
+import net.dempsy.NodeManager;
+import net.dempsy.ServiceTracker;
+import net.dempsy.cluster.ClusterInfoSessionFactory;
+import net.dempsy.config.Node;
+import net.dempsy.threading.DefaultThreadingModel;
+
+public class NodeTestUtils {
+
+    /**
+     * Start a {@link NodeManager} for the node with its own {@link DefaultThreadingModel} and a new session from the
+     * factory. Both are tracked so they're stopped when the tracker is closed.
+     */
+    public static NodeManager startNode(final Class<?> testClass, final ServiceTracker tr, final Node node,
+        final ClusterInfoSessionFactory sessionFactory, final String name) throws Exception {
+        final DefaultThreadingModel tm = tr.track(new DefaultThreadingModel(testClass.getSimpleName() + "-" + name));
+        tm.start(name);
+        return tr.track(new NodeManager()
+            .node(node)
+            .collaborator(sessionFactory.createSession())
+            .threadingModel(tm))
+            .start();
+    }
+}